@@ -0,0 +1,70 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.archive.hadoop.cdx.ZipNumBlockIterator;
+import org.archive.hadoop.mapreduce.ZipNumBlockCompressor;
+import org.archive.util.iterator.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ZipNum read path for one block: inflating a gzip member and splitting it
+ * into lines, both all at once and through the line iterator.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockInflateBenchmark {
+	@Param({"3000"})
+	int linesPerBlock;
+
+	byte[] compressed;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		byte[] block = ZipNumWriteBenchmark.join(
+				CDXData.sortedLines(linesPerBlock));
+		ZipNumBlockCompressor compressor =
+			new ZipNumBlockCompressor(Deflater.BEST_COMPRESSION);
+		ByteArrayOutputStream member = new ByteArrayOutputStream();
+		compressor.compress(block, 0, block.length, member);
+		compressor.end();
+		compressed = member.toByteArray();
+	}
+
+	@Benchmark
+	public String[] readLines() throws IOException {
+		return new ZipNumBlockIterator(compressed).readLines();
+	}
+
+	@Benchmark
+	public void iterate(Blackhole bh) throws IOException {
+		CloseableIterator<String> itr =
+			new ZipNumBlockIterator(compressed).iterator();
+		try {
+			while(itr.hasNext()) {
+				bh.consume(itr.next());
+			}
+		} finally {
+			itr.close();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.hadoop.mapreduce.CDXMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SURT canonicalization of legacy CDX lines by {@link CDXMapper#convert},
+ * and of bare URLs by {@link CDXMapper#canonicalizeUrl}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CDXConvertBenchmark {
+	private static final int LINES = 100000;
+
+	String[] lines;
+	String[] urls;
+	int next;
+	CDXMapper mapper;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		lines = CDXData.legacyLines(LINES);
+		urls = new String[lines.length];
+		for(int i = 0; i < lines.length; i++) {
+			String[] parts = lines[i].split(" ");
+			urls[i] = parts.length > 2 ? parts[2] : parts[0];
+		}
+		mapper = new CDXMapper();
+	}
+
+	@Benchmark
+	public Object convert() {
+		String line = lines[next];
+		next = (next + 1) % lines.length;
+		return mapper.convert(line);
+	}
+
+	@Benchmark
+	public String canonicalizeUrl() {
+		String url = urls[next];
+		next = (next + 1) % urls.length;
+		return mapper.canonicalizeUrl(url);
+	}
+}
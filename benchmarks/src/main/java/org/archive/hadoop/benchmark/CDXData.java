@@ -0,0 +1,159 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.archive.hadoop.mapreduce.CDXMapper;
+
+/**
+ * CDX lines for the benchmarks, either synthetic or read from the file
+ * named by the "cdx.sample" system property.
+ * <p>
+ * "Legacy" lines are in the 9 field CDX format read by
+ * {@link CDXMapper#convert(String)}, "sorted" lines are the 11 field lines
+ * CDXMapper produces, in the order they are stored in a ZipNum cluster.
+ */
+public class CDXData {
+	public static final String SAMPLE_PROPERTY = "cdx.sample";
+	private static final long SEED = 0x1a2b3c4dL;
+
+	private static final String[] TLDS = {"com", "org", "net", "de", "co.uk", "fr", "jp"};
+	private static final String[] MIMES = {"text/html", "text/html", "text/html",
+		"image/jpeg", "image/png", "application/pdf", "text/css", "application/javascript"};
+	private static final String[] CODES = {"200", "200", "200", "200", "301", "302", "404"};
+	private static final String DIGEST_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+	/**
+	 * @return count legacy CDX lines, from the sample file if one is
+	 * configured (repeated if it is short), otherwise synthetic
+	 * @throws IOException
+	 */
+	public static String[] legacyLines(int count) throws IOException {
+		String sample = System.getProperty(SAMPLE_PROPERTY);
+		if(sample != null) {
+			return sampleLines(sample, count);
+		}
+		return syntheticLines(count);
+	}
+
+	/**
+	 * @return converted CDX lines, sorted, as stored in a cluster
+	 * @throws IOException
+	 */
+	public static String[] sortedLines(int count) throws IOException {
+		String[] legacy = legacyLines(count);
+		CDXMapper mapper = new CDXMapper();
+		ArrayList<String> lines = new ArrayList<String>(count);
+		for(String line : legacy) {
+			String converted = mapper.convertLine(line);
+			if(converted != null) {
+				lines.add(converted);
+			}
+		}
+		String[] sorted = lines.toArray(new String[lines.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * @return the summary keys (url key and timestamp) of lines
+	 */
+	public static String[] keys(String[] lines) {
+		String[] keys = new String[lines.length];
+		for(int i = 0; i < lines.length; i++) {
+			String line = lines[i];
+			int space = line.indexOf(' ');
+			if(space >= 0) {
+				space = line.indexOf(' ', space + 1);
+			}
+			keys[i] = space >= 0 ? line.substring(0, space) : line;
+		}
+		return keys;
+	}
+
+	private static String[] sampleLines(String path, int count)
+	throws IOException {
+		List<String> lines = new ArrayList<String>(count);
+		BufferedReader br = new BufferedReader(
+				new InputStreamReader(new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while(lines.size() < count && (line = br.readLine()) != null) {
+				if(!line.startsWith(" CDX ")) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			br.close();
+		}
+		if(lines.isEmpty()) {
+			throw new IOException("No CDX lines in " + path);
+		}
+		String[] result = new String[count];
+		for(int i = 0; i < count; i++) {
+			result[i] = lines.get(i % lines.size());
+		}
+		return result;
+	}
+
+	private static String[] syntheticLines(int count) {
+		Random r = new Random(SEED);
+		int hosts = Math.max(1, count / 50);
+		String[] lines = new String[count];
+		StringBuilder sb = new StringBuilder(256);
+		for(int i = 0; i < count; i++) {
+			sb.setLength(0);
+			int host = r.nextInt(hosts);
+			String tld = TLDS[host % TLDS.length];
+			sb.append("http://");
+			if(r.nextBoolean()) {
+				sb.append("www.");
+			}
+			sb.append("host").append(host).append('.').append(tld);
+			int depth = r.nextInt(5);
+			for(int d = 0; d < depth; d++) {
+				sb.append('/').append(Integer.toString(r.nextInt(100000), 36));
+			}
+			sb.append('/');
+			if(r.nextInt(4) == 0) {
+				sb.append("page?id=").append(r.nextInt(1000000))
+					.append("&sessionid=").append(Long.toHexString(r.nextLong()));
+			}
+			String url = sb.toString();
+			String key = url.substring(7);
+
+			sb.setLength(0);
+			sb.append(key).append(' ');
+			sb.append(2000 + r.nextInt(14));
+			appendTwoDigits(sb, 1 + r.nextInt(12));
+			appendTwoDigits(sb, 1 + r.nextInt(28));
+			appendTwoDigits(sb, r.nextInt(24));
+			appendTwoDigits(sb, r.nextInt(60));
+			appendTwoDigits(sb, r.nextInt(60));
+			sb.append(' ').append(url);
+			sb.append(' ').append(MIMES[r.nextInt(MIMES.length)]);
+			sb.append(' ').append(CODES[r.nextInt(CODES.length)]);
+			sb.append(' ');
+			for(int d = 0; d < 32; d++) {
+				sb.append(DIGEST_CHARS.charAt(r.nextInt(DIGEST_CHARS.length())));
+			}
+			sb.append(" - ").append(r.nextInt(1000000000));
+			sb.append(" IA-").append(r.nextInt(100000)).append(".warc.gz");
+			lines[i] = sb.toString();
+		}
+		return lines;
+	}
+
+	private static void appendTwoDigits(StringBuilder sb, int v) {
+		if(v < 10) {
+			sb.append('0');
+		}
+		sb.append(v);
+	}
+}
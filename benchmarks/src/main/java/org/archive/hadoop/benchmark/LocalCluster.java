@@ -0,0 +1,66 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.archive.hadoop.mapreduce.ZipNumAllShardRecordWriter;
+
+/**
+ * A single shard ZipNum cluster written to a local temp directory, for
+ * benchmarks which read through CDXCluster.
+ */
+public class LocalCluster {
+	public static final String SHARD = "part-a-00000";
+
+	private File dir;
+
+	/**
+	 * Write sorted lines as a cluster, in blocks of linesPerBlock lines.
+	 * @throws IOException
+	 */
+	public LocalCluster(String[] lines, int linesPerBlock)
+	throws IOException, InterruptedException {
+		dir = File.createTempFile("zipnum-bench", "");
+		if(!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Unable to create " + dir);
+		}
+		DataOutputStream main = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(dir, SHARD + ".gz"))));
+		DataOutputStream summary = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(dir, "ALL.summary"))));
+		ZipNumAllShardRecordWriter writer =
+			new ZipNumAllShardRecordWriter(linesPerBlock, main, summary, SHARD);
+		Text empty = new Text();
+		Text line = new Text();
+		for(String l : lines) {
+			line.set(l);
+			writer.write(line, empty);
+		}
+		writer.close(null);
+	}
+
+	/**
+	 * @return the cluster directory, as a URI string suitable for a Path
+	 */
+	public String getPath() {
+		return dir.toURI().toString();
+	}
+
+	public File getSummaryFile() {
+		return new File(dir, "ALL.summary");
+	}
+
+	public void delete() {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+}
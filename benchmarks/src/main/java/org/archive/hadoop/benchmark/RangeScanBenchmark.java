@@ -0,0 +1,97 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.cdx.CDXCluster;
+import org.archive.util.iterator.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Range scans through {@link CDXCluster#getRange(String, String)} over a
+ * local single shard cluster: summary lookup, block loading, inflating and
+ * iterating, with and without read-ahead and the in-memory summary.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RangeScanBenchmark {
+	private static final int LINES = 500000;
+	private static final int LINES_PER_BLOCK = 3000;
+
+	@Param({"100", "20000"})
+	int scanLines;
+
+	@Param({"0", "4"})
+	int prefetchDepth;
+
+	@Param({"false", "true"})
+	boolean inMemorySummary;
+
+	LocalCluster local;
+	CDXCluster cluster;
+	String[] starts;
+	int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		String[] lines = CDXData.sortedLines(LINES);
+		local = new LocalCluster(lines, LINES_PER_BLOCK);
+
+		Configuration conf = new Configuration();
+		conf.setInt(CDXCluster.PREFETCH_DEPTH_CONFIGURATION, prefetchDepth);
+		conf.setBoolean(CDXCluster.SUMMARY_IN_MEMORY_CONFIGURATION, inMemorySummary);
+		cluster = new CDXCluster(conf, new Path(local.getPath()));
+
+		// start keys leaving room for scanLines lines:
+		String[] keys = CDXData.keys(lines);
+		Random r = new Random(0);
+		starts = new String[1024];
+		int max = Math.max(1, keys.length - scanLines);
+		for(int i = 0; i < starts.length; i++) {
+			starts[i] = keys[r.nextInt(max)];
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cluster.close();
+		local.delete();
+	}
+
+	@Benchmark
+	public int scan(Blackhole bh) throws IOException {
+		String start = starts[next];
+		next = (next + 1) % starts.length;
+		CloseableIterator<String> itr = cluster.getRange(start, "~");
+		int count = 0;
+		try {
+			while(count < scanLines && itr.hasNext()) {
+				bh.consume(itr.next());
+				count++;
+			}
+		} finally {
+			itr.close();
+		}
+		return count;
+	}
+}
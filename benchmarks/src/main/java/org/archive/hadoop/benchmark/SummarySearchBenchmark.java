@@ -0,0 +1,107 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.cdx.SummaryIndex;
+import org.archive.util.binsearch.SortedTextFile;
+import org.archive.util.binsearch.impl.HDFSSeekableLineReaderFactory;
+import org.archive.util.iterator.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the first block of a range in an ALL.summary, with the in-memory
+ * {@link SummaryIndex} and with the binary search over the summary file
+ * that CDXCluster uses otherwise.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SummarySearchBenchmark {
+	private static final int QUERIES = 4096;
+
+	@Param({"10000", "100000"})
+	int blocks;
+
+	File summaryFile;
+	SummaryIndex index;
+	SortedTextFile summary;
+	String[] queries;
+	int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		String[] keys = CDXData.keys(CDXData.sortedLines(blocks));
+		summaryFile = File.createTempFile("ALL", ".summary");
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(summaryFile), "UTF-8"));
+		long offset = 0;
+		for(String key : keys) {
+			pw.print(key + "\t" + LocalCluster.SHARD + "\t" + offset + "\t" + 40000 + "\n");
+			offset += 40000;
+		}
+		pw.close();
+
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		Path path = new Path(summaryFile.toURI().toString());
+		index = SummaryIndex.load(fs, path);
+		summary = new SortedTextFile(new HDFSSeekableLineReaderFactory(fs, path));
+
+		// query keys which fall between the block keys:
+		Random r = new Random(0);
+		queries = new String[QUERIES];
+		for(int i = 0; i < QUERIES; i++) {
+			queries[i] = keys[r.nextInt(keys.length)] + "1";
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		summaryFile.delete();
+	}
+
+	private String nextQuery() {
+		String query = queries[next];
+		next = (next + 1) % queries.length;
+		return query;
+	}
+
+	@Benchmark
+	public int summaryIndex() {
+		return index.findStart(nextQuery());
+	}
+
+	@Benchmark
+	public String sortedTextFile() throws IOException {
+		CloseableIterator<String> itr =
+			summary.getRecordIterator(nextQuery(), true);
+		try {
+			return itr.hasNext() ? itr.next() : null;
+		} finally {
+			itr.close();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.archive.hadoop.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.archive.hadoop.mapreduce.ZipNumAllShardRecordWriter;
+import org.archive.hadoop.mapreduce.ZipNumBlockCompressor;
+import org.archive.hadoop.mapreduce.ZipNumRecordWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ZipNum write path: compressing a whole block into a gzip member, and
+ * writing single records through the two ZipNum RecordWriters. Run with
+ * "-prof gc" to see allocations per record.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ZipNumWriteBenchmark {
+	private static final int RECORDS = 100000;
+
+	@State(Scope.Thread)
+	public static class BlockState {
+		@Param({"3000"})
+		int linesPerBlock;
+
+		@Param({"6", "9"})
+		int level;
+
+		byte[] block;
+		ZipNumBlockCompressor compressor;
+		ByteArrayOutputStream member;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			block = join(CDXData.sortedLines(linesPerBlock));
+			compressor = new ZipNumBlockCompressor(level);
+			member = new ByteArrayOutputStream(block.length);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			compressor.end();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ShardWriterState {
+		@Param({"1", "4"})
+		int workers;
+
+		Text[] lines;
+		Text empty = new Text();
+		int next;
+		ZipNumAllShardRecordWriter writer;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			lines = toText(CDXData.sortedLines(RECORDS));
+			writer = new ZipNumAllShardRecordWriter(3000,
+					new DataOutputStream(new NullOutputStream()),
+					new DataOutputStream(new NullOutputStream()), "part-a-00000",
+					ZipNumAllShardRecordWriter.DEFAULT_COMPRESSION_LEVEL, workers);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException, InterruptedException {
+			writer.close(null);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class CodecWriterState {
+		Text[] lines;
+		Text empty = new Text();
+		int next;
+		ZipNumRecordWriter writer;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			lines = toText(CDXData.sortedLines(RECORDS));
+			CompressionCodec codec =
+				ReflectionUtils.newInstance(GzipCodec.class, new Configuration());
+			writer = new ZipNumRecordWriter(codec,
+					new FSDataOutputStream(new NullOutputStream(), null),
+					new FSDataOutputStream(new NullOutputStream(), null),
+					"part-a-00000", 3000);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			writer.close(null);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int compressBlock(BlockState s) throws IOException {
+		s.member.reset();
+		return s.compressor.compress(s.block, 0, s.block.length, s.member);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void writeShardRecord(ShardWriterState s)
+	throws IOException, InterruptedException {
+		Text line = s.lines[s.next];
+		s.next = (s.next + 1) % s.lines.length;
+		s.writer.write(line, s.empty);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void writeCodecRecord(CodecWriterState s) throws IOException {
+		Text line = s.lines[s.next];
+		s.next = (s.next + 1) % s.lines.length;
+		s.writer.write(line, s.empty);
+	}
+
+	static byte[] join(String[] lines) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for(String line : lines) {
+			baos.write(line.getBytes("UTF-8"));
+			baos.write('\n');
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Whole CDX lines, written as keys with an empty value.
+	 */
+	static Text[] toText(String[] lines) {
+		Text[] text = new Text[lines.length];
+		for(int i = 0; i < lines.length; i++) {
+			text[i] = new Text(lines[i]);
+		}
+		return text;
+	}
+
+	static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
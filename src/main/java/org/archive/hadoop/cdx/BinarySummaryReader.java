@@ -0,0 +1,213 @@
+package org.archive.hadoop.cdx;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Reads summaries written by {@link BinarySummaryWriter}, one record at a
+ * time. The key buffer is reused between records.
+ * <p>
+ * The record count and CRC32 in the trailer are verified when the last
+ * record has been read, an IOException is thrown if they do not match.
+ */
+public class BinarySummaryReader {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	private InputStream in;
+	private CRC32 crc;
+	private byte[] one;
+	private String[] shards;
+	private long count;
+	private boolean done;
+
+	private byte[] key;
+	private int keyLength;
+	private int shardId;
+	private long offset;
+	private long length;
+
+	public BinarySummaryReader(InputStream in) throws IOException {
+		this.in = new BufferedInputStream(in, 64 * 1024);
+		crc = new CRC32();
+		one = new byte[1];
+		key = new byte[256];
+		count = 0;
+		done = false;
+		byte[] magic = new byte[BinarySummaryWriter.MAGIC.length];
+		readFully(magic, 0, magic.length);
+		for(int i = 0; i < magic.length; i++) {
+			if(magic[i] != BinarySummaryWriter.MAGIC[i]) {
+				throw new IOException("Not a binary summary");
+			}
+		}
+		int version = readByte();
+		if(version != BinarySummaryWriter.VERSION) {
+			throw new IOException("Unsupported binary summary version " + version);
+		}
+		int numShards = (int) readVLong();
+		shards = new String[numShards];
+		for(int i = 0; i < numShards; i++) {
+			int len = (int) readVLong();
+			byte[] b = new byte[len];
+			readFully(b, 0, len);
+			shards[i] = new String(b, UTF8);
+		}
+	}
+
+	/**
+	 * Convenience constructor for reading a (possibly memory mapped) buffer.
+	 */
+	public BinarySummaryReader(ByteBuffer buffer) throws IOException {
+		this(new ByteBufferInputStream(buffer));
+	}
+
+	/**
+	 * Advance to the next record.
+	 * @return false when there are no more records
+	 * @throws IOException if the summary is truncated or corrupt
+	 */
+	public boolean next() throws IOException {
+		if(done) {
+			return false;
+		}
+		long marker = readVLong();
+		if(marker == 0) {
+			finish();
+			return false;
+		}
+		keyLength = (int) (marker - 1);
+		if(key.length < keyLength) {
+			key = new byte[Math.max(keyLength, key.length * 2)];
+		}
+		readFully(key, 0, keyLength);
+		shardId = (int) readVLong();
+		if(shardId >= shards.length) {
+			throw new IOException("Bad shard id " + shardId + " in record " + count);
+		}
+		offset = readVLong();
+		length = readVLong();
+		count++;
+		return true;
+	}
+
+	private void finish() throws IOException {
+		done = true;
+		long expectedCount = readVLong();
+		long expectedCrc = crc.getValue();
+		long actualCrc = 0;
+		for(int i = 0; i < 4; i++) {
+			int b = in.read();
+			if(b == -1) {
+				throw new EOFException("Truncated binary summary trailer");
+			}
+			actualCrc = (actualCrc << 8) | b;
+		}
+		if(expectedCount != count) {
+			throw new IOException(String.format(
+					"Binary summary record count mismatch: header(%d) read(%d)",
+					expectedCount, count));
+		}
+		if(expectedCrc != actualCrc) {
+			throw new IOException("Binary summary checksum mismatch");
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	public String[] getShards() {
+		return shards;
+	}
+	/**
+	 * @return the current key bytes, valid up to {@link #getKeyLength()} and
+	 * only until the next call to {@link #next()}
+	 */
+	public byte[] getKey() {
+		return key;
+	}
+	public int getKeyLength() {
+		return keyLength;
+	}
+	public int getShardId() {
+		return shardId;
+	}
+	public String getShard() {
+		return shards[shardId];
+	}
+	public long getOffset() {
+		return offset;
+	}
+	public long getLength() {
+		return length;
+	}
+	/**
+	 * @return the number of records read so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if(b == -1) {
+			throw new EOFException("Truncated binary summary");
+		}
+		one[0] = (byte) b;
+		crc.update(one, 0, 1);
+		return b;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while(total < len) {
+			int amt = in.read(b, off + total, len - total);
+			if(amt == -1) {
+				throw new EOFException("Truncated binary summary");
+			}
+			total += amt;
+		}
+		crc.update(b, off, len);
+	}
+
+	private long readVLong() throws IOException {
+		long v = 0;
+		int shift = 0;
+		while(true) {
+			int b = readByte();
+			v |= ((long) (b & 0x7f)) << shift;
+			if((b & 0x80) == 0) {
+				return v;
+			}
+			shift += 7;
+			if(shift > 63) {
+				throw new IOException("Malformed varint in binary summary");
+			}
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buf;
+		public ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(!buf.hasRemaining()) {
+				return -1;
+			}
+			int amt = Math.min(len, buf.remaining());
+			buf.get(b, off, amt);
+			return amt;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.archive.hadoop.cdx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the binary form of a ZipNum summary, a sidecar to the text
+ * summary which can be read back without any text parsing.
+ * <p>
+ * Layout, with all integers as unsigned LEB128 varints:
+ * <pre>
+ *   "ZNSB" VERSION(1 byte) SHARD_COUNT (NAME_LENGTH NAME_BYTES)*
+ *   (KEY_LENGTH+1 KEY_BYTES SHARD_ID OFFSET LENGTH)*
+ *   0 RECORD_COUNT CRC32(4 bytes, big endian)
+ * </pre>
+ * The CRC32 covers every byte before it.
+ */
+public class BinarySummaryWriter {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	public static final byte[] MAGIC = {'Z', 'N', 'S', 'B'};
+	public static final int VERSION = 1;
+	/**
+	 * Suffix appended to a text summary file name to name its binary sidecar.
+	 */
+	public static final String BINARY_SUFFIX = ".bin";
+
+	private OutputStream out;
+	private CRC32 crc;
+	private byte[] scratch;
+	private int shardCount;
+	private long count;
+
+	/**
+	 * Write a summary covering a single shard.
+	 */
+	public BinarySummaryWriter(OutputStream out, String shard)
+	throws IOException {
+		this(out, new String[] {shard});
+	}
+	/**
+	 * Write a summary covering several shards, records refer to shards by
+	 * their index in shards.
+	 */
+	public BinarySummaryWriter(OutputStream out, String[] shards)
+	throws IOException {
+		this.out = out;
+		crc = new CRC32();
+		scratch = new byte[10];
+		shardCount = shards.length;
+		count = 0;
+		writeBytes(MAGIC, 0, MAGIC.length);
+		scratch[0] = (byte) VERSION;
+		writeBytes(scratch, 0, 1);
+		writeVLong(shards.length);
+		for(String shard : shards) {
+			byte[] b = shard.getBytes(UTF8);
+			writeVLong(b.length);
+			writeBytes(b, 0, b.length);
+		}
+	}
+
+	/**
+	 * Append a record for the single shard of this summary.
+	 */
+	public void write(byte[] key, int keyOffset, int keyLength, long offset,
+			long length) throws IOException {
+		write(0, key, keyOffset, keyLength, offset, length);
+	}
+
+	public void write(int shardId, byte[] key, int keyOffset, int keyLength,
+			long offset, long length) throws IOException {
+		if(shardId < 0 || shardId >= shardCount) {
+			throw new IllegalArgumentException("Bad shard id " + shardId);
+		}
+		writeVLong(keyLength + 1L);
+		writeBytes(key, keyOffset, keyLength);
+		writeVLong(shardId);
+		writeVLong(offset);
+		writeVLong(length);
+		count++;
+	}
+
+	/**
+	 * Write the trailer and close the underlying stream.
+	 */
+	public void close() throws IOException {
+		writeVLong(0);
+		writeVLong(count);
+		long v = crc.getValue();
+		scratch[0] = (byte) (v >>> 24);
+		scratch[1] = (byte) (v >>> 16);
+		scratch[2] = (byte) (v >>> 8);
+		scratch[3] = (byte) v;
+		out.write(scratch, 0, 4);
+		out.flush();
+		out.close();
+	}
+
+	/**
+	 * @return number of records written so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	private void writeBytes(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	private void writeVLong(long v) throws IOException {
+		int i = 0;
+		while((v & ~0x7fL) != 0) {
+			scratch[i++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		scratch[i++] = (byte) v;
+		writeBytes(scratch, 0, i);
+	}
+}
@@ -0,0 +1,22 @@
+package org.archive.hadoop.cdx;
+
+/**
+ * Cache of decompressed ZipNum blocks, keyed by the shard URL and the
+ * offset and length of the compressed block within that shard.
+ * <p>
+ * Implementations must be safe for use by multiple concurrent
+ * {@link ClusterRange} iterators.
+ */
+public interface BlockCache {
+
+	/**
+	 * @return the decompressed lines of the block, or null if the block is
+	 * not cached.
+	 */
+	public String[] get(String url, long start, int length);
+
+	/**
+	 * Store the decompressed lines of a block.
+	 */
+	public void put(String url, long start, int length, String[] lines);
+}
@@ -1,6 +1,11 @@
 package org.archive.hadoop.cdx;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
@@ -15,22 +20,103 @@ public class CDXCluster {
 	private final static Logger LOGGER = 
 		Logger.getLogger(CDXCluster.class.getName());
 
+	/**
+	 * Configuration key for the byte budget of the decompressed block cache.
+	 * If unset or 0, blocks are not cached.
+	 */
+	public final static String BLOCK_CACHE_BYTES_CONFIGURATION =
+		"cdx.cluster.blockcache.bytes";
+	/**
+	 * Configuration key for the maximum number of open streams per shard.
+	 */
+	public final static String STREAMS_PER_SHARD_CONFIGURATION =
+		"cdx.cluster.blockloader.streams-per-shard";
+	/**
+	 * Configuration key for the ms after which unused shard streams are closed.
+	 */
+	public final static String STREAM_IDLE_TIMEOUT_CONFIGURATION =
+		"cdx.cluster.blockloader.idle-timeout";
+
+	/**
+	 * Configuration key for the number of blocks ClusterRange fetches and
+	 * inflates ahead of the consumer. If unset or 0, blocks are read on
+	 * demand.
+	 */
+	public final static String PREFETCH_DEPTH_CONFIGURATION =
+		"cdx.cluster.prefetch.depth";
+	/**
+	 * Configuration key for the maximum number of compressed bytes a single
+	 * ClusterRange may have in flight while prefetching. Prefetched blocks
+	 * are held inflated, as lines, which typically take several times
+	 * their compressed size on the heap.
+	 */
+	public final static String PREFETCH_COMPRESSED_BYTES_CONFIGURATION =
+		"cdx.cluster.prefetch.compressed-bytes";
+	/**
+	 * Configuration key for the number of threads fetching blocks for all
+	 * ClusterRanges of this cluster.
+	 */
+	public final static String PREFETCH_THREADS_CONFIGURATION =
+		"cdx.cluster.prefetch.threads";
+	/**
+	 * Configuration key which, if true, loads ALL.summary into a
+	 * {@link SummaryIndex} so block lookups are done in memory. The binary
+	 * ALL.summary.bin is loaded instead if present.
+	 */
+	public final static String SUMMARY_IN_MEMORY_CONFIGURATION =
+		"cdx.cluster.summary.in-memory";
+	public final static long DEFAULT_PREFETCH_COMPRESSED_BYTES = 1024 * 1024 * 4;
+	public final static int DEFAULT_PREFETCH_THREADS = 4;
+
 	private Path clusterPath;
 	SortedTextFile summary; 
+	private SummaryIndex summaryIndex;
 	private FileSystem fs;
 	private BlockLoader loader;
+	private BlockCache cache;
+	private int prefetchDepth;
+	private long prefetchCompressedBytes;
+	private int prefetchThreads;
+	private ExecutorService prefetchExecutor;
 	public CDXCluster(Configuration conf, Path clusterPath) throws IOException {
 		this.clusterPath = clusterPath;
 		fs = clusterPath.getFileSystem(conf);
-		loader = new HDFSBlockLoader(fs);
+		loader = new PooledHDFSBlockLoader(fs,
+				conf.getInt(STREAMS_PER_SHARD_CONFIGURATION,
+						PooledHDFSBlockLoader.DEFAULT_MAX_STREAMS_PER_SHARD),
+				conf.getLong(STREAM_IDLE_TIMEOUT_CONFIGURATION,
+						PooledHDFSBlockLoader.DEFAULT_IDLE_TIMEOUT));
 		Path summaryPath = new Path(clusterPath,"ALL.summary");
 		HDFSSeekableLineReaderFactory factory = 
 			new HDFSSeekableLineReaderFactory(fs, summaryPath);
 		summary = new SortedTextFile(factory);
+		if(conf.getBoolean(SUMMARY_IN_MEMORY_CONFIGURATION, false)) {
+			Path binaryPath = new Path(clusterPath,
+					"ALL.summary" + BinarySummaryWriter.BINARY_SUFFIX);
+			if(fs.exists(binaryPath)) {
+				summaryIndex = SummaryIndex.loadBinary(fs, binaryPath);
+			} else {
+				summaryIndex = SummaryIndex.load(fs, summaryPath);
+			}
+		}
+		long cacheBytes = conf.getLong(BLOCK_CACHE_BYTES_CONFIGURATION, 0);
+		if(cacheBytes > 0) {
+			cache = new LRUBlockCache(cacheBytes);
+		}
+		prefetchDepth = conf.getInt(PREFETCH_DEPTH_CONFIGURATION, 0);
+		prefetchCompressedBytes = conf.getLong(
+				PREFETCH_COMPRESSED_BYTES_CONFIGURATION,
+				DEFAULT_PREFETCH_COMPRESSED_BYTES);
+		prefetchThreads = conf.getInt(PREFETCH_THREADS_CONFIGURATION,
+				DEFAULT_PREFETCH_THREADS);
 	}
 	public CloseableIterator<String> getRangeBlockIterator(String start, String end) throws IOException {
-		CloseableIterator<String> blocks = 
-			summary.getRecordIterator(start, true);
+		CloseableIterator<String> blocks;
+		if(summaryIndex != null) {
+			blocks = summaryIndex.getRecordIterator(start);
+		} else {
+			blocks = summary.getRecordIterator(start, true);
+		}
 		return new BoundedStringIterator(blocks, end);
 	}
 	public byte[] loadBlock(ZipNumBlock block) throws IOException {
@@ -38,10 +124,139 @@ public class CDXCluster {
 	}
 	public byte[] loadBlock(String name, long start, int length) throws IOException {
 		LOGGER.warning(String.format("Loading(%s,%d,%d",name,start,length));
+		return loader.readBlock(getShardUrl(name), start, length);
+	}
+	/**
+	 * @return an iterator over the decompressed lines of block, served from
+	 * the block cache if one is configured.
+	 * @throws IOException
+	 */
+	public Iterator<String> getBlockLines(ZipNumBlock block) throws IOException {
+		if(cache == null) {
+			return new ZipNumBlockIterator(loadBlock(block)).iterator();
+		}
+		return Arrays.asList(readBlockLines(block)).iterator();
+	}
+	/**
+	 * Load and fully inflate block, using the block cache if one is
+	 * configured.
+	 * @return all lines in block
+	 * @throws IOException
+	 */
+	public String[] readBlockLines(ZipNumBlock block) throws IOException {
+		if(cache == null) {
+			return new ZipNumBlockIterator(loadBlock(block)).readLines();
+		}
+		String url = getShardUrl(block.shard);
+		String[] lines = cache.get(url, block.start, block.length);
+		if(lines == null) {
+			byte[] compressed = loader.readBlock(url, block.start, block.length);
+			lines = new ZipNumBlockIterator(compressed).readLines();
+			cache.put(url, block.start, block.length, lines);
+		}
+		return lines;
+	}
+	private String getShardUrl(String name) {
 		Path shardPath = new Path(clusterPath,name + ".gz");
-		return loader.readBlock(shardPath.toUri().toASCIIString(), start, length);
+		return shardPath.toUri().toASCIIString();
 	}
 	public CloseableIterator<String> getRange(String start, String end) throws IOException {
 		return new ClusterRange(this,start,end);
 	}
+	/**
+	 * @return the in-memory summary, or null if lookups go to ALL.summary
+	 * on HDFS
+	 */
+	public SummaryIndex getSummaryIndex() {
+		return summaryIndex;
+	}
+	/**
+	 * @param summaryIndex in-memory summary to use for block lookups, or
+	 * null to search ALL.summary on HDFS
+	 */
+	public void setSummaryIndex(SummaryIndex summaryIndex) {
+		this.summaryIndex = summaryIndex;
+	}
+	/**
+	 * @return the number of blocks ClusterRanges read ahead, 0 if disabled
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+	/**
+	 * @param prefetchDepth the number of blocks ClusterRanges read ahead of
+	 * the consumer, or 0 to read blocks on demand
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+	/**
+	 * @return the maximum compressed bytes in flight per ClusterRange
+	 */
+	public long getPrefetchCompressedBytes() {
+		return prefetchCompressedBytes;
+	}
+	/**
+	 * @param prefetchCompressedBytes the maximum compressed bytes in flight
+	 * per ClusterRange. At least one block is always fetched ahead.
+	 */
+	public void setPrefetchCompressedBytes(long prefetchCompressedBytes) {
+		this.prefetchCompressedBytes = prefetchCompressedBytes;
+	}
+	/**
+	 * @return the executor shared by all prefetching ClusterRanges,
+	 * created on first use
+	 */
+	synchronized ExecutorService getPrefetchExecutor() {
+		if(prefetchExecutor == null) {
+			prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads,
+					new ThreadFactory() {
+				private int count = 0;
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "cdx-prefetch-" + (count++));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return prefetchExecutor;
+	}
+	/**
+	 * Stop the prefetch threads, if any were started.
+	 */
+	public synchronized void close() {
+		if(prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
+			prefetchExecutor = null;
+		}
+		if(loader instanceof PooledHDFSBlockLoader) {
+			((PooledHDFSBlockLoader) loader).close();
+		}
+	}
+	/**
+	 * @return the BlockLoader used to read compressed blocks from shards
+	 */
+	public BlockLoader getBlockLoader() {
+		return loader;
+	}
+	/**
+	 * @param loader the BlockLoader to use to read compressed blocks
+	 */
+	public void setBlockLoader(BlockLoader loader) {
+		this.loader = loader;
+	}
+	/**
+	 * @return the BlockCache used by this cluster, or null if blocks are not
+	 * cached
+	 */
+	public BlockCache getBlockCache() {
+		return cache;
+	}
+	/**
+	 * @param cache the BlockCache to use for this cluster. Keys include the
+	 * full shard URL, so a single cache may be shared between clusters.
+	 */
+	public void setBlockCache(BlockCache cache) {
+		this.cache = cache;
+	}
 }
@@ -1,7 +1,12 @@
 package org.archive.hadoop.cdx;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.archive.util.iterator.AbstractPeekableIterator;
@@ -20,13 +25,38 @@ public class ClusterRange extends AbstractPeekableIterator<String> {
 	private CDXCluster cluster;
 	private CloseableIterator<String> blocks;
 	private Iterator<String> current;
+
+	// read-ahead state, only used when prefetchDepth > 0:
+	private int prefetchDepth;
+	private long prefetchCompressedBytes;
+	private long pendingCompressedBytes;
+	private LinkedList<PendingBlock> pending;
+
 	public ClusterRange(CDXCluster cluster, String start, String end) throws IOException {
+		this(cluster, start, end, cluster.getPrefetchDepth(),
+				cluster.getPrefetchCompressedBytes());
+	}
+	/**
+	 * @param prefetchDepth number of blocks to fetch and inflate in the
+	 * background ahead of the consumer, 0 to load each block on demand
+	 * @param prefetchCompressedBytes maximum compressed bytes of blocks to
+	 * have in flight. Blocks are counted at their compressed length, though
+	 * they are held inflated once fetched.
+	 */
+	public ClusterRange(CDXCluster cluster, String start, String end,
+			int prefetchDepth, long prefetchCompressedBytes) throws IOException {
 		this.cluster = cluster;
 		this.start = start;
 		this.end = end;
+		this.prefetchDepth = prefetchDepth;
+		this.prefetchCompressedBytes = prefetchCompressedBytes;
 		blocks = cluster.getRangeBlockIterator(start, end);
 		done = false;
 		isFirst = true;
+		if(prefetchDepth > 0) {
+			pending = new LinkedList<PendingBlock>();
+			pendingCompressedBytes = 0;
+		}
 	}
 	@Override
 	public String getNextInner() {
@@ -46,14 +76,11 @@ public class ClusterRange extends AbstractPeekableIterator<String> {
 			}
 			// done with current:
 		}
-		while(blocks.hasNext()) {
-			String nextLine = blocks.next();
-			ZipNumBlock block = new ZipNumBlock(nextLine);
-			byte[] compressed = cluster.loadBlock(block);
-			LOG.fine(String.format("Loaded block:%s (%d)(%d)",
-					block.shard,block.start,block.length));
-			ZipNumBlockIterator zbi = new ZipNumBlockIterator(compressed);
-			Iterator<String> itr = zbi.iterator();
+		while(true) {
+			Iterator<String> itr = nextBlock();
+			if(itr == null) {
+				break;
+			}
 			if(isFirst) {
 				isFirst = false;
 				current = new BoundedStringIterator(new StartBoundedStringIterator(itr,start),end);
@@ -67,9 +94,81 @@ public class ClusterRange extends AbstractPeekableIterator<String> {
 		done = true;
 		return null;
 	}
+
+	private Iterator<String> nextBlock() throws IOException {
+		if(pending == null) {
+			if(!blocks.hasNext()) {
+				return null;
+			}
+			ZipNumBlock block = new ZipNumBlock(blocks.next());
+			Iterator<String> itr = cluster.getBlockLines(block);
+			LOG.fine(String.format("Loaded block:%s (%d)(%d)",
+					block.shard,block.start,block.length));
+			return itr;
+		}
+		fillPrefetch();
+		if(pending.isEmpty()) {
+			return null;
+		}
+		PendingBlock next = pending.removeFirst();
+		pendingCompressedBytes -= next.block.length;
+		String[] lines;
+		try {
+			lines = next.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for block " +
+					next.block.shard + ":" + next.block.start);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+		LOG.fine(String.format("Prefetched block:%s (%d)(%d)",
+				next.block.shard,next.block.start,next.block.length));
+		// keep the pipeline full while the consumer works through this block:
+		fillPrefetch();
+		return Arrays.asList(lines).iterator();
+	}
+
+	private void fillPrefetch() {
+		while(pending.size() < prefetchDepth && blocks.hasNext()) {
+			if(!pending.isEmpty()
+					&& pendingCompressedBytes >= prefetchCompressedBytes) {
+				break;
+			}
+			final ZipNumBlock block = new ZipNumBlock(blocks.next());
+			Future<String[]> future = cluster.getPrefetchExecutor().submit(
+					new Callable<String[]>() {
+				public String[] call() throws Exception {
+					return cluster.readBlockLines(block);
+				}
+			});
+			pending.add(new PendingBlock(block, future));
+			pendingCompressedBytes += block.length;
+		}
+	}
+
 	@Override
 	public void close() throws IOException {
+		if(pending != null) {
+			for(PendingBlock p : pending) {
+				p.future.cancel(true);
+			}
+			pending.clear();
+			pendingCompressedBytes = 0;
+		}
 		blocks.close();
 	}
 
+	private static class PendingBlock {
+		ZipNumBlock block;
+		Future<String[]> future;
+		public PendingBlock(ZipNumBlock block, Future<String[]> future) {
+			this.block = block;
+			this.future = future;
+		}
+	}
 }
@@ -0,0 +1,152 @@
+package org.archive.hadoop.cdx;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * {@link BlockCache} holding decompressed blocks in least-recently-used
+ * order, evicting the oldest blocks once the estimated heap size of all
+ * cached lines exceeds a byte budget.
+ */
+public class LRUBlockCache implements BlockCache {
+	private final static Logger LOGGER =
+		Logger.getLogger(LRUBlockCache.class.getName());
+
+	public static final long DEFAULT_MAX_BYTES = 1024 * 1024 * 256;
+
+	// rough per-object overheads used to estimate the heap cost of a block:
+	private static final int LINE_OVERHEAD = 40;
+	private static final int BLOCK_OVERHEAD = 64;
+
+	private LinkedHashMap<BlockKey, Entry> map;
+	private long maxBytes;
+	private long currentBytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public LRUBlockCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+	public LRUBlockCache(long maxBytes) {
+		if(maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive");
+		}
+		this.maxBytes = maxBytes;
+		map = new LinkedHashMap<BlockKey, Entry>(1024, 0.75f, true);
+		currentBytes = 0;
+	}
+
+	public synchronized String[] get(String url, long start, int length) {
+		Entry e = map.get(new BlockKey(url, start, length));
+		if(e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.lines;
+	}
+
+	public synchronized void put(String url, long start, int length,
+			String[] lines) {
+		long weight = estimateSize(lines);
+		if(weight > maxBytes) {
+			LOGGER.fine(String.format("Not caching oversize block(%s,%d,%d)",
+					url, start, length));
+			return;
+		}
+		Entry old = map.put(new BlockKey(url, start, length),
+				new Entry(lines, weight));
+		if(old != null) {
+			currentBytes -= old.weight;
+		}
+		currentBytes += weight;
+		Iterator<Map.Entry<BlockKey, Entry>> itr = map.entrySet().iterator();
+		while(currentBytes > maxBytes && itr.hasNext()) {
+			Entry eldest = itr.next().getValue();
+			itr.remove();
+			currentBytes -= eldest.weight;
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		currentBytes = 0;
+	}
+
+	static long estimateSize(String[] lines) {
+		long size = BLOCK_OVERHEAD;
+		for(String line : lines) {
+			size += LINE_OVERHEAD + (line.length() * 2);
+		}
+		return size;
+	}
+
+	/**
+	 * @return the maximum estimated size of all cached blocks
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	/**
+	 * @return the current estimated size of all cached blocks
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+	public synchronized int getBlockCount() {
+		return map.size();
+	}
+	public synchronized long getHits() {
+		return hits;
+	}
+	public synchronized long getMisses() {
+		return misses;
+	}
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	public synchronized String toString() {
+		return String.format("LRUBlockCache(blocks=%d,bytes=%d/%d,hits=%d,misses=%d,evictions=%d)",
+				map.size(), currentBytes, maxBytes, hits, misses, evictions);
+	}
+
+	private static class Entry {
+		String[] lines;
+		long weight;
+		public Entry(String[] lines, long weight) {
+			this.lines = lines;
+			this.weight = weight;
+		}
+	}
+
+	private static class BlockKey {
+		String url;
+		long start;
+		int length;
+		public BlockKey(String url, long start, int length) {
+			this.url = url;
+			this.start = start;
+			this.length = length;
+		}
+		@Override
+		public int hashCode() {
+			int h = url.hashCode();
+			h = 31 * h + (int) (start ^ (start >>> 32));
+			return 31 * h + length;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof BlockKey)) {
+				return false;
+			}
+			BlockKey other = (BlockKey) o;
+			return start == other.start && length == other.length
+				&& url.equals(other.url);
+		}
+	}
+}
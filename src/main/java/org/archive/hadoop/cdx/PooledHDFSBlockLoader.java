@@ -0,0 +1,115 @@
+package org.archive.hadoop.cdx;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.util.FSDataInputStreamPool;
+import org.archive.hadoop.util.FSDataInputStreamPool.PooledStream;
+
+/**
+ * Thread safe {@link BlockLoader} which keeps a small pool of open
+ * FSDataInputStreams for each shard, and reads blocks with positional
+ * reads so concurrent readers of the same shard never seek each other's
+ * streams.
+ * <p>
+ * Streams which have not been used for <code>idleTimeout</code> ms are
+ * closed the next time any block is read, or when {@link #evictIdle()} is
+ * called.
+ */
+public class PooledHDFSBlockLoader implements BlockLoader {
+	public static final int DEFAULT_MAX_STREAMS_PER_SHARD =
+		FSDataInputStreamPool.DEFAULT_MAX_STREAMS_PER_PATH;
+	public static final long DEFAULT_IDLE_TIMEOUT =
+		FSDataInputStreamPool.DEFAULT_IDLE_TIMEOUT;
+
+	private FSDataInputStreamPool streams;
+
+	private long reads;
+	private long bytesRead;
+
+	public PooledHDFSBlockLoader(FileSystem fs) {
+		this(fs, DEFAULT_MAX_STREAMS_PER_SHARD, DEFAULT_IDLE_TIMEOUT);
+	}
+	public PooledHDFSBlockLoader(FileSystem fs, int maxStreamsPerShard,
+			long idleTimeout) {
+		if(maxStreamsPerShard < 1) {
+			throw new IllegalArgumentException("maxStreamsPerShard must be >= 1");
+		}
+		streams = new FSDataInputStreamPool(fs, maxStreamsPerShard,
+				idleTimeout);
+	}
+
+	public byte[] readBlock(String url, long start, int length)
+	throws IOException {
+		byte[] buffer = new byte[length];
+		PooledStream stream = streams.borrow(new Path(url));
+		boolean ok = false;
+		try {
+			stream.getStream().readFully(start, buffer, 0, length);
+			ok = true;
+		} finally {
+			streams.release(stream, ok);
+		}
+		synchronized(this) {
+			reads++;
+			bytesRead += length;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Close all pooled streams which have been idle longer than the idle
+	 * timeout.
+	 */
+	public void evictIdle() {
+		streams.evictIdle();
+	}
+
+	/**
+	 * Close all idle streams. Streams in use are closed when released.
+	 */
+	public void close() {
+		streams.close();
+	}
+
+	public synchronized long getReads() {
+		return reads;
+	}
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+	public long getStreamsOpened() {
+		return streams.getStreamsOpened();
+	}
+	public long getStreamsClosed() {
+		return streams.getStreamsClosed();
+	}
+	/**
+	 * @return number of times a reader had to wait for a stream because
+	 * the shard pool was exhausted
+	 */
+	public long getWaits() {
+		return streams.getWaits();
+	}
+	public String toString() {
+		long r;
+		long b;
+		synchronized(this) {
+			r = reads;
+			b = bytesRead;
+		}
+		return String.format("PooledHDFSBlockLoader(shards=%d,reads=%d,bytes=%d,opened=%d,closed=%d,waits=%d)",
+				getOpenStreams().size(), r, b, getStreamsOpened(),
+				getStreamsClosed(), getWaits());
+	}
+
+	/**
+	 * @return a snapshot of the number of open streams per shard. Shards
+	 * without open streams may be left out.
+	 */
+	public Map<String, Integer> getOpenStreams() {
+		return streams.getOpenStreams();
+	}
+}
@@ -1,8 +1,13 @@
 package org.archive.hadoop.cdx;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URI;
@@ -10,6 +15,12 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
@@ -20,6 +31,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.archive.hadoop.mapreduce.ZipNumOutputFormat;
 
 public class SummaryGenerator implements Tool {
 	
@@ -34,12 +46,36 @@ public class SummaryGenerator implements Tool {
 	public static final String TOOL_DESCRIPTION = 
 		"A tool for generating a meta-index summary from a set of shard partition summaries in a CDX HDFS installation";
 	
+	public static final int DEFAULT_THREADS = 8;
+	private static final int PROGRESS_INTERVAL = 100;
+	private static final Charset UTF8 = Charset.forName("utf-8");
+
+	private int threads = DEFAULT_THREADS;
 	private Configuration conf;
 	public  Configuration getConf()                   { return conf;      }
 	public  void          setConf(Configuration conf) { this.conf = conf; }
 
+	/**
+	 * @return summary extension the ZipNum output formats were configured
+	 * with, "-idx" by default
+	 */
+	private String getJobSummaryExt() {
+		if(conf == null) {
+			return ZipNumOutputFormat.DEFAULT_SUMMARY_EXT;
+		}
+		return ZipNumOutputFormat.getSummaryExt(conf);
+	}
+
 	public static void USAGE(int code) {
-		System.err.println("USAGE: " + TOOL_NAME + " HDFS_URL");
+		System.err.println("USAGE: " + TOOL_NAME + " [-binary] [-threads N] HDFS_URL");
+		System.err.println("\tWith -threads, reads N part summaries concurrently (default "
+				+ DEFAULT_THREADS + ")");
+		System.err.println("\tWith -binary, also writes " + ALL_SUMMARY_PREFIX
+				+ SUMMARY_SUFFIX + BinarySummaryWriter.BINARY_SUFFIX);
+		System.err.println("\tPart summaries with a " + BinarySummaryWriter.BINARY_SUFFIX
+				+ " sidecar (PART" + SUMMARY_SUFFIX + BinarySummaryWriter.BINARY_SUFFIX
+				+ " or PART" + ZipNumOutputFormat.DEFAULT_SUMMARY_EXT
+				+ BinarySummaryWriter.BINARY_SUFFIX + ") are read from the sidecar.");
 		System.exit(code);
 	}
 	
@@ -120,6 +156,351 @@ public class SummaryGenerator implements Tool {
 		}
 		pw.flush();
 	}
+	/**
+	 * Write the cluster summary as UTF-8 bytes to out, reading each part's
+	 * binary sidecar summary when one exists instead of parsing its text
+	 * summary.
+	 * <p>
+	 * Up to {@link #getThreads()} part summaries are read and reformatted
+	 * concurrently; results are written strictly in part name order.
+	 * @param binaryOut if non-null, a binary copy of the cluster summary
+	 * is also written here, and closed
+	 */
+	public void createSummary(FileSystem fs, Path clusterPath, OutputStream out,
+			OutputStream binaryOut) throws IOException {
+		HashMap<String, Path> summaries = new HashMap<String, Path>();
+		HashMap<String, Path> binarySummaries = new HashMap<String, Path>();
+		HashMap<String, Path> parts = new HashMap<String, Path>();
+		FileStatus entries[] = fs.listStatus(clusterPath);
+		String binSuffix = SUMMARY_SUFFIX + BinarySummaryWriter.BINARY_SUFFIX;
+		// sidecars as written by the ZipNum output formats, next to "-idx":
+		String jobBinSuffix = getJobSummaryExt() + BinarySummaryWriter.BINARY_SUFFIX;
+		String allName = ALL_SUMMARY_PREFIX + SUMMARY_SUFFIX;
+		for(FileStatus entry : entries) {
+			Path entryPath = entry.getPath();
+			String pathStr = entryPath.toUri().toASCIIString();
+			String name = entryPath.getName();
+			if(entry.isDir()) {
+				LOGGER.info("Ignoring Directory entry " + pathStr);
+			} else if(name.equals(allName) || name.equals(allName
+					+ BinarySummaryWriter.BINARY_SUFFIX)) {
+				// just skip - this is our target..
+			} else if(name.endsWith(SUMMARY_SUFFIX)) {
+				String prefix = name.substring(0,name.length() - SUMMARY_SUFFIX.length());
+				summaries.put(prefix, entryPath);
+			} else if(name.endsWith(binSuffix)) {
+				String prefix = name.substring(0,name.length() - binSuffix.length());
+				binarySummaries.put(prefix, entryPath);
+			} else if(name.endsWith(jobBinSuffix)) {
+				String prefix = name.substring(0,name.length() - jobBinSuffix.length());
+				if(!binarySummaries.containsKey(prefix)) {
+					binarySummaries.put(prefix, entryPath);
+				}
+			} else if(name.endsWith(GZ_SUFFIX)) {
+				String prefix = name.substring(0,name.length() - GZ_SUFFIX.length());
+				parts.put(prefix, entryPath);
+			} else {
+				LOGGER.info("Ignoring entry " + pathStr);
+			}
+		}
+		for(String name : binarySummaries.keySet()) {
+			if(!summaries.containsKey(name)) {
+				summaries.put(name, null);
+			}
+		}
+		// just for sanities sake - lets make sure all summaries have a part:
+		for(String name : summaries.keySet()) {
+			if(!parts.containsKey(name)) {
+				throw new IOException("Missing part for summary:" + name);
+			}
+		}
+		final String sorted[] = summaries.keySet().toArray(new String[0]);
+		Arrays.sort(sorted);
+		BinarySummaryWriter binaryWriter = null;
+		if(binaryOut != null) {
+			binaryWriter = new BinarySummaryWriter(binaryOut, sorted);
+		}
+		final boolean keepRecords = binaryWriter != null;
+		long startMS = System.currentTimeMillis();
+		long lines = 0;
+		long bytes = 0;
+		int nThreads = Math.max(1, Math.min(threads, sorted.length));
+		ExecutorService executor = null;
+		LinkedList<Future<PartSummary>> pending = 
+			new LinkedList<Future<PartSummary>>();
+		int next = 0;
+		try {
+			if(nThreads > 1) {
+				executor = Executors.newFixedThreadPool(nThreads);
+			}
+			for(int shardId = 0; shardId < sorted.length; shardId++) {
+				PartSummary ps;
+				if(executor == null) {
+					String part = sorted[shardId];
+					ps = readPart(fs, part, summaries.get(part),
+							binarySummaries.get(part), keepRecords);
+				} else {
+					// keep a bounded window of parts in flight:
+					while(next < sorted.length && pending.size() < nThreads * 2) {
+						final String part = sorted[next++];
+						final Path textPath = summaries.get(part);
+						final Path binPath = binarySummaries.get(part);
+						final FileSystem pfs = fs;
+						pending.add(executor.submit(new Callable<PartSummary>() {
+							public PartSummary call() throws Exception {
+								return readPart(pfs, part, textPath, binPath,
+										keepRecords);
+							}
+						}));
+					}
+					ps = getPart(pending.removeFirst());
+				}
+				ps.text.writeTo(out);
+				if(binaryWriter != null) {
+					ps.writeRecords(binaryWriter, shardId);
+				}
+				lines += ps.count;
+				bytes += ps.text.size();
+				if(((shardId + 1) % PROGRESS_INTERVAL == 0)
+						|| (shardId + 1 == sorted.length)) {
+					long elapsed = Math.max(1, System.currentTimeMillis() - startMS);
+					LOGGER.info("Merged " + (shardId + 1) + "/" + sorted.length
+							+ " parts, " + lines + " lines, " + bytes + " bytes in "
+							+ elapsed + "ms (" + ((lines * 1000) / elapsed)
+							+ " lines/s)");
+				}
+			}
+		} finally {
+			if(executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		out.flush();
+		if(binaryWriter != null) {
+			binaryWriter.close();
+		}
+	}
+
+	private static PartSummary getPart(Future<PartSummary> future)
+	throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted merging summaries");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Read one part summary and format its ALL.summary lines.
+	 */
+	static PartSummary readPart(FileSystem fs, String part, Path textPath,
+			Path binPath, boolean keepRecords) throws IOException {
+		byte[] partBytes = part.getBytes(UTF8);
+		PartSummary ps = new PartSummary(keepRecords);
+		byte[] scratch = new byte[20];
+		if(binPath != null) {
+			BinarySummaryReader reader =
+				new BinarySummaryReader(fs.open(binPath));
+			try {
+				while(reader.next()) {
+					ps.add(reader.getKey(), 0, reader.getKeyLength(), partBytes,
+							reader.getOffset(), reader.getLength(), scratch);
+				}
+			} finally {
+				reader.close();
+			}
+			return ps;
+		}
+		InputStream in = new BufferedInputStream(fs.open(textPath), 64 * 1024);
+		try {
+			parseTextSummary(in, part, partBytes, ps, scratch);
+		} finally {
+			in.close();
+		}
+		return ps;
+	}
+
+	/**
+	 * Parse part summary lines of the form "OFFSET LENGTH URL" directly
+	 * from bytes. Fields are separated by a single whitespace character,
+	 * anything after the URL is ignored.
+	 */
+	static void parseTextSummary(InputStream in, String part, byte[] partBytes,
+			PartSummary ps, byte[] scratch) throws IOException {
+		byte[] line = new byte[1024];
+		while(true) {
+			int len = 0;
+			int c;
+			while((c = in.read()) != -1 && c != '\n') {
+				if(len == line.length) {
+					byte[] tmp = new byte[len * 2];
+					System.arraycopy(line, 0, tmp, 0, len);
+					line = tmp;
+				}
+				line[len++] = (byte) c;
+			}
+			if(c == -1 && len == 0) {
+				break;
+			}
+			if(len > 0 && line[len - 1] == '\r') {
+				len--;
+			}
+			int pos = 0;
+			long offset = 0;
+			long length = 0;
+			int field = 0;
+			int urlStart = -1;
+			int urlEnd = len;
+			for(field = 0; field < 3; field++) {
+				int start = pos;
+				while(pos < len && !isWhitespace(line[pos])) {
+					pos++;
+				}
+				if(field == 0) {
+					offset = parseDecimal(line, start, pos, part);
+				} else if(field == 1) {
+					length = parseDecimal(line, start, pos, part);
+				} else {
+					urlStart = start;
+					urlEnd = pos;
+				}
+				if(pos == len) {
+					break;
+				}
+				// skip exactly one separator
+				pos++;
+			}
+			if(urlStart == -1 || urlStart == urlEnd) {
+				throw new IOException("Bad line in " + part + ":" +
+						new String(line, 0, len, UTF8));
+			}
+			ps.add(line, urlStart, urlEnd - urlStart, partBytes, offset, length,
+					scratch);
+			if(c == -1) {
+				break;
+			}
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f'
+			|| b == '\r';
+	}
+
+	private static long parseDecimal(byte[] b, int start, int end, String part)
+	throws IOException {
+		if(start == end) {
+			throw new IOException("Bad line in " + part + ": empty number");
+		}
+		long v = 0;
+		for(int i = start; i < end; i++) {
+			int d = b[i] - '0';
+			if(d < 0 || d > 9) {
+				throw new IOException("Bad line in " + part + ": bad number " +
+						new String(b, start, end - start, UTF8));
+			}
+			v = (v * 10) + d;
+		}
+		return v;
+	}
+
+	/**
+	 * Write the decimal digits of non-negative value v without creating a
+	 * String.
+	 */
+	static void writeDecimal(OutputStream out, long v, byte[] scratch)
+	throws IOException {
+		int pos = scratch.length;
+		do {
+			scratch[--pos] = (byte) ('0' + (v % 10));
+			v /= 10;
+		} while(v > 0);
+		out.write(scratch, pos, scratch.length - pos);
+	}
+
+	/**
+	 * Formatted ALL.summary lines for one part, and optionally the parsed
+	 * records for the binary summary.
+	 */
+	static class PartSummary {
+		ByteArrayOutputStream text;
+		ByteArrayOutputStream keys;
+		int[] keyLengths;
+		long[] offsets;
+		long[] lengths;
+		int count;
+		public PartSummary(boolean keepRecords) {
+			text = new ByteArrayOutputStream(64 * 1024);
+			if(keepRecords) {
+				keys = new ByteArrayOutputStream(16 * 1024);
+				keyLengths = new int[256];
+				offsets = new long[256];
+				lengths = new long[256];
+			}
+			count = 0;
+		}
+		void add(byte[] key, int keyOffset, int keyLength, byte[] part,
+				long offset, long length, byte[] scratch) throws IOException {
+			text.write(key, keyOffset, keyLength);
+			text.write('\t');
+			text.write(part, 0, part.length);
+			text.write('\t');
+			writeDecimal(text, offset, scratch);
+			text.write('\t');
+			writeDecimal(text, length, scratch);
+			text.write('\n');
+			if(keys != null) {
+				if(count == keyLengths.length) {
+					int n = count * 2;
+					int[] kl = new int[n];
+					long[] o = new long[n];
+					long[] l = new long[n];
+					System.arraycopy(keyLengths, 0, kl, 0, count);
+					System.arraycopy(offsets, 0, o, 0, count);
+					System.arraycopy(lengths, 0, l, 0, count);
+					keyLengths = kl;
+					offsets = o;
+					lengths = l;
+				}
+				keys.write(key, keyOffset, keyLength);
+				keyLengths[count] = keyLength;
+				offsets[count] = offset;
+				lengths[count] = length;
+			}
+			count++;
+		}
+		void writeRecords(BinarySummaryWriter writer, int shardId)
+		throws IOException {
+			byte[] keyBytes = keys.toByteArray();
+			int pos = 0;
+			for(int i = 0; i < count; i++) {
+				writer.write(shardId, keyBytes, pos, keyLengths[i], offsets[i],
+						lengths[i]);
+				pos += keyLengths[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of part summaries read concurrently
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	/**
+	 * @param threads the number of part summaries to read concurrently
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	public void createSummaryOld(FileSystem fs, Path clusterPath, PrintWriter pw) 
 	throws IOException {
 		Charset UTF8 = Charset.forName("utf-8");
@@ -197,15 +578,32 @@ public class SummaryGenerator implements Tool {
 		if(args.length < 1) {
 			USAGE(1);
 		}
-		if(args.length > 2) {
-			USAGE(1);
-		}
 		
-		String hdfsUrl = args[0];
+		String hdfsUrl = null;
 		boolean isOld = false;
-		if(args.length == 2) {
+		boolean isBinary = false;
+		if(args.length == 2 && !args[0].startsWith("-")) {
 			hdfsUrl = args[1];
 			isOld = true;
+		} else {
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].equals("-binary")) {
+					isBinary = true;
+				} else if(args[i].equals("-threads") && i + 1 < args.length) {
+					try {
+						threads = Integer.parseInt(args[++i]);
+					} catch(NumberFormatException e) {
+						USAGE(1);
+					}
+				} else if(hdfsUrl == null && !args[i].startsWith("-")) {
+					hdfsUrl = args[i];
+				} else {
+					USAGE(1);
+				}
+			}
+		}
+		if(hdfsUrl == null) {
+			USAGE(1);
 		}
 		URI uri = new URI(hdfsUrl);
 		FileSystem fs = FileSystem.get(uri,getConf());
@@ -218,13 +616,21 @@ public class SummaryGenerator implements Tool {
 		
 		Charset UTF8 = Charset.forName("utf-8");
 		FSDataOutputStream os = fs.create(target);
+		if(!isOld) {
+			FSDataOutputStream binaryOs = null;
+			if(isBinary) {
+				Path binaryTarget = new Path(path,ALL_SUMMARY_PREFIX + 
+						SUMMARY_SUFFIX + BinarySummaryWriter.BINARY_SUFFIX);
+				binaryOs = fs.create(binaryTarget);
+			}
+			BufferedOutputStream bos = new BufferedOutputStream(os, 1024 * 1024);
+			createSummary(fs, path, bos, binaryOs);
+			bos.close();
+			return 0;
+		}
 			OutputStreamWriter osw = new OutputStreamWriter(os, UTF8);
 		PrintWriter pw = new PrintWriter(osw);
-		if(isOld) {
-			createSummaryOld(fs, path, pw);
-		} else {
-			createSummary(fs, path, pw);
-		}
+		createSummaryOld(fs, path, pw);
 		osw.flush();
 		osw.close();
 		return 0;
@@ -0,0 +1,445 @@
+package org.archive.hadoop.cdx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.util.iterator.AbstractPeekableIterator;
+import org.archive.util.iterator.CloseableIterator;
+
+/**
+ * Compact in-memory copy of a cluster ALL.summary file, allowing block
+ * lookups by binary search without touching HDFS.
+ * <p>
+ * Keys are stored front-coded in buckets of {@link #BUCKET_SIZE}: the first
+ * key of each bucket is stored whole, the rest as the length of the prefix
+ * shared with the previous key followed by the remaining suffix bytes.
+ * Shard ids, offsets and lengths are kept in parallel primitive buffers.
+ * All buffers are allocated outside the Java heap once loading completes.
+ * <p>
+ * Keys are compared as unsigned UTF-8 bytes.
+ */
+public class SummaryIndex {
+	private final static Logger LOGGER =
+		Logger.getLogger(SummaryIndex.class.getName());
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	public static final int BUCKET_SIZE = 16;
+
+	private int size;
+	private String[] shardNames;
+	private ByteBuffer keys;
+	private IntBuffer bucketStarts;
+	private IntBuffer shardIds;
+	private LongBuffer offsets;
+	private IntBuffer lengths;
+
+	private SummaryIndex() {
+	}
+
+	/**
+	 * Read a summary file into memory.
+	 * @param fs FileSystem holding the summary
+	 * @param summaryPath path to the summary, usually CLUSTER/ALL.summary
+	 * @return the loaded SummaryIndex
+	 * @throws IOException
+	 */
+	public static SummaryIndex load(FileSystem fs, Path summaryPath)
+	throws IOException {
+		long startMS = System.currentTimeMillis();
+		FSDataInputStream fsdis = fs.open(summaryPath);
+		BufferedReader br = new BufferedReader(
+				new InputStreamReader(fsdis, UTF8), 1024 * 1024);
+		Builder builder = new Builder();
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				builder.add(new ZipNumBlock(line));
+			}
+		} finally {
+			br.close();
+		}
+		SummaryIndex index = builder.build();
+		LOGGER.info(String.format("Loaded %d blocks from %s in %dms (%d key bytes)",
+				index.size, summaryPath.toUri().toASCIIString(),
+				System.currentTimeMillis() - startMS, index.keys.capacity()));
+		return index;
+	}
+
+	/**
+	 * Read a binary summary, as written by {@link BinarySummaryWriter}, into
+	 * memory. Summaries on the local filesystem are memory mapped rather
+	 * than streamed.
+	 * @param fs FileSystem holding the summary
+	 * @param summaryPath path to the summary, usually CLUSTER/ALL.summary.bin
+	 * @return the loaded SummaryIndex
+	 * @throws IOException
+	 */
+	public static SummaryIndex loadBinary(FileSystem fs, Path summaryPath)
+	throws IOException {
+		long startMS = System.currentTimeMillis();
+		BinarySummaryReader reader;
+		RandomAccessFile raf = null;
+		if("file".equals(fs.getUri().getScheme())) {
+			raf = new RandomAccessFile(new File(summaryPath.toUri().getPath()), "r");
+			FileChannel channel = raf.getChannel();
+			reader = new BinarySummaryReader(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} else {
+			reader = new BinarySummaryReader(fs.open(summaryPath));
+		}
+		Builder builder = new Builder();
+		try {
+			String[] shards = reader.getShards();
+			while(reader.next()) {
+				byte[] key = new byte[reader.getKeyLength()];
+				System.arraycopy(reader.getKey(), 0, key, 0, key.length);
+				builder.add(key, shards[reader.getShardId()],
+						reader.getOffset(), (int) reader.getLength());
+			}
+		} finally {
+			reader.close();
+			if(raf != null) {
+				raf.close();
+			}
+		}
+		SummaryIndex index = builder.build();
+		LOGGER.info(String.format("Loaded %d blocks from %s in %dms (%d key bytes)",
+				index.size, summaryPath.toUri().toASCIIString(),
+				System.currentTimeMillis() - startMS, index.keys.capacity()));
+		return index;
+	}
+
+	/**
+	 * @return number of blocks in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the index of the block which may hold the first record
+	 * greater than or equal to key: the last block whose key sorts before
+	 * key, or 0 if there is none.
+	 */
+	public int findStart(String key) {
+		if(size == 0) {
+			return 0;
+		}
+		byte[] target = key.getBytes(UTF8);
+		int numBuckets = bucketStarts.limit();
+		// find the last bucket whose head key is < target:
+		int lo = 0;
+		int hi = numBuckets - 1;
+		int bucket = -1;
+		Cursor c = new Cursor();
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			c.seekBucket(mid);
+			if(compare(c.key, c.keyLength, target) < 0) {
+				bucket = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if(bucket == -1) {
+			return 0;
+		}
+		c.seekBucket(bucket);
+		int found = bucket * BUCKET_SIZE;
+		int last = Math.min(size, found + BUCKET_SIZE) - 1;
+		while(c.index < last) {
+			c.next();
+			if(compare(c.key, c.keyLength, target) >= 0) {
+				break;
+			}
+			found = c.index;
+		}
+		return found;
+	}
+
+	/**
+	 * @return iterator of summary lines, in the ALL.summary text format,
+	 * beginning with the block which may contain key.
+	 */
+	public CloseableIterator<String> getRecordIterator(String key) {
+		return new LineIterator(findStart(key));
+	}
+
+	public String getKey(int i) {
+		Cursor c = new Cursor();
+		c.seek(i);
+		return new String(c.key, 0, c.keyLength, UTF8);
+	}
+	public String getShard(int i) {
+		return shardNames[shardIds.get(i)];
+	}
+	public long getOffset(int i) {
+		return offsets.get(i);
+	}
+	public int getLength(int i) {
+		return lengths.get(i);
+	}
+
+	static int compare(byte[] a, int aLen, byte[] b) {
+		int len = Math.min(aLen, b.length);
+		for(int i = 0; i < len; i++) {
+			int d = (a[i] & 0xff) - (b[i] & 0xff);
+			if(d != 0) {
+				return d;
+			}
+		}
+		return aLen - b.length;
+	}
+
+	/**
+	 * Sequential decoder over the front-coded keys. Each cursor reads from
+	 * its own view of the key buffer, so concurrent lookups are safe.
+	 */
+	private class Cursor {
+		ByteBuffer buf = keys.duplicate();
+		byte[] key = new byte[256];
+		int keyLength = 0;
+		int index = -1;
+
+		void seekBucket(int bucket) {
+			buf.position(bucketStarts.get(bucket));
+			index = bucket * BUCKET_SIZE;
+			int len = readVInt(buf);
+			ensure(len);
+			buf.get(key, 0, len);
+			keyLength = len;
+		}
+		void seek(int i) {
+			seekBucket(i / BUCKET_SIZE);
+			while(index < i) {
+				next();
+			}
+		}
+		void next() {
+			index++;
+			if(index % BUCKET_SIZE == 0) {
+				seekBucket(index / BUCKET_SIZE);
+				return;
+			}
+			int shared = readVInt(buf);
+			int suffix = readVInt(buf);
+			ensure(shared + suffix);
+			buf.get(key, shared, suffix);
+			keyLength = shared + suffix;
+		}
+		private void ensure(int len) {
+			if(key.length < len) {
+				byte[] tmp = new byte[Math.max(len, key.length * 2)];
+				System.arraycopy(key, 0, tmp, 0, keyLength);
+				key = tmp;
+			}
+		}
+	}
+
+	private class LineIterator extends AbstractPeekableIterator<String> {
+		private Cursor cursor;
+		private int first;
+		private StringBuilder sb;
+		public LineIterator(int first) {
+			this.first = first;
+			cursor = null;
+			sb = new StringBuilder();
+		}
+		@Override
+		public String getNextInner() {
+			if(cursor == null) {
+				if(first >= size) {
+					return null;
+				}
+				cursor = new Cursor();
+				cursor.seek(first);
+			} else {
+				if(cursor.index + 1 >= size) {
+					return null;
+				}
+				cursor.next();
+			}
+			int i = cursor.index;
+			sb.setLength(0);
+			sb.append(new String(cursor.key, 0, cursor.keyLength, UTF8));
+			sb.append('\t').append(shardNames[shardIds.get(i)]);
+			sb.append('\t').append(offsets.get(i));
+			sb.append('\t').append(lengths.get(i));
+			return sb.toString();
+		}
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	static void writeVInt(GrowableBytes out, int v) {
+		while((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+	static int readVInt(ByteBuffer buf) {
+		int v = 0;
+		int shift = 0;
+		while(true) {
+			byte b = buf.get();
+			v |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				return v;
+			}
+			shift += 7;
+		}
+	}
+
+	/**
+	 * Accumulates summary entries, which must be added in sorted order.
+	 */
+	public static class Builder {
+		private GrowableBytes keyBytes = new GrowableBytes(1024 * 1024);
+		private int[] bucketStarts = new int[1024];
+		private int[] shardIds = new int[1024];
+		private long[] offsets = new long[1024];
+		private int[] lengths = new int[1024];
+		private ArrayList<String> shardNames = new ArrayList<String>();
+		private HashMap<String, Integer> shardMap = new HashMap<String, Integer>();
+		private byte[] prev = null;
+		private int size = 0;
+
+		public void add(ZipNumBlock block) {
+			add(block.url.getBytes(UTF8), block.shard, block.start, block.length);
+		}
+		public void add(byte[] key, String shard, long offset, int length) {
+			if(prev != null && compare(prev, prev.length, key) > 0) {
+				throw new IllegalArgumentException("Summary out of order at " +
+						new String(key, UTF8));
+			}
+			if(size == shardIds.length) {
+				int n = size * 2;
+				shardIds = copyOf(shardIds, n);
+				offsets = copyOf(offsets, n);
+				lengths = copyOf(lengths, n);
+			}
+			if(size % BUCKET_SIZE == 0) {
+				int bucket = size / BUCKET_SIZE;
+				if(bucket == bucketStarts.length) {
+					bucketStarts = copyOf(bucketStarts, bucket * 2);
+				}
+				bucketStarts[bucket] = keyBytes.size();
+				writeVInt(keyBytes, key.length);
+				keyBytes.write(key, 0, key.length);
+			} else {
+				int shared = 0;
+				int max = Math.min(prev.length, key.length);
+				while(shared < max && prev[shared] == key[shared]) {
+					shared++;
+				}
+				writeVInt(keyBytes, shared);
+				writeVInt(keyBytes, key.length - shared);
+				keyBytes.write(key, shared, key.length - shared);
+			}
+			Integer shardId = shardMap.get(shard);
+			if(shardId == null) {
+				shardId = shardNames.size();
+				shardNames.add(shard);
+				shardMap.put(shard, shardId);
+			}
+			shardIds[size] = shardId;
+			offsets[size] = offset;
+			lengths[size] = length;
+			prev = key;
+			size++;
+		}
+		public SummaryIndex build() {
+			SummaryIndex index = new SummaryIndex();
+			index.size = size;
+			index.shardNames = shardNames.toArray(new String[shardNames.size()]);
+			ByteBuffer kb = ByteBuffer.allocateDirect(keyBytes.size());
+			kb.put(keyBytes.buffer(), 0, keyBytes.size());
+			kb.flip();
+			index.keys = kb.asReadOnlyBuffer();
+			int numBuckets = (size + BUCKET_SIZE - 1) / BUCKET_SIZE;
+			index.bucketStarts = directInts(bucketStarts, numBuckets);
+			index.shardIds = directInts(shardIds, size);
+			index.lengths = directInts(lengths, size);
+			LongBuffer lb = ByteBuffer.allocateDirect(Math.max(size, 1) * 8)
+				.asLongBuffer();
+			lb.put(offsets, 0, size);
+			lb.flip();
+			index.offsets = lb;
+			return index;
+		}
+		private static IntBuffer directInts(int[] src, int len) {
+			IntBuffer ib = ByteBuffer.allocateDirect(Math.max(len, 1) * 4)
+				.asIntBuffer();
+			ib.put(src, 0, len);
+			ib.flip();
+			return ib;
+		}
+		private static int[] copyOf(int[] a, int n) {
+			int[] b = new int[n];
+			System.arraycopy(a, 0, b, 0, a.length);
+			return b;
+		}
+		private static long[] copyOf(long[] a, int n) {
+			long[] b = new long[n];
+			System.arraycopy(a, 0, b, 0, a.length);
+			return b;
+		}
+	}
+
+	/**
+	 * ByteArrayOutputStream without the synchronization or the copy on
+	 * access.
+	 */
+	static class GrowableBytes {
+		private byte[] buf;
+		private int count;
+		public GrowableBytes(int initial) {
+			buf = new byte[initial];
+			count = 0;
+		}
+		public void write(int b) {
+			if(count == buf.length) {
+				grow(count + 1);
+			}
+			buf[count++] = (byte) b;
+		}
+		public void write(byte[] b, int off, int len) {
+			if(count + len > buf.length) {
+				grow(count + len);
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+		private void grow(int min) {
+			byte[] tmp = new byte[Math.max(min, buf.length * 2)];
+			System.arraycopy(buf, 0, tmp, 0, count);
+			buf = tmp;
+		}
+		public int size() {
+			return count;
+		}
+		public byte[] buffer() {
+			return buf;
+		}
+		public void reset() {
+			count = 0;
+		}
+	}
+}
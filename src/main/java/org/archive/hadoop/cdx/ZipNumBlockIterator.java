@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 
 import org.archive.util.iterator.AbstractPeekableIterator;
 import org.archive.util.iterator.CloseableIterator;
@@ -21,4 +22,22 @@ public class ZipNumBlockIterator {
 		BufferedReader br = new BufferedReader(isr);
 		return AbstractPeekableIterator.wrapReader(br);
 	}
+	/**
+	 * Inflate the whole block at once.
+	 * @return all lines in the block
+	 * @throws IOException
+	 */
+	public String[] readLines() throws IOException {
+		ByteArrayInputStream bais = new ByteArrayInputStream(compressed);
+		OpenJDK7GZIPInputStream gzis = new OpenJDK7GZIPInputStream(bais);
+		InputStreamReader isr = new InputStreamReader(gzis);
+		BufferedReader br = new BufferedReader(isr);
+		ArrayList<String> lines = new ArrayList<String>();
+		String line;
+		while((line = br.readLine()) != null) {
+			lines.add(line);
+		}
+		br.close();
+		return lines.toArray(new String[lines.size()]);
+	}
 }
@@ -0,0 +1,31 @@
+package org.archive.hadoop.fs;
+
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * {@link ItemIterator} over items already listed, such as the result of
+ * {@link ItemSearcher#searchItems(String)}.
+ */
+public class ArrayItemIterator implements ItemIterator {
+  private final FileStatus[] items;
+  private int index = 0;
+
+  public ArrayItemIterator(FileStatus[] items) {
+    this.items = items != null ? items : new FileStatus[0];
+  }
+  @Override
+  public boolean hasNext() {
+    return index < items.length;
+  }
+  @Override
+  public FileStatus next() {
+    if (index >= items.length) throw new NoSuchElementException();
+    return items[index++];
+  }
+  @Override
+  public void close() {
+    index = items.length;
+  }
+}
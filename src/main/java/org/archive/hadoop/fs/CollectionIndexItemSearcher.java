@@ -5,13 +5,14 @@ package org.archive.hadoop.fs;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,6 +22,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.archive.petabox.PetaboxClient;
 import org.mortbay.util.ajax.JSON;
 
@@ -31,7 +33,7 @@ import org.mortbay.util.ajax.JSON;
  * @author kenji
  *
  */
-public class CollectionIndexItemSearcher implements ItemSearcher {
+public class CollectionIndexItemSearcher implements IterableItemSearcher {
 
     private static final Log LOG = LogFactory.getLog(CollectionIndexItemSearcher.class);
 
@@ -66,7 +68,24 @@ public class CollectionIndexItemSearcher implements ItemSearcher {
      */
     @Override
     public FileStatus[] searchItems(String itemid) throws IOException {
-        List<FileStatus> result = null;
+        List<FileStatus> result = new ArrayList<FileStatus>();
+        ItemIterator items = iterateItems(itemid);
+        try {
+            while (items.hasNext()) {
+                result.add(items.next());
+            }
+        } finally {
+            items.close();
+        }
+        LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
+        return result.toArray(new FileStatus[result.size()]);
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.hadoop.fs.IterableItemSearcher#iterateItems(java.lang.String)
+     */
+    @Override
+    public ItemIterator iterateItems(String itemid) throws IOException {
         URI uri;
         try {
             uri = buildSearchURI(itemid);
@@ -74,111 +93,196 @@ public class CollectionIndexItemSearcher implements ItemSearcher {
         } catch (URISyntaxException ex) {
             throw new IOException("failed to build URI for itemid=" + itemid, ex);
         }
-        PetaboxClient pbclient = fs.getPetaboxClient();
-        //    HttpClient client = fs.getHttpClient();
-        //    HttpGet get = fs.createHttpGet(uri);
-        HttpEntity entity = null;
-        int retries = 0;
-        do {
-            if (retries > 0) {
-                if (retries > maxRetries) {
-                    throw new IOException(uri + ": retry exhausted, giving up.");
+        return new LineItemIterator(itemid, uri);
+    }
+
+    /**
+     * parse line {@code ln} of the response.
+     * @return FileStatus for the item, or null if line has no item.
+     * @throws IllegalStateException JSON parse error.
+     */
+    protected FileStatus parseLine(String itemid, URI uri, String line, int ln) {
+        String iid = null;
+        Long mtime = null;
+        if (line.startsWith("{")) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> jo = (Map<String, Object>)JSON.parse(line);
+            iid = (String)jo.get("id");
+            // m is in seconds. be sure to multiply it by 1000 for FileStatus.
+            mtime = (Long)jo.get("m");
+        } else if (line.length() > 0 && Character.isLetterOrDigit(line.charAt(0))) {
+            int p = line.indexOf(' ');
+            if (p < 0) {
+                iid = line;
+            } else {
+                iid = line.substring(0, p);
+            }
+            mtime = 0L;
+        } else {
+            LOG.warn(uri + ": invalid line (neither JSON nor identifier) at " + ln);
+            return null;
+        }
+        if (iid == null) {
+            LOG.warn(uri + ": id undefined or null at line " + ln);
+            return null;
+        }
+        if (mtime == null) {
+            LOG.warn(uri + ": m undefined or null at line " + ln);
+            mtime = 0L;
+        }
+
+        Path qf = new Path(fsUri.toString(), "/" + iid);
+        LOG.debug("collection:" + itemid + " qf=" + qf);
+        return new FileStatus(0, true, 2, 4096, mtime * 1000, qf);
+    }
+
+    /**
+     * reads items off the response one line at a time. if the response fails
+     * midway, the request is repeated and lines already consumed are skipped.
+     */
+    protected class LineItemIterator implements ItemIterator {
+        private String itemid;
+        private URI uri;
+        private InputStream content;
+        private BufferedReader lines;
+        private int consumed = 0;
+        private int retries = 0;
+        private FileStatus next;
+        private boolean done = false;
+
+        public LineItemIterator(String itemid, URI uri) {
+            this.itemid = itemid;
+            this.uri = uri;
+        }
+
+        private void open() throws IOException {
+            PetaboxClient pbclient = fs.getPetaboxClient();
+            HttpEntity entity = null;
+            while (true) {
+                if (retries > 0) {
+                    if (retries > maxRetries) {
+                        throw new IOException(uri + ": retry exhausted, giving up.");
+                    }
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (InterruptedException ex) {
+                    }
                 }
+                HttpResponse resp;
                 try {
-                    Thread.sleep(retryDelay);
-                } catch (InterruptedException ex) {
+                    resp = pbclient.doGet(uri);
+                } catch (IOException ex) {
+                    LOG.warn("connection to " + uri + " failed", ex);
+                    ++retries;
+                    continue;
+                }
+                StatusLine st = resp.getStatusLine();
+                entity = resp.getEntity();
+                switch (st.getStatusCode()) {
+                case 200:
+                    if (retries > 0) {
+                        LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
+                    }
+                    content = entity.getContent();
+                    lines = new BufferedReader(new InputStreamReader(content, "UTF-8"));
+                    try {
+                        // skip lines returned from previous response.
+                        for (int i = 0; i < consumed; i++) {
+                            if (lines.readLine() == null) {
+                                throw new IOException("response has only " + i + " lines, expected at least " + consumed);
+                            }
+                        }
+                    } catch (IOException ex) {
+                        LOG.warn(uri + ": error skipping to line " + consumed, ex);
+                        closeLines(true);
+                        ++retries;
+                        continue;
+                    }
+                    return;
+                case 502:
+                case 503:
+                case 504:
+                    if (entity != null)
+                        entity.getContent().close();
+                    ++retries;
+                    LOG.warn(uri + " failed " + st.getStatusCode() + " "
+                            + st.getReasonPhrase() + ", retry " + retries);
+                    entity = null;
+                    continue;
+                default:
+                    entity.getContent().close();
+                    throw new IOException(st.getStatusCode() + " " + st.getReasonPhrase());
                 }
             }
-            HttpResponse resp;
-            try {
-                //	resp = client.execute(get);
-                resp = pbclient.doGet(uri);
-            } catch (IOException ex) {
-                LOG.warn("connection to " + uri + " failed", ex);
-                ++retries;
-                continue;
+        }
+
+        /**
+         * @param abort true to drop the connection instead of reading the rest of
+         * the response, which can be very long.
+         */
+        private void closeLines(boolean abort) {
+            if (lines != null) {
+                try {
+                    if (abort && content instanceof ConnectionReleaseTrigger) {
+                        ((ConnectionReleaseTrigger)content).abortConnection();
+                    } else {
+                        lines.close();
+                    }
+                } catch (IOException ex) {
+                }
+                lines = null;
+                content = null;
             }
-            StatusLine st = resp.getStatusLine();
-            entity = resp.getEntity();
-            switch (st.getStatusCode()) {
-            case 200:
-                if (retries > 0) {
-                    LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (next == null && !done) {
+                if (lines == null) {
+                    open();
                 }
-                // it appears search engine often fails to return JSON formatted output despite
-                // status code 200. detect it here.
-                Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
-                BufferedReader lines = new BufferedReader(reader);
-                result = new ArrayList<FileStatus>();
                 String line;
-                int ln = 0;
                 try {
-                    while ((line = lines.readLine()) != null) {
-                        ln++;
-                        String iid = null;
-                        Long mtime = null;
-                        if (line.startsWith("{")) {
-                            @SuppressWarnings("unchecked")
-                            Map<String, Object> jo = (Map<String, Object>)JSON.parse(line);
-                            iid = (String)jo.get("id");
-                            // m is in seconds. be sure to multiply it by 1000 for FileStatus.
-                            mtime = (Long)jo.get("m");
-                        } else if (Character.isLetterOrDigit(line.charAt(0))) {
-                            int p = line.indexOf(' ');
-                            if (p < 0) {
-                                iid = line;
-                            } else {
-                                iid = line.substring(0, p);
-                            }
-                            mtime = 0L;
-                        } else {
-                            LOG.warn(uri + ": invalid line (neither JSON nor identifier) at " + ln);
-                            continue;
-                        }
-                        if (iid == null) {
-                            LOG.warn(uri + ": id undefined or null at line " + ln);
-                            continue;
-                        }
-                        if (mtime == null) {
-                            LOG.warn(uri + ": m undefined or null at line " + ln);
-                            mtime = 0L;
-                        }
-
-                        Path qf = new Path(fsUri.toString(), "/" + iid);
-                        LOG.debug("collection:" + itemid + " qf=" + qf);
-                        FileStatus fst = new FileStatus(0, true, 2, 4096, mtime * 1000, qf);
-                        result.add(fst);
+                    line = lines.readLine();
+                    if (line == null) {
+                        done = true;
+                        closeLines(false);
+                        break;
                     }
+                    next = parseLine(itemid, uri, line, consumed + 1);
                 } catch (IOException ex) {
-                    LOG.warn(uri + "error reading response", ex);
+                    LOG.warn(uri + ": error reading response", ex);
+                    closeLines(true);
                     ++retries;
                     continue;
                 } catch (IllegalStateException ex) {
                     // JSON.parse throws this for parse error.
-                    LOG.warn(uri + ": JSON.parse failed at line " + ln, ex);
+                    LOG.warn(uri + ": JSON.parse failed at line " + (consumed + 1), ex);
+                    closeLines(true);
                     ++retries;
                     continue;
-                } finally {
-                    lines.close();
                 }
-                break;
-            case 502:
-            case 503:
-            case 504:
-                if (entity != null)
-                    entity.getContent().close();
-                ++retries;
-                LOG.warn(uri + " failed " + st.getStatusCode() + " "
-                        + st.getReasonPhrase() + ", retry " + retries);
-                entity = null;
-                continue;
-            default:
-                entity.getContent().close();
-                throw new IOException(st.getStatusCode() + " " + st.getReasonPhrase());
+                consumed++;
             }
-        } while (result == null);
-        LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
-        return result.toArray(new FileStatus[result.size()]);
+            return next != null;
+        }
+
+        @Override
+        public FileStatus next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            FileStatus fst = next;
+            next = null;
+            return fst;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            next = null;
+            closeLines(true);
+        }
     }
 
     // main method for quick test against production service.
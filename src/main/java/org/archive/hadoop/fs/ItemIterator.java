@@ -0,0 +1,17 @@
+package org.archive.hadoop.fs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * iterates over items returned by {@link ItemSearcher}, fetching them
+ * as they are consumed.
+ * call {@link #close()} if iteration is abandoned before {@link #hasNext()}
+ * returns false, so that outstanding requests are cancelled.
+ */
+public interface ItemIterator {
+  public boolean hasNext() throws IOException;
+  public FileStatus next() throws IOException;
+  public void close();
+}
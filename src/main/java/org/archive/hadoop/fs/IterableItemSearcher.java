@@ -0,0 +1,21 @@
+package org.archive.hadoop.fs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * {@link ItemSearcher} that can also enumerate a collection as items are consumed.
+ * PetaboxFileSystem falls back to {@link ItemSearcher#searchItems(String)} for
+ * searchers not implementing this interface.
+ */
+public interface IterableItemSearcher extends ItemSearcher {
+  /**
+   * return iterator over items belonging to a collection {@code collid}.
+   * unlike {@link #searchItems(String)}, items are fetched as they are consumed,
+   * without building the whole list in memory.
+   * @param collid collection identifier.
+   * @return {@link ItemIterator} yielding the same {@link FileStatus} as {@link #searchItems(String)}
+   */
+  public ItemIterator iterateItems(String collid) throws IOException;
+}
@@ -34,7 +34,7 @@ import org.mortbay.util.ajax.JSON;
  * @author Kenji Nagahashi
  *
  */
-public class MetaManagerItemSearcher implements ItemSearcher {
+public class MetaManagerItemSearcher implements IterableItemSearcher {
   private static Log LOG = LogFactory.getLog(MetaManagerItemSearcher.class);
 
   protected PetaboxFileSystem fs;
@@ -43,6 +43,7 @@ public class MetaManagerItemSearcher implements ItemSearcher {
   protected int retryDelay = 2000; // milliseconds
   protected int connectionTimeout = 60*1000;
   protected int socketTimeout = 0; // milliseconds, 0=infinite
+  protected int searchConcurrency = 4; // pages fetched in parallel
 
   public final static int SEARCH_ROWS_PER_PAGE = 200;
 
@@ -56,6 +57,7 @@ public class MetaManagerItemSearcher implements ItemSearcher {
     String confbase = "fs." + fsUri.getScheme();
     
     maxRetries = conf.getInt(confbase + ".max-retries", 10);
+    searchConcurrency = conf.getInt(confbase + ".search-concurrency", searchConcurrency);
   }
     
   protected static long sqldatetime2timestamp(String sqldatetime) {
@@ -102,123 +104,150 @@ public class MetaManagerItemSearcher implements ItemSearcher {
   /* (non-Javadoc)
    * @see org.archive.crawler.hadoop.ItemSearcher#searchItems(java.lang.String)
    */
-  @SuppressWarnings("unchecked")
   @Override
   public FileStatus[] searchItems(String itemid) throws IOException {
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    ItemIterator items = iterateItems(itemid);
+    try {
+      while (items.hasNext()) {
+	result.add(items.next());
+      }
+    } finally {
+      items.close();
+    }
+    LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  /* (non-Javadoc)
+   * @see org.archive.hadoop.fs.IterableItemSearcher#iterateItems(java.lang.String)
+   */
+  @Override
+  public ItemIterator iterateItems(final String itemid) throws IOException {
     LOG.info("looking up items in collection " + itemid + " with metamgr");
+    return new PagedItemIterator(searchConcurrency, METAMGR_ROWS_PER_PAGE) {
+      @Override
+      protected Page fetchPage(int start) throws IOException {
+	return searchPage(itemid, start);
+      }
+    };
+  }
+
+  /**
+   * fetch one page of items in collection {@code itemid} from metamgr,
+   * starting at {@code start}.
+   */
+  @SuppressWarnings("unchecked")
+  protected PagedItemIterator.Page searchPage(String itemid, int start) throws IOException {
     List<FileStatus> result = new ArrayList<FileStatus>();
-    int start = 0;
-    // total number of results is not available in metamgr's JSON response. 
-    long numresults = Long.MAX_VALUE;
-    while (start < numresults) {
-      URI uri;
+    URI uri;
+    try {
+      uri = buildMetaManagerURI(itemid, start);
+      LOG.info("search uri=" + uri);
+    } catch (URISyntaxException ex) {
+      throw new IOException("failed to build URI for itemid=" + itemid + ", start=" + start, ex);
+    }
+    PetaboxClient pbclient = fs.getPetaboxClient();
+//      HttpGet get = fs.createHttpGet(uri);
+    HttpEntity entity = null;
+    Map<String, Object> jo = null;
+    int retries = 0;
+    do {
+      if (retries > 0) {
+	try {
+	  Thread.sleep(retryDelay);
+	} catch (InterruptedException ex) {
+	}
+      }
+      HttpResponse resp;
       try {
-	uri = buildMetaManagerURI(itemid, start);
-	LOG.info("search uri=" + uri);
-      } catch (URISyntaxException ex) {
-	throw new IOException("failed to build URI for itemid=" + itemid + ", start=" + start, ex);
+//	  resp = fs.getHttpClient().execute(get);
+	      resp = pbclient.doGet(uri);
+      } catch (IOException ex) {
+	LOG.warn("connection to " + uri + " failed", ex);
+	if (++retries > maxRetries) {
+	  throw new IOException(uri + ": retry exhausted trying to connect");
+	}
+	continue;
       }
-      PetaboxClient pbclient = fs.getPetaboxClient();
-//      HttpGet get = fs.createHttpGet(uri);
-      HttpEntity entity = null;
-      Map<String, Object> jo = null;
-      int retries = 0;
-      do {
+      StatusLine st = resp.getStatusLine();
+      entity = resp.getEntity();
+      switch (st.getStatusCode()) {
+      case 200:
 	if (retries > 0) {
-	  try {
-	    Thread.sleep(retryDelay);
-	  } catch (InterruptedException ex) {
-	  }
+	  LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
 	}
-	HttpResponse resp;
+	// it appears search engine often fails to return JSON formatted output despite
+	// status code 200. detect it here.
+	Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
 	try {
-//	  resp = fs.getHttpClient().execute(get);
-		resp = pbclient.doGet(uri);
-	} catch (IOException ex) {
-	  LOG.warn("connection to " + uri + " failed", ex);
-	  if (++retries > maxRetries) {
-	    throw new IOException(uri + ": retry exhausted trying to connect");
+	  jo = (Map<String, Object>)JSON.parse(reader);
+	} catch (IllegalStateException ex) {
+	  LOG.error("JSON.parse failed", ex);
+	  StringWriter w = new StringWriter();
+	  int c;
+	  while ((c = reader.read()) != -1) {
+	    w.write(c);
 	  }
-	  continue;
+	  LOG.error("rest of response:" + w.toString());
 	}
-	StatusLine st = resp.getStatusLine();
-	entity = resp.getEntity();
-	switch (st.getStatusCode()) {
-	case 200:
-	  if (retries > 0) {
-	    LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
-	  }
-	  // it appears search engine often fails to return JSON formatted output despite
-	  // status code 200. detect it here.
-	  Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
-	  try {
-	    jo = (Map<String, Object>)JSON.parse(reader);
-	  } catch (IllegalStateException ex) {
-	    LOG.error("JSON.parse failed", ex);
-	    StringWriter w = new StringWriter();
-	    int c;
-	    while ((c = reader.read()) != -1) {
-	      w.write(c);
-	    }
-	    LOG.error("rest of response:" + w.toString());
-	  }
-	  reader.close();
-	  if (jo == null) {
-	    LOG.warn(uri + " returned 200, but JSON parser failed on entity");
-	    if (++retries > maxRetries) {
-	      throw new IOException(uri + ": retry exhausted on " + uri);
-	    }
-	    continue;
-	  }
-	  break;
-	case 502:
-	case 503:
-	case 504:
-	  if (entity != null)
-	    entity.getContent().close();
+	reader.close();
+	if (jo == null) {
+	  LOG.warn(uri + " returned 200, but JSON parser failed on entity");
 	  if (++retries > maxRetries) {
-	    throw new IOException(uri + ": retry exhausted on "
-		+ st.getStatusCode() + " " + st.getReasonPhrase());
+	    throw new IOException(uri + ": retry exhausted on " + uri);
 	  }
-	  LOG.warn(uri + " failed " + st.getStatusCode() + " "
-	      + st.getReasonPhrase() + ", retry " + retries);
-	  entity = null;
 	  continue;
-	default:
+	}
+	break;
+      case 502:
+      case 503:
+      case 504:
+	if (entity != null)
 	  entity.getContent().close();
-	  throw new IOException(uri + ": " + st.getStatusCode() + " " + st.getReasonPhrase());
+	if (++retries > maxRetries) {
+	  throw new IOException(uri + ": retry exhausted on "
+	      + st.getStatusCode() + " " + st.getReasonPhrase());
 	}
-      } while (jo == null);
-      // fields are returned in an array. we assume they are always in the same
-      // order as fs_* parameters appears in query URL.
-      // TODO: we could at least put a check of field names here.
-      Object[] rows = (Object[])jo.get("rows");
-      if (rows == null) {
-	break; //?
+	LOG.warn(uri + " failed " + st.getStatusCode() + " "
+	    + st.getReasonPhrase() + ", retry " + retries);
+	entity = null;
+	continue;
+      default:
+	entity.getContent().close();
+	throw new IOException(uri + ": " + st.getStatusCode() + " " + st.getReasonPhrase());
       }
-      for (int i = 0; i < rows.length; i++) {
-	Object[] row = (Object[])rows[i];
-	if (row == null) continue; // just in case...
-	String iid = (String)row[0];
-	if (iid == null) continue;
-	// exclude collection items
-	String mediatype = (String)row[1];
-	if ("collection".equals(mediatype)) continue;
-	// collection query pattern is not specific enough. check whether item
-	// really have itemid as its collection.
-	if (!inCollection(itemid, (String)row[2])) continue;
+    } while (jo == null);
+    // fields are returned in an array. we assume they are always in the same
+    // order as fs_* parameters appears in query URL.
+    // TODO: we could at least put a check of field names here.
+    Object[] rows = (Object[])jo.get("rows");
+    if (rows == null) {
+      return new PagedItemIterator.Page(result, 0, -1); //?
+    }
+    for (int i = 0; i < rows.length; i++) {
+      Object[] row = (Object[])rows[i];
+      if (row == null) continue; // just in case...
+      String iid = (String)row[0];
+      if (iid == null) continue;
+      // exclude collection items
+      String mediatype = (String)row[1];
+      if ("collection".equals(mediatype)) continue;
+      // collection query pattern is not specific enough. check whether item
+      // really have itemid as its collection.
+      if (!inCollection(itemid, (String)row[2])) continue;
 	
-	String publicdate = row.length > 3 ? (String)row[3] : null;
-	long mtime = sqldatetime2timestamp(publicdate);
-	Path qf = new Path(fsUri.toString(), "/" + iid);
-	LOG.debug("collection:" + itemid + " qf=" + qf);
-	FileStatus fst = new FileStatus(0, true, 2, 4096, mtime, qf);
-	result.add(fst);
-      }
-      start += rows.length;
+      String publicdate = row.length > 3 ? (String)row[3] : null;
+      long mtime = sqldatetime2timestamp(publicdate);
+      Path qf = new Path(fsUri.toString(), "/" + iid);
+      LOG.debug("collection:" + itemid + " qf=" + qf);
+      FileStatus fst = new FileStatus(0, true, 2, 4096, mtime, qf);
+      result.add(fst);
     }
-    LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
-    return result.toArray(new FileStatus[result.size()]);
+    // total number of results is not available in metamgr's JSON response.
+    // a short page is the last one.
+    long total = rows.length < METAMGR_ROWS_PER_PAGE ? start + rows.length : -1;
+    return new PagedItemIterator.Page(result, rows.length, total);
   }
 
 }
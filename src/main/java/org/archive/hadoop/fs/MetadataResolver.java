@@ -0,0 +1,261 @@
+package org.archive.hadoop.fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.archive.petabox.AdaptiveConcurrencyLimiter;
+import org.archive.petabox.ItemMetadataCache;
+import org.archive.petabox.PetaboxClient;
+
+/**
+ * Lists many items of a {@link PetaboxFileSystem} concurrently, for
+ * {@link PetaboxFileSystem#listStatus(Path[], PathFilter)}, or fetches their
+ * metadata into the persistent cache, for
+ * {@link PetaboxFileSystem#warmMetadataCache(Collection, Collection)}.
+ * <p>
+ * Repeated paths are listed once. Items are listed on an executor shared by
+ * all calls, while the number of metadata API requests actually in flight is
+ * governed by the client's {@link AdaptiveConcurrencyLimiter}, which backs off
+ * when the API is overloaded. Items that fail are logged and left out of the
+ * result, unless more than {@code maxFailures} fail, in which case the rest
+ * is cancelled and the call fails. Throughput is logged periodically and on
+ * completion, and totals are kept for the life of the resolver.
+ */
+public class MetadataResolver {
+	private static final Log LOG = LogFactory.getLog(MetadataResolver.class);
+
+	/**
+	 * interval between progress reports, in milliseconds.
+	 */
+	public static final long PROGRESS_INTERVAL = 30 * 1000;
+
+	private PetaboxFileSystem fs;
+	private ExecutorService executor;
+	private int maxFailures;
+
+	private final AtomicLong totalListed = new AtomicLong();
+	private final AtomicLong totalFailed = new AtomicLong();
+	private final AtomicLong totalTime = new AtomicLong();
+
+	/**
+	 * @param fs PetaboxFileSystem to list items of.
+	 * @param executor executor to run listing on.
+	 * @param maxFailures number of items that may fail before a call
+	 * is aborted; negative for no limit.
+	 */
+	public MetadataResolver(PetaboxFileSystem fs, ExecutorService executor, int maxFailures) {
+		this.fs = fs;
+		this.executor = executor;
+		this.maxFailures = maxFailures;
+	}
+
+	/**
+	 * list items {@code files} and return their entries accepted by
+	 * {@code filter}, in the order of {@code files}. paths other than items
+	 * (depth 1) have no entries.
+	 * @throws IOException more than {@code maxFailures} items failed.
+	 */
+	public FileStatus[] listStatus(Path[] files, final PathFilter filter) throws IOException {
+		Set<Path> unique = new LinkedHashSet<Path>();
+		int duplicates = 0;
+		for (Path file : files) {
+			if (file.depth() == 1 && !unique.add(fs.makeQualified(file))) {
+				duplicates++;
+			}
+		}
+		if (duplicates > 0) {
+			LOG.info("listing " + unique.size() + " items, " + duplicates + " duplicate paths skipped");
+		}
+
+		// each task fills its own slot. Future.get() makes them visible here.
+		final FileStatus[][] listings = new FileStatus[unique.size()][];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(unique.size());
+		int i = 0;
+		for (final Path file : unique) {
+			final int slot = i++;
+			tasks.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					listings[slot] = fs.listStatus(file, filter);
+					return file;
+				}
+			});
+		}
+		runAll(tasks, "listed");
+
+		List<FileStatus> result = new ArrayList<FileStatus>();
+		for (FileStatus[] listing : listings) {
+			if (listing != null) {
+				for (FileStatus s : listing) {
+					result.add(s);
+				}
+			}
+		}
+		return result.toArray(new FileStatus[result.size()]);
+	}
+
+	/**
+	 * fetch metadata of items {@code itemids} into the client's persistent
+	 * metadata cache. items already cached and fresh are skipped. items that
+	 * fail are added to {@code failed}.
+	 * @param failed receives identifiers of items failed to fetch; may be null.
+	 * @return number of items fetched.
+	 * @throws IOException more than {@code maxFailures} items failed.
+	 */
+	public int fetchMetadata(Collection<String> itemids, Collection<String> failed)
+			throws IOException {
+		final PetaboxClient client = fs.getPetaboxClient();
+		final ItemMetadataCache cache = client.getMetadataCache();
+		final AtomicInteger fetched = new AtomicInteger();
+		List<String> unique = new ArrayList<String>(new LinkedHashSet<String>(itemids));
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(unique.size());
+		for (final String itemid : unique) {
+			tasks.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					if (cache != null && cache.contains(itemid)) return null;
+					client.getItemMetadata(itemid);
+					fetched.incrementAndGet();
+					return null;
+				}
+			});
+		}
+		IOException[] failures = runAll(tasks, "fetched metadata of");
+		if (failed != null) {
+			for (int i = 0; i < failures.length; i++) {
+				if (failures[i] != null) {
+					failed.add(unique.get(i));
+				}
+			}
+		}
+		return fetched.get();
+	}
+
+	/**
+	 * run {@code tasks}, one per item, on the executor and wait for all of them.
+	 * @param done past tense verb for logging progress, as in "listed 10 items".
+	 * @return failure of each task, null for those succeeded.
+	 * @throws IOException more than {@code maxFailures} tasks failed.
+	 */
+	private IOException[] runAll(List<? extends Callable<?>> tasks, String done) throws IOException {
+		long startTime = System.currentTimeMillis();
+		// each task records its own failure. Future.get() makes them visible here.
+		final IOException[] failures = new IOException[tasks.size()];
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			final int slot = i;
+			final Callable<?> task = tasks.get(i);
+			futures.add(completion.submit(new Callable<Integer>() {
+				public Integer call() {
+					try {
+						task.call();
+					} catch (IOException ex) {
+						failures[slot] = ex;
+					} catch (Exception ex) {
+						failures[slot] = new IOException(ex);
+					}
+					return slot;
+				}
+			}));
+		}
+
+		int completed = 0;
+		int failed = 0;
+		IOException firstFailure = null;
+		long lastReport = startTime;
+		try {
+			while (completed < futures.size()) {
+				Future<Integer> f;
+				try {
+					f = completion.poll(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException("interrupted, " + done + " "
+							+ completed + "/" + futures.size() + " items");
+				}
+				long now = System.currentTimeMillis();
+				if (now - lastReport >= PROGRESS_INTERVAL) {
+					LOG.info(String.format("%s %d/%d items (%.1f items/s), %d failed; metadata API %s",
+							done, completed, futures.size(), rate(completed, now - startTime), failed,
+							fs.getPetaboxClient().getMetadataLimiter()));
+					lastReport = now;
+				}
+				if (f == null) continue;
+				completed++;
+				IOException failure;
+				try {
+					failure = failures[f.get()];
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException("interrupted, " + done + " "
+							+ completed + "/" + futures.size() + " items");
+				} catch (ExecutionException ex) {
+					throw new IOException(ex.getCause());
+				}
+				if (failure != null) {
+					failed++;
+					LOG.error("item failed: " + failure, failure);
+					if (firstFailure == null) {
+						firstFailure = failure;
+					}
+					if (maxFailures >= 0 && failed > maxFailures) {
+						throw new IOException(failed + " of " + futures.size()
+								+ " items failed, giving up (max-list-failures="
+								+ maxFailures + ")", firstFailure);
+					}
+				}
+			}
+		} finally {
+			for (Future<Integer> f : futures) {
+				f.cancel(true);
+			}
+			long elapsed = System.currentTimeMillis() - startTime;
+			totalListed.addAndGet(completed - failed);
+			totalFailed.addAndGet(failed);
+			totalTime.addAndGet(elapsed);
+			LOG.info(String.format("%s %d items in %.1fs (%.1f items/s), %d failed; metadata API %s",
+					done, completed - failed, elapsed / 1000.0, rate(completed, elapsed), failed,
+					fs.getPetaboxClient().getMetadataLimiter()));
+		}
+		return failures;
+	}
+
+	private static double rate(long count, long elapsed) {
+		return elapsed > 0 ? count * 1000.0 / elapsed : 0;
+	}
+
+	/**
+	 * @return number of items listed or fetched successfully by this resolver.
+	 */
+	public long getTotalListed() {
+		return totalListed.get();
+	}
+	/**
+	 * @return number of items failed to list or fetch by this resolver.
+	 */
+	public long getTotalFailed() {
+		return totalFailed.get();
+	}
+	/**
+	 * @return time spent listing and fetching, in milliseconds.
+	 */
+	public long getTotalTime() {
+		return totalTime.get();
+	}
+}
@@ -0,0 +1,190 @@
+package org.archive.hadoop.fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * {@link ItemIterator} over search results served in pages of up to
+ * {@code pageSize} results, each requested by its start offset. the first
+ * page is fetched alone; once it tells the total number of results, up to
+ * {@code concurrency} pages following the one being consumed are fetched in
+ * parallel, never beyond the total, so at most {@code concurrency + 1} pages
+ * are held in memory regardless of the size of the collection. pages are
+ * returned in order, each starting right after the results of the previous
+ * one. when a page comes back short, pages requested after it assumed the
+ * wrong start and are fetched again.
+ */
+public abstract class PagedItemIterator implements ItemIterator {
+
+  public static class Page {
+    final List<FileStatus> items;
+    final int count;
+    final long total;
+    /**
+     * @param items items in this page, possibly fewer than {@code count}
+     * if some results are not items.
+     * @param count number of results in this page. the next page starts
+     * after them. 0 ends the iteration.
+     * @param total total number of results in all pages, or -1 if unknown.
+     */
+    public Page(List<FileStatus> items, int count, long total) {
+      this.items = items;
+      this.count = count;
+      this.total = total;
+    }
+  }
+
+  private static class PendingPage {
+    final int start;
+    final Future<Page> future;
+    PendingPage(int start, Future<Page> future) {
+      this.start = start;
+      this.future = future;
+    }
+  }
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "item-search-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  private int concurrency;
+  private int pageSize;
+  /**
+   * start of the next page to return.
+   */
+  private int nextStart = 0;
+  /**
+   * start of the next page to request.
+   */
+  private int fetchStart = 0;
+  private long total = -1;
+  private boolean done = false;
+  private LinkedList<PendingPage> pending = new LinkedList<PendingPage>();
+  private Iterator<FileStatus> current = Collections.<FileStatus>emptyList().iterator();
+
+  /**
+   * @param concurrency number of pages to fetch in parallel. with 1 or
+   * less, pages are fetched by the consuming thread as needed.
+   * @param pageSize number of results requested per page.
+   */
+  public PagedItemIterator(int concurrency, int pageSize) {
+    this.concurrency = concurrency;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * fetch the page of results starting at {@code start}, counting from 0.
+   * called from multiple threads when concurrency is greater than 1.
+   */
+  protected abstract Page fetchPage(int start) throws IOException;
+
+  private Page nextPage() throws IOException {
+    // the first page tells how many pages there are to fetch ahead.
+    if (concurrency < 2 || nextStart == 0) {
+      return fetchPage(nextStart);
+    }
+    if (!pending.isEmpty() && pending.getFirst().start != nextStart) {
+      // previous page was short.
+      cancelPending();
+    }
+    if (pending.isEmpty()) {
+      fetchStart = nextStart;
+    }
+    while (pending.size() < concurrency && (total < 0 || fetchStart < total)) {
+      final int start = fetchStart;
+      pending.add(new PendingPage(start, getExecutor().submit(new Callable<Page>() {
+        public Page call() throws IOException {
+          return fetchPage(start);
+        }
+      })));
+      fetchStart += pageSize;
+    }
+    if (pending.isEmpty()) {
+      return fetchPage(nextStart);
+    }
+    try {
+      return pending.removeFirst().future.get();
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException("interrupted waiting for page at " + nextStart);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException)
+        throw (IOException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    while (!current.hasNext()) {
+      if (done) return false;
+      Page page;
+      try {
+        page = nextPage();
+      } catch (IOException ex) {
+        close();
+        throw ex;
+      } catch (RuntimeException ex) {
+        close();
+        throw ex;
+      }
+      nextStart += page.count;
+      total = page.total;
+      if (page.count == 0 || (total >= 0 && nextStart >= total)) {
+        close();
+      }
+      current = page.items.iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public FileStatus next() throws IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  private void cancelPending() {
+    for (PendingPage p : pending) {
+      p.future.cancel(true);
+    }
+    pending.clear();
+  }
+
+  @Override
+  public void close() {
+    done = true;
+    cancelPending();
+    current = Collections.<FileStatus>emptyList().iterator();
+  }
+}
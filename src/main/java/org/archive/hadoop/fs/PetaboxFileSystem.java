@@ -3,22 +3,31 @@
  */
 package org.archive.hadoop.fs;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,6 +51,7 @@ import org.archive.petabox.CookieFilePetaboxCredentialProvider;
 import org.archive.petabox.HMACPetaboxAuthProvider;
 import org.archive.petabox.ItemFile;
 import org.archive.petabox.ItemMetadata;
+import org.archive.petabox.ItemMetadataCache;
 import org.archive.petabox.PetaboxClient;
 import org.archive.petabox.PetaboxClientConfig;
 import org.archive.petabox.PetaboxCredentialProvider;
@@ -87,6 +97,21 @@ public class PetaboxFileSystem extends FileSystem {
 	 * queries)
 	 */
     private int maxMetadataConcurrency = 10;
+	/**
+	 * number of items that may fail in {@link #listStatus(Path[], PathFilter)}
+	 * before it gives up. 0, the default, fails on the first item that fails,
+	 * as listing one path at a time does. negative for no limit, i.e. failures
+	 * are only logged and the items left out.
+	 */
+	private int maxListFailures = 0;
+	private ExecutorService metadataExecutor;
+	private MetadataResolver metadataResolver;
+	/**
+	 * metadata API requests in progress, so that concurrent requests for the
+	 * same item wait for one response.
+	 */
+	private ConcurrentMap<String, FutureTask<ItemMetadata>> pendingMetadata =
+		new ConcurrentHashMap<String, FutureTask<ItemMetadata>>();
 
 
 	private Class<? extends ItemSearcher> itemSearcherClass = SearchEngineItemSearcher.class;
@@ -234,6 +259,16 @@ public class PetaboxFileSystem extends FileSystem {
 		
 		maxMetadataConcurrency = conf.getInt(confbase + ".max-metadata-concurrency",
 		        maxMetadataConcurrency);
+		maxListFailures = conf.getInt(confbase + ".max-list-failures", maxListFailures);
+
+		// persistent metadata cache, typically a local directory shared by all tasks on a node.
+		String cacheDir = conf.get(confbase + ".metadata-cache.dir");
+		if (cacheDir != null && !cacheDir.isEmpty()) {
+			long ttl = conf.getLong(confbase + ".metadata-cache.ttl",
+					ItemMetadataCache.DEFAULT_TTL / 1000) * 1000;
+			LOG.info("caching item metadata in " + cacheDir + " for up to " + ttl / 1000 + "s");
+			this.pbclient.setMetadataCache(new ItemMetadataCache(new File(cacheDir), ttl));
+		}
 
 		LOG.info("PetaboxFileSystem.initialize:fsUri=" + fsUri);
 		if (defaultInstance == null)
@@ -282,20 +317,62 @@ public class PetaboxFileSystem extends FileSystem {
 			return defaultValue;
 		}
 	}
-	protected ItemMetadata getItemMetadata(String itemid) throws IOException {
+	protected ItemMetadata getItemMetadata(final String itemid) throws IOException {
 		ItemMetadata md;
 		synchronized (metadataCache) {
 		    md = (ItemMetadata)metadataCache.get(itemid);
 		}
-		if (md == null) {
-			md = pbclient.getItemMetadata(itemid);
-			if (md != null) {
-			    synchronized (metadataCache) {
-			        metadataCache.put(itemid, md);
-			    }
+		if (md != null) return md;
+		FutureTask<ItemMetadata> task = new FutureTask<ItemMetadata>(new Callable<ItemMetadata>() {
+			public ItemMetadata call() throws IOException {
+				ItemMetadata fetched = pbclient.getItemMetadata(itemid);
+				if (fetched != null) {
+				    synchronized (metadataCache) {
+				        metadataCache.put(itemid, fetched);
+				    }
+				}
+				return fetched;
+			}
+		});
+		FutureTask<ItemMetadata> pending = pendingMetadata.putIfAbsent(itemid, task);
+		if (pending == null) {
+			pending = task;
+			try {
+				task.run();
+			} finally {
+				pendingMetadata.remove(itemid, task);
 			}
 		}
-		return md;
+		try {
+			return pending.get();
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException("interrupted waiting for metadata of " + itemid);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * fetch metadata of items {@code itemids} into the persistent metadata cache,
+	 * with {@link MetadataResolver}, sharing its executor and the metadata API
+	 * concurrency limit. items already cached and fresh are skipped.
+	 * @param failed receives identifiers of items failed to fetch; may be null.
+	 * @return number of items fetched.
+	 * @throws IOException if no persistent metadata cache is configured, or more
+	 * than {@code max-list-failures} items failed.
+	 */
+	public int warmMetadataCache(Collection<String> itemids, Collection<String> failed)
+			throws IOException {
+		if (pbclient.getMetadataCache() == null) {
+			throw new IOException("no metadata cache configured (" + "fs."
+					+ fsUri.getScheme() + ".metadata-cache.dir)");
+		}
+		return getMetadataResolver().fetchMetadata(itemids, failed);
 	}
 
 	/* (non-Javadoc)
@@ -399,6 +476,14 @@ public class PetaboxFileSystem extends FileSystem {
 		return fsUri;
 	}
 
+	/**
+	 * @return URL path prefix files are downloaded from, without a trailing
+	 * slash, e.g. "/serve"
+	 */
+	public String getDownloadPrefix() {
+		return downloadPrefix;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.apache.hadoop.fs.FileSystem#getWorkingDirectory()
 	 */
@@ -440,6 +525,24 @@ public class PetaboxFileSystem extends FileSystem {
 		return itemSearcher.searchItems(itemid);
 	}
 
+	/**
+	 * iterate over items in collection {@code itemid}, fetching them as they are
+	 * consumed. use this instead of {@link #searchItems(String)} for collections
+	 * too large to list in memory. searchers not implementing
+	 * {@link IterableItemSearcher} list the whole collection up front.
+	 * @param itemid collection identifier
+	 * @return ItemIterator over FileStatus for (non-collection) items.
+	 * @throws IOException
+	 */
+	public ItemIterator iterateItems(String itemid) throws IOException {
+	    LOG.info("iterating items in collection " + itemid + " with " +
+	            itemSearcher.getClass().getName());
+	    if (itemSearcher instanceof IterableItemSearcher) {
+	        return ((IterableItemSearcher)itemSearcher).iterateItems(itemid);
+	    }
+	    return new ArrayItemIterator(itemSearcher.searchItems(itemid));
+	}
+
 	private boolean accepted(ItemFile ifile) {
 		if (fileTypes == null || fileTypes.length == 0) return true;
 		if (ifile.getFormat() == null) return false;
@@ -491,66 +594,85 @@ public class PetaboxFileSystem extends FileSystem {
 		}
 	}
 	
-	class ListStatusTask implements Runnable {
-	    private List<FileStatus> results;
-	    private Path file;
-	    private PathFilter filter;
-	    public ListStatusTask(List<FileStatus> results, Path file, PathFilter filter) {
-	        this.results = results;
-	        this.file = file;
-	        this.filter = filter;
-	    }
-	    @Override
-	    public void run() {
-	        try {
-	            FileStatus listing[] = listStatus(file);
-	            if (listing != null) {
-	                for (FileStatus s : listing) {
-	                    if (filter.accept(s.getPath())) {
-	                        results.add(s);
-	                    }
-	                }
-	            }
-	        } catch (IOException ex) {
-	            // TODO: would want to abort the job if too many
-	            // items are failing to resolve.
-	            LOG.error("listStatus(" + file + " failed", ex);
-	        }
-	    }
+	/**
+	 * {@inheritDoc}
+	 * <p>overridden to apply {@code filter} to items in a collection as they
+	 * are enumerated, rather than after building the whole list.</p>
+	 */
+	@Override
+	public FileStatus[] listStatus(Path f, PathFilter filter) throws IOException {
+		if (f.depth() == 1) {
+			String itemid = f.getName();
+			ItemMetadata md = getItemMetadata(itemid);
+			if (md.isCollection()) {
+				LOG.info("enumerating items in collection " + itemid);
+				List<FileStatus> results = new ArrayList<FileStatus>();
+				ItemIterator items = iterateItems(itemid);
+				try {
+					while (items.hasNext()) {
+						FileStatus s = items.next();
+						if (filter.accept(s.getPath())) {
+							results.add(s);
+						}
+					}
+				} finally {
+					items.close();
+				}
+				return results.toArray(new FileStatus[results.size()]);
+			}
+		}
+		return super.listStatus(f, filter);
 	}
-	
+
+	/**
+	 * return resolver for listing items concurrently, sharing one executor of
+	 * {@code max-metadata-concurrency} threads.
+	 */
+	public synchronized MetadataResolver getMetadataResolver() {
+		if (metadataResolver == null) {
+			final AtomicInteger count = new AtomicInteger();
+			metadataExecutor = Executors.newFixedThreadPool(Math.max(1, maxMetadataConcurrency),
+					new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "petabox-metadata-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			metadataResolver = new MetadataResolver(this, metadataExecutor, maxListFailures);
+		}
+		return metadataResolver;
+	}
+
 	/**
 	 * {@inheritDoc}
-	 * <p>overridden to make concurrent metadata API queries for large
-	 * number of {@code files} (currently threashold is hard-coded as 50).
-	 * maximum number of concurrent queries is controlled by
-	 * configuration parameter {@code max-metadata-concurrency}.</p>
+	 * <p>overridden to list items concurrently with {@link MetadataResolver}.
+	 * maximum number of concurrent queries is controlled by configuration
+	 * parameter {@code max-metadata-concurrency}, and lowered while metadata
+	 * API is overloaded. listing fails if any item fails, unless
+	 * {@code max-list-failures} allows that many items to be skipped.</p>
 	 */
 	@Override
 	public FileStatus[] listStatus(Path[] files, PathFilter filter)
 	        throws IOException {
-	    // don't use multiple threads for small number of files.
-	    if (files.length < 50 || maxMetadataConcurrency < 2) {
+	    // don't use multiple threads for single path.
+	    if (files.length < 2 || maxMetadataConcurrency < 2) {
 	        return super.listStatus(files, filter);
 	    }
-
 	    LOG.info("listing files in " + files.length + " paths concurrently.");
-	    ExecutorService executor = Executors.newFixedThreadPool(
-	            Math.min(maxMetadataConcurrency, files.length));
-	    List<FileStatus> results = Collections.synchronizedList(new ArrayList<FileStatus>());
-	    for (Path file : files) {
-	        // listStatus(Path) can return something only for Path of depth==1.
-	        if (file.depth() == 1) {
-	            executor.execute(new ListStatusTask(results, file, filter));
-	        }
-	    }
-	    executor.shutdown();
-	    try {
-	        executor.awaitTermination(24L, TimeUnit.HOURS);
-	    } catch (InterruptedException ex) {
-	        throw new IOException("interrupted.");
-	    }
-	    return results.toArray(new FileStatus[results.size()]);
+	    return getMetadataResolver().listStatus(files, filter);
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (metadataExecutor != null) {
+				metadataExecutor.shutdownNow();
+				metadataExecutor = null;
+				metadataResolver = null;
+			}
+		}
+		super.close();
 	}
 	
 	/* (non-Javadoc)
@@ -0,0 +1,78 @@
+package org.archive.hadoop.fs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+public class PetaboxMetadataWarmer implements Tool {
+	public final static String TOOL_NAME = "petabox-metadata-warm";
+	public static final String TOOL_DESCRIPTION = 
+		"Fetch metadata for a list of Petabox items into the local metadata cache";
+
+	private Configuration conf;
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+	}
+	public Configuration getConf() {
+		return conf;
+	}
+	private static int USAGE(int code) {
+		System.err.println("USAGE");
+		System.err.println(TOOL_NAME + " [URI]");
+		System.err.println("read item identifiers from STDIN, one per line, and fetch their metadata into");
+		System.err.println("the directory set by fs.petabox.metadata-cache.dir, for PetaboxFileSystem");
+		System.err.println("URI (default petabox://archive.org/). Items cached and fresh are skipped.");
+		System.err.println("Items that failed are written to STDOUT, and the exit status is 1 if any");
+		System.err.println("did. More than fs.petabox.max-list-failures failed items, if set, abort the run.");
+		return code;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new Configuration(), new PetaboxMetadataWarmer(), args);
+		System.exit(res);
+	}
+
+	public int run(String[] args) throws IOException {
+		if(args.length > 1) {
+			return USAGE(1);
+		}
+		URI uri = URI.create(args.length > 0 ? args[0] : "petabox://archive.org/");
+		// failed items are reported, so don't stop at the first by default.
+		Configuration fsConf = new Configuration(conf);
+		String maxFailures = "fs." + uri.getScheme() + ".max-list-failures";
+		if(fsConf.get(maxFailures) == null) {
+			fsConf.setInt(maxFailures, -1);
+		}
+		PetaboxFileSystem fs = new PetaboxFileSystem();
+		fs.initialize(uri, fsConf);
+
+		List<String> itemids = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		while(true) {
+			String line = br.readLine();
+			if(line == null) {
+				break;
+			}
+			line = line.trim();
+			if(line.length() > 0) {
+				itemids.add(line);
+			}
+		}
+		List<String> failed = new ArrayList<String>();
+		int fetched = fs.warmMetadataCache(itemids, failed);
+		System.err.format("Fetched %d of %d items, %d failed\n", fetched, itemids.size(),
+				failed.size());
+		for(String itemid : failed) {
+			System.out.println(itemid);
+		}
+		return failed.isEmpty() ? 0 : 1;
+	}
+}
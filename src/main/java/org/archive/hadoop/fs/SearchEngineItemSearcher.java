@@ -31,7 +31,7 @@ import org.mortbay.util.ajax.JSON;
  * @author kenji
  *
  */
-public class SearchEngineItemSearcher implements ItemSearcher {
+public class SearchEngineItemSearcher implements IterableItemSearcher {
   private static Log LOG = LogFactory.getLog(SearchEngineItemSearcher.class);
 
   protected PetaboxFileSystem fs;
@@ -40,6 +40,7 @@ public class SearchEngineItemSearcher implements ItemSearcher {
   protected int retryDelay = 2000; // milliseconds
   protected int connectionTimeout = 60*1000;
   protected int socketTimeout = 0; // milliseconds, 0=infinite
+  protected int searchConcurrency = 4; // pages fetched in parallel
 
   public final static int SEARCH_ROWS_PER_PAGE = 200;
 
@@ -53,6 +54,7 @@ public class SearchEngineItemSearcher implements ItemSearcher {
     String confbase = "fs." + fsUri.getScheme();
     
     maxRetries = conf.getInt(confbase + ".max-retries", 10);
+    searchConcurrency = conf.getInt(confbase + ".search-concurrency", searchConcurrency);
   }
   
   protected static long isodatetime2timestamp(String isodatetime) {
@@ -80,115 +82,140 @@ public class SearchEngineItemSearcher implements ItemSearcher {
   /* (non-Javadoc)
    * @see org.archive.crawler.hadoop.ItemSearcher#searchItems(java.lang.String)
    */
-  @SuppressWarnings("unchecked")
   @Override
   public FileStatus[] searchItems(String itemid) throws IOException {
     List<FileStatus> result = new ArrayList<FileStatus>();
-    int start = 0;
-    long numresults = Long.MAX_VALUE;
-    while (start < numresults) {
-      URI uri;
-      try {
-	uri = buildSearchURI(itemid, start);
-	LOG.debug("search uri=" + uri);
-      } catch (URISyntaxException ex) {
-	throw new IOException("failed to build URI for itemid=" + itemid + ", start=" + start, ex);
+    ItemIterator items = iterateItems(itemid);
+    try {
+      while (items.hasNext()) {
+	result.add(items.next());
       }
-      PetaboxClient pbclient = fs.getPetaboxClient();
+    } finally {
+      items.close();
+    }
+    LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  /* (non-Javadoc)
+   * @see org.archive.hadoop.fs.IterableItemSearcher#iterateItems(java.lang.String)
+   */
+  @Override
+  public ItemIterator iterateItems(final String itemid) throws IOException {
+    return new PagedItemIterator(searchConcurrency, SEARCH_ROWS_PER_PAGE) {
+      @Override
+      protected Page fetchPage(int start) throws IOException {
+	return searchPage(itemid, start);
+      }
+    };
+  }
+
+  /**
+   * fetch one page of search results for collection {@code itemid}, starting
+   * at {@code start}.
+   */
+  @SuppressWarnings("unchecked")
+  protected PagedItemIterator.Page searchPage(String itemid, int start) throws IOException {
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    URI uri;
+    try {
+      uri = buildSearchURI(itemid, start);
+      LOG.debug("search uri=" + uri);
+    } catch (URISyntaxException ex) {
+      throw new IOException("failed to build URI for itemid=" + itemid + ", start=" + start, ex);
+    }
+    PetaboxClient pbclient = fs.getPetaboxClient();
 //      HttpClient client = fs.getHttpClient();
 //      HttpGet get = fs.createHttpGet(uri);
-      HttpEntity entity = null;
-      Map<String, Object> jo = null;
-      int retries = 0;
-      do {
+    HttpEntity entity = null;
+    Map<String, Object> jo = null;
+    int retries = 0;
+    do {
+      if (retries > 0) {
+	try {
+	  Thread.sleep(retryDelay);
+	} catch (InterruptedException ex) {
+	}
+      }
+      HttpResponse resp;
+      try {
+	//resp = client.execute(get);
+	      resp = pbclient.doGet(uri);
+      } catch (IOException ex) {
+	LOG.warn("connection to " + uri + " failed", ex);
+	if (++retries > maxRetries) {
+	  throw new IOException(uri + ": retry exhausted trying to connect");
+	}
+	continue;
+      }
+      StatusLine st = resp.getStatusLine();
+      entity = resp.getEntity();
+      switch (st.getStatusCode()) {
+      case 200:
 	if (retries > 0) {
-	  try {
-	    Thread.sleep(retryDelay);
-	  } catch (InterruptedException ex) {
-	  }
+	  LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
 	}
-	HttpResponse resp;
+	// it appears search engine often fails to return JSON formatted output despite
+	// status code 200. detect it here.
 	try {
-	  //resp = client.execute(get);
-		resp = pbclient.doGet(uri);
+	  Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
+	  jo = (Map<String, Object>)JSON.parse(reader);
+	  reader.close();
 	} catch (IOException ex) {
-	  LOG.warn("connection to " + uri + " failed", ex);
+	  LOG.warn(uri + " error reading 200 response: " + ex.getMessage());
 	  if (++retries > maxRetries) {
-	    throw new IOException(uri + ": retry exhausted trying to connect");
+	    throw new IOException(uri + ": retry exhausted");
 	  }
 	  continue;
 	}
-	StatusLine st = resp.getStatusLine();
-	entity = resp.getEntity();
-	switch (st.getStatusCode()) {
-	case 200:
-	  if (retries > 0) {
-	    LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
-	  }
-	  // it appears search engine often fails to return JSON formatted output despite
-	  // status code 200. detect it here.
-	  try {
-	    Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
-	    jo = (Map<String, Object>)JSON.parse(reader);
-	    reader.close();
-	  } catch (IOException ex) {
-	    LOG.warn(uri + " error reading 200 response: " + ex.getMessage());
-	    if (++retries > maxRetries) {
-	      throw new IOException(uri + ": retry exhausted");
-	    }
-	    continue;
-	  }
-	  if (jo == null) {
-	    LOG.warn(uri + " returned 200, but JSON parser failed on entity");
-	    if (++retries > maxRetries) {
-	      throw new IOException(uri + ": retry exhausted");
-	    }
-	    continue;
-	  }
-	  break;
-	case 502:
-	case 503:
-	case 504:
-	  if (entity != null)
-	    entity.getContent().close();
+	if (jo == null) {
+	  LOG.warn(uri + " returned 200, but JSON parser failed on entity");
 	  if (++retries > maxRetries) {
-	    throw new IOException(uri + ": retry exhausted on "
-		+ st.getStatusCode() + " " + st.getReasonPhrase());
+	    throw new IOException(uri + ": retry exhausted");
 	  }
-	  LOG.warn(uri + " failed " + st.getStatusCode() + " "
-	      + st.getReasonPhrase() + ", retry " + retries);
-	  entity = null;
 	  continue;
-	default:
-	  entity.getContent().close();
-	  throw new IOException(st.getStatusCode() + " " + st.getReasonPhrase());
 	}
-      } while (jo == null);
-      Map<String, Object> jresp = (Map<String, Object>)jo.get("response");
-      // is this a failure scenario that should be retried?
-      if (jresp == null) break;
-      Long numfound = (Long)jresp.get("numFound");
-      numresults = numfound != null ? numfound : 0;
-      Object[] jdocs = (Object[])jresp.get("docs");
-      // TODO: log warning?
-      if (jdocs == null || jdocs.length == 0) break;
-      for (int i = 0; i < jdocs.length; i++) {
-	Map<String, Object> jdoc = (Map<String, Object>)jdocs[i];
-	if (jdoc != null) {
-	  String iid = (String)jdoc.get("identifier");
-	  if (iid == null) continue;
-	  String publicdate = (String)jdoc.get("publicdate"); // ISO format
-	  long mtime = isodatetime2timestamp(publicdate);
-	  Path qf = new Path(fsUri.toString(), "/" + iid);
-	  LOG.debug("collection:" + itemid + " qf=" + qf);
-	  FileStatus fst = new FileStatus(0, true, 2, 4096, mtime, qf);
-	  result.add(fst);
+	break;
+      case 502:
+      case 503:
+      case 504:
+	if (entity != null)
+	  entity.getContent().close();
+	if (++retries > maxRetries) {
+	  throw new IOException(uri + ": retry exhausted on "
+	      + st.getStatusCode() + " " + st.getReasonPhrase());
 	}
+	LOG.warn(uri + " failed " + st.getStatusCode() + " "
+	    + st.getReasonPhrase() + ", retry " + retries);
+	entity = null;
+	continue;
+      default:
+	entity.getContent().close();
+	throw new IOException(st.getStatusCode() + " " + st.getReasonPhrase());
+      }
+    } while (jo == null);
+    Map<String, Object> jresp = (Map<String, Object>)jo.get("response");
+    // is this a failure scenario that should be retried?
+    if (jresp == null) return new PagedItemIterator.Page(result, 0, 0);
+    Long numfound = (Long)jresp.get("numFound");
+    long numresults = numfound != null ? numfound : 0;
+    Object[] jdocs = (Object[])jresp.get("docs");
+    // TODO: log warning?
+    if (jdocs == null || jdocs.length == 0) return new PagedItemIterator.Page(result, 0, numresults);
+    for (int i = 0; i < jdocs.length; i++) {
+      Map<String, Object> jdoc = (Map<String, Object>)jdocs[i];
+      if (jdoc != null) {
+	String iid = (String)jdoc.get("identifier");
+	if (iid == null) continue;
+	String publicdate = (String)jdoc.get("publicdate"); // ISO format
+	long mtime = isodatetime2timestamp(publicdate);
+	Path qf = new Path(fsUri.toString(), "/" + iid);
+	LOG.debug("collection:" + itemid + " qf=" + qf);
+	FileStatus fst = new FileStatus(0, true, 2, 4096, mtime, qf);
+	result.add(fst);
       }
-      start += jdocs.length;
     }
-    LOG.info(String.format("searchItems(collection=%s): returning %d items", itemid, result.size()));
-    return result.toArray(new FileStatus[result.size()]);
+    return new PagedItemIterator.Page(result, jdocs.length, numresults);
   }
 
 }
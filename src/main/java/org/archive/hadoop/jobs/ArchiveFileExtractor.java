@@ -16,8 +16,6 @@
 */
 package org.archive.hadoop.jobs;
 
-import com.google.common.io.ByteStreams;
-import com.google.common.io.LimitInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -27,6 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.lang.*;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -34,6 +33,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +45,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -81,17 +82,13 @@ import org.archive.extract.ExtractorOutput;
 import org.archive.extract.ProducerUtils;
 import org.archive.extract.ResourceFactoryMapper;
 import org.archive.extract.WATExtractorOutput;
-import org.archive.format.gzip.GZIPFormatException;
-import org.archive.format.gzip.GZIPMemberSeries;
 import org.archive.format.gzip.GZIPMemberWriter;
-import org.archive.format.gzip.GZIPSeriesMember;
 import org.archive.hadoop.util.FilenameInputFormat;
 import org.archive.resource.Resource;
 import org.archive.resource.ResourceProducer;
 import org.archive.resource.producer.ARCFile;
 import org.archive.resource.producer.EnvelopedResourceFile;
 import org.archive.resource.producer.WARCFile;
-import org.archive.streamcontext.SimpleStream;
 import org.archive.util.DateUtils;
 import org.archive.util.FileNameSpec;
 import org.archive.util.HMACSigner;
@@ -99,7 +96,10 @@ import org.archive.util.IAUtils;
 import org.archive.util.StringFieldExtractor.StringTuple;
 import org.archive.util.StringFieldExtractor;
 
-import org.archive.server.FileBackedInputStream;
+import org.archive.server.GZMemberCopier;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileBackedOutputStream;
 
 
 
@@ -120,6 +120,8 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 		private static final Charset UTF8 = Charset.forName("UTF-8");
 		private static int CR = 13;
 		private static int LF = 10;
+		// with -soft, members larger than this are spooled to a local temp file:
+		private static final int RECORD_MAX_RAM = 1024 * 1024 * 2;
 		
 		private String timestamp14;
 		private String timestampZ;
@@ -170,16 +172,6 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 			this.warcHeaderContents = warcHeaderContents;
 		}
 
-		private long getGZLength(InputStream is) 
-			throws IOException, GZIPFormatException {
-			
-			SimpleStream s = new SimpleStream(is);
-			GZIPMemberSeries gzs = new GZIPMemberSeries(s,"range",0,true);
-			GZIPSeriesMember m = gzs.getNextMember();
-			m.skipMember();
-			return m.getCompressedBytesRead();
-		}
-		
 	
 		/**
 	  	* <p>Configures the job.</p>
@@ -204,12 +196,6 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 				throw new IOException ("invalid input");
 			}
 		
-			boolean openArc = false;
-			boolean openWarc = false;
-			
-			FileNameSpec warcNamer;
-			FileNameSpec arcNamer;
-
 			String hmacName = this.jobConf.get("hmacName","");
 			String hmacSignature = this.jobConf.get("hmacSignature","");
 			
@@ -221,13 +207,6 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 			String warcHeaderString = this.jobConf.get("warcHeaderString");
 			warcHeaderContents = warcHeaderString.getBytes(UTF8);
 			
-			String outputDir = this.jobConf.get("outputDir");
-			
-			FileSystem hdfsSys = null;
-	
-			FSDataOutputStream currentArcOS = null;
-			FSDataOutputStream currentWarcOS = null;
-
 			try { 
 				long msse = DateUtils.parse14DigitDate(timestamp14).getTime();
 				timestampZ = DateUtils.getLog17Date(msse);
@@ -241,12 +220,6 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 			
 			String resourceLocationBagString = inputParts[1];
 			
-			arcNamer = new FileNameSpec(prefix, ".arc.gz");
-			warcNamer = new FileNameSpec(prefix, ".warc.gz");
-			
-			boolean firstArcRecord = true;
-			boolean firstWarcRecord = true;
-			
 			//remove braces
 			resourceLocationBagString = resourceLocationBagString.replaceAll("[{}]","");
 			
@@ -258,115 +231,281 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 			
 			//inputs
 			String[] resourceLocations = resourceLocationBagString.split("\t");
-		
-			FileBackedInputStream fbis = null;
-			InputStream is = null;
-                        long millis = System.currentTimeMillis();
-			String destArcOutputFileString = null;
-			String destWarcOutputFileString = null;
-	
-			for (int i=0; i< resourceLocations.length; i++) {
-				
-				String[] offLoc = resourceLocations[i].split(",");
-				long offset = Long.parseLong(offLoc[0]);
-				String url = offLoc[1];
-				
-				boolean isArc = false;
-					
-				try { 
-					if(url.endsWith(".arc.gz")) {
-						isArc = true;
-					} else if(url.endsWith(".warc.gz")) {		
-
-					} else {
-						throw new IOException("URL (" + url +
-						") must end with '.arc.gz' or '.warc.gz'");
+
+			int fetchers = Math.max(1, Math.min(this.jobConf.getInt("fetchers", 1), resourceLocations.length));
+			Extraction extraction = new Extraction(prefix, resourceLocations, signer, output, reporter);
+
+			if(fetchers == 1) {
+				extraction.new Fetcher().call();
+				return;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(fetchers);
+			try {
+				List<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for(int i = 0; i < fetchers; i++) {
+					futures.add(executor.submit(extraction.new Fetcher()));
+				}
+				IOException failure = null;
+				for(Future<Void> future : futures) {
+					try {
+						future.get();
+					} catch (InterruptedException e) {
+						// the task is being killed, don't wait for the fetchers:
+						extraction.abort();
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for fetchers");
+					} catch (ExecutionException e) {
+						// stop the other fetchers at their next record:
+						extraction.abort();
+						if(failure == null) {
+							Throwable cause = e.getCause();
+							failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+						}
+					}
+				}
+				if(failure != null) {
+					throw failure;
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		/**
+		* State of one map() call, shared by its fetchers: each fetcher
+		* takes the next record to copy, checks it, and appends it to its
+		* own ARC and WARC output files.
+		*/
+		private class Extraction {
+			private String[] resourceLocations;
+			private HMACSigner signer;
+			private OutputCollector output;
+			private Reporter reporter;
+			private FileNameSpec arcNamer;
+			private FileNameSpec warcNamer;
+			private long millis = System.currentTimeMillis();
+			private long maxFileSize = jobConf.getLong("maxFileSize", 0);
+			private boolean soft = jobConf.getBoolean("soft", false);
+			private AtomicInteger next = new AtomicInteger(0);
+			private volatile boolean aborted = false;
+			private FileSystem hdfsSys = null;
+
+			public Extraction(String prefix, String[] resourceLocations, HMACSigner signer, OutputCollector output, Reporter reporter) {
+				this.resourceLocations = resourceLocations;
+				this.signer = signer;
+				this.output = output;
+				this.reporter = reporter;
+				arcNamer = new FileNameSpec(prefix, ".arc.gz");
+				warcNamer = new FileNameSpec(prefix, ".warc.gz");
+			}
+
+			public void abort() {
+				aborted = true;
+			}
+
+			private synchronized String getNextName(boolean isArc) {
+				return isArc ? arcNamer.getNextName() : warcNamer.getNextName();
+			}
+
+			private synchronized FileSystem getHdfs(URI u) throws IOException, URISyntaxException {
+				//only initialize the FS once
+				if (hdfsSys == null) {
+					URI defaultURI = new URI(u.getScheme() + "://" + u.getHost() + ":"+ u.getPort() + "/");
+					hdfsSys = FileSystem.get(defaultURI, new Configuration());
+				}
+				return hdfsSys;
+			}
+
+			private void collect(String status, long offset, String url) throws IOException {
+				synchronized(output) {
+					output.collect(status, offset + "\t" + url);
+				}
+				reporter.progress();
+			}
+
+			private InputStream open(String url, long offset) throws IOException, URISyntaxException {
+				if(url.startsWith("http://")) {
+					URL u = new URL(url);
+					URLConnection conn = u.openConnection();
+					conn.setRequestProperty("Range", String.format("bytes=%d-", offset));
+					if(signer != null)	
+						conn.setRequestProperty("Cookie", signer.getHMacCookieStr(1000));
+					conn.connect();
+					return conn.getInputStream();
+				} else if(url.startsWith("hdfs://")){
+					URI u = new URI(url);
+					Path path = new Path(u.getPath());
+					FSDataInputStream fis = getHdfs(u).open(path);
+					fis.seek(offset);
+					return fis;
+				}
+				return null;
+			}
+
+			/**
+			* An ARC or WARC file being written, under a .TMP name until it
+			* is complete.
+			*/
+			private class OutputFile {
+				private String destOutputFileString;
+				private String outputFileString;
+				private FSDataOutputStream os;
+
+				public OutputFile(boolean isArc) throws IOException, URISyntaxException {
+					String newName = getNextName(isArc);
+					destOutputFileString = jobConf.get("outputDir") + "/" + newName;
+					outputFileString = destOutputFileString + "." + millis + ".TMP";
+					os = FileSystem.get( new java.net.URI( outputFileString ), jobConf ).create(new Path (outputFileString), false); 
+					byte[] header = isArc ? getARCHeader(newName) : getWARCHeader(newName);
+					GZIPMemberWriter w = new GZIPMemberWriter(os);
+					w.write(new ByteArrayInputStream(header));
+				}
+
+				public boolean isFull() throws IOException {
+					return maxFileSize > 0 && os.getPos() >= maxFileSize;
+				}
+
+				/**
+				* Close an incomplete file, leaving it under its .TMP name.
+				*/
+				public void close() {
+					try {
+						os.close();
+					} catch (IOException e) {
+						LOG.warn("Unable to close " + outputFileString, e);
 					}
-				
-					if(url.startsWith("http://")) {
-						URL u = new URL(url);
-						URLConnection conn = u.openConnection();
-						conn.setRequestProperty("Range", String.format("bytes=%d-", offset));
-						if(signer != null)	
-							conn.setRequestProperty("Cookie", signer.getHMacCookieStr(1000));
-						conn.connect();
-						is = conn.getInputStream();
-					} else if(url.startsWith("hdfs://")){
-						URI u = new URI(url);
-						//only initialize the FS once
-						if (hdfsSys == null) {
-							URI defaultURI = new URI(u.getScheme() + "://" + u.getHost() + ":"+ u.getPort() + "/");
-							hdfsSys = FileSystem.get(defaultURI, new Configuration());
+				}
+
+				public void finish() throws IOException, URISyntaxException {
+					os.close();
+					FileSystem.get(new java.net.URI(outputFileString), jobConf).rename(new Path (outputFileString), new Path (destOutputFileString));
+				}
+			}
+
+			public class Fetcher implements Callable<Void> {
+				private OutputFile arcFile = null;
+				private OutputFile warcFile = null;
+				private GZMemberCopier copier = new GZMemberCopier();
+
+				public Void call() throws IOException {
+					try {
+						int i;
+						while(!aborted && (i = next.getAndIncrement()) < resourceLocations.length) {
+							try {
+								copyRecord(resourceLocations[i]);
+							} catch (IOException e) {
+								// stop the other fetchers at their next record:
+								abort();
+								throw e;
+							}
+						}
+						if(aborted) {
+							return null;
+						}
+						try {
+							if(arcFile != null) {
+								arcFile.finish();
+								arcFile = null;
+							}
+							if(warcFile != null) {
+								warcFile.finish();
+								warcFile = null;
+							}
+						} catch (Exception e) {
+							LOG.error( "Error processing: ", e );
+							throw new IOException(e.toString() + "Error finalizing files");
+						}
+						return null;
+					} finally {
+						copier.end();
+						// left open by a failure or abort: close, but keep the .TMP name
+						if(arcFile != null) {
+							arcFile.close();
+						}
+						if(warcFile != null) {
+							warcFile.close();
 						}
-						Path path = new Path(u.getPath());
-						FSDataInputStream fis = hdfsSys.open(path);
-						fis.seek(offset);
-						is = fis;
 					}
+				}
+
+				private void copyRecord(String resourceLocation) throws IOException {
+					String[] offLoc = resourceLocation.split(",");
+					long offset = Long.parseLong(offLoc[0]);
+					String url = offLoc[1];
 					
-					fbis = new FileBackedInputStream(is);
-					long length = getGZLength(fbis);
-					InputStream orig = fbis.getInputStream();
-					if(isArc) {
-						if(firstArcRecord) {
-							String newArcName = arcNamer.getNextName();
-							destArcOutputFileString = this.jobConf.get("outputDir") + "/" + newArcName;
-							String outputFileString = destArcOutputFileString + "." + millis + ".TMP";
-							currentArcOS = FileSystem.get( new java.net.URI( outputFileString ), this.jobConf ).create(new Path (outputFileString), false); 
-							byte[] header = getARCHeader(newArcName);
-							GZIPMemberWriter w = new GZIPMemberWriter(currentArcOS);
-   	     						w.write(new ByteArrayInputStream(header));
-							firstArcRecord = false;
+					boolean isArc = false;
+					boolean writing = false;
+					InputStream is = null;
+					FileBackedOutputStream spool = null;
+						
+					try { 
+						if(url.endsWith(".arc.gz")) {
+							isArc = true;
+						} else if(url.endsWith(".warc.gz")) {		
+
+						} else {
+							throw new IOException("URL (" + url +
+							") must end with '.arc.gz' or '.warc.gz'");
 						}
-						LimitInputStream lis = new LimitInputStream(orig, length);
-						ByteStreams.copy(lis, currentArcOS);
-					} else {
-						if(firstWarcRecord) {
-							String newWarcName = warcNamer.getNextName();
-							destWarcOutputFileString = this.jobConf.get("outputDir") + "/" + newWarcName;
-							String outputFileString = destWarcOutputFileString + "." + millis + ".TMP";
-							currentWarcOS = FileSystem.get( new java.net.URI( outputFileString ), this.jobConf ).create(new Path (outputFileString), false); 
-							byte[] header = getWARCHeader(newWarcName);
-							GZIPMemberWriter w = new GZIPMemberWriter(currentWarcOS);
-           						w.write(new ByteArrayInputStream(header));
-							firstWarcRecord = false;
+					
+						is = open(url, offset);
+
+						if(soft) {
+							// check the whole member, CRC and size included, before
+							// any of it goes into the output, so a corrupt record
+							// can still be skipped:
+							spool = new FileBackedOutputStream(RECORD_MAX_RAM, true);
+							copier.copy(is, spool);
+						}
+
+						if(isArc && arcFile == null) {
+							arcFile = new OutputFile(true);
+						} else if(!isArc && warcFile == null) {
+							warcFile = new OutputFile(false);
+						}
+						OutputFile file = isArc ? arcFile : warcFile;
+						writing = true;
+						if(spool != null) {
+							copySpool(spool, file);
+						} else {
+							copier.copy(is, file.os);
+						}
+						if(file.isFull()) {
+							file.finish();
+							if(isArc) {
+								arcFile = null;
+							} else {
+								warcFile = null;
+							}
+						}
+						collect("SUCCESS", offset, url);
+					} catch (Exception e) {
+						LOG.error( "Error processing: ", e );
+						collect("FAIL", offset, url);
+						// a partly written member cannot be taken back out of the output:
+						if ( ! soft || writing ) {
+							throw new IOException( e.toString() + "offset:" + offset + "url:" + url );
+						}
+					} finally {
+						if(is != null) {
+							is.close();
+						}
+						if(spool != null) {
+							spool.reset();
 						}
-						LimitInputStream lis = new LimitInputStream(orig, length);
-						ByteStreams.copy(lis, currentWarcOS);
-					}
-					output.collect("SUCCESS",offset + "\t" + url);
-				} catch (Exception e) {
-					LOG.error( "Error processing: ", e );
-					output.collect("FAIL",offset + "\t" + url);
-					if ( ! this.jobConf.getBoolean( "soft", false ) ) {
-						throw new IOException( e.toString() + "offset:" + offset + "url:" + url );
-					}
-				} finally {
-					if(is != null) {
-						is.close();
-					}
-					if(fbis != null) {
-						fbis.resetBacker();
 					}
 				}
-			}
-			
-			// end of for loop
-			try {
-				if(currentArcOS != null) {
-					currentArcOS.close();
-					FileSystem.get(new java.net.URI(destArcOutputFileString + "." + millis + ".TMP"), this.jobConf).rename(new Path (destArcOutputFileString + "." + millis + ".TMP"), new Path (destArcOutputFileString));
-				}
-				
-				if(currentWarcOS != null) {
-					currentWarcOS.close();
-					FileSystem.get(new java.net.URI(destWarcOutputFileString + "." + millis + ".TMP"), this.jobConf).rename(new Path (destWarcOutputFileString + "." + millis + ".TMP"), new Path (destWarcOutputFileString));
+
+				private void copySpool(FileBackedOutputStream spool, OutputFile file) throws IOException {
+					InputStream member = spool.getSupplier().getInput();
+					try {
+						ByteStreams.copy(member, file.os);
+					} finally {
+						member.close();
+					}
 				}
-			} catch (Exception e) {
-				LOG.error( "Error processing: ", e );
-				throw new IOException(e.toString() + "Error finalizing files");
 			}
-		} 
+		}
 	}
 
 	/** 
@@ -380,7 +519,11 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 		usage+="\t\t-hmacname HMACNAME - The HMAC Name string\n";
 		usage+="\t\t-hmacsignature HMACSIG - The HMAC Signature string\n";
 		usage+="\t\t-warc-header-local-file LOCALPATH_TO_WARCHEADERFILE - The local file containing the WARC header to use\n";
-		usage+="\t\t-soft - tolerate task exceptions\n";
+		usage+="\t\t-soft - skip records which cannot be fetched or are corrupt, instead of failing the task. each record is then checked before it is written, large ones spooled to local disk\n";
+		usage+="\t\t-fetchers NUM - copy NUM records at once in each map task, each into its own output files (default: 1)\n";
+		usage+="\t\t-max-file-size BYTES - start a new output file once one reaches BYTES (default: no limit)\n";
+		usage+="\t\t-locality - group lines by source file, sort records by source offset, and run map tasks near their sources\n";
+		usage+="\t\t\t(set " + ManifestInputFormat.PETABOX_URI_CONFIGURATION + " to a petabox:// URI to locate Petabox download URLs by item)\n";
 		usage+="\t\t-timeout MILLISECONDS - mapred.task.timeout setting (default: 72000000)\n";
 		usage+="\t\t-failpct PCT - mapred.max.map.failures.percent (default: 0). Set to 10 to allow 10% of map tasks to fail\n";
 		usage+="\tThe taskfile contains lines of the form:\n";
@@ -420,6 +563,7 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 
 		int arg = 0;
 		int numMaps = 10;
+		boolean locality = false;
 		
 		String DEFAULT_WARC_PATTERN = "software: %s Extractor\r\n" +
 		"format: WARC File Format 1.0\r\n" +
@@ -462,6 +606,17 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 				String hmacSignature = args[arg];
 				job.set("hmacSignature",hmacSignature);
 				arg++;
+			} else if(args[arg].equals("-locality")) {
+				locality = true;
+				arg++;
+			} else if(args[arg].equals("-fetchers")) {
+				arg++;
+				job.setInt("fetchers",Integer.parseInt(args[arg]));
+				arg++;
+			} else if(args[arg].equals("-max-file-size")) {
+				arg++;
+				job.setLong("maxFileSize",Long.parseLong(args[arg]));
+				arg++;
 			} else if(args[arg].equals("-timeout")) {
 				arg++;
 				int taskTimeout = Integer.parseInt(args[arg]);
@@ -493,7 +648,11 @@ public class ArchiveFileExtractor extends Configured implements Tool {
 		job.set("outputDir",outputDir);
 		Path outputPath = new Path(outputDir);
 		
-		job.setInputFormat(TextInputFormat.class);
+		if(locality) {
+			job.setInputFormat(ManifestInputFormat.class);
+		} else {
+			job.setInputFormat(TextInputFormat.class);
+		}
 		job.setOutputFormat(TextOutputFormat.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(Text.class);
@@ -9,10 +9,12 @@ import org.archive.hadoop.cdx.HDFSLSR;
 import org.archive.hadoop.cdx.HDFSRangeDumper;
 import org.archive.hadoop.cdx.ManifestAggregator;
 import org.archive.hadoop.cdx.SummaryGenerator;
+import org.archive.hadoop.fs.PetaboxMetadataWarmer;
 import org.archive.hadoop.util.HDFSMove;
 import org.archive.hadoop.util.HDFSSync;
 import org.archive.hadoop.util.HDFSeeko;
 import org.archive.io.ZipNumWriterTool;
+import org.archive.server.GZMemberIndexTool;
 import org.archive.server.GZRangeClientTool;
 import org.archive.server.GZRangeServer;
 import org.archive.util.binsearch.FileSearchTool;
@@ -96,6 +98,10 @@ public class JobDriver {
 					GZRangeServer.class,
 					GZRangeServer.TOOL_DESCRIPTION);
 
+			pgd.addClass(GZMemberIndexTool.TOOL_NAME,
+					GZMemberIndexTool.class,
+					GZMemberIndexTool.TOOL_DESCRIPTION);
+
 			pgd.addClass(GZRangeClientTool.TOOL_NAME,
 					GZRangeClientTool.class,
 					GZRangeClientTool.TOOL_DESCRIPTION);
@@ -127,6 +133,10 @@ public class JobDriver {
 			pgd.addClass(MergeCluster.TOOL_NAME,
 					MergeCluster.class,
 					MergeCluster.TOOL_DESCRIPTION);			
+
+			pgd.addClass(PetaboxMetadataWarmer.TOOL_NAME,
+					PetaboxMetadataWarmer.class,
+					PetaboxMetadataWarmer.TOOL_DESCRIPTION);
 			
 			pgd.driver(args);
 
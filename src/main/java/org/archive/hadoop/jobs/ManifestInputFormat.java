@@ -0,0 +1,432 @@
+package org.archive.hadoop.jobs;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.archive.hadoop.fs.PetaboxFileSystem;
+
+/**
+ * Input format for {@link ArchiveFileExtractor} manifests, lines of
+ * "PREFIX&lt;tab&gt;{(OFFSET,URL),...}", which keeps reads from source
+ * files near-sequential and local:
+ * <ul>
+ * <li>records in each line are sorted by source URL, then offset</li>
+ * <li>lines are grouped by the source file most of their records come
+ * from, so lines reading the same files go to the same map task</li>
+ * <li>each split is located on the hosts holding most of its records:
+ * HDFS block locations for hdfs:// URLs, the item's d1/d2 servers for
+ * Petabox download URLs, and the server itself for other http:// URLs</li>
+ * </ul>
+ * Lines are never split, as each one names its own output files. The whole
+ * manifest is read when computing splits.
+ */
+public class ManifestInputFormat extends FileInputFormat<LongWritable, Text> {
+	private static final Log LOG = LogFactory.getLog(ManifestInputFormat.class);
+
+	/**
+	 * petabox:// URI to look up d1/d2 servers of http://HOST/download/ITEM/FILE
+	 * URLs with, where HOST is the URI's host. URLs under the file system's
+	 * configured download prefix (fs.petabox.download-prefix) are looked up
+	 * too. Unset to use URL hosts only.
+	 */
+	public final static String PETABOX_URI_CONFIGURATION =
+		"manifest.petabox.uri";
+	/**
+	 * Most hosts reported for each split.
+	 */
+	public final static int MAX_LOCATIONS = 3;
+
+	/**
+	 * public download path of Petabox items, whatever the download prefix.
+	 */
+	private final static String PUBLIC_DOWNLOAD_PREFIX = "/download";
+
+	private static class Record {
+		long offset;
+		String url;
+		Record(long offset, String url) {
+			this.offset = offset;
+			this.url = url;
+		}
+	}
+
+	/**
+	 * A parsed manifest line.
+	 */
+	static class Line {
+		String prefix;
+		List<Record> records = new ArrayList<Record>();
+		String text;
+		String primary = "";
+		long primaryOffset = 0;
+
+		/**
+		 * @param text manifest line. Lines not in the expected form are kept
+		 * as they are, for the mapper to report.
+		 */
+		Line(String text) {
+			this.text = text;
+			String[] parts = text.split("\t");
+			if(parts.length != 2) {
+				return;
+			}
+			String bag = parts[1].replaceAll("[{}]","")
+				.replace("),(", ")\t(").replaceAll("[()]","");
+			for(String tuple : bag.split("\t")) {
+				int comma = tuple.indexOf(',');
+				try {
+					records.add(new Record(
+							Long.parseLong(tuple.substring(0, comma)),
+							tuple.substring(comma + 1)));
+				} catch(RuntimeException e) {
+					records.clear();
+					return;
+				}
+			}
+			prefix = parts[0];
+			Collections.sort(records, new Comparator<Record>() {
+				public int compare(Record a, Record b) {
+					int cmp = a.url.compareTo(b.url);
+					if(cmp != 0) {
+						return cmp;
+					}
+					return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+				}
+			});
+			StringBuilder sb = new StringBuilder(text.length());
+			sb.append(prefix).append("\t{");
+			int run = 0;
+			int best = 0;
+			for(int i = 0; i < records.size(); i++) {
+				Record r = records.get(i);
+				if(i > 0) {
+					sb.append(',');
+				}
+				sb.append('(').append(r.offset).append(',').append(r.url).append(')');
+				run = (i > 0 && r.url.equals(records.get(i - 1).url)) ? run + 1 : 1;
+				if(run > best) {
+					best = run;
+					primary = r.url;
+					primaryOffset = records.get(i - run + 1).offset;
+				}
+			}
+			sb.append('}');
+			this.text = sb.toString();
+		}
+
+		int getSize() {
+			return Math.max(1, records.size());
+		}
+	}
+
+	private final static Comparator<Line> LINE_ORDER = new Comparator<Line>() {
+		public int compare(Line a, Line b) {
+			int cmp = getHost(a.primary).compareTo(getHost(b.primary));
+			if(cmp != 0) {
+				return cmp;
+			}
+			cmp = a.primary.compareTo(b.primary);
+			if(cmp != 0) {
+				return cmp;
+			}
+			return a.primaryOffset < b.primaryOffset ? -1
+					: (a.primaryOffset == b.primaryOffset ? 0 : 1);
+		}
+	};
+
+	private static String getHost(String url) {
+		try {
+			String host = new URI(url).getHost();
+			return host == null ? "" : host;
+		} catch(URISyntaxException e) {
+			return "";
+		}
+	}
+
+	@Override
+	public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+		List<Line> lines = new ArrayList<Line>();
+		long total = 0;
+		for(FileStatus status : listStatus(job)) {
+			Path path = status.getPath();
+			FSDataInputStream in = path.getFileSystem(job).open(path);
+			try {
+				BufferedReader reader =
+					new BufferedReader(new InputStreamReader(in, "UTF-8"));
+				String text;
+				while((text = reader.readLine()) != null) {
+					if(text.length() == 0) {
+						continue;
+					}
+					Line line = new Line(text);
+					lines.add(line);
+					total += line.getSize();
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return makeSplits(lines, total, numSplits, job);
+	}
+
+	/**
+	 * Group lines into about numSplits splits of total records, cutting
+	 * where the primary source file changes once a split has its share of
+	 * records, and anyway at twice its share.
+	 */
+	static InputSplit[] makeSplits(List<Line> lines, long total, int numSplits,
+			JobConf job) {
+		Collections.sort(lines, LINE_ORDER);
+
+		Locator locator = new Locator(job);
+		long target = Math.max(1, (total + Math.max(1, numSplits) - 1) / Math.max(1, numSplits));
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		int start = 0;
+		long size = 0;
+		for(int i = 0; i < lines.size(); i++) {
+			size += lines.get(i).getSize();
+			boolean last = i == lines.size() - 1;
+			// prefer to cut where the primary source file changes:
+			if(last || size >= 2 * target || (size >= target
+					&& !lines.get(i + 1).primary.equals(lines.get(i).primary))) {
+				List<Line> group = lines.subList(start, i + 1);
+				splits.add(new ManifestSplit(group, size, locator.getHosts(group)));
+				start = i + 1;
+				size = 0;
+			}
+		}
+		locator.close();
+		LOG.info("Manifest of " + lines.size() + " lines, " + total
+				+ " records in " + splits.size() + " splits");
+		return splits.toArray(new InputSplit[splits.size()]);
+	}
+
+	/**
+	 * Finds the hosts holding source files.
+	 */
+	private static class Locator {
+		private JobConf job;
+		private Map<String,FileStatus> statuses = new HashMap<String,FileStatus>();
+		private PetaboxFileSystem petabox = null;
+		private String petaboxHost = null;
+		private String[] downloadPrefixes;
+
+		Locator(JobConf job) {
+			this.job = job;
+			String uri = job.get(PETABOX_URI_CONFIGURATION);
+			if(uri != null) {
+				try {
+					petabox = new PetaboxFileSystem();
+					petabox.initialize(new URI(uri), job);
+					petaboxHost = new URI(uri).getHost();
+					downloadPrefixes = new String[] {
+						petabox.getDownloadPrefix() + "/", PUBLIC_DOWNLOAD_PREFIX + "/"
+					};
+				} catch(Exception e) {
+					LOG.warn("Not using Petabox locations from " + uri, e);
+					petabox = null;
+				}
+			}
+		}
+
+		/**
+		 * @return the hosts holding the most records of lines
+		 */
+		String[] getHosts(List<Line> lines) {
+			final Map<String,Long> weights = new HashMap<String,Long>();
+			for(Line line : lines) {
+				List<Record> records = line.records;
+				int first = 0;
+				for(int i = 1; i <= records.size(); i++) {
+					if(i == records.size()
+							|| !records.get(i).url.equals(records.get(first).url)) {
+						long min = records.get(first).offset;
+						long max = records.get(i - 1).offset;
+						for(String host : getHosts(records.get(first).url, min, max)) {
+							Long w = weights.get(host);
+							weights.put(host, (w == null ? 0 : w) + i - first);
+						}
+						first = i;
+					}
+				}
+			}
+			List<String> hosts = new ArrayList<String>(weights.keySet());
+			Collections.sort(hosts, new Comparator<String>() {
+				public int compare(String a, String b) {
+					return weights.get(b).compareTo(weights.get(a));
+				}
+			});
+			if(hosts.size() > MAX_LOCATIONS) {
+				hosts = hosts.subList(0, MAX_LOCATIONS);
+			}
+			return hosts.toArray(new String[hosts.size()]);
+		}
+
+		private String[] getHosts(String url, long min, long max) {
+			try {
+				URI uri = new URI(url);
+				FileSystem fs = null;
+				Path path = null;
+				if("hdfs".equals(uri.getScheme())) {
+					path = new Path(uri);
+					fs = path.getFileSystem(job);
+				} else if(petabox != null && petaboxHost.equals(uri.getHost())) {
+					for(String prefix : downloadPrefixes) {
+						if(uri.getPath().startsWith(prefix)) {
+							Path root = new Path(petabox.getUri().resolve("/"));
+							path = new Path(root, uri.getPath().substring(prefix.length()));
+							fs = petabox;
+							break;
+						}
+					}
+				}
+				if(fs == null) {
+					String host = uri.getHost();
+					return host == null ? new String[0] : new String[] {host};
+				}
+				FileStatus status = statuses.get(url);
+				if(status == null) {
+					status = fs.getFileStatus(path);
+					statuses.put(url, status);
+				}
+				ArrayList<String> hosts = new ArrayList<String>();
+				for(BlockLocation block :
+						fs.getFileBlockLocations(status, min, max - min + 1)) {
+					for(String host : block.getHosts()) {
+						if(!hosts.contains(host)) {
+							hosts.add(host);
+						}
+					}
+				}
+				return hosts.toArray(new String[hosts.size()]);
+			} catch(Exception e) {
+				// locations are only a hint:
+				LOG.warn("Failed locating " + url + ": " + e);
+				return new String[0];
+			}
+		}
+
+		void close() {
+			if(petabox != null) {
+				try {
+					petabox.close();
+				} catch(IOException e) {
+				}
+			}
+		}
+	}
+
+	@Override
+	public RecordReader<LongWritable, Text> getRecordReader(
+			InputSplit split, JobConf job, Reporter reporter)
+			throws IOException {
+		reporter.setStatus(split.toString());
+		final ManifestSplit manifestSplit = (ManifestSplit) split;
+		return new RecordReader<LongWritable, Text>() {
+			int next = 0;
+
+			public boolean next(LongWritable key, Text value) {
+				if(next == manifestSplit.lines.length) {
+					return false;
+				}
+				key.set(next);
+				value.set(manifestSplit.lines[next]);
+				next++;
+				return true;
+			}
+			public LongWritable createKey() {
+				return new LongWritable();
+			}
+			public Text createValue() {
+				return new Text();
+			}
+			public long getPos() {
+				return next;
+			}
+			public float getProgress() {
+				return manifestSplit.lines.length == 0 ? 1.0f
+						: (float) next / manifestSplit.lines.length;
+			}
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Manifest lines, carried in the split itself.
+	 */
+	public static class ManifestSplit implements InputSplit {
+		private String[] lines;
+		private long length;
+		private String[] hosts;
+
+		public ManifestSplit() {
+			lines = new String[0];
+			hosts = new String[0];
+		}
+
+		ManifestSplit(List<Line> group, long length, String[] hosts) {
+			lines = new String[group.size()];
+			for(int i = 0; i < lines.length; i++) {
+				lines[i] = group.get(i).text;
+			}
+			this.length = length;
+			this.hosts = hosts;
+		}
+
+		/**
+		 * @return number of records in the split
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		public String[] getLocations() {
+			return hosts;
+		}
+
+		public void write(DataOutput out) throws IOException {
+			out.writeLong(length);
+			WritableUtils.writeStringArray(out, lines);
+			WritableUtils.writeStringArray(out, hosts);
+		}
+
+		public void readFields(DataInput in) throws IOException {
+			length = in.readLong();
+			lines = WritableUtils.readStringArray(in);
+			hosts = WritableUtils.readStringArray(in);
+		}
+
+		@Override
+		public String toString() {
+			return "manifest split of " + lines.length + " lines, "
+				+ length + " records";
+		}
+	}
+}
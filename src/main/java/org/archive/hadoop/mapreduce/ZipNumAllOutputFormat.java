@@ -12,6 +12,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.TaskID;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.archive.hadoop.cdx.BinarySummaryWriter;
 import org.archive.hadoop.util.PartitionName;
 
 public class ZipNumAllOutputFormat extends FileOutputFormat<Text, Text> {
@@ -24,6 +25,10 @@ public class ZipNumAllOutputFormat extends FileOutputFormat<Text, Text> {
 	private static final String DEFAULT_PART_MOD = "a-";
 	private String partMod = "";
 
+	private static final String ZIP_NUM_COMPRESSION_LEVEL = "conf.zipnum.compression.level";
+	private static final String ZIP_NUM_COMPRESSION_WORKERS = "conf.zipnum.compression.workers";
+	private static final int DEFAULT_COMPRESSION_WORKERS = 1;
+
 	public ZipNumAllOutputFormat() {
 		this(DEFAULT_ZIP_NUM_LINES);
 	}
@@ -40,6 +45,21 @@ public class ZipNumAllOutputFormat extends FileOutputFormat<Text, Text> {
 		conf.setInt(ZIP_NUM_OVERCRAWL_CONFIGURATION, count);
 	}
 
+	/**
+	 * @param level Deflater compression level for each block, 0-9
+	 */
+	public static void setZipNumCompressionLevel(Configuration conf, int level) {
+		conf.setInt(ZIP_NUM_COMPRESSION_LEVEL, level);
+	}
+
+	/**
+	 * @param workers number of threads compressing blocks in each task,
+	 * 1 to compress on the task thread
+	 */
+	public static void setZipNumCompressionWorkers(Configuration conf, int workers) {
+		conf.setInt(ZIP_NUM_COMPRESSION_WORKERS, workers);
+	}
+
 	@Override
 	public RecordWriter<Text, Text> getRecordWriter(TaskAttemptContext context)
 			throws IOException, InterruptedException {
@@ -47,6 +67,10 @@ public class ZipNumAllOutputFormat extends FileOutputFormat<Text, Text> {
 		Configuration conf = context.getConfiguration();
 		count = conf.getInt(ZIP_NUM_LINES_CONFIGURATION, DEFAULT_ZIP_NUM_LINES);
 		int dayLimit = conf.getInt(ZIP_NUM_OVERCRAWL_CONFIGURATION, -1);
+		int level = conf.getInt(ZIP_NUM_COMPRESSION_LEVEL,
+				ZipNumAllShardRecordWriter.DEFAULT_COMPRESSION_LEVEL);
+		int workers = conf.getInt(ZIP_NUM_COMPRESSION_WORKERS,
+				DEFAULT_COMPRESSION_WORKERS);
 		
 		partMod = conf.get(ZIP_NUM_PART_MOD, DEFAULT_PART_MOD);
 
@@ -59,14 +83,25 @@ public class ZipNumAllOutputFormat extends FileOutputFormat<Text, Text> {
 		FileSystem summaryFs = summaryFile.getFileSystem(conf);
 		FSDataOutputStream mainOut = mainFs.create(mainFile, false);
 		FSDataOutputStream summaryOut = summaryFs.create(summaryFile, false);
+		ZipNumAllShardRecordWriter writer;
 		if(dayLimit == -1) {
 			// This (should be) a better implementation, but appears to have a 
 			// bug - summary files are empty in some cases.. Should track it down
 //			return new ZipNumRecordWriter(count, mainOut, summaryOut);
-			return new ZipNumAllShardRecordWriter(count, mainOut, summaryOut, partitionName);
+			writer = new ZipNumAllShardRecordWriter(count, mainOut, summaryOut, partitionName,
+					level, workers);
 		} else {
-			return new ZipNumAllShardRecordWriter(count, mainOut, summaryOut, partitionName);
+			writer = new ZipNumAllShardRecordWriter(count, mainOut, summaryOut, partitionName,
+					level, workers);
+		}
+		writer.setBlockSizer(ZipNumOutputFormat.getBlockSizer(conf));
+		if(ZipNumOutputFormat.isBinarySummary(conf)) {
+			Path binaryFile = getWorkFile(context, partitionName + "-idx"
+					+ BinarySummaryWriter.BINARY_SUFFIX);
+			FSDataOutputStream binaryOut = summaryFs.create(binaryFile, false);
+			writer.setBinarySummary(new BinarySummaryWriter(binaryOut, partitionName));
 		}
+		return writer;
 	}
 
 	/**
@@ -4,56 +4,139 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.archive.format.gzip.GZIPConstants;
-import org.archive.format.gzip.GZIPFooter;
-import org.archive.format.gzip.GZIPHeader;
-import org.archive.util.io.CRCOutputStream;
+import org.archive.hadoop.cdx.BinarySummaryWriter;
 
+/**
+ * RecordWriter producing a ZipNum shard and its summary, compressing each
+ * block of <code>limit</code> lines (or fewer, with a
+ * {@link ZipNumBlockSizer}) as a separate gzip member.
+ * <p>
+ * Lines are copied as bytes straight into a reusable block buffer, and
+ * the summary key is found by scanning the first line's bytes.
+ * <p>
+ * With more than one worker, filled blocks are handed to a pool of
+ * {@link ZipNumBlockCompressor}s running in parallel, while the gzip
+ * members and summary lines are written strictly in block order.
+ */
 public class ZipNumAllShardRecordWriter  extends RecordWriter<Text, Text>{
     protected DataOutputStream outMain;
     protected DataOutputStream outSummary;
     protected int limit;
-    
+
     private int count;
     private long offset;
-    private ByteArrayOutputStream mainBuffer;
     //private ByteArrayOutputStream summaryBuffer;
-    private ByteArrayOutputStream gzBuffer;
     public static int DEFAULT_MAX_GZ_BUFFER = 1024 * 1024 * 2;
     public static int DEFAULT_MAX_BUFFER = 1024 * 1024 * 10;
+    /**
+     * initial size of the block and compressor buffers. they grow to the
+     * largest block they have held, rather than every block in flight
+     * reserving DEFAULT_MAX_BUFFER + DEFAULT_MAX_GZ_BUFFER up front.
+     */
+    public static int INITIAL_BUFFER = 64 * 1024;
     public static char DEFAULT_DELIM = ' ';
-    
+    public static int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+    /**
+     * number of blocks the block sizer's compression ratio lags behind
+     * the block being filled. the same lag is used with any number of
+     * workers, so block boundaries, and so the output, do not depend on
+     * how many blocks are being compressed concurrently.
+     */
+    public static int SIZER_LAG = 8;
+
     public static int newline = 10;
     public char delim = DEFAULT_DELIM;
     private final static Charset UTF8 = Charset.forName("utf-8");
-    
+    private final static byte[] EMPTY = new byte[0];
+
     protected String partName;
+    protected BinarySummaryWriter binarySummary;
+    protected ZipNumBlockSizer blockSizer;
+
+    private int workers;
+    private Block current;
+    private LinkedList<Block> free;
+    private LinkedList<Future<Block>> pending;
+    private BlockingQueue<ZipNumBlockCompressor> compressors;
+    private ExecutorService executor;
+    private long blocksFinished;
+    private long blocksSized;
+    private LinkedList<long[]> unsized;
 
     public ZipNumAllShardRecordWriter(int limit,
     		DataOutputStream outMain, DataOutputStream outSummary, String partName) {
+    	this(limit, outMain, outSummary, partName, DEFAULT_COMPRESSION_LEVEL, 1);
+    }
+
+    /**
+     * @param level Deflater compression level
+     * @param workers number of blocks to compress in parallel, 1 to
+     * compress on the calling thread
+     */
+    public ZipNumAllShardRecordWriter(int limit,
+    		DataOutputStream outMain, DataOutputStream outSummary, String partName,
+    		int level, int workers) {
     	this.outMain = outMain;
     	this.outSummary = outSummary;
     	this.limit = limit;
     	count = 0;
     	offset = 0;
-    	mainBuffer = new ByteArrayOutputStream(DEFAULT_MAX_BUFFER);
     	//summaryBuffer = new ByteArrayOutputStream(DEFAULT_MAX_BUFFER);
-    	gzBuffer = new ByteArrayOutputStream(DEFAULT_MAX_GZ_BUFFER);
     	this.partName = partName;
+    	this.workers = Math.max(1, workers);
+    	compressors = new ArrayBlockingQueue<ZipNumBlockCompressor>(this.workers);
+    	for(int i = 0; i < this.workers; i++) {
+    		compressors.add(new ZipNumBlockCompressor(level));
+    	}
+    	free = new LinkedList<Block>();
+    	pending = new LinkedList<Future<Block>>();
+    	unsized = new LinkedList<long[]>();
+    	if(this.workers > 1) {
+    		executor = Executors.newFixedThreadPool(this.workers);
+    	}
+    	current = new Block();
     }
 
 	@Override
 	public void close(TaskAttemptContext arg0) throws IOException,
 			InterruptedException {
-		finishCurrent();
-		outMain.close();
-		outSummary.close();
+		try {
+			finishCurrent();
+			while(!pending.isEmpty()) {
+				writeBlock(pending.removeFirst());
+			}
+		} finally {
+			if(executor != null) {
+				executor.shutdownNow();
+			}
+			for(ZipNumBlockCompressor c : compressors) {
+				c.end();
+			}
+			try {
+				outMain.close();
+			} finally {
+				try {
+					outSummary.close();
+				} finally {
+					if(binarySummary != null) {
+						binarySummary.close();
+					}
+				}
+			}
+		}
 	}
 
 //	public void writeBytes(byte[] key, int delim, byte[] value) throws IOException {
@@ -70,85 +153,172 @@ public class ZipNumAllShardRecordWriter  extends RecordWriter<Text, Text>{
 //		count++;
 //		if(count == limit) {
 //			finishCurrent();
-//		}		
+//		}
 //	}
 
 	public void writeLine(String line) throws IOException {
+		byte[] b = line.getBytes(UTF8);
+		append(b, b.length, EMPTY, 0);
+	}
+
+	@Override
+	public void write(Text key, Text val) throws IOException,
+			InterruptedException {
+		append(key.getBytes(), key.getLength(), val.getBytes(), val.getLength());
+	}
+
+	/**
+	 * Copy one line, key + delim + value (or just the non-empty one of
+	 * them), straight into the current block buffer.
+	 */
+	private void append(byte[] key, int keyLen, byte[] val, int valLen)
+	throws IOException {
 		if(count == 0) {
-			int spaceIndex = line.indexOf(delim);
 			// Include 2nd field (timestamp)
-			if (spaceIndex >= 0) {
-				spaceIndex = line.indexOf(delim, spaceIndex + 1);
-			}
-			String urlkey = ((spaceIndex >= 0) ? line.substring(0, spaceIndex) : line);
-			if (spaceIndex < 0) {
-				System.err.println("POSSIBLY INVALID CDX LINE: " + line);
+			if(!current.key.set(key, keyLen, val, valLen, delim)) {
+				System.err.println("POSSIBLY INVALID CDX LINE: " + current.key);
 			}
-			outSummary.writeBytes(urlkey);
-//			summaryBuffer.write(line);
-			//summaryBuffer.write(newline);
 		}
-		mainBuffer.write(line.toString().getBytes(UTF8));
-		mainBuffer.write(newline);
+		if(keyLen == 0) {
+			current.lines.write(val, 0, valLen);
+		} else if(valLen == 0) {
+			current.lines.write(key, 0, keyLen);
+		} else {
+			current.lines.write(key, 0, keyLen);
+			current.lines.write(delim);
+			current.lines.write(val, 0, valLen);
+		}
+		current.lines.write(newline);
 		count++;
-		if(count == limit) {
+		if(count == limit
+				|| (blockSizer != null && blockSizer.isFull(current.lines.size()))) {
 			finishCurrent();
-		}		
-	}
-	
-	@Override
-	public void write(Text key, Text val) throws IOException,
-			InterruptedException {
-		if (key.getLength() == 0) {
-			writeLine(val.toString());
-		} else if (val.getLength() == 0) {
-			writeLine(key.toString());
-		} else {
-			writeLine(key.toString() + delim + val.toString());
 		}
 	}
+
 	private void finishCurrent() throws IOException {
 		if(count == 0) {
 			return;
 		}
-		gzBuffer.reset();
-
-		// deflate the main buffer into the temp gzBuffer:
+		final Block block = current;
+		count = 0;
+		blocksFinished++;
+		if(executor == null) {
+			compress(block);
+			writeBlock(block);
+			current = block;
+		} else {
+			pending.add(executor.submit(new Callable<Block>() {
+				public Block call() throws Exception {
+					return compress(block);
+				}
+			}));
+			// bound the number of blocks in memory:
+			while(pending.size() >= workers * 2) {
+				writeBlock(pending.removeFirst());
+			}
+			current = free.isEmpty() ? new Block() : free.removeFirst();
+		}
+		updateSizer();
+	}
 
-		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
-		DeflaterOutputStream deflateOut = new DeflaterOutputStream(gzBuffer,deflater);
-		CRCOutputStream crcOut = new CRCOutputStream(deflateOut);
-		mainBuffer.writeTo(crcOut);
-		deflateOut.finish();
+	/**
+	 * Tell the block sizer about blocks up to {@link #SIZER_LAG} blocks
+	 * behind the next one, waiting for them to be written if needed.
+	 */
+	private void updateSizer() throws IOException {
+		if(blockSizer == null) {
+			return;
+		}
+		while(blocksSized < blocksFinished - SIZER_LAG) {
+			while(unsized.isEmpty()) {
+				writeBlock(pending.removeFirst());
+			}
+			long[] sizes = unsized.removeFirst();
+			blockSizer.blockWritten(sizes[0], sizes[1]);
+			blocksSized++;
+		}
+	}
 
-		// now calculate the gzip header and footer:
-		GZIPHeader gzHeader = new GZIPHeader();
-		gzHeader.addRecord(GZIPConstants.SL_RECORD, 
-				deflater.getBytesWritten() + GZIPConstants.GZIP_FOOTER_BYTES);
+	private Block compress(Block block) throws IOException {
+		ZipNumBlockCompressor compressor;
+		try {
+			compressor = compressors.take();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted waiting for compressor");
+		}
+		try {
+			block.length = compressor.compress(block.lines.getBuffer(), 0,
+					block.lines.size(), block.member);
+		} finally {
+			compressors.add(compressor);
+		}
+		return block;
+	}
 
-		GZIPFooter gzFooter = new GZIPFooter(crcOut.getCRCValue(), 
-				crcOut.getBytesWritten());
+	private void writeBlock(Future<Block> future) throws IOException {
+		Block block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for compressed block");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+		writeBlock(block);
+		free.add(block);
+	}
 
-		// write the header, the deflated bytes, and the footer:
-		int len = gzHeader.getLength() + gzBuffer.size()
-			+ GZIPConstants.GZIP_FOOTER_BYTES;
+	/**
+	 * Write a compressed block and its summary line, then reset it for
+	 * reuse.
+	 */
+	private void writeBlock(Block block) throws IOException {
+		int len = block.length;
 		long startOffset = offset;
 		offset += len;
-		gzHeader.writeBytes(outMain);
-		gzBuffer.writeTo(outMain);
-		gzFooter.writeBytes(outMain);
+		block.member.writeTo(outMain);
 		outMain.flush();
 
-		// write the summary buffer:
+		// write the summary line:
+		block.key.writeTo(outSummary);
 		String offsetAndLength = String.format("\t%s\t%d\t%d\n", partName, startOffset, len);
 		outSummary.writeBytes(offsetAndLength);
+		if(blockSizer != null) {
+			unsized.add(new long[] {block.lines.size(), len});
+		}
 		//summaryBuffer.writeTo(outSummary);
 		outSummary.flush();
+		if(binarySummary != null) {
+			binarySummary.write(block.key.getBytes(), 0, block.key.getLength(),
+					startOffset, len);
+		}
 
-		// reset the main and summary buffers for the next block:
-		mainBuffer.reset();
+		// reset the buffers for the next block:
+		block.lines.reset();
+		block.member.reset();
 		//summaryBuffer.reset();
-		count = 0;
+	}
+
+	/**
+	 * @param binarySummary if non-null, each summary line is also written
+	 * to this binary sidecar summary
+	 */
+	public void setBinarySummary(BinarySummaryWriter binarySummary) {
+		this.binarySummary = binarySummary;
+	}
+
+	/**
+	 * @param blockSizer if non-null, blocks are also closed once they reach
+	 * the size targeted by blockSizer, the line limit becoming a ceiling
+	 */
+	public void setBlockSizer(ZipNumBlockSizer blockSizer) {
+		this.blockSizer = blockSizer;
 	}
 
 	/**
@@ -165,4 +335,26 @@ public class ZipNumAllShardRecordWriter  extends RecordWriter<Text, Text>{
 		this.delim = delim;
 	}
 
+	/**
+	 * Uncompressed lines of one block, and the gzip member once compressed.
+	 */
+	private static class Block {
+		BlockBuffer lines = new BlockBuffer(INITIAL_BUFFER);
+		ByteArrayOutputStream member = new ByteArrayOutputStream(INITIAL_BUFFER);
+		ZipNumSummaryKey key = new ZipNumSummaryKey();
+		int length;
+	}
+
+	/**
+	 * ByteArrayOutputStream exposing its buffer, so blocks can be
+	 * compressed without copying them.
+	 */
+	private static class BlockBuffer extends ByteArrayOutputStream {
+		public BlockBuffer(int size) {
+			super(size);
+		}
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
 }
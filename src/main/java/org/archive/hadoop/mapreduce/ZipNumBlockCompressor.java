@@ -0,0 +1,78 @@
+package org.archive.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.archive.format.gzip.GZIPConstants;
+import org.archive.format.gzip.GZIPFooter;
+import org.archive.format.gzip.GZIPHeader;
+
+/**
+ * Compresses ZipNum blocks into complete gzip members, including the
+ * SL_RECORD extra field holding the compressed member length.
+ * <p>
+ * Each compressor owns one Deflater, CRC32 and output buffer which are
+ * reset between blocks, and must be released with {@link #end()}.
+ * Instances are not thread safe, but several may be used concurrently.
+ */
+public class ZipNumBlockCompressor {
+	private Deflater deflater;
+	private CRC32 crc;
+	private byte[] gzBuffer;
+
+	public ZipNumBlockCompressor(int level) {
+		deflater = new Deflater(level, true);
+		crc = new CRC32();
+		gzBuffer = new byte[ZipNumAllShardRecordWriter.INITIAL_BUFFER];
+	}
+
+	/**
+	 * Compress len bytes of lines into a single gzip member, appended to
+	 * member.
+	 * @return the length of the gzip member
+	 * @throws IOException
+	 */
+	public int compress(byte[] lines, int off, int len, OutputStream member)
+	throws IOException {
+		deflater.reset();
+		crc.reset();
+		crc.update(lines, off, len);
+
+		// deflate the lines into the gzBuffer, growing it if needed:
+		deflater.setInput(lines, off, len);
+		deflater.finish();
+		int deflated = 0;
+		while(!deflater.finished()) {
+			if(deflated == gzBuffer.length) {
+				byte[] tmp = new byte[gzBuffer.length * 2];
+				System.arraycopy(gzBuffer, 0, tmp, 0, deflated);
+				gzBuffer = tmp;
+			}
+			deflated += deflater.deflate(gzBuffer, deflated,
+					gzBuffer.length - deflated);
+		}
+
+		// now calculate the gzip header and footer:
+		GZIPHeader gzHeader = new GZIPHeader();
+		gzHeader.addRecord(GZIPConstants.SL_RECORD,
+				deflated + GZIPConstants.GZIP_FOOTER_BYTES);
+
+		GZIPFooter gzFooter = new GZIPFooter(crc.getValue(), len);
+
+		// write the header, the deflated bytes, and the footer:
+		gzHeader.writeBytes(member);
+		member.write(gzBuffer, 0, deflated);
+		gzFooter.writeBytes(member);
+		return gzHeader.getLength() + deflated
+			+ GZIPConstants.GZIP_FOOTER_BYTES;
+	}
+
+	/**
+	 * Release the native resources of the Deflater.
+	 */
+	public void end() {
+		deflater.end();
+	}
+}
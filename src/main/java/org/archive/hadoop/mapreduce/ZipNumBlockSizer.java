@@ -0,0 +1,88 @@
+package org.archive.hadoop.mapreduce;
+
+/**
+ * Decides when a ZipNum block is big enough to close, based on a target
+ * uncompressed and/or compressed size in bytes, so every block lookup
+ * costs about the same I/O regardless of line length. The writers still
+ * close a block at their line count limit, which acts as a ceiling.
+ * <p>
+ * The compressed size of a block is only known after it is compressed, so
+ * a compressed target is turned into an uncompressed limit using the
+ * compression ratio of the blocks written so far.
+ */
+public class ZipNumBlockSizer {
+	/**
+	 * Assumed ratio of uncompressed to compressed bytes, until the first
+	 * block is written.
+	 */
+	public static final int DEFAULT_RATIO = 4;
+
+	private long targetBytes;
+	private long targetCompressedBytes;
+	private long rawTotal;
+	private long compressedTotal;
+	private long rawLimit;
+
+	/**
+	 * @param targetBytes uncompressed block size to aim for, or 0
+	 * @param targetCompressedBytes compressed block size to aim for, or 0
+	 */
+	public ZipNumBlockSizer(long targetBytes, long targetCompressedBytes) {
+		this.targetBytes = targetBytes;
+		this.targetCompressedBytes = targetCompressedBytes;
+		rawTotal = 0;
+		compressedTotal = 0;
+		updateLimit();
+	}
+
+	/**
+	 * @return true if either target is set
+	 */
+	public boolean isEnabled() {
+		return rawLimit > 0;
+	}
+
+	/**
+	 * @param rawBytes uncompressed bytes in the current block
+	 * @return true if the current block should be closed
+	 */
+	public boolean isFull(long rawBytes) {
+		return rawLimit > 0 && rawBytes >= rawLimit;
+	}
+
+	/**
+	 * Record the sizes of a block once written, refining the estimated
+	 * compression ratio.
+	 */
+	public void blockWritten(long rawBytes, long compressedBytes) {
+		rawTotal += rawBytes;
+		compressedTotal += compressedBytes;
+		updateLimit();
+	}
+
+	/**
+	 * @return the current uncompressed size at which blocks are closed, or 0
+	 * if neither target is set
+	 */
+	public long getRawLimit() {
+		return rawLimit;
+	}
+
+	private void updateLimit() {
+		long limit = targetBytes;
+		if(targetCompressedBytes > 0) {
+			long estimate;
+			if(compressedTotal > 0) {
+				estimate = (long) (targetCompressedBytes
+						* ((double) rawTotal / compressedTotal));
+			} else {
+				estimate = targetCompressedBytes * DEFAULT_RATIO;
+			}
+			estimate = Math.max(1, estimate);
+			if(limit <= 0 || estimate < limit) {
+				limit = estimate;
+			}
+		}
+		rawLimit = limit;
+	}
+}
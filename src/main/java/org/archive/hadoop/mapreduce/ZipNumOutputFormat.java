@@ -15,6 +15,7 @@ import org.apache.hadoop.mapreduce.TaskID;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.archive.hadoop.cdx.BinarySummaryWriter;
 import org.archive.hadoop.util.PartitionName;
 
 /**
@@ -41,6 +42,11 @@ public class ZipNumOutputFormat extends TextOutputFormat<Text, Text> {
 	public static final String ZIP_SUMMARY_EXT = "conf.zipnum.summaryExt";
 	public static final String DEFAULT_SUMMARY_EXT = "-idx";
 
+	public static final String ZIP_SUMMARY_BINARY = "conf.zipnum.summaryBinary";
+
+	public static final String ZIP_NUM_TARGET_BYTES = "conf.zipnum.targetBytes";
+	public static final String ZIP_NUM_TARGET_COMPRESSED_BYTES = "conf.zipnum.targetCompressedBytes";
+
 	// public String partMod = "";
 
 	/**
@@ -74,6 +80,40 @@ public class ZipNumOutputFormat extends TextOutputFormat<Text, Text> {
 		return conf.getBoolean(ZIP_USE_MAP_INPUT_FILENAME, false);
 	}
 
+	/**
+	 * Also write a binary sidecar (summary name + ".bin") next to each
+	 * summary file.
+	 */
+	public static void setBinarySummary(Configuration conf, boolean binary) {
+		conf.setBoolean(ZIP_SUMMARY_BINARY, binary);
+	}
+
+	public static boolean isBinarySummary(Configuration conf) {
+		return conf.getBoolean(ZIP_SUMMARY_BINARY, false);
+	}
+
+	/**
+	 * Close each compressed envelope once it holds about targetBytes of
+	 * uncompressed text, or compresses to about targetCompressedBytes. The
+	 * line count becomes a ceiling. Either may be 0 to disable it.
+	 */
+	public static void setZipNumTargetBytes(Configuration conf,
+			long targetBytes, long targetCompressedBytes) {
+		conf.setLong(ZIP_NUM_TARGET_BYTES, targetBytes);
+		conf.setLong(ZIP_NUM_TARGET_COMPRESSED_BYTES, targetCompressedBytes);
+	}
+
+	/**
+	 * @return a ZipNumBlockSizer for the configured targets, or null if
+	 * envelopes are only cut by line count
+	 */
+	public static ZipNumBlockSizer getBlockSizer(Configuration conf) {
+		ZipNumBlockSizer sizer = new ZipNumBlockSizer(
+				conf.getLong(ZIP_NUM_TARGET_BYTES, 0),
+				conf.getLong(ZIP_NUM_TARGET_COMPRESSED_BYTES, 0));
+		return sizer.isEnabled() ? sizer : null;
+	}
+
 	/**
    *
    */
@@ -125,7 +165,15 @@ public class ZipNumOutputFormat extends TextOutputFormat<Text, Text> {
 		FSDataOutputStream mainOut = mainFs.create(mainFile, false);
 		FSDataOutputStream summaryOut = summaryFs.create(summaryFile, false);
 
-		return new ZipNumRecordWriter(codec, mainOut, summaryOut, outputBaseName, count);
+		ZipNumRecordWriter writer = new ZipNumRecordWriter(codec, mainOut, summaryOut, outputBaseName, count);
+		writer.setBlockSizer(getBlockSizer(conf));
+		if (isBinarySummary(conf)) {
+			Path binaryFile = getWorkFile(context, outputBaseName + summaryExt
+					+ BinarySummaryWriter.BINARY_SUFFIX);
+			FSDataOutputStream binaryOut = summaryFs.create(binaryFile, false);
+			writer.setBinarySummary(new BinarySummaryWriter(binaryOut, outputBaseName));
+		}
+		return writer;
 	}
 
 	/**
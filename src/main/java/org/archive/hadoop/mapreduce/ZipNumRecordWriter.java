@@ -8,6 +8,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionOutputStream;
 import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.archive.hadoop.cdx.BinarySummaryWriter;
 
 /**
  * RecordWriter which produces "zipnum" output format.  This is fairly
@@ -33,6 +34,10 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
  * </pre>
  * The fields of the summary/idx file are delimited with tabs.
  * <p>
+ * With a <code>ZipNumBlockSizer</code>, an envelope is also closed once
+ * it reaches a target size in bytes, <code>limit</code> becoming a
+ * ceiling on the line count.  The summary format is unchanged.
+ * <p>
  * The trick to make this work is to use the
  * <code>NotClosingDataOutputStream</code> to trap the calls to
  * <code>close()</code> by the <code>codec</code>'s output stream.
@@ -60,11 +65,15 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
   public CompressionCodec codec;
   public CompressionOutputStream compressing;
   public FSDataOutputStream summary;
+  public BinarySummaryWriter binarySummary;
+  public ZipNumBlockSizer blockSizer;
   public String partitionName;
    
   public Text startKey;
+  private ZipNumSummaryKey summaryKey = new ZipNumSummaryKey();
   public long oldPos = 0;
   public long count  = 0;
+  public long rawBytes = 0;
   public long limit  = 0;
   
   /**
@@ -86,29 +95,18 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
   }
   
   /**
-   * get the key that will be written in the summary file
+   * set the key that will be written in the summary file
    * currently this is the first 2 cdx fields, the url key and date
-   * 
-   * 
+   * <p>
+   * The key is found by scanning the bytes of the (reused) Text, and
+   * copied into startKey, so no Strings are created per block.
    */
-  protected String getCdxSummaryKey(String cdx)
+  protected void setCdxSummaryKey(Text cdx)
   {
-	  int spaceIndex = cdx.indexOf(DELIMITER);
-
-	  if (spaceIndex >= 0) {
-		  spaceIndex = cdx.indexOf(DELIMITER, spaceIndex + 1);
-	  }
-
-	  String summaryKey = ((spaceIndex >= 0) ? cdx.substring(0, spaceIndex) : cdx);
-		
-	  if (spaceIndex < 0) {
+	  if (!summaryKey.set(cdx.getBytes(), 0, cdx.getLength(), DELIMITER)) {
 		  System.err.println("POSSIBLY INVALID CDX LINE: " + cdx);
 	  }
-	  
-	  // Ensure no tabs are present in the key
-	  summaryKey = summaryKey.replace("\t", "%09");
-	  
-	  return summaryKey;
+	  startKey.set(summaryKey.getBytes(), 0, summaryKey.getLength());
    }
 
   /**
@@ -120,12 +118,15 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
   {
     if ( count == 0 )
       {
-        // NOTE: It's important to create a *new* Text here.  The
+        // NOTE: It's important to copy the bytes here.  The
         //       'key' passed-in is modified by the caller.  So if we
         //       just keep a reference to the 'key', then those
         //       modifications will also apply to our 'startKey'.
-    	String summaryKey = getCdxSummaryKey(key.getLength() > 0 ? key.toString() : value.toString());
-        startKey = new Text( summaryKey );
+        if ( startKey == null )
+          {
+            startKey = new Text();
+          }
+        setCdxSummaryKey( key.getLength() > 0 ? key : value );
       }
     
     // Write the output record to the compressing stream.
@@ -140,9 +141,14 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
     }
  
     compressing.write( NEWLINE ); 
+    rawBytes += key.getLength() + value.getLength() + 2;
+    if ( key.getLength() == 0 || value.getLength() == 0 )
+      {
+        rawBytes--;
+      }
     
     count++;
-    if ( count == limit )
+    if ( count == limit || ( blockSizer != null && blockSizer.isFull( rawBytes ) ) )
       {
         // Flush and close the current compression block/envelope.  
         // The close() method is supposed to flush() first, but you never know...
@@ -154,6 +160,7 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
         // Save the position and start the next compression envelope.
         oldPos = out.getPos();
         count  = 0;
+        rawBytes = 0;
         
         // Reset Compression stream to begin compressing again w/o resetting underlying stream
         compressing.resetState();
@@ -182,6 +189,26 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
     out.flush();
     out.close();
     summary.close();
+    if ( binarySummary != null )
+      {
+        binarySummary.close();
+      }
+  }
+
+  /**
+   * Also write each summary line to a binary sidecar summary.
+   */
+  public void setBinarySummary( BinarySummaryWriter binarySummary )
+  {
+    this.binarySummary = binarySummary;
+  }
+
+  /**
+   * Also close envelopes at the size targeted by blockSizer.
+   */
+  public void setBlockSizer( ZipNumBlockSizer blockSizer )
+  {
+    this.blockSizer = blockSizer;
   }
 
   /**
@@ -196,7 +223,16 @@ public class ZipNumRecordWriter extends RecordWriter<Text, Text>
     summary.write( Long.toString( oldPos ).getBytes("UTF-8") );
     summary.write( SUMMARY_DELIMITER );
     summary.write( Long.toString( out.getPos() - oldPos ).getBytes("UTF-8") );
+    if ( blockSizer != null )
+      {
+        blockSizer.blockWritten( rawBytes, out.getPos() - oldPos );
+      }
     summary.write( NEWLINE ); 
     summary.flush();
+
+    if ( binarySummary != null )
+      {
+        binarySummary.write( startKey.getBytes(), 0, startKey.getLength(), oldPos, out.getPos() - oldPos );
+      }
   }
 }
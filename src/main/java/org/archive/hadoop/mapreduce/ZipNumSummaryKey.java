@@ -0,0 +1,111 @@
+package org.archive.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reusable buffer holding the summary key of a ZipNum block: the first
+ * two delimited fields of the block's first CDX line (url key and date).
+ * <p>
+ * The key is found by scanning the line bytes directly, without decoding
+ * them, and any tabs are escaped as "%09" so the key is safe to write in
+ * the tab delimited summary.
+ */
+public class ZipNumSummaryKey {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+	private final static byte[] ESCAPED_TAB = {'%', '0', '9'};
+
+	private byte[] bytes;
+	private int length;
+	private int delims;
+
+	public ZipNumSummaryKey() {
+		bytes = new byte[256];
+		length = 0;
+	}
+
+	/**
+	 * Set the key from a single line.
+	 * @return false if the line did not have two fields, in which case the
+	 * key is the whole line
+	 */
+	public boolean set(byte[] line, int off, int len, int delim) {
+		length = 0;
+		delims = 0;
+		return append(line, off, len, delim);
+	}
+
+	/**
+	 * Set the key from a line made of key, delim, value, as written by the
+	 * ZipNum writers. If either is empty, the line is just the other one.
+	 * @return false if the line did not have two fields, in which case the
+	 * key is the whole line
+	 */
+	public boolean set(byte[] key, int keyLen, byte[] value, int valueLen,
+			int delim) {
+		if(keyLen == 0) {
+			return set(value, 0, valueLen, delim);
+		}
+		if(set(key, 0, keyLen, delim)) {
+			return true;
+		}
+		if(valueLen == 0) {
+			return false;
+		}
+		if(++delims == 2) {
+			return true;
+		}
+		put((byte) delim);
+		return append(value, 0, valueLen, delim);
+	}
+
+	private boolean append(byte[] b, int off, int len, int delim) {
+		int end = off + len;
+		for(int i = off; i < end; i++) {
+			byte c = b[i];
+			if(c == delim) {
+				if(++delims == 2) {
+					return true;
+				}
+			}
+			if(c == '\t') {
+				for(byte e : ESCAPED_TAB) {
+					put(e);
+				}
+			} else {
+				put(c);
+			}
+		}
+		return false;
+	}
+
+	private void put(byte b) {
+		if(length == bytes.length) {
+			byte[] tmp = new byte[bytes.length * 2];
+			System.arraycopy(bytes, 0, tmp, 0, length);
+			bytes = tmp;
+		}
+		bytes[length++] = b;
+	}
+
+	/**
+	 * @return the key bytes, valid up to {@link #getLength()}
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, length);
+	}
+
+	@Override
+	public String toString() {
+		return new String(bytes, 0, length, UTF8);
+	}
+}
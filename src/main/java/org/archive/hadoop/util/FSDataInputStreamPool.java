@@ -0,0 +1,331 @@
+package org.archive.hadoop.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Thread safe pool of open FSDataInputStreams, keeping up to
+ * <code>maxStreamsPerPath</code> streams for each path. A borrowed stream is
+ * used by one reader at a time, readers beyond the limit wait for a stream
+ * to be returned. Borrowers should only use positional reads, as streams
+ * are not repositioned between borrowers.
+ * <p>
+ * Streams which have not been used for <code>idleTimeout</code> ms are
+ * closed the next time any stream is returned, or when {@link #evictIdle()}
+ * is called. Paths left without open streams are then forgotten.
+ */
+public class FSDataInputStreamPool {
+	private final static Logger LOGGER =
+		Logger.getLogger(FSDataInputStreamPool.class.getName());
+
+	public static final int DEFAULT_MAX_STREAMS_PER_PATH = 4;
+	public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+	private FileSystem fs;
+	private int bufferSize;
+	private int maxStreamsPerPath;
+	private long idleTimeout;
+	private HashMap<String, PathPool> pools;
+	private long lastEviction;
+	private boolean closed;
+
+	private long streamsOpened;
+	private long streamsClosed;
+	private long waits;
+
+	public FSDataInputStreamPool(FileSystem fs) {
+		this(fs, DEFAULT_MAX_STREAMS_PER_PATH, DEFAULT_IDLE_TIMEOUT);
+	}
+	public FSDataInputStreamPool(FileSystem fs, int maxStreamsPerPath,
+			long idleTimeout) {
+		this(fs, maxStreamsPerPath, idleTimeout, 0);
+	}
+	/**
+	 * @param bufferSize buffer size streams are opened with, 0 for the
+	 * FileSystem default
+	 */
+	public FSDataInputStreamPool(FileSystem fs, int maxStreamsPerPath,
+			long idleTimeout, int bufferSize) {
+		if(maxStreamsPerPath < 1) {
+			throw new IllegalArgumentException("maxStreamsPerPath must be >= 1");
+		}
+		this.fs = fs;
+		this.maxStreamsPerPath = maxStreamsPerPath;
+		this.idleTimeout = idleTimeout;
+		this.bufferSize = bufferSize;
+		pools = new HashMap<String, PathPool>();
+		lastEviction = System.currentTimeMillis();
+		closed = false;
+	}
+
+	/**
+	 * Take an idle stream for path, opening one if the path has fewer than
+	 * maxStreamsPerPath open, or else waiting for one to be returned.
+	 * @return the stream, which must be returned with
+	 * {@link #release(PooledStream, boolean)}
+	 * @throws IOException if the stream could not be opened, or the pool is
+	 * closed
+	 */
+	public PooledStream borrow(Path path) throws IOException {
+		String key = path.toString();
+		while(true) {
+			PooledStream stream = getPool(key, path).borrow();
+			if(stream != null) {
+				return stream;
+			}
+			// the path's pool was forgotten just now, get a new one.
+		}
+	}
+
+	/**
+	 * Return a stream to its pool.
+	 * @param reusable false if the stream failed, to close it rather than
+	 * keep it
+	 */
+	public void release(PooledStream stream, boolean reusable) {
+		stream.pool.release(stream, reusable);
+		maybeEvictIdle();
+	}
+
+	private synchronized PathPool getPool(String key, Path path)
+	throws IOException {
+		if(closed) {
+			throw new IOException("Stream pool is closed");
+		}
+		PathPool pool = pools.get(key);
+		if(pool == null || pool.removed) {
+			pool = new PathPool(key, path);
+			pools.put(key, pool);
+		}
+		return pool;
+	}
+
+	private synchronized void forget(PathPool pool) {
+		if(pools.get(pool.key) == pool) {
+			pools.remove(pool.key);
+		}
+	}
+
+	private void maybeEvictIdle() {
+		long now = System.currentTimeMillis();
+		synchronized(this) {
+			if(now - lastEviction < idleTimeout) {
+				return;
+			}
+			lastEviction = now;
+		}
+		evictIdle();
+	}
+
+	/**
+	 * Close all pooled streams which have been idle longer than the idle
+	 * timeout.
+	 */
+	public void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		PathPool[] all;
+		synchronized(this) {
+			all = pools.values().toArray(new PathPool[pools.size()]);
+		}
+		for(PathPool pool : all) {
+			if(pool.closeIdle(cutoff)) {
+				forget(pool);
+			}
+		}
+	}
+
+	/**
+	 * Close all idle streams. Streams in use are closed when released.
+	 */
+	public void close() {
+		PathPool[] all;
+		synchronized(this) {
+			closed = true;
+			all = pools.values().toArray(new PathPool[pools.size()]);
+			pools.clear();
+		}
+		for(PathPool pool : all) {
+			pool.closeIdle(Long.MAX_VALUE);
+		}
+	}
+
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private void closeQuietly(PooledStream stream) {
+		try {
+			stream.in.close();
+		} catch (IOException e) {
+			LOGGER.warning("Failed to close stream for " + stream.pool.key
+					+ ": " + e.getMessage());
+		}
+		synchronized(this) {
+			streamsClosed++;
+		}
+	}
+
+	public synchronized long getStreamsOpened() {
+		return streamsOpened;
+	}
+	public synchronized long getStreamsClosed() {
+		return streamsClosed;
+	}
+	/**
+	 * @return number of times a reader had to wait for a stream because
+	 * the path's pool was exhausted
+	 */
+	public synchronized long getWaits() {
+		return waits;
+	}
+
+	/**
+	 * @return a snapshot of the number of open streams per path
+	 */
+	public Map<String, Integer> getOpenStreams() {
+		PathPool[] all;
+		synchronized(this) {
+			all = pools.values().toArray(new PathPool[pools.size()]);
+		}
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for(PathPool pool : all) {
+			synchronized(pool) {
+				counts.put(pool.key, pool.open);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * A borrowed stream.
+	 */
+	public static class PooledStream {
+		private PathPool pool;
+		private FSDataInputStream in;
+		private long lastUsed;
+		private PooledStream(PathPool pool, FSDataInputStream in) {
+			this.pool = pool;
+			this.in = in;
+		}
+		public FSDataInputStream getStream() {
+			return in;
+		}
+	}
+
+	private class PathPool {
+		private String key;
+		private Path path;
+		private LinkedList<PooledStream> idle;
+		private int open;
+		// set once the pool has no streams left and is being forgotten:
+		private volatile boolean removed;
+		public PathPool(String key, Path path) {
+			this.key = key;
+			this.path = path;
+			idle = new LinkedList<PooledStream>();
+			open = 0;
+			removed = false;
+		}
+		/**
+		 * @return a stream, or null if this pool has been removed
+		 */
+		public PooledStream borrow() throws IOException {
+			boolean waited = false;
+			try {
+				synchronized(this) {
+					while(!removed && idle.isEmpty()
+							&& open >= maxStreamsPerPath) {
+						waited = true;
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IOException("Interrupted waiting for " + key);
+						}
+					}
+					if(removed) {
+						return null;
+					}
+					if(!idle.isEmpty()) {
+						// most recently used first, so the others can go idle:
+						return idle.removeFirst();
+					}
+					open++;
+				}
+			} finally {
+				if(waited) {
+					synchronized(FSDataInputStreamPool.this) {
+						waits++;
+					}
+				}
+			}
+			try {
+				FSDataInputStream in = bufferSize > 0
+					? fs.open(path, bufferSize) : fs.open(path);
+				synchronized(FSDataInputStreamPool.this) {
+					streamsOpened++;
+				}
+				return new PooledStream(this, in);
+			} catch (IOException e) {
+				synchronized(this) {
+					open--;
+					notify();
+				}
+				throw e;
+			}
+		}
+		public void release(PooledStream stream, boolean reusable) {
+			boolean discard;
+			synchronized(this) {
+				discard = !reusable || isClosed();
+				if(discard) {
+					open--;
+				} else {
+					stream.lastUsed = System.currentTimeMillis();
+					idle.addFirst(stream);
+				}
+				notify();
+			}
+			if(discard) {
+				closeQuietly(stream);
+			}
+		}
+		/**
+		 * Close streams idle since before cutoff.
+		 * @return true if the pool has no streams left, and was marked
+		 * removed
+		 */
+		public boolean closeIdle(long cutoff) {
+			LinkedList<PooledStream> toClose = new LinkedList<PooledStream>();
+			boolean empty;
+			synchronized(this) {
+				Iterator<PooledStream> itr = idle.iterator();
+				while(itr.hasNext()) {
+					PooledStream stream = itr.next();
+					if(stream.lastUsed < cutoff) {
+						itr.remove();
+						open--;
+						toClose.add(stream);
+					}
+				}
+				empty = open == 0;
+				if(empty) {
+					removed = true;
+					notifyAll();
+				}
+			}
+			for(PooledStream stream : toClose) {
+				closeQuietly(stream);
+			}
+			return empty;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.archive.petabox;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limits the number of concurrent requests to a service, adapting the limit
+ * to how the service copes: the limit is halved when a request reports the
+ * service overloaded (e.g. 503), at most once per {@code backoffInterval}
+ * so that one burst of failures counts once, and raised by one after
+ * {@code limit} consecutive successful requests, up to {@code maxLimit}.
+ * <p>
+ * Also counts requests and overloads, for reporting throughput.
+ */
+public class AdaptiveConcurrencyLimiter {
+	private static final Log LOG = LogFactory.getLog(AdaptiveConcurrencyLimiter.class);
+
+	private final int maxLimit;
+	private final long backoffInterval;
+	private int limit;
+	private int inFlight = 0;
+	private int successes = 0;
+	private long lastBackoff = 0;
+
+	private long requests = 0;
+	private long overloads = 0;
+	private long backoffs = 0;
+
+	/**
+	 * @param maxLimit maximum (and initial) number of concurrent requests.
+	 * @param backoffInterval minimum time between reductions of the limit,
+	 * in milliseconds.
+	 */
+	public AdaptiveConcurrencyLimiter(int maxLimit, long backoffInterval) {
+		this.maxLimit = Math.max(1, maxLimit);
+		this.backoffInterval = backoffInterval;
+		this.limit = this.maxLimit;
+	}
+
+	/**
+	 * wait until a request can be made. every call must be followed by
+	 * {@link #release(boolean)}.
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= limit) {
+			wait();
+		}
+		inFlight++;
+		requests++;
+	}
+
+	/**
+	 * @param overloaded true if the service responded it is overloaded.
+	 */
+	public synchronized void release(boolean overloaded) {
+		inFlight--;
+		if (overloaded) {
+			overloads++;
+			successes = 0;
+			long now = System.currentTimeMillis();
+			if (now - lastBackoff >= backoffInterval && limit > 1) {
+				limit = Math.max(1, limit / 2);
+				lastBackoff = now;
+				backoffs++;
+				LOG.info("service overloaded, concurrency limit lowered to " + limit);
+			}
+		} else if (limit < maxLimit && ++successes >= limit) {
+			limit++;
+			successes = 0;
+		}
+		notifyAll();
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+	/**
+	 * @return number of requests made so far.
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+	/**
+	 * @return number of requests that found the service overloaded.
+	 */
+	public synchronized long getOverloads() {
+		return overloads;
+	}
+	/**
+	 * @return number of times the limit was lowered.
+	 */
+	public synchronized long getBackoffs() {
+		return backoffs;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "limit=" + limit + "/" + maxLimit + " requests=" + requests
+				+ " overloads=" + overloads + " backoffs=" + backoffs;
+	}
+}
@@ -0,0 +1,141 @@
+package org.archive.petabox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLEncoder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Persistent cache of metadata API responses, one file per item under a
+ * local directory. All processes configured with the same directory share
+ * it, e.g. every task on a node: files are written to a temporary name and
+ * renamed into place, so readers never see partial entries.
+ * <p>
+ * An entry is fresh for {@code ttl}, but no longer than a tenth of the time
+ * between the item's {@code updated} time and when it was fetched, so
+ * recently changed items are re-fetched sooner.
+ */
+public class ItemMetadataCache {
+	private static final Log LOG = LogFactory.getLog(ItemMetadataCache.class);
+
+	public static final long DEFAULT_TTL = 24 * 3600 * 1000L;
+	private static final String SUFFIX = ".json";
+
+	private File dir;
+	private long ttl;
+
+	/**
+	 * @param dir directory to keep entries in, created if necessary.
+	 * @param ttl longest time entries are used for, in milliseconds.
+	 */
+	public ItemMetadataCache(File dir, long ttl) {
+		this.dir = dir;
+		this.ttl = ttl;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+	public long getTtl() {
+		return ttl;
+	}
+
+	private File getFile(String itemid) throws IOException {
+		String name = URLEncoder.encode(itemid, "UTF-8");
+		if (name.startsWith(".")) {
+			name = "%2E" + name.substring(1);
+		}
+		// spread entries over 256 subdirectories
+		String shard = String.format("%02x", itemid.hashCode() & 0xff);
+		return new File(new File(dir, shard), name + SUFFIX);
+	}
+
+	/**
+	 * @param updated item's {@code updated} time, in seconds; 0 if unknown.
+	 * @param fetched time the entry was fetched, in milliseconds.
+	 * @param now current time, in milliseconds.
+	 * @return true if the entry can still be used.
+	 */
+	static boolean isFresh(long updated, long fetched, long now, long ttl) {
+		long lifetime = ttl;
+		if (updated > 0) {
+			lifetime = Math.min(ttl, Math.max(0, fetched - updated * 1000) / 10);
+		}
+		return now >= fetched && now - fetched < lifetime;
+	}
+
+	/**
+	 * @return cached metadata for item {@code itemid}, or null if there is no
+	 * fresh entry.
+	 */
+	public ItemMetadata get(String itemid) {
+		try {
+			File file = getFile(itemid);
+			long fetched = file.lastModified();
+			if (fetched == 0) {
+				return null;
+			}
+			ItemMetadata md;
+			Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+			try {
+				md = new ItemMetadata(reader);
+			} finally {
+				reader.close();
+			}
+			if (md.server == null
+					|| !isFresh(md.getUpdated(), fetched, System.currentTimeMillis(), ttl)) {
+				return null;
+			}
+			return md;
+		} catch (Throwable ex) {
+			// corrupt or concurrently replaced - fetch it again.
+			LOG.debug("cached metadata for " + itemid + " unusable: " + ex);
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if there is a fresh entry for item {@code itemid}.
+	 */
+	public boolean contains(String itemid) {
+		return get(itemid) != null;
+	}
+
+	/**
+	 * store metadata API response {@code json} for item {@code itemid}.
+	 * failures are logged, as the cache is only an optimization.
+	 */
+	public void put(String itemid, byte[] json) {
+		File tmp = null;
+		try {
+			File file = getFile(itemid);
+			File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+				throw new IOException("cannot create " + parent);
+			}
+			tmp = File.createTempFile(file.getName(), ".tmp", parent);
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(json);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("cannot rename " + tmp + " to " + file);
+			}
+			tmp = null;
+		} catch (IOException ex) {
+			LOG.warn("failed to cache metadata for " + itemid, ex);
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+}
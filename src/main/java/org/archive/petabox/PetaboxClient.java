@@ -2,13 +2,23 @@ package org.archive.petabox;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +63,24 @@ public class PetaboxClient {
 	protected int metadataSocketTimeout = 5*1000; // milliseconds
 	
 	protected int bufferSize = 8192;
+
+	/**
+	 * number of Range requests each HttpInputStream keeps in flight, reading
+	 * consecutive chunks of the file ahead of the reader. 1 reads the file
+	 * over one streaming request.
+	 */
+	protected int parallelReads = 1;
+	/**
+	 * size of chunks fetched by each Range request when
+	 * {@link #parallelReads} &gt; 1.
+	 */
+	protected int chunkSize = 4*1024*1024;
+	/**
+	 * positional reads up to this size fetch this many bytes, serving
+	 * following reads within them without another request.
+	 */
+	protected int preadWindow = 128*1024;
+	private ExecutorService rangeExecutor;
 	
 	/**
 	 * if true, PetaboxFileSystem makes up empty item when Metadata API tells it's non-existent,
@@ -83,13 +111,36 @@ public class PetaboxClient {
 	
 	protected HttpClient client;
 
+	/**
+	 * persistent cache of item metadata, null if not used.
+	 */
+	protected ItemMetadataCache metadataCache;
+	public void setMetadataCache(ItemMetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+	public ItemMetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * limits concurrent metadata API requests made through this client.
+	 */
+	protected AdaptiveConcurrencyLimiter metadataLimiter;
+	public AdaptiveConcurrencyLimiter getMetadataLimiter() {
+		return metadataLimiter;
+	}
+
 	public PetaboxClient(PetaboxClientConfig conf) {
+		this.parallelReads = Math.max(1, conf.getInt("parallel-reads", this.parallelReads));
+		this.chunkSize = conf.getInt("chunk-size", this.chunkSize);
+		this.preadWindow = conf.getInt("pread-window", this.preadWindow);
 		// ClientConnectionManager properties can be configured by config properties. 
+		int maxMetadataConcurrency = conf.getInt("max-metadata-concurrency", 10);
 		ThreadSafeClientConnManager connman = new ThreadSafeClientConnManager();
-		int maxPerRoute = conf.getInt("max-per-route",
-				connman.getDefaultMaxPerRoute());
-		int maxTotal = conf.getInt("max-total",
-				connman.getMaxTotal());
+		int maxPerRoute = conf.getInt("max-per-route", Math.max(
+				Math.max(parallelReads, maxMetadataConcurrency), connman.getDefaultMaxPerRoute()));
+		int maxTotal = conf.getInt("max-total", Math.max(
+				Math.max(parallelReads, maxMetadataConcurrency), connman.getMaxTotal()));
 		connman.setDefaultMaxPerRoute(maxPerRoute);
 		connman.setMaxTotal(maxTotal);
 		this.client = new DefaultHttpClient(connman);
@@ -103,6 +154,7 @@ public class PetaboxClient {
 		this.metadataSocketTimeout = conf.getInt("metadata.socket-timeout", 
 				this.metadataSocketTimeout);
 	    this.ignoreMissingItems = conf.getBoolean("ignore-missing-items", this.ignoreMissingItems);
+		this.metadataLimiter = new AdaptiveConcurrencyLimiter(maxMetadataConcurrency, retryDelay);
 	}
 	
 	public ItemMetadata getItemMetadata(String itemid) throws IOException {
@@ -110,6 +162,10 @@ public class PetaboxClient {
 			throw new IOException("invalid itemid: null");
 		if (itemid.equals(""))
 			throw new IOException("invalid itemid \"" + itemid + "\"");
+		if (metadataCache != null) {
+			ItemMetadata md = metadataCache.get(itemid);
+			if (md != null) return md;
+		}
 		URI uri;
 		try {
 			uri = new URI(petaboxProtocol, petaboxHost, "/metadata/" + itemid, null);
@@ -134,85 +190,100 @@ public class PetaboxClient {
 				} catch (InterruptedException ex) {
 				}
 			}
-			HttpResponse resp;
 			try {
-				resp = client.execute(get);
-			} catch (IOException ex) {
-				// although getItemMetadata is declared as throws IOException, throwing IOException
-				// will kill hadoop job. Request should be retried upon errors like "connection refused".
-				LOG.warn(uri + " failed: " + ex.getMessage());
-				++retries;
-				continue;
-			}
-			StatusLine st = resp.getStatusLine();
-			entity = resp.getEntity();
-			switch (st.getStatusCode()) {
-			case 200:
-				if (retries > 0) {
-					LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
-				}
-				break;
-			case 502:
-			case 503:
-			case 504:
-				entity.getContent().close();
-				LOG.warn(uri + " failed " + st.getStatusCode() + " "
-						+ st.getReasonPhrase() + ", try " + retries);
-				++retries;
-				entity = null;
-				continue;
-			default:
-				entity.getContent().close();
-				throw new IOException(uri + ": failed " + st.getStatusCode() + " "
-						+ st.getReasonPhrase());
+				metadataLimiter.acquire();
+			} catch (InterruptedException ex) {
+				throw new InterruptedIOException("interrupted waiting to fetch metadata for " + itemid);
 			}
-			// XXX assuming JSON is in UTF-8 encoding
-			ByteArrayOutputStream bao = new ByteArrayOutputStream();
-			InputStream is = entity.getContent();
-			int c;
+			// 5xx responses lower the number of concurrent metadata API requests.
+			boolean overloaded = false;
 			try {
-				while ((c = is.read()) != -1) {
-					bao.write(c);
+				HttpResponse resp;
+				try {
+					resp = client.execute(get);
+				} catch (IOException ex) {
+					// although getItemMetadata is declared as throws IOException, throwing IOException
+					// will kill hadoop job. Request should be retried upon errors like "connection refused".
+					LOG.warn(uri + " failed: " + ex.getMessage());
+					++retries;
+					continue;
 				}
-			} catch (IOException ex) {
-				LOG.warn("error reading metadata response (" + ex.getMessage() + ")");
-				++retries;
-				continue;
-			} finally {
-				is.close();
-			}
-			Reader reader = new InputStreamReader(new ByteArrayInputStream(bao.toByteArray()));
-			//Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
-			try {
-				md = new ItemMetadata(reader);
-			} catch (Throwable ex) {
-				LOG.error("failed to parse matadata API response for item " + itemid + 
-						"(" + bao.size() + " bytes):\n" + bao.toString(), ex);
-				throw new IOException("failed to parse metadata API response for item " + itemid, ex);
-			}
-			reader.close();
-			if (md.server == null) {
-				if (md.dir == null) {
-					// assume metadata API returned "{}", i.e. non-existent item.
-					if (++retries > maxRetries) {
-						// if ignore-missing-items flag is set, return with empty metadata. don't add it
-						// to the metadataCache.
-						if (ignoreMissingItems) {
-							break;
-						}
-						// throw specific exception for non-existent item case.
-						throw new FileNotFoundException("/" + itemid + ": non-existent item, retry exhausted");
+				StatusLine st = resp.getStatusLine();
+				entity = resp.getEntity();
+				switch (st.getStatusCode()) {
+				case 200:
+					if (retries > 0) {
+						LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
 					}
-					LOG.warn("metadata API says item non-existent, retrying");
-					md = null;
+					break;
+				case 502:
+				case 503:
+				case 504:
+					overloaded = true;
+					entity.getContent().close();
+					LOG.warn(uri + " failed " + st.getStatusCode() + " "
+							+ st.getReasonPhrase() + ", try " + retries);
+					++retries;
+					entity = null;
 					continue;
-				} else {
-					LOG.warn("metadata API failed (no server info) for item " + itemid + ", try " + retries);
-					LOG.warn("entity=" + new String(bao.toByteArray(), "UTF-8"));
+				default:
+					entity.getContent().close();
+					throw new IOException(uri + ": failed " + st.getStatusCode() + " "
+							+ st.getReasonPhrase());
+				}
+				// XXX assuming JSON is in UTF-8 encoding
+				ByteArrayOutputStream bao = new ByteArrayOutputStream();
+				InputStream is = entity.getContent();
+				int c;
+				try {
+					while ((c = is.read()) != -1) {
+						bao.write(c);
+					}
+				} catch (IOException ex) {
+					LOG.warn("error reading metadata response (" + ex.getMessage() + ")");
 					++retries;
-					md = null;
 					continue;
+				} finally {
+					is.close();
 				}
+				Reader reader = new InputStreamReader(new ByteArrayInputStream(bao.toByteArray()));
+				//Reader reader = new InputStreamReader(entity.getContent(), "UTF-8");
+				try {
+					md = new ItemMetadata(reader);
+				} catch (Throwable ex) {
+					LOG.error("failed to parse matadata API response for item " + itemid + 
+							"(" + bao.size() + " bytes):\n" + bao.toString(), ex);
+					throw new IOException("failed to parse metadata API response for item " + itemid, ex);
+				}
+				reader.close();
+				if (md.server == null) {
+					if (md.dir == null) {
+						// assume metadata API returned "{}", i.e. non-existent item.
+						if (++retries > maxRetries) {
+							// if ignore-missing-items flag is set, return with empty metadata. don't add it
+							// to the metadataCache.
+							if (ignoreMissingItems) {
+								break;
+							}
+							// throw specific exception for non-existent item case.
+							throw new FileNotFoundException("/" + itemid + ": non-existent item, retry exhausted");
+						}
+						LOG.warn("metadata API says item non-existent, retrying");
+						md = null;
+						continue;
+					} else {
+						LOG.warn("metadata API failed (no server info) for item " + itemid + ", try " + retries);
+						LOG.warn("entity=" + new String(bao.toByteArray(), "UTF-8"));
+						++retries;
+						md = null;
+						continue;
+					}
+				}
+				if (metadataCache != null) {
+					metadataCache.put(itemid, bao.toByteArray());
+				}
+			} finally {
+				metadataLimiter.release(overloaded);
 			}
 		} while (md == null);
 		return md;
@@ -240,6 +311,188 @@ public class PetaboxClient {
 		return get;
 	}
 
+	/**
+	 * read {@code len} bytes of {@code uri} at {@code position} with Range requests.
+	 * errors are retried like {@link HttpInputStream#open()}, and a response cut off
+	 * mid-way is resumed from where it stopped.
+	 * @return number of bytes read, less than {@code len} only at the end of the resource.
+	 * @throws IOException when retries are exhausted, or on unrecoverable errors.
+	 */
+	protected int readRange(URI uri, long position, byte[] buf, int off, int len)
+			throws IOException {
+		return readRange(uri, position, buf, off, len, null);
+	}
+	/**
+	 * {@link #readRange(URI, long, byte[], int, int)} that can be stopped with
+	 * {@link RangeRequest#abort()}.
+	 * @param request receives each HttpGet as it is made; may be null.
+	 * @throws InterruptedIOException if {@code request} is aborted.
+	 */
+	protected int readRange(URI uri, long position, byte[] buf, int off, int len,
+			RangeRequest request) throws IOException {
+		int got = 0;
+		int retries = 0;
+		while (got < len) {
+			checkAborted(uri, request);
+			if (retries > 0) {
+				if (retries > maxRetries) {
+					throw new IOException(uri + ": retry exhausted reading "
+							+ (position + got) + "-" + (position + len - 1));
+				}
+				try {
+					Thread.sleep(retryDelay);
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException(uri + ": interrupted");
+				}
+			}
+			long start = position + got;
+			HttpGet get = createHttpGet(uri);
+			get.addHeader("Range", "bytes=" + start + "-" + (position + len - 1));
+			if (request != null) request.start(get);
+			HttpResponse resp;
+			try {
+				resp = client.execute(get);
+			} catch (IOException ex) {
+				checkAborted(uri, request);
+				LOG.warn("connection to " + uri + " failed", ex);
+				++retries;
+				continue;
+			}
+			StatusLine st = resp.getStatusLine();
+			HttpEntity entity = resp.getEntity();
+			long skip = 0;
+			switch (st.getStatusCode()) {
+			case 206: // Partial Content
+				break;
+			case 200:
+				// Range is not supported for this resource. read through from the
+				// beginning - correct, but slow.
+				LOG.warn(uri + ": Range request ignored, reading from offset 0");
+				skip = start;
+				break;
+			case 416: // Requested Range Not Satisfiable - start is past EOF
+				get.abort();
+				return got;
+			case 403: // petabox sometimes return false 403...
+			case 404:
+			case 500:
+			case 502:
+			case 503:
+			case 504:
+				get.abort();
+				LOG.warn(uri + ": " + st.getStatusCode() + " " + st.getReasonPhrase()
+						+ ", retry " + (retries + 1) + "/" + maxRetries);
+				if (st.getStatusCode() == 403 && client instanceof DefaultHttpClient) {
+					((DefaultHttpClient)client).getCookieStore().clear();
+				}
+				++retries;
+				continue;
+			default:
+				get.abort();
+				throw new IOException(uri + ": " + st.getStatusCode() + " " + st.getReasonPhrase());
+			}
+			long expected = entity.getContentLength() - skip;
+			long received = 0;
+			boolean eof = false;
+			boolean failed = false;
+			InputStream in = entity.getContent();
+			try {
+				while (skip > 0) {
+					long n = in.skip(skip);
+					if (n <= 0) {
+						if (in.read() == -1) break;
+						n = 1;
+					}
+					skip -= n;
+				}
+				if (skip > 0) {
+					eof = true;
+				} else {
+					int n;
+					while (got < len && (n = in.read(buf, off + got, len - got)) != -1) {
+						got += n;
+						received += n;
+					}
+					// without Content-Length, end of stream cannot be told from a broken connection
+					eof = got < len && (expected < 0 || received >= expected);
+				}
+			} catch (IOException ex) {
+				failed = true;
+				if (request == null || !request.isAborted()) {
+					LOG.warn(uri + ": reading " + start + "- failed after " + received + " bytes", ex);
+				}
+			} finally {
+				if (got == len && received == expected) {
+					// releases the connection for reuse
+					in.close();
+				} else {
+					get.abort();
+				}
+			}
+			if (failed) checkAborted(uri, request);
+			if (eof) {
+				return got;
+			}
+			if (failed || got < len) {
+				if (!failed) {
+					LOG.info(uri + ": connection closed prematurely, rereading from " + (position + got));
+				}
+				++retries;
+			}
+		}
+		return got;
+	}
+
+	private static void checkAborted(URI uri, RangeRequest request) throws InterruptedIOException {
+		if (request != null && request.isAborted()) {
+			throw new InterruptedIOException(uri + ": aborted");
+		}
+	}
+
+	/**
+	 * handle on a {@link #readRange(URI, long, byte[], int, int, RangeRequest)} running
+	 * in another thread. {@link #abort()} closes the connection of the request in
+	 * progress, so a read blocked on the socket returns at once; interrupting the
+	 * thread would not.
+	 */
+	protected static class RangeRequest {
+		private HttpGet get;
+		private boolean aborted;
+
+		synchronized void start(HttpGet get) throws InterruptedIOException {
+			if (aborted) {
+				throw new InterruptedIOException(get.getURI() + ": aborted");
+			}
+			this.get = get;
+		}
+		public synchronized void abort() {
+			aborted = true;
+			if (get != null) {
+				get.abort();
+			}
+		}
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
+	}
+
+	/**
+	 * executor running the chunk fetches of all HttpInputStreams.
+	 */
+	protected synchronized ExecutorService getRangeExecutor() {
+		if (rangeExecutor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			rangeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "petabox-range-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return rangeExecutor;
+	}
+
 	/**
 	 * HttpInputStream implements MapReduce compatible InputStream on top of HTTP-based
 	 * access to files on Petabox. It makes best effort to encapsulate retries often
@@ -247,7 +500,13 @@ public class PetaboxClient {
 	 * HttpInputStream implements Seekable and PositionedReadable interfaces for HTTP
 	 * resources efficiently with Region requests.
 	 * Actual open is delayed until read operation is performed.
-	 *
+	 * <p>
+	 * When {@link PetaboxClient#parallelReads} &gt; 1, the file is read as consecutive
+	 * chunks of {@link PetaboxClient#chunkSize} bytes, with that many Range requests in
+	 * flight ahead of the reader. Chunk buffers are recycled as the reader moves on, so
+	 * reading sequentially holds parallelReads chunks. Seeking outside the chunks in flight
+	 * aborts their requests; their buffers are left to the garbage collector, as aborted
+	 * fetches may still be writing to them.
 	 */
 	public class HttpInputStream extends InputStream implements Seekable, PositionedReadable {
 		protected URI uri;
@@ -257,6 +516,27 @@ public class PetaboxClient {
 		protected byte[] buffer;
 		protected int bufpos;
 		protected int bufend;
+
+		/**
+		 * true if reading in parallel chunks.
+		 */
+		protected boolean chunked;
+		/**
+		 * chunk fetches in flight, for consecutive chunks.
+		 */
+		private LinkedList<PendingChunk> pending = new LinkedList<PendingChunk>();
+		private Chunk current;
+		private LinkedList<byte[]> freeChunkBuffers = new LinkedList<byte[]>();
+		private long nextChunkPos;
+		/**
+		 * length of the resource, once a chunk has reached its end.
+		 */
+		private long length = -1;
+		private byte[] single = new byte[1];
+		/**
+		 * last window fetched by positional reads.
+		 */
+		private volatile Chunk window;
 		
 		/**
 		 * maximum length of seeking by reading off instead of re-opening resource
@@ -277,7 +557,8 @@ public class PetaboxClient {
 			this.pos = offset;
 			this.endpos = -1;
 			this.in = null;
-			if (bufferSize > 0) {
+			this.chunked = parallelReads > 1;
+			if (bufferSize > 0 && !chunked) {
 				buffer = new byte[bufferSize];
 			}
 		}
@@ -290,6 +571,9 @@ public class PetaboxClient {
 		@Override
 		public int available() throws IOException {
 			// as long as it is > 0, return value itself doesn't mean much.
+			if (chunked) {
+				return length < 0 || pos < length ? 1 : 0;
+			}
 			return pos < endpos ? 1 : 0;
 		}
 		// Seekable
@@ -298,6 +582,11 @@ public class PetaboxClient {
 		}
 		public void seek(long pos) throws IOException {
 			if (this.pos == pos) return;
+			if (chunked) {
+				// chunks already fetched or in flight are kept if they cover pos.
+				this.pos = pos;
+				return;
+			}
 			if (in != null) {
 				if (pos >= this.pos && pos <= this.pos + SMALL_GAP) {
 					int skiplen = (int)(pos - this.pos);
@@ -308,6 +597,7 @@ public class PetaboxClient {
 							skiplen = 0;
 						} else {
 							skiplen -= (bufend - bufpos);
+							bufpos = bufend;
 						}
  					}
 					byte[] buffer = new byte[4096];
@@ -415,12 +705,16 @@ public class PetaboxClient {
 			} while (entity == null);
 			in = entity.getContent();
 			if (buffer != null) {
-				bufpos = buffer.length;
+				bufpos = 0;
 				bufend = 0;
 			}
 		}
 		@Override
 		public void close() throws IOException {
+			if (chunked) {
+				cancelChunks();
+				current = null;
+			}
 			if (in != null) {
 				in.close();
 				in = null;
@@ -428,127 +722,209 @@ public class PetaboxClient {
 		}
 		@Override
 		public int read() throws IOException {
+			int n = read(single, 0, 1);
+			return n == -1 ? -1 : (single[0] & 0xff);
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (chunked) {
+				return readChunked(b, off, len);
+			}
 			while (true) {
 				if (in == null) open();
-				int b;
+				int n;
 				try {
-					if (buffer == null) {
-						b = in.read();
-					} else {
-						if (bufpos >= buffer.length) {
-							bufend = in.read(buffer);
-							bufpos = 0;
-						}
-						if (bufpos >= bufend) {
-							b = -1;
-						} else {
-							b = (buffer[bufpos++] & 0xff);
-						}
-					}
+					n = readBuffered(b, off, len);
 				} catch (ConnectionClosedException ex) {
 					// sender closed socket, probably for long idle period.
 					LOG.info("connection closed unexpectedly", ex);
-					// TODO: not sure if we can assume connection has been returned
-					// to the pool and there's no need to call in.close(). assuming
-					// we need to call in.close().
-					b = -1;
+					n = -1;
 				}
-				if (b == -1) {
+				if (n == -1) {
 					// if receiver/sender closed socket prematurely, try reopening.
 					if (endpos >= 0 && pos < endpos) {
 						LOG.info("socket closed prematurely. rereading from " + pos);
 						close();
 						continue;
 					}
-					return b;
-				} else {
-					pos++;
-					return b;
+					return -1;
 				}
+				pos += n;
+				return n;
 			}
 		}
-		@Override
-		public int read(byte[] b, int off, int len) throws IOException {
-			//LOG.info("read("+b+","+off+","+len+")");
-			return super.read(b, off, len);
+		private int readBuffered(byte[] b, int off, int len) throws IOException {
+			if (buffer == null) {
+				return in.read(b, off, len);
+			}
+			if (bufpos >= bufend) {
+				if (len >= buffer.length) {
+					// no point in copying through the buffer
+					return in.read(b, off, len);
+				}
+				int n = in.read(buffer, 0, buffer.length);
+				if (n <= 0) return n;
+				bufpos = 0;
+				bufend = n;
+			}
+			int n = Math.min(len, bufend - bufpos);
+			System.arraycopy(buffer, bufpos, b, off, n);
+			bufpos += n;
+			return n;
 		}
-		// PositionedReadable
-		public int read(long position, byte[] buffer, int offset, int length)
-				throws IOException {
-			LOG.info("HttpInputStream.read(" + position + "," + buffer.length + ")");
-			// As PositionedReadable interface dictates this method does not change
-			// file offset, and thread-safe, it is implemented as one-shot HTTP request.
-			if (buffer.length == 0)  return 0;
-			HttpGet get = new HttpGet(uri);
-			HttpParams params = get.getParams();
-			HttpConnectionParams.setConnectionTimeout(params, connectionTimeout);
-			HttpConnectionParams.setSoTimeout(params, socketTimeout);
-			setupRequest(get);
-			get.addHeader("Range", "bytes=" + position + "-" + (position + length - 1));
-			HttpEntity entity = null;
-			int retries = 0;
-			do {
-				if (retries > 0) {
-					try {
-						Thread.sleep(retryDelay);
-					} catch (InterruptedException ex) {
+
+		private int readChunked(byte[] b, int off, int len) throws IOException {
+			Chunk chunk = getChunk();
+			if (chunk == null) return -1;
+			int start = (int)(pos - chunk.start);
+			int n = Math.min(len, chunk.length - start);
+			System.arraycopy(chunk.data, start, b, off, n);
+			pos += n;
+			return n;
+		}
+		/**
+		 * @return chunk containing {@code pos}, or null at EOF.
+		 */
+		private Chunk getChunk() throws IOException {
+			while (true) {
+				if (current != null) {
+					if (pos >= current.start && pos < current.start + current.length) {
+						return current;
 					}
+					freeChunkBuffers.add(current.data);
+					current = null;
 				}
-				HttpResponse resp;
+				if (length >= 0 && pos >= length) {
+					return null;
+				}
+				// drop chunks before pos, restart if pos is not in the chunks in flight.
+				while (!pending.isEmpty() && pending.getFirst().start + chunkSize <= pos) {
+					pending.removeFirst().cancel();
+				}
+				if (!pending.isEmpty() && pending.getFirst().start > pos) {
+					cancelChunks();
+				}
+				if (pending.isEmpty()) {
+					nextChunkPos = pos;
+				}
+				while (pending.size() < parallelReads && (length < 0 || nextChunkPos < length)) {
+					pending.add(fetchChunk(nextChunkPos));
+					nextChunkPos += chunkSize;
+				}
+				PendingChunk next = pending.removeFirst();
 				try {
-					resp = client.execute(get);
-				} catch (IOException ex) {
-					LOG.warn("connection to " + uri + " failed", ex);
-					if (++retries > maxRetries) {
-						throw new IOException(uri + ": retry exhausted trying to connect");
-					}
-					continue;
+					current = next.future.get();
+				} catch (InterruptedException ex) {
+					next.cancel();
+					cancelChunks();
+					throw new InterruptedIOException(uri + ": interrupted");
+				} catch (ExecutionException ex) {
+					cancelChunks();
+					Throwable cause = ex.getCause();
+					if (cause instanceof IOException) throw (IOException)cause;
+					throw new IOException(uri + ": reading chunk at " + next.start + " failed", cause);
 				}
-				StatusLine st = resp.getStatusLine();
-				entity = resp.getEntity();
-				// TODO: detect failed Range request and report it. I know Range request is supported
-				// on most resources, but It is catastrophic to ignore when it fails.
-				switch (st.getStatusCode()) {
-				case 200:
-					if (retries > 0) {
-						LOG.info(uri + ": succeeded after " + retries + " retry(ies)");
-					}
-					break;
-				case 404:
-					//entity.getContent().close();
-					//throw new FileNotFoundException(st.getReasonPhrase());
-				case 403:
-					// petabox often returns false 403...
-					//entity.getContent().close();
-					//throw new IOException(st.getReasonPhrase());
-				case 502:
-				case 503:
-				case 504:
-					entity.getContent().close();
-					if (++retries > maxRetries) {
-						throw new IOException(uri + ": retry exhausted on "
-								+ st.getStatusCode() + " " + st.getReasonPhrase());
-					}
-					LOG.warn(uri + ": " + st.getStatusCode() + " " + st.getReasonPhrase()
-							+ ", retry " + retries);
-					entity = null;
-					continue;
-				default:
-					entity.getContent().close();
-					throw new IOException(st.getReasonPhrase());
+				if (current.length < chunkSize) {
+					length = current.start + current.length;
 				}
-			} while (entity == null);
-			InputStream tin = entity.getContent();
-			int n =  tin.read(buffer, offset, length);
-			tin.close();
+			}
+		}
+		private PendingChunk fetchChunk(final long start) {
+			final byte[] data = freeChunkBuffers.isEmpty() ? new byte[chunkSize]
+					: freeChunkBuffers.removeFirst();
+			final RangeRequest request = new RangeRequest();
+			Future<Chunk> future = getRangeExecutor().submit(new Callable<Chunk>() {
+				public Chunk call() throws IOException {
+					return new Chunk(start, data, readRange(uri, start, data, 0, data.length, request));
+				}
+			});
+			return new PendingChunk(start, future, request);
+		}
+		private void cancelChunks() {
+			// buffers of cancelled chunks may still be written to, so they are not recycled.
+			for (PendingChunk p : pending) {
+				p.cancel();
+			}
+			pending.clear();
+		}
+		// PositionedReadable
+		/**
+		 * read at {@code position} without changing the stream position. reads of up to
+		 * {@link PetaboxClient#preadWindow} bytes fetch that much, and are served from the
+		 * last such window if they fall within it, so adjacent small reads cost one request.
+		 * thread-safe.
+		 * @return bytes read, less than {@code length} only at EOF, or -1 if
+		 * {@code position} is at or past EOF.
+		 */
+		public int read(long position, byte[] buffer, int offset, int length)
+				throws IOException {
+			if (LOG.isDebugEnabled())
+				LOG.debug("HttpInputStream.read(" + position + "," + length + ")");
+			if (length == 0) return 0;
+			Chunk w = window;
+			if (w == null || !w.covers(position, length)) {
+				if (length > preadWindow) {
+					int n = readRange(uri, position, buffer, offset, length);
+					return n == 0 ? -1 : n;
+				}
+				byte[] data = new byte[preadWindow];
+				w = new Chunk(position, data, readRange(uri, position, data, 0, data.length));
+				window = w;
+			}
+			int start = (int)(position - w.start);
+			int n = Math.min(length, w.length - start);
+			if (n <= 0) return -1;
+			System.arraycopy(w.data, start, buffer, offset, n);
 			return n;
 		}
 		public void readFully(long position, byte[] buffer) throws IOException {
 			readFully(position, buffer, 0, buffer.length);
 		}
 		public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
-			read(position, buffer, offset, length);
-			// is there anything I should do if read bytes is less than length?
+			int n = read(position, buffer, offset, length);
+			if (n < length) {
+				throw new EOFException(uri + ": EOF reading " + length + " bytes at " + position);
+			}
+		}
+	}
+
+	private static class Chunk {
+		final long start;
+		final byte[] data;
+		final int length;
+		Chunk(long start, byte[] data, int length) {
+			this.start = start;
+			this.data = data;
+			this.length = length;
+		}
+		/**
+		 * @return true if len bytes at position are in this chunk, or all
+		 * there is of them if the chunk ends at EOF.
+		 */
+		boolean covers(long position, int len) {
+			if (position < start) return false;
+			long end = start + length;
+			return position + len <= end || (length < data.length && position <= end);
+		}
+	}
+	private static class PendingChunk {
+		final long start;
+		final Future<Chunk> future;
+		final RangeRequest request;
+		PendingChunk(long start, Future<Chunk> future, RangeRequest request) {
+			this.start = start;
+			this.future = future;
+			this.request = request;
+		}
+		/**
+		 * stop the fetch, whether it is queued or reading.
+		 */
+		void cancel() {
+			// Future.cancel() only keeps a queued fetch from starting, interrupt
+			// does not stop socket reads.
+			future.cancel(true);
+			request.abort();
 		}
 	}
 	
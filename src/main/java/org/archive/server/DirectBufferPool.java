@@ -0,0 +1,71 @@
+package org.archive.server;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Reusable direct ByteBuffers, in power of two sizes, up to a total number
+ * of bytes. Direct buffers are expensive to allocate and are only freed
+ * by GC, so they are kept for reuse rather than dropped after each read.
+ */
+public class DirectBufferPool {
+	private long maxBytes;
+	private long allocated;
+	private HashMap<Integer,LinkedList<ByteBuffer>> free;
+
+	public DirectBufferPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+		allocated = 0;
+		free = new HashMap<Integer,LinkedList<ByteBuffer>>();
+	}
+
+	/**
+	 * @return a cleared buffer with capacity of at least size, or null if
+	 * the pool is at its limit and has no free buffer that large
+	 */
+	public synchronized ByteBuffer acquire(int size) {
+		int capacity = Integer.highestOneBit(size);
+		if(capacity < size) {
+			capacity <<= 1;
+		}
+		LinkedList<ByteBuffer> list = free.get(capacity);
+		if(list != null && !list.isEmpty()) {
+			ByteBuffer buffer = list.removeFirst();
+			buffer.clear();
+			return buffer;
+		}
+		if(allocated + capacity > maxBytes) {
+			// give back free buffers of other sizes:
+			Iterator<LinkedList<ByteBuffer>> itr = free.values().iterator();
+			while(allocated + capacity > maxBytes && itr.hasNext()) {
+				LinkedList<ByteBuffer> other = itr.next();
+				while(allocated + capacity > maxBytes && !other.isEmpty()) {
+					allocated -= other.removeFirst().capacity();
+				}
+			}
+			if(allocated + capacity > maxBytes) {
+				return null;
+			}
+		}
+		allocated += capacity;
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	public synchronized void release(ByteBuffer buffer) {
+		LinkedList<ByteBuffer> list = free.get(buffer.capacity());
+		if(list == null) {
+			list = new LinkedList<ByteBuffer>();
+			free.put(buffer.capacity(), list);
+		}
+		list.add(buffer);
+	}
+
+	/**
+	 * @return bytes of buffers allocated, in use or free
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocated;
+	}
+}
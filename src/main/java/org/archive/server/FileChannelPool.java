@@ -0,0 +1,151 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps read only FileChannels open across requests, one per file.
+ * <p>
+ * Channels are shared by all threads, which must only use positional
+ * operations on them (read(ByteBuffer,long), transferTo, map). Each
+ * {@link #acquire(File)} must be matched by a {@link #release(Entry)}.
+ * Once more than maxOpen files are open, the least recently used channels
+ * which are not in use are closed.
+ */
+public class FileChannelPool {
+	private static final Logger LOGGER =
+		Logger.getLogger(FileChannelPool.class.getName());
+
+	public static final int DEFAULT_MAX_OPEN = 256;
+
+	private int maxOpen;
+	private LinkedHashMap<String,Entry> open;
+	private long opened;
+	private long closed;
+
+	public FileChannelPool() {
+		this(DEFAULT_MAX_OPEN);
+	}
+
+	public FileChannelPool(int maxOpen) {
+		this.maxOpen = maxOpen;
+		open = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		opened = 0;
+		closed = 0;
+	}
+
+	/**
+	 * @return an open channel for file, which must be released after use
+	 * @throws IOException if the file cannot be opened
+	 */
+	public Entry acquire(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		synchronized(this) {
+			Entry entry = open.get(path);
+			if(entry != null) {
+				entry.refs++;
+				return entry;
+			}
+		}
+		// open outside the lock, another thread may race us to it:
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		Entry entry;
+		synchronized(this) {
+			entry = open.get(path);
+			if(entry == null) {
+				entry = new Entry(path, raf);
+				open.put(path, entry);
+				opened++;
+				raf = null;
+			}
+			entry.refs++;
+			evict();
+		}
+		if(raf != null) {
+			raf.close();
+		}
+		return entry;
+	}
+
+	public synchronized void release(Entry entry) {
+		entry.refs--;
+		if(entry.refs == 0 && open.get(entry.path) != entry) {
+			// evicted while in use:
+			entry.close();
+			closed++;
+		} else {
+			evict();
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String,Entry>> itr = open.entrySet().iterator();
+		while(open.size() > maxOpen && itr.hasNext()) {
+			Entry entry = itr.next().getValue();
+			if(entry.refs == 0) {
+				itr.remove();
+				entry.close();
+				closed++;
+			}
+		}
+	}
+
+	/**
+	 * Close all channels not currently in use.
+	 */
+	public synchronized void close() {
+		Iterator<Entry> itr = open.values().iterator();
+		while(itr.hasNext()) {
+			Entry entry = itr.next();
+			if(entry.refs == 0) {
+				itr.remove();
+				entry.close();
+				closed++;
+			}
+		}
+	}
+
+	public synchronized int getOpenCount() {
+		return open.size();
+	}
+	public synchronized long getOpenedCount() {
+		return opened;
+	}
+	public synchronized long getClosedCount() {
+		return closed;
+	}
+
+	public static class Entry {
+		private String path;
+		private RandomAccessFile raf;
+		private FileChannel channel;
+		private int refs;
+
+		private Entry(String path, RandomAccessFile raf) {
+			this.path = path;
+			this.raf = raf;
+			channel = raf.getChannel();
+			refs = 0;
+		}
+		public FileChannel getChannel() {
+			return channel;
+		}
+		public String getPath() {
+			return path;
+		}
+		private void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed closing " + path, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.archive.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.archive.format.gzip.GZIPFormatException;
+
+/**
+ * Copies a single gzip member from a stream in one pass, finding where it
+ * ends by inflating it into a scratch buffer as its compressed bytes are
+ * written out, so the member never has to be buffered and replayed.
+ * <p>
+ * Bytes after the end of the member may have been read from the input, so
+ * it should not be reused. Not thread safe: use one copier per thread.
+ */
+public class GZMemberCopier {
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private byte[] buffer;
+	private byte[] scratch;
+	private Inflater inflater;
+	private CRC32 crc;
+	// buffer[start,pos) has been consumed but not yet written:
+	private int start;
+	private int pos;
+	private int limit;
+	private long written;
+
+	public GZMemberCopier() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public GZMemberCopier(int bufferSize) {
+		buffer = new byte[bufferSize];
+		scratch = new byte[bufferSize];
+		inflater = new Inflater(true);
+		crc = new CRC32();
+	}
+
+	/**
+	 * Copy the gzip member at the start of in to out.
+	 * @return the compressed length of the member
+	 * @throws GZIPFormatException if in does not start with a valid member,
+	 * after some of it may have been written to out
+	 * @throws IOException on read or write errors, or a truncated member
+	 */
+	public long copy(InputStream in, OutputStream out)
+	throws IOException, GZIPFormatException {
+		start = pos = limit = 0;
+		written = 0;
+		copyHeader(in, out);
+		copyDeflate(in, out);
+		long expectCrc = readInt(in, out);
+		long expectSize = readInt(in, out);
+		flush(out);
+		if(expectCrc != crc.getValue()) {
+			throw new GZIPFormatException("Gzip member CRC mismatch");
+		}
+		if(expectSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+			throw new GZIPFormatException("Gzip member size mismatch");
+		}
+		return written;
+	}
+
+	/**
+	 * @return the bytes written to out by the last copy, even if it failed
+	 */
+	public long getBytesWritten() {
+		return written;
+	}
+
+	/**
+	 * Release the inflater, the copier cannot be used afterwards.
+	 */
+	public void end() {
+		inflater.end();
+	}
+
+	private void copyHeader(InputStream in, OutputStream out)
+	throws IOException, GZIPFormatException {
+		if(readByte(in, out) != 0x1f || readByte(in, out) != 0x8b) {
+			throw new GZIPFormatException("Not a gzip member");
+		}
+		if(readByte(in, out) != 8) {
+			throw new GZIPFormatException("Unsupported gzip compression method");
+		}
+		int flags = readByte(in, out);
+		// MTIME, XFL, OS:
+		for(int i = 0; i < 6; i++) {
+			readByte(in, out);
+		}
+		if((flags & FEXTRA) != 0) {
+			int xlen = readByte(in, out) | (readByte(in, out) << 8);
+			for(int i = 0; i < xlen; i++) {
+				readByte(in, out);
+			}
+		}
+		if((flags & FNAME) != 0) {
+			while(readByte(in, out) != 0) {
+			}
+		}
+		if((flags & FCOMMENT) != 0) {
+			while(readByte(in, out) != 0) {
+			}
+		}
+		if((flags & FHCRC) != 0) {
+			readByte(in, out);
+			readByte(in, out);
+		}
+	}
+
+	private void copyDeflate(InputStream in, OutputStream out)
+	throws IOException, GZIPFormatException {
+		inflater.reset();
+		crc.reset();
+		try {
+			while(!inflater.finished()) {
+				if(inflater.needsInput()) {
+					if(pos == limit) {
+						fill(in, out);
+					}
+					inflater.setInput(buffer, pos, limit - pos);
+					pos = limit;
+				}
+				int amt = inflater.inflate(scratch);
+				if(amt > 0) {
+					crc.update(scratch, 0, amt);
+				} else if(inflater.needsDictionary()) {
+					throw new GZIPFormatException("Gzip member needs a dictionary");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new GZIPFormatException("Corrupt gzip member: "
+					+ e.getMessage());
+		}
+		// hand back what the inflater did not use:
+		pos = limit - inflater.getRemaining();
+	}
+
+	private long readInt(InputStream in, OutputStream out) throws IOException {
+		return readByte(in, out) | (readByte(in, out) << 8)
+			| (readByte(in, out) << 16) | ((long) readByte(in, out) << 24);
+	}
+
+	private int readByte(InputStream in, OutputStream out) throws IOException {
+		if(pos == limit) {
+			fill(in, out);
+		}
+		return buffer[pos++] & 0xff;
+	}
+
+	private void fill(InputStream in, OutputStream out) throws IOException {
+		flush(out);
+		int amt = in.read(buffer, 0, buffer.length);
+		if(amt == -1) {
+			throw new EOFException("Truncated gzip member");
+		}
+		start = pos = 0;
+		limit = amt;
+	}
+
+	private void flush(OutputStream out) throws IOException {
+		if(pos > start) {
+			out.write(buffer, start, pos - start);
+			written += pos - start;
+			start = pos;
+		}
+	}
+}
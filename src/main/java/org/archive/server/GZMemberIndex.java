@@ -0,0 +1,155 @@
+package org.archive.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+import org.archive.format.gzip.GZIPFormatException;
+import org.archive.format.gzip.GZIPMemberSeries;
+import org.archive.format.gzip.GZIPSeriesMember;
+import org.archive.streamcontext.SimpleStream;
+
+/**
+ * Start offsets of every gzip member in a file, so the compressed length
+ * of a member can be found by binary search rather than by inflating it.
+ * <p>
+ * Persisted as: magic, version, the indexed file's length and modification
+ * time (to detect stale indexes), the member count, then the member start
+ * offsets as VLong deltas.
+ */
+public class GZMemberIndex {
+	public final static String INDEX_SUFFIX = ".gzidx";
+
+	private final static int MAGIC = 0x475a4958; // "GZIX"
+	private final static int VERSION = 1;
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private long[] starts;
+	private long fileLength;
+	private long lastModified;
+
+	public GZMemberIndex(long[] starts, long fileLength, long lastModified) {
+		this.starts = starts;
+		this.fileLength = fileLength;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return the compressed length of the member starting at offset, or -1
+	 * if no member starts at offset
+	 */
+	public long getMemberLength(long offset) {
+		int idx = Arrays.binarySearch(starts, offset);
+		if(idx < 0) {
+			return -1;
+		}
+		long end = (idx + 1 < starts.length) ? starts[idx + 1] : fileLength;
+		return end - offset;
+	}
+
+	/**
+	 * @return true if this index was built from file as it is now
+	 */
+	public boolean isCurrent(File file) {
+		return file.length() == fileLength
+			&& file.lastModified() == lastModified;
+	}
+
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * Scan every member of file.
+	 * @throws IOException if the file could not be read
+	 * @throws GZIPFormatException if the file is not a series of gzip members
+	 */
+	public static GZMemberIndex build(File file)
+	throws IOException, GZIPFormatException {
+		long length = file.length();
+		long modified = file.lastModified();
+		InputStream is = new BufferedInputStream(new FileInputStream(file),
+				BUFFER_SIZE);
+		try {
+			GZIPMemberSeries gzs = new GZIPMemberSeries(new SimpleStream(is),
+					file.getName(), 0, true);
+			long[] starts = new long[1024];
+			int count = 0;
+			long offset = 0;
+			while(offset < length) {
+				GZIPSeriesMember m = gzs.getNextMember();
+				if(m == null) {
+					break;
+				}
+				m.skipMember();
+				if(count == starts.length) {
+					starts = Arrays.copyOf(starts, count * 2);
+				}
+				starts[count++] = offset;
+				offset += m.getCompressedBytesRead();
+			}
+			if(offset != length) {
+				throw new GZIPFormatException("Trailing bytes after member at "
+						+ offset + " in " + file);
+			}
+			return new GZMemberIndex(Arrays.copyOf(starts, count), length,
+					modified);
+		} finally {
+			is.close();
+		}
+	}
+
+	public void write(File indexFile) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile), BUFFER_SIZE));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(fileLength);
+			dos.writeLong(lastModified);
+			dos.writeInt(starts.length);
+			long last = 0;
+			for(long start : starts) {
+				WritableUtils.writeVLong(dos, start - last);
+				last = start;
+			}
+		} finally {
+			dos.close();
+		}
+	}
+
+	public static GZMemberIndex read(File indexFile) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile), BUFFER_SIZE));
+		try {
+			if(dis.readInt() != MAGIC) {
+				throw new IOException("Not a gzip member index: " + indexFile);
+			}
+			int version = dis.readInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported gzip member index version "
+						+ version + " in " + indexFile);
+			}
+			long length = dis.readLong();
+			long modified = dis.readLong();
+			int count = dis.readInt();
+			long[] starts = new long[count];
+			long last = 0;
+			for(int i = 0; i < count; i++) {
+				last += WritableUtils.readVLong(dis);
+				starts[i] = last;
+			}
+			return new GZMemberIndex(starts, length, modified);
+		} finally {
+			dis.close();
+		}
+	}
+}
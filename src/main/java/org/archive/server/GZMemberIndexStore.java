@@ -0,0 +1,211 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.format.gzip.GZIPFormatException;
+
+/**
+ * Finds, loads, caches and lazily builds {@link GZMemberIndex}es.
+ * <p>
+ * Indexes are persisted as FILE.gzidx, next to each file or under an index
+ * directory mirroring the absolute paths of the files. With indexing threads,
+ * a file without a current index is indexed on a background thread the first
+ * time it is requested; otherwise, and until that completes,
+ * {@link #getIndex(File)} returns null, so callers fall back to scanning.
+ * Loaded indexes are kept in memory up to a total number of members.
+ */
+public class GZMemberIndexStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(GZMemberIndexStore.class.getName());
+
+	public static final long DEFAULT_MAX_CACHED_MEMBERS = 16 * 1024 * 1024;
+
+	private File indexDir;
+	private long maxCachedMembers;
+	private long cachedMembers;
+	private LinkedHashMap<String,GZMemberIndex> cache;
+	private HashSet<String> building;
+	// path to lastModified of files which could not be indexed:
+	private HashMap<String,Long> failed;
+	private ExecutorService executor;
+
+	/**
+	 * @param indexDir directory holding the index files, or null to store
+	 * each next to its file
+	 * @param maxCachedMembers total members of indexes to keep in memory
+	 * @param threads number of background indexing threads, 0 to never
+	 * build indexes on demand
+	 */
+	public GZMemberIndexStore(File indexDir, long maxCachedMembers,
+			int threads) {
+		this.indexDir = indexDir;
+		this.maxCachedMembers = maxCachedMembers;
+		cachedMembers = 0;
+		cache = new LinkedHashMap<String,GZMemberIndex>(16, 0.75f, true);
+		building = new HashSet<String>();
+		failed = new HashMap<String,Long>();
+		if(threads > 0) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gzmember-indexer");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the index file used for file
+	 */
+	public File getIndexFile(File file) {
+		File absolute = file.getAbsoluteFile();
+		String name = absolute.getName() + GZMemberIndex.INDEX_SUFFIX;
+		if(indexDir == null) {
+			return new File(absolute.getParentFile(), name);
+		}
+		// files with the same name in different directories must not share:
+		return new File(new File(indexDir, absolute.getParent()), name);
+	}
+
+	/**
+	 * @return a current index for file, or null if there is none yet, in
+	 * which case one may be being built in the background
+	 */
+	public GZMemberIndex getIndex(final File file) {
+		final String path = file.getAbsolutePath();
+		synchronized(this) {
+			GZMemberIndex index = cache.get(path);
+			if(index != null) {
+				if(index.isCurrent(file)) {
+					return index;
+				}
+				remove(path);
+			}
+		}
+		File indexFile = getIndexFile(file);
+		if(indexFile.isFile()) {
+			try {
+				GZMemberIndex index = GZMemberIndex.read(indexFile);
+				if(index.isCurrent(file)) {
+					put(path, index);
+					return index;
+				}
+			} catch (IOException e) {
+				LOGGER.warning("Bad index " + indexFile + ": " + e.getMessage());
+			}
+		}
+		if(executor != null) {
+			synchronized(this) {
+				Long failedModified = failed.get(path);
+				if((failedModified != null
+						&& failedModified.longValue() == file.lastModified())
+						|| !building.add(path)) {
+					return null;
+				}
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						buildIndex(file);
+					} finally {
+						synchronized(GZMemberIndexStore.this) {
+							building.remove(path);
+						}
+					}
+				}
+			});
+		}
+		return null;
+	}
+
+	/**
+	 * Index file now, persisting and caching the index.
+	 * @return the index, or null if file could not be indexed
+	 */
+	public GZMemberIndex buildIndex(File file) {
+		String path = file.getAbsolutePath();
+		GZMemberIndex index;
+		long start = System.currentTimeMillis();
+		try {
+			index = GZMemberIndex.build(file);
+		} catch (GZIPFormatException e) {
+			LOGGER.warning("Unable to index " + file + ": " + e.getMessage());
+			synchronized(this) {
+				failed.put(path, file.lastModified());
+			}
+			return null;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to index " + file, e);
+			synchronized(this) {
+				failed.put(path, file.lastModified());
+			}
+			return null;
+		}
+		File indexFile = getIndexFile(file);
+		try {
+			File parent = indexFile.getParentFile();
+			if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+				throw new IOException("Unable to create " + parent);
+			}
+			File tmp = new File(indexFile.getPath() + ".tmp");
+			index.write(tmp);
+			if(!tmp.renameTo(indexFile)) {
+				tmp.delete();
+				throw new IOException("Unable to rename " + tmp);
+			}
+		} catch (IOException e) {
+			// still useful in memory:
+			LOGGER.warning("Unable to save index " + indexFile + ": "
+					+ e.getMessage());
+		}
+		LOGGER.info(String.format("Indexed %d members of %s in %dms",
+				index.size(), file, System.currentTimeMillis() - start));
+		put(path, index);
+		return index;
+	}
+
+	private synchronized void put(String path, GZMemberIndex index) {
+		remove(path);
+		cache.put(path, index);
+		cachedMembers += index.size();
+		Iterator<GZMemberIndex> itr = cache.values().iterator();
+		while(cachedMembers > maxCachedMembers && cache.size() > 1
+				&& itr.hasNext()) {
+			cachedMembers -= itr.next().size();
+			itr.remove();
+		}
+	}
+
+	private void remove(String path) {
+		GZMemberIndex old = cache.remove(path);
+		if(old != null) {
+			cachedMembers -= old.size();
+		}
+	}
+
+	public synchronized int getCachedCount() {
+		return cache.size();
+	}
+
+	public synchronized long getCachedMembers() {
+		return cachedMembers;
+	}
+
+	public void close() {
+		if(executor != null) {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+public class GZMemberIndexTool implements Tool {
+	public final static String TOOL_NAME = "gzmember-index";
+	public static final String TOOL_DESCRIPTION =
+		"Build gzip member offset indexes for files served by gzrange-server.";
+
+	private final static String USAGE_HEADER = "Builds an index of the start offset of every gzip member in each FILE,\n"
+		+ "or each .gz file under each DIR, which gzrange-server uses to find\n"
+		+ "member lengths without inflating them.\n\n"
+		+ "Indexes are written next to each file as FILE" + GZMemberIndex.INDEX_SUFFIX
+		+ ", or in INDEX_DIR if given.\n"
+		+ "\n";
+
+	private Configuration conf;
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+	}
+	public Configuration getConf() {
+		return conf;
+	}
+
+	public static int USAGE(Options opts) {
+		HelpFormatter formatter = new HelpFormatter();
+		System.err.println();
+		PrintWriter pw = new PrintWriter(System.err);
+		formatter.printHelp(pw,80,TOOL_NAME + " [OPTIONS] FILE|DIR ...",USAGE_HEADER,opts,4,5,"");
+		pw.flush();
+		return 1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new Configuration(), new GZMemberIndexTool(), args);
+		System.exit(res);
+	}
+
+	private static Options buildOptions() {
+		Options options = new Options();
+
+		Option indexDir = new Option("i","index-dir",true,
+				"write indexes under DIR, mirroring file paths, instead of next to each file");
+		indexDir.setArgName("DIR");
+
+		Option threads = new Option("t","threads",true,
+				"index N files at once (default 1)");
+		threads.setArgName("N");
+
+		Option force = new Option("f", "force", false,
+				"rebuild indexes which are already current");
+
+		options.addOption(indexDir);
+		options.addOption(threads);
+		options.addOption(force);
+		return options;
+	}
+
+	private static void addFiles(File f, ArrayList<File> files) {
+		if(f.isDirectory()) {
+			File[] children = f.listFiles();
+			if(children != null) {
+				for(File child : children) {
+					if(child.isDirectory() || child.getName().endsWith(".gz")) {
+						addFiles(child, files);
+					}
+				}
+			}
+		} else if(f.isFile()) {
+			files.add(f);
+		} else {
+			System.err.println("Skipping " + f + ": not a file or directory");
+		}
+	}
+
+	public int run(String[] args) throws Exception {
+		Options options = buildOptions();
+		CommandLineParser parser = new PosixParser();
+		CommandLine line = null;
+		try {
+			line = parser.parse( options, args );
+		} catch (ParseException e) {
+			System.err.format("Problem parsing options (%s)\n", e.getMessage());
+			return USAGE(options);
+		}
+		String[] extra = line.getArgs();
+		if(extra.length == 0) {
+			return USAGE(options);
+		}
+		File indexDir = null;
+		if(line.hasOption("index-dir")) {
+			indexDir = new File(line.getOptionValue("index-dir"));
+			if(!indexDir.isDirectory()) {
+				System.err.println("Index directory(" + indexDir + ") is not a directory");
+				return 1;
+			}
+		}
+		int threads = 1;
+		if(line.hasOption("threads")) {
+			threads = Integer.parseInt(line.getOptionValue("threads"));
+		}
+		boolean force = line.hasOption("force");
+
+		ArrayList<File> files = new ArrayList<File>();
+		for(String path : extra) {
+			addFiles(new File(path), files);
+		}
+
+		// no on-demand building, and only the last index kept in memory:
+		final GZMemberIndexStore store = new GZMemberIndexStore(indexDir, 0, 0);
+		final AtomicInteger failed = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for(final File file : files) {
+			if(!force && store.getIndex(file) != null) {
+				continue;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					if(store.buildIndex(file) == null) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		if(failed.get() > 0) {
+			System.err.format("Failed to index %d of %d files\n", failed.get(),
+					files.size());
+			return 1;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,164 @@
+package org.archive.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the records of a {@link GZRangeServer#BATCH_TARGET} response.
+ * <p>
+ * Each record is a "STATUS LENGTH OFFSET PATH\r\n" header followed by
+ * LENGTH bytes, the gzip member when STATUS is 206. Any bytes of a record
+ * not read through {@link #getInputStream()} are skipped by {@link #next()}.
+ */
+public class GZRangeBatchReader {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CR = 13;
+	private static final int LF = 10;
+
+	private InputStream is;
+	private ByteArrayOutputStream line;
+	private int status;
+	private long length;
+	private long offset;
+	private String path;
+	private RecordInputStream record;
+
+	/**
+	 * @param is the response body, ideally buffered
+	 */
+	public GZRangeBatchReader(InputStream is) {
+		this.is = is;
+		line = new ByteArrayOutputStream(256);
+		record = null;
+	}
+
+	/**
+	 * Advance to the next record.
+	 * @return false if there are no more records
+	 * @throws IOException on a malformed or truncated response
+	 */
+	public boolean next() throws IOException {
+		if(record != null) {
+			record.skipRemaining();
+			record = null;
+		}
+		line.reset();
+		int c;
+		while((c = is.read()) != LF) {
+			if(c == -1) {
+				if(line.size() == 0) {
+					return false;
+				}
+				throw new EOFException("Truncated batch header");
+			}
+			line.write(c);
+		}
+		byte[] b = line.toByteArray();
+		int len = b.length;
+		if(len > 0 && b[len - 1] == CR) {
+			len--;
+		}
+		String header = new String(b, 0, len, UTF8);
+		String[] parts = header.split(" ", 4);
+		if(parts.length != 4) {
+			throw new IOException("Bad batch header: " + header);
+		}
+		try {
+			status = Integer.parseInt(parts[0]);
+			length = Long.parseLong(parts[1]);
+			offset = Long.parseLong(parts[2]);
+		} catch(NumberFormatException e) {
+			throw new IOException("Bad batch header: " + header);
+		}
+		if(length < 0) {
+			throw new IOException("Bad batch header: " + header);
+		}
+		path = parts[3];
+		record = new RecordInputStream(length);
+		return true;
+	}
+
+	/**
+	 * @return true if the current record holds a gzip member
+	 */
+	public boolean isOK() {
+		return status == 206;
+	}
+	public int getStatus() {
+		return status;
+	}
+	public long getLength() {
+		return length;
+	}
+	public long getOffset() {
+		return offset;
+	}
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the bytes of the current record, valid until {@link #next()}
+	 */
+	public InputStream getInputStream() {
+		return record;
+	}
+
+	public void close() throws IOException {
+		is.close();
+	}
+
+	private class RecordInputStream extends InputStream {
+		private long remaining;
+
+		public RecordInputStream(long length) {
+			remaining = length;
+		}
+		@Override
+		public int read() throws IOException {
+			if(remaining == 0) {
+				return -1;
+			}
+			int c = is.read();
+			if(c == -1) {
+				throw new EOFException("Truncated batch record");
+			}
+			remaining--;
+			return c;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining == 0) {
+				return -1;
+			}
+			if(len == 0) {
+				return 0;
+			}
+			int amt = is.read(b, off, (int) Math.min(len, remaining));
+			if(amt == -1) {
+				throw new EOFException("Truncated batch record");
+			}
+			remaining -= amt;
+			return amt;
+		}
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(is.available(), remaining);
+		}
+		private void skipRemaining() throws IOException {
+			while(remaining > 0) {
+				long amt = is.skip(remaining);
+				if(amt <= 0) {
+					if(is.read() == -1) {
+						throw new EOFException("Truncated batch record");
+					}
+					amt = 1;
+				}
+				remaining -= amt;
+			}
+		}
+	}
+}
@@ -3,10 +3,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.List;
@@ -20,17 +19,20 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.util.EntityUtils;
 import org.archive.util.HMACSigner;
-import org.archive.format.gzip.GZIPFormatException;
-import org.archive.format.gzip.GZIPMemberSeries;
 import org.archive.format.gzip.GZIPMemberWriter;
-import org.archive.format.gzip.GZIPSeriesMember;
-import org.archive.streamcontext.SimpleStream;
 import org.archive.util.IAUtils;
 import org.archive.util.DateUtils;
 import org.archive.util.FileNameSpec;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.LimitInputStream;
+import com.google.common.io.FileBackedOutputStream;
 
 public class GZRangeClient {
 
@@ -42,6 +44,11 @@ public class GZRangeClient {
 	private static int LF = 10;
 	private static final long DEFAULT_MAX_ARC_SIZE = 1024 * 1024 * 100;
 	private static final long DEFAULT_MAX_WARC_SIZE = 1024 * 1024 * 1024;
+	// fetched records larger than this are held in temp files:
+	private static final int RECORD_MAX_RAM = 1024 * 1024 * 2;
+	// closed HTTP streams with more than this left unread drop their
+	// connection rather than reading the rest to reuse it:
+	private static final long MAX_DRAIN = 64 * 1024;
 
 	private File targetDir;
 	private long maxArcSize;
@@ -67,6 +74,10 @@ public class GZRangeClient {
 	private long currentWarcSize = 0;
 	private byte[] warcHeaderContents;
 	private boolean exitOnError = false;
+	private GZMemberCopier copier = new GZMemberCopier();
+	private ThreadSafeClientConnManager connman =
+		new ThreadSafeClientConnManager();
+	private HttpClient httpClient = new DefaultHttpClient(connman);
 
 	private final static String ARC_PATTERN = 
 		"filedesc://%s 0.0.0.0 %s text/plain 76\n" +
@@ -157,87 +168,160 @@ http-header-from: archive-crawler-agent@lists.sourceforge.net
 		this.hmacSignature = hmacSignature;
 	}
 
+	/**
+	 * Set how many HTTP connections are kept open at once, in all and to
+	 * each server, for up to as many concurrent {@link #fetch(long, List)}
+	 * calls.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		connman.setMaxTotal(maxConnections);
+		connman.setDefaultMaxPerRoute(maxConnections);
+	}
+
 	public void finish() throws IOException {
 		closeArc();
 		closeWarc();
+		copier.end();
+		connman.shutdown();
 	}
 
-	private long getGZLength(InputStream is) 
-	throws IOException, GZIPFormatException {
-
-		SimpleStream s = new SimpleStream(is);
-		GZIPMemberSeries gzs = new GZIPMemberSeries(s,"range",0,true);
-		GZIPSeriesMember m = gzs.getNextMember();
-		m.skipMember();
-		return m.getCompressedBytesRead();
-	}
-
+	/**
+	 * Fetch the record at offset from the first of urls which works, and
+	 * append it to the current ARC or WARC.
+	 */
 	public void append(long offset, List<String> urls) throws IOException {
-		boolean isArc = false;
-		String first = urls.get(0);
-		if(first.endsWith(".arc.gz")) {
-			isArc = true;
-		} else if(first.endsWith(".warc.gz")) {
-
-		} else {
-			throw new IOException("URL (" + first +
-					") must end with '.arc.gz' or '.warc.gz'");
-		}
-		
-		HMACSigner signer = null;
-		if(hmacName != null && hmacSignature != null && !hmacName.isEmpty() && !hmacSignature.isEmpty())
-			signer = new HMACSigner(hmacSignature, hmacName);
-		
+		boolean isArc = isArc(urls);
+		HMACSigner signer = getSigner();
 		for(String url : urls) {
-			FileBackedInputStream fbis = null;
 			InputStream is = null;
+			FileOutputStream os = null;
+			long start = 0;
 			try {
-				if(url.startsWith("http://")) {
-					URL u = new URL(url);
-					URLConnection conn = u.openConnection();
-					conn.setRequestProperty("Range", String.format("bytes=%d-", offset));
-					if(signer != null)	
-						conn.setRequestProperty("Cookie", signer.getHMacCookieStr(1000));
-					LOGGER.info(String.format("Attempting(%d) from(%s)",offset,url));
-					conn.connect();
-					is = conn.getInputStream();
-				} else if(url.startsWith("hdfs://")){
-					URI u = new URI(url);
-					//only initialize the FS once
-					if (hdfsSys == null) {
-						Configuration conf = new Configuration();
-						URI defaultURI = new URI(u.getScheme() + "://" + u.getHost() + ":"+ u.getPort() + "/");
-						hdfsSys = FileSystem.get(defaultURI, conf);
-					}
-					Path path = new Path(u.getPath());
-					FSDataInputStream fis = hdfsSys.open(path);
-					fis.seek(offset);
-					is = fis;
-				}
-				fbis = new FileBackedInputStream(is);
-				long length = getGZLength(fbis);
-				InputStream orig = fbis.getInputStream();
-				if(isArc) {
-					writeARCRecord(orig, length);
-				} else {
-					writeWARCRecord(orig, length);					
-				}
+				is = open(offset, url, signer);
+				os = startRecord(isArc);
+				start = os.getChannel().position();
+				long length = copier.copy(is, os);
+				endRecord(isArc, length);
 				LOGGER.info(String.format("Wrote record(%d) from(%s)",
 						offset,url));
 				return;
 			} catch (IOException e) {
 				LOGGER.warning("FAILED URL-OFFSET("+url+")(" + offset+")");
+				if(os != null && copier.getBytesWritten() > 0) {
+					// drop the partial record before trying the next URL:
+					os.getChannel().truncate(start);
+				}
 			} catch (URISyntaxException e) { 
 				LOGGER.warning("FAILED URL-OFFSET("+url+")(" + offset+")");
 			} finally {
 				if(is != null) {
 					is.close();
 				}
-				if(fbis != null) {
-					fbis.resetBacker();
+			}
+		}
+		fail(offset, urls);
+	}
+
+	/**
+	 * Fetch the record at offset from the first of urls which works,
+	 * without writing it. Safe to call from several threads at once.
+	 * @return the fetched record, which must be passed to
+	 * {@link #write(Record)} and released
+	 * @throws IOException if urls are not ARCs or WARCs
+	 */
+	public Record fetch(long offset, List<String> urls) throws IOException {
+		boolean isArc = isArc(urls);
+		HMACSigner signer = getSigner();
+		GZMemberCopier fetchCopier = new GZMemberCopier();
+		try {
+			for(String url : urls) {
+				InputStream is = null;
+				FileBackedOutputStream backer =
+					new FileBackedOutputStream(RECORD_MAX_RAM, true);
+				try {
+					is = open(offset, url, signer);
+					long length = fetchCopier.copy(is, backer);
+					Record record = new Record(offset, url, isArc, backer, length);
+					backer = null;
+					return record;
+				} catch (IOException e) {
+					LOGGER.warning("FAILED URL-OFFSET("+url+")(" + offset+")");
+				} catch (URISyntaxException e) { 
+					LOGGER.warning("FAILED URL-OFFSET("+url+")(" + offset+")");
+				} finally {
+					if(is != null) {
+						is.close();
+					}
+					if(backer != null) {
+						backer.reset();
+					}
 				}
 			}
+		} finally {
+			fetchCopier.end();
+		}
+		return new Record(offset, getErrorMessage(offset, urls));
+	}
+
+	private boolean isArc(List<String> urls) throws IOException {
+		String first = urls.get(0);
+		if(first.endsWith(".arc.gz")) {
+			return true;
+		} else if(first.endsWith(".warc.gz")) {
+			return false;
+		}
+		throw new IOException("URL (" + first +
+				") must end with '.arc.gz' or '.warc.gz'");
+	}
+
+	private HMACSigner getSigner() {
+		if(hmacName != null && hmacSignature != null && !hmacName.isEmpty() && !hmacSignature.isEmpty())
+			return new HMACSigner(hmacSignature, hmacName);
+		return null;
+	}
+
+	/**
+	 * @return a stream starting at offset of url. Closing an HTTP stream
+	 * returns its connection to this client's pool.
+	 */
+	private InputStream open(long offset, String url, HMACSigner signer)
+	throws IOException, URISyntaxException {
+		if(url.startsWith("http://")) {
+			HttpGet get = new HttpGet(url);
+			get.setHeader("Range", String.format("bytes=%d-", offset));
+			if(signer != null)	
+				get.setHeader("Cookie", signer.getHMacCookieStr(1000));
+			LOGGER.info(String.format("Attempting(%d) from(%s)",offset,url));
+			HttpResponse response = httpClient.execute(get);
+			HttpEntity entity = response.getEntity();
+			int status = response.getStatusLine().getStatusCode();
+			if(status >= 300 || entity == null) {
+				EntityUtils.consume(entity);
+				throw new IOException(String.format("Status(%d) from(%s)",
+						status, url));
+			}
+			return new ResponseInputStream(get, entity);
+		} else if(url.startsWith("hdfs://")){
+			URI u = new URI(url);
+			Path path = new Path(u.getPath());
+			FSDataInputStream fis = getHdfs(u).open(path);
+			fis.seek(offset);
+			return fis;
+		}
+		throw new IOException("URL (" + url +
+				") must start with 'http://' or 'hdfs://'");
+	}
+
+	private void fail(long offset, List<String> urls) throws IOException {
+		String errMsg = getErrorMessage(offset, urls);
+		if(exitOnError) {
+			throw new IOException(errMsg);
+		} else {
+			LOGGER.severe(errMsg);
 		}
+	}
+
+	private String getErrorMessage(long offset, List<String> urls) {
 		StringBuilder sb = new StringBuilder();
 		for(String u : urls) {
 			if(sb.length() != 0) {
@@ -245,12 +329,128 @@ http-header-from: archive-crawler-agent@lists.sourceforge.net
 			}
 			sb.append(u);
 		}
-		String errMsg = String.format("Unable to get offset(%d) from (%s)",
+		return String.format("Unable to get offset(%d) from (%s)",
 				offset,sb.toString());
-		if(exitOnError) {
-			throw new IOException(errMsg);
-		} else {
-			LOGGER.severe(errMsg);
+	}
+
+	private static synchronized FileSystem getHdfs(URI u)
+	throws IOException, URISyntaxException {
+		//only initialize the FS once
+		if (hdfsSys == null) {
+			Configuration conf = new Configuration();
+			URI defaultURI = new URI(u.getScheme() + "://" + u.getHost() + ":"+ u.getPort() + "/");
+			hdfsSys = FileSystem.get(defaultURI, conf);
+		}
+		return hdfsSys;
+	}
+
+	/**
+	 * Response body which, when closed, only reads what is left of it to
+	 * reuse the connection if that is no more than MAX_DRAIN bytes.
+	 */
+	private static class ResponseInputStream extends FilterInputStream {
+		private HttpGet get;
+		private long remaining;
+		private ResponseInputStream(HttpGet get, HttpEntity entity)
+		throws IOException {
+			super(entity.getContent());
+			this.get = get;
+			remaining = entity.getContentLength();
+		}
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			remaining = b < 0 ? 0 : remaining - 1;
+			return b;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int amt = super.read(b, off, len);
+			remaining = amt < 0 ? 0 : remaining - amt;
+			return amt;
+		}
+		@Override
+		public long skip(long n) throws IOException {
+			long amt = super.skip(n);
+			remaining -= amt;
+			return amt;
+		}
+		@Override
+		public void close() throws IOException {
+			// unknown lengths stay negative until the end is read:
+			if(remaining < 0 || remaining > MAX_DRAIN) {
+				get.abort();
+			} else {
+				super.close();
+			}
+		}
+	}
+
+	/**
+	 * Append a fetched record to the current ARC or WARC, or report its
+	 * failure. Records must be written from a single thread.
+	 */
+	public void write(Record record) throws IOException {
+		if(record.backer == null) {
+			if(exitOnError) {
+				throw new IOException(record.errMsg);
+			} else {
+				LOGGER.severe(record.errMsg);
+			}
+			return;
+		}
+		InputStream orig = record.backer.getSupplier().getInput();
+		try {
+			ByteStreams.copy(orig, startRecord(record.isArc));
+		} finally {
+			orig.close();
+		}
+		endRecord(record.isArc, record.length);
+		LOGGER.info(String.format("Wrote record(%d) from(%s)",
+				record.offset,record.url));
+	}
+
+	/**
+	 * A record fetched by {@link GZRangeClient#fetch(long, List)}, held in
+	 * memory, or spilled to a temp file if large, until it is written.
+	 * Only the member itself is held.
+	 */
+	public static class Record {
+		private long offset;
+		private String url;
+		private boolean isArc;
+		private FileBackedOutputStream backer;
+		private long length;
+		private String errMsg;
+
+		private Record(long offset, String url, boolean isArc,
+				FileBackedOutputStream backer, long length) {
+			this.offset = offset;
+			this.url = url;
+			this.isArc = isArc;
+			this.backer = backer;
+			this.length = length;
+		}
+		private Record(long offset, String errMsg) {
+			this.offset = offset;
+			this.errMsg = errMsg;
+		}
+		public long getOffset() {
+			return offset;
+		}
+		/**
+		 * @return false if the record could not be fetched from any URL
+		 */
+		public boolean isFetched() {
+			return backer != null;
+		}
+		/**
+		 * Discard the fetched bytes, deleting any temp file.
+		 */
+		public void release() throws IOException {
+			if(backer != null) {
+				backer.reset();
+			}
 		}
 	}
 
@@ -280,26 +480,34 @@ http-header-from: archive-crawler-agent@lists.sourceforge.net
 		return baos.toByteArray();
 	}
 
-	private void writeWARCRecord(InputStream is, long length) throws IOException {
+	/**
+	 * @return the ARC or WARC to write the next record to, opening a new
+	 * one if needed
+	 */
+	private FileOutputStream startRecord(boolean isArc) throws IOException {
+		if(isArc) {
+			if(currentArcSize == 0) {
+				nextArc();
+			}
+			return currentArcOS;
+		}
 		if(currentWarcSize == 0) {
 			nextWarc();
 		}
-		LimitInputStream lis = new LimitInputStream(is, length);
-		ByteStreams.copy(lis, currentWarcOS);
-		currentWarcSize += length;
-		if(currentWarcSize > maxWarcSize) {
-			closeWarc();
-		}
+		return currentWarcOS;
 	}
-	private void writeARCRecord(InputStream is, long length) throws IOException {
-		if(currentArcSize == 0) {
-			nextArc();
-		}
-		LimitInputStream lis = new LimitInputStream(is, length);
-		ByteStreams.copy(lis, currentArcOS);
-		currentArcSize += length;
-		if(currentArcSize > maxArcSize) {
-			closeArc();
+
+	private void endRecord(boolean isArc, long length) throws IOException {
+		if(isArc) {
+			currentArcSize += length;
+			if(currentArcSize > maxArcSize) {
+				closeArc();
+			}
+		} else {
+			currentWarcSize += length;
+			if(currentWarcSize > maxWarcSize) {
+				closeWarc();
+			}
 		}
 	}
 
@@ -90,6 +90,10 @@ public class GZRangeClientTool implements Tool {
 		Option errOnExit = new Option("e", "exit-on-error", false, 
 		"if declared, a failure to get a single record causes a failure in the tool");
 
+		Option concurrency = new Option("c","concurrency",true,
+				"fetch up to N records at once, still writing them in MANIFEST order (default 1)");
+		concurrency.setArgName("N");
+
 		options.addOption(arcSize);
 		options.addOption(warcSize);
 		options.addOption(warcHeaderFields);
@@ -97,6 +101,7 @@ public class GZRangeClientTool implements Tool {
 		options.addOption(hmacName);
 		options.addOption(hmacSignature);
 		options.addOption(errOnExit);
+		options.addOption(concurrency);
 		return options;
 	}
 
@@ -167,6 +172,15 @@ public class GZRangeClientTool implements Tool {
 	    	cli.setExitOnError(true);
 	    }
 
+	    int concurrency = 1;
+	    if(line.hasOption("concurrency")) {
+	    	concurrency = Integer.parseInt(line.getOptionValue("concurrency"));
+	    }
+	    GZRangeFetcher fetcher = null;
+	    if(concurrency > 1) {
+	    	fetcher = new GZRangeFetcher(cli, concurrency);
+	    }
+
 	    FileInputStream manIS = new FileInputStream(manifest);
 	    InputStreamReader manR = new InputStreamReader(manIS,UTF8);
 	    BufferedReader manBufR = new BufferedReader(manR);
@@ -195,9 +209,17 @@ public class GZRangeClientTool implements Tool {
 	    		}
 	    		urls.add(parts[i]);
 	    	}
-	    	cli.append(offset, urls);
+	    	if(fetcher == null) {
+	    		cli.append(offset, urls);
+	    	} else {
+	    		fetcher.append(offset, urls);
+	    	}
+	    }
+	    if(fetcher == null) {
+	    	cli.finish();
+	    } else {
+	    	fetcher.finish();
 	    }
-	    cli.finish();
 	    return 0;
 	}
 }
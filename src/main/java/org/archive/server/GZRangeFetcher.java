@@ -0,0 +1,125 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches records for a {@link GZRangeClient} on several threads at once,
+ * while appending them to the client's ARCs and WARCs in the order they
+ * were requested.
+ * <p>
+ * At most concurrency * 2 records are fetched or waiting to be written at
+ * any time, so {@link #append(long, List)} blocks once the writer falls
+ * behind. The client keeps up to concurrency HTTP connections open.
+ */
+public class GZRangeFetcher {
+	public static final int DEFAULT_CONCURRENCY = 8;
+
+	private GZRangeClient client;
+	private int maxPending;
+	private LinkedList<Future<GZRangeClient.Record>> pending;
+	private ExecutorService executor;
+
+	public GZRangeFetcher(GZRangeClient client) {
+		this(client, DEFAULT_CONCURRENCY);
+	}
+
+	public GZRangeFetcher(GZRangeClient client, int concurrency) {
+		this.client = client;
+		maxPending = concurrency * 2;
+		pending = new LinkedList<Future<GZRangeClient.Record>>();
+		client.setMaxConnections(concurrency);
+		executor = Executors.newFixedThreadPool(concurrency,
+				new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gzrange-fetcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queue the record at offset to be fetched from the first of urls which
+	 * works, writing any records which have already arrived in order.
+	 */
+	public void append(final long offset, final List<String> urls)
+	throws IOException {
+		while(pending.size() >= maxPending) {
+			writeNext();
+		}
+		pending.add(executor.submit(new Callable<GZRangeClient.Record>() {
+			public GZRangeClient.Record call() throws Exception {
+				return client.fetch(offset, urls);
+			}
+		}));
+		while(!pending.isEmpty() && pending.getFirst().isDone()) {
+			writeNext();
+		}
+	}
+
+	/**
+	 * Write all outstanding records, and finish the client.
+	 */
+	public void finish() throws IOException {
+		try {
+			while(!pending.isEmpty()) {
+				writeNext();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		client.finish();
+	}
+
+	private void writeNext() throws IOException {
+		GZRangeClient.Record record;
+		try {
+			record = pending.removeFirst().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			throw new IOException("Interrupted waiting for record");
+		} catch (ExecutionException e) {
+			abort();
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+		try {
+			client.write(record);
+		} catch (IOException e) {
+			abort();
+			throw e;
+		} finally {
+			record.release();
+		}
+	}
+
+	/**
+	 * Stop fetching, discarding records which will never be written.
+	 */
+	private void abort() {
+		executor.shutdownNow();
+		while(!pending.isEmpty()) {
+			Future<GZRangeClient.Record> future = pending.removeFirst();
+			if(future.cancel(true)) {
+				continue;
+			}
+			try {
+				future.get().release();
+			} catch (Exception e) {
+				// already failed, nothing to release
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package org.archive.server;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request counters and latencies for {@link GZRangeServer}.
+ * <p>
+ * Each member served is timed in two parts: the scan finding its length,
+ * and the transfer of its bytes. Hot files are tracked approximately, in
+ * O(1) per record, by a {@link StreamSummary}.
+ */
+public class GZRangeMetrics implements GZRangeMetricsMBean {
+	public static final int DEFAULT_HOT_FILES = 20;
+	public static final int DEFAULT_TRACKED_FILES = 1024;
+
+	private static final int MAX_STATUS = 600;
+
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong records = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	private AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+	private LatencyHistogram scan = new LatencyHistogram();
+	private LatencyHistogram transfer = new LatencyHistogram();
+	private AtomicLong sequential = new AtomicLong();
+	private AtomicLong random = new AtomicLong();
+	private AtomicLong readAheadHits = new AtomicLong();
+	private AtomicLong readAheadLoads = new AtomicLong();
+	private AtomicLong readAheadBytes = new AtomicLong();
+
+	private int hotFiles;
+	private StreamSummary fileCounts;
+
+	public GZRangeMetrics() {
+		this(DEFAULT_HOT_FILES, DEFAULT_TRACKED_FILES);
+	}
+
+	/**
+	 * @param hotFiles number of hot files to report
+	 * @param trackedFiles number of files to count, larger is more accurate
+	 */
+	public GZRangeMetrics(int hotFiles, int trackedFiles) {
+		this.hotFiles = hotFiles;
+		fileCounts = new StreamSummary(Math.max(hotFiles, trackedFiles));
+	}
+
+	/**
+	 * Count an HTTP request, of one or (for batches) many records.
+	 */
+	public void request(int status) {
+		requests.incrementAndGet();
+		status(status);
+	}
+
+	/**
+	 * Count a member served from path, with its scan and transfer times.
+	 */
+	public void record(String path, long length, long scanNanos,
+			long transferNanos) {
+		records.incrementAndGet();
+		bytes.addAndGet(length);
+		scan.add(scanNanos);
+		transfer.add(transferNanos);
+		hit(path);
+	}
+
+	/**
+	 * Count a response status, once per request, and once per record in
+	 * batches.
+	 */
+	public void status(int status) {
+		if(status >= 0 && status < MAX_STATUS) {
+			statuses.incrementAndGet(status);
+		}
+	}
+
+	/**
+	 * Count a request classified by {@link ReadAhead}, and whether it was
+	 * served from an already read window.
+	 */
+	public void readAheadAccess(boolean isSequential, boolean hit) {
+		(isSequential ? sequential : random).incrementAndGet();
+		if(hit) {
+			readAheadHits.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Count a window read by {@link ReadAhead}.
+	 */
+	public void readAheadLoad(long length) {
+		readAheadLoads.incrementAndGet();
+		readAheadBytes.addAndGet(length);
+	}
+
+	private synchronized void hit(String path) {
+		fileCounts.offer(path);
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+	public long getRecordCount() {
+		return records.get();
+	}
+	public long getBytesServed() {
+		return bytes.get();
+	}
+	public LatencyHistogram getScanHistogram() {
+		return scan;
+	}
+	public LatencyHistogram getTransferHistogram() {
+		return transfer;
+	}
+	public long getScanMeanMicros() {
+		return scan.getMeanMicros();
+	}
+	public long getScanP50Micros() {
+		return scan.getPercentileMicros(50);
+	}
+	public long getScanP99Micros() {
+		return scan.getPercentileMicros(99);
+	}
+	public long getTransferMeanMicros() {
+		return transfer.getMeanMicros();
+	}
+	public long getTransferP50Micros() {
+		return transfer.getPercentileMicros(50);
+	}
+	public long getTransferP99Micros() {
+		return transfer.getPercentileMicros(99);
+	}
+
+	public long getSequentialCount() {
+		return sequential.get();
+	}
+	public long getRandomCount() {
+		return random.get();
+	}
+	public long getReadAheadHits() {
+		return readAheadHits.get();
+	}
+	public long getReadAheadLoads() {
+		return readAheadLoads.get();
+	}
+	public long getReadAheadBytes() {
+		return readAheadBytes.get();
+	}
+	public double getReadAheadHitRate() {
+		long hits = readAheadHits.get();
+		long total = hits + readAheadLoads.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getStatusCount(int status) {
+		return statuses.get(status);
+	}
+
+	public String[] getStatusCounts() {
+		ArrayList<String> counts = new ArrayList<String>();
+		for(int i = 0; i < MAX_STATUS; i++) {
+			long count = statuses.get(i);
+			if(count > 0) {
+				counts.add(i + " " + count);
+			}
+		}
+		return counts.toArray(new String[counts.size()]);
+	}
+
+	public String[] getHotFiles() {
+		List<Map.Entry<String,Long>> hot = getHotFileCounts();
+		String[] files = new String[hot.size()];
+		for(int i = 0; i < files.length; i++) {
+			files[i] = hot.get(i).getValue() + " " + hot.get(i).getKey();
+		}
+		return files;
+	}
+
+	/**
+	 * @return up to hotFiles paths with their approximate request counts,
+	 * most requested first
+	 */
+	public synchronized List<Map.Entry<String,Long>> getHotFileCounts() {
+		return fileCounts.top(hotFiles);
+	}
+
+	public void reset() {
+		requests.set(0);
+		records.set(0);
+		bytes.set(0);
+		for(int i = 0; i < MAX_STATUS; i++) {
+			statuses.set(i, 0);
+		}
+		scan.reset();
+		transfer.reset();
+		sequential.set(0);
+		random.set(0);
+		readAheadHits.set(0);
+		readAheadLoads.set(0);
+		readAheadBytes.set(0);
+		synchronized(this) {
+			fileCounts.clear();
+		}
+	}
+
+	/**
+	 * Write all metrics as "NAME VALUE" lines.
+	 */
+	public void write(PrintWriter pw) {
+		pw.println("requests " + getRequestCount());
+		pw.println("records " + getRecordCount());
+		pw.println("bytes " + getBytesServed());
+		for(int i = 0; i < MAX_STATUS; i++) {
+			long count = statuses.get(i);
+			if(count > 0) {
+				pw.println("status." + i + " " + count);
+			}
+		}
+		writeHistogram(pw, "scan", scan);
+		writeHistogram(pw, "transfer", transfer);
+		pw.println("readahead.sequential " + getSequentialCount());
+		pw.println("readahead.random " + getRandomCount());
+		pw.println("readahead.hits " + getReadAheadHits());
+		pw.println("readahead.loads " + getReadAheadLoads());
+		pw.println("readahead.bytes " + getReadAheadBytes());
+		pw.println(String.format("readahead.hit_rate %.3f",
+				getReadAheadHitRate()));
+		Iterator<Map.Entry<String,Long>> itr = getHotFileCounts().iterator();
+		for(int i = 1; itr.hasNext(); i++) {
+			Map.Entry<String,Long> e = itr.next();
+			pw.println("hot." + i + " " + e.getValue() + " " + e.getKey());
+		}
+	}
+
+	private static void writeHistogram(PrintWriter pw, String name,
+			LatencyHistogram h) {
+		pw.println(name + ".count " + h.getCount());
+		pw.println(name + ".mean_us " + h.getMeanMicros());
+		pw.println(name + ".p50_us " + h.getPercentileMicros(50));
+		pw.println(name + ".p90_us " + h.getPercentileMicros(90));
+		pw.println(name + ".p99_us " + h.getPercentileMicros(99));
+		pw.println(name + ".max_us " + h.getMaxMicros());
+	}
+}
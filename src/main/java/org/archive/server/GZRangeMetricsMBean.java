@@ -0,0 +1,38 @@
+package org.archive.server;
+
+/**
+ * JMX view of {@link GZRangeMetrics}. Latencies are in microseconds.
+ */
+public interface GZRangeMetricsMBean {
+	public long getRequestCount();
+	public long getRecordCount();
+	public long getBytesServed();
+
+	public long getScanMeanMicros();
+	public long getScanP50Micros();
+	public long getScanP99Micros();
+	public long getTransferMeanMicros();
+	public long getTransferP50Micros();
+	public long getTransferP99Micros();
+
+	public long getSequentialCount();
+	public long getRandomCount();
+	public long getReadAheadBytes();
+	/**
+	 * @return fraction of read-ahead windows used which were already read
+	 */
+	public double getReadAheadHitRate();
+
+	/**
+	 * @return "STATUS COUNT" for each status code returned
+	 */
+	public String[] getStatusCounts();
+
+	/**
+	 * @return "COUNT PATH" for the most requested files, most requested
+	 * first
+	 */
+	public String[] getHotFiles();
+
+	public void reset();
+}
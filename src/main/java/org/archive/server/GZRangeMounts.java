@@ -0,0 +1,77 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes request paths to the {@link GZRangeStorage} mounted at their
+ * longest prefix, or to a default storage if there is none. A prefix only
+ * matches whole path segments: /hdfs matches /hdfs and /hdfs/a, not
+ * /hdfsx/a.
+ */
+public class GZRangeMounts {
+	private static final Logger LOGGER =
+		Logger.getLogger(GZRangeMounts.class.getName());
+
+	private GZRangeStorage defaultStorage;
+	private LinkedHashMap<String,GZRangeStorage> mounts;
+
+	public GZRangeMounts(GZRangeStorage defaultStorage) {
+		this.defaultStorage = defaultStorage;
+		mounts = new LinkedHashMap<String,GZRangeStorage>();
+	}
+
+	/**
+	 * @param prefix path prefix, trailing slashes are ignored
+	 * @param storage storage serving paths under prefix, which it is given
+	 * with prefix removed
+	 */
+	public void mount(String prefix, GZRangeStorage storage) {
+		while(prefix.endsWith("/")) {
+			prefix = prefix.substring(0, prefix.length() - 1);
+		}
+		mounts.put(prefix, storage);
+	}
+
+	/**
+	 * Open path in the storage mounted at its longest prefix, or in the
+	 * default storage if there is none.
+	 */
+	public GZRangeStorage.Source open(String path) throws IOException {
+		GZRangeStorage storage = defaultStorage;
+		String rest = path;
+		int matched = -1;
+		for(Map.Entry<String,GZRangeStorage> e : mounts.entrySet()) {
+			String prefix = e.getKey();
+			if(prefix.length() > matched && path.startsWith(prefix)
+					&& (path.length() == prefix.length()
+							|| path.charAt(prefix.length()) == '/')) {
+				storage = e.getValue();
+				rest = path.substring(prefix.length());
+				matched = prefix.length();
+			}
+		}
+		return storage.open(rest);
+	}
+
+	/**
+	 * Close the default and all mounted storages.
+	 */
+	public void close() {
+		close(defaultStorage);
+		for(GZRangeStorage storage : mounts.values()) {
+			close(storage);
+		}
+	}
+
+	private static void close(GZRangeStorage storage) {
+		try {
+			storage.close();
+		} catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Failed closing storage", e);
+		}
+	}
+}
@@ -1,18 +1,28 @@
 package org.archive.server;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.archive.format.gzip.GZIPFormatException;
@@ -23,15 +33,64 @@ import org.mortbay.jetty.Request;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.handler.AbstractHandler;
 
-import com.google.common.io.ByteStreams;
-import com.google.common.io.LimitInputStream;
-
 public class GZRangeServer extends AbstractHandler implements Tool {
+	private static final Logger LOGGER =
+		Logger.getLogger(GZRangeServer.class.getName());
+
 	public final static String TOOL_NAME = "gzrange-server";
 	public static final String TOOL_DESCRIPTION = 
 		"Run a special gzrange HTTP server.";
 
+	public final static String MAX_OPEN_FILES_CONFIGURATION =
+		"gzrange.server.max-open-files";
+	public final static String INDEX_ENABLED_CONFIGURATION =
+		"gzrange.server.index.enabled";
+	public final static String INDEX_DIR_CONFIGURATION =
+		"gzrange.server.index.dir";
+	public final static String INDEX_THREADS_CONFIGURATION =
+		"gzrange.server.index.threads";
+	public final static String INDEX_CACHE_MEMBERS_CONFIGURATION =
+		"gzrange.server.index.cache-members";
+	public final static String BATCH_MAX_RECORDS_CONFIGURATION =
+		"gzrange.server.batch.max-records";
+	public final static String READAHEAD_ENABLED_CONFIGURATION =
+		"gzrange.server.readahead.enabled";
+	public final static String READAHEAD_MIN_WINDOW_CONFIGURATION =
+		"gzrange.server.readahead.min-window";
+	public final static String READAHEAD_MAX_WINDOW_CONFIGURATION =
+		"gzrange.server.readahead.max-window";
+	public final static String READAHEAD_BUFFER_BYTES_CONFIGURATION =
+		"gzrange.server.readahead.buffer-bytes";
+	/**
+	 * Comma separated "PREFIX=URI" list of other storages to serve paths
+	 * under PREFIX from, eg "/hdfs=hdfs://namenode:8020/,/petabox=petabox://archive.org/"
+	 */
+	public final static String STORAGE_MOUNTS_CONFIGURATION =
+		"gzrange.server.storage.mounts";
+
+	/**
+	 * POSTing lines of "OFFSET PATH" to this target returns all the members
+	 * in one response, each preceded by a "STATUS LENGTH OFFSET PATH\r\n"
+	 * header, see {@link GZRangeBatchReader}.
+	 */
+	public final static String BATCH_TARGET = "/_batch";
+	/**
+	 * GET returns request metrics as "NAME VALUE" lines, also available
+	 * over JMX as org.archive.server:type=GZRangeServer,port=PORT
+	 */
+	public final static String METRICS_TARGET = "/metrics";
+	public final static String BATCH_CONTENT_TYPE = "application/x-gzrange-batch";
+	public final static int DEFAULT_BATCH_MAX_RECORDS = 10000;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static String PETABOX_SCHEME = "petabox";
+
 	private Configuration conf;
+	private FileChannelPool channels = new FileChannelPool();
+	private GZMemberIndexStore indexStore = null;
+	private int batchMaxRecords = DEFAULT_BATCH_MAX_RECORDS;
+	private GZRangeMetrics metrics = new GZRangeMetrics();
+	private ReadAhead readAhead = null;
+	private GZRangeMounts storages = null;
 
 	public void setConf(Configuration conf) {
 		this.conf = conf;
@@ -47,6 +106,13 @@ public class GZRangeServer extends AbstractHandler implements Tool {
 		System.err.println("fashion: it will scan ahead to determing the compressed length of the gzip member");
 		System.err.println("starting at the range start offset, and will return the exact number");
 		System.err.println("of compressed bytes in the member, including setting the Content-Length response header.");
+		System.err.println("Member lengths are looked up in FILE" + GZMemberIndex.INDEX_SUFFIX + " indexes built with " + GZMemberIndexTool.TOOL_NAME + ".");
+		System.err.println("Missing indexes are only built in the background when both " + INDEX_DIR_CONFIGURATION + " and");
+		System.err.println(INDEX_THREADS_CONFIGURATION + " are set.");
+		System.err.println("Many members can be fetched in one request by POSTing lines of \"OFFSET PATH\" to " + BATCH_TARGET);
+		System.err.println("Request counts and latencies are served at " + METRICS_TARGET + ", and over JMX.");
+		System.err.println("Paths are local files, unless under a prefix mounted with " + STORAGE_MOUNTS_CONFIGURATION + ",");
+		System.err.println("eg. -D" + STORAGE_MOUNTS_CONFIGURATION + "=/hdfs=hdfs://namenode:8020/ serves /hdfs/PATH from HDFS.");
 		return code;
 	}
 
@@ -65,10 +131,56 @@ public class GZRangeServer extends AbstractHandler implements Tool {
 				return USAGE(1);
 			}
 		}
+		if(conf != null) {
+			channels = new FileChannelPool(conf.getInt(
+					MAX_OPEN_FILES_CONFIGURATION,
+					FileChannelPool.DEFAULT_MAX_OPEN));
+			if(conf.getBoolean(INDEX_ENABLED_CONFIGURATION, true)) {
+				String indexDir = conf.get(INDEX_DIR_CONFIGURATION);
+				// building on demand inflates whole files, and only ever
+				// writes indexes into an explicit index directory:
+				int threads = conf.getInt(INDEX_THREADS_CONFIGURATION, 0);
+				if(threads > 0 && indexDir == null) {
+					LOGGER.warning(INDEX_THREADS_CONFIGURATION + " ignored without "
+							+ INDEX_DIR_CONFIGURATION);
+					threads = 0;
+				}
+				indexStore = new GZMemberIndexStore(
+						indexDir == null ? null : new File(indexDir),
+						conf.getLong(INDEX_CACHE_MEMBERS_CONFIGURATION,
+								GZMemberIndexStore.DEFAULT_MAX_CACHED_MEMBERS),
+						threads);
+			}
+			batchMaxRecords = conf.getInt(BATCH_MAX_RECORDS_CONFIGURATION,
+					DEFAULT_BATCH_MAX_RECORDS);
+			if(conf.getBoolean(READAHEAD_ENABLED_CONFIGURATION, true)) {
+				readAhead = new ReadAhead(
+						conf.getInt(READAHEAD_MIN_WINDOW_CONFIGURATION,
+								ReadAhead.DEFAULT_MIN_WINDOW),
+						conf.getInt(READAHEAD_MAX_WINDOW_CONFIGURATION,
+								ReadAhead.DEFAULT_MAX_WINDOW),
+						conf.getLong(READAHEAD_BUFFER_BYTES_CONFIGURATION,
+								ReadAhead.DEFAULT_MAX_BUFFER_BYTES),
+						ReadAhead.DEFAULT_TRACKED_FILES, metrics);
+			}
+		}
+		storages = new GZRangeMounts(
+				new LocalGZRangeStorage(channels, indexStore, readAhead));
+		if(conf != null) {
+			String spec = conf.get(STORAGE_MOUNTS_CONFIGURATION);
+			if(spec != null) {
+				addMounts(spec);
+			}
+		}
+        ObjectName name = new ObjectName(
+        		"org.archive.server:type=GZRangeServer,port=" + port);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
         Server server = new Server(port);
-        server.setHandler(new GZRangeServer());
+        server.setHandler(this);
         server.start();
         server.join();
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        storages.close();
         return 0;
     }
 
@@ -88,23 +200,211 @@ public class GZRangeServer extends AbstractHandler implements Tool {
 		return -1;
 	}
 	
-	private long getGZLength(InputStream is) 
+	/**
+	 * @return the compressed length of the gzip member it starts with
+	 */
+	static long getGZLength(InputStream is)
 	throws IOException, GZIPFormatException {
-		
+
 		SimpleStream s = new SimpleStream(is);
 		GZIPMemberSeries gzs = new GZIPMemberSeries(s,"range",0,true);
 		GZIPSeriesMember m = gzs.getNextMember();
 		m.skipMember();
 		return m.getCompressedBytesRead();
 	}
-	
+
+	/**
+	 * Add mounts from a "PREFIX=URI,..." list: petabox:// URIs are served
+	 * from Petabox items, anything else through its Hadoop FileSystem.
+	 */
+	private void addMounts(String spec) throws IOException {
+		for(String mount : spec.split(",")) {
+			mount = mount.trim();
+			if(mount.length() == 0) {
+				continue;
+			}
+			int eq = mount.indexOf('=');
+			if(eq < 1) {
+				throw new IOException("Bad mount: " + mount);
+			}
+			String prefix = mount.substring(0, eq).trim();
+			URI uri;
+			try {
+				uri = new URI(mount.substring(eq + 1).trim());
+			} catch(URISyntaxException e) {
+				throw new IOException("Bad mount: " + mount);
+			}
+			GZRangeStorage storage;
+			if(PETABOX_SCHEME.equals(uri.getScheme())) {
+				storage = PetaboxGZRangeStorage.create(uri, conf);
+			} else {
+				storage = new HadoopGZRangeStorage(FileSystem.get(uri, conf),
+						new Path(uri));
+			}
+			LOGGER.info("Mounted " + uri + " at " + prefix);
+			storages.mount(prefix, storage);
+		}
+	}
+
+	/**
+	 * Stream every requested member, each with a framing header, as one
+	 * response. Errors for single members are reported in their headers.
+	 */
+	private void handleBatch(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if(!request.getMethod().equals("POST")) {
+			metrics.request(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			response.setContentType("text/plain;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			response.getWriter().println("POST lines of \"OFFSET PATH\"");
+			return;
+		}
+		ArrayList<String> paths = new ArrayList<String>();
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		BufferedReader reader = request.getReader();
+		String line;
+		while((line = reader.readLine()) != null) {
+			line = line.trim();
+			if(line.length() == 0) {
+				continue;
+			}
+			int space = line.indexOf(' ');
+			long offset = -1;
+			if(space > 0) {
+				try {
+					offset = Long.parseLong(line.substring(0, space));
+				} catch(NumberFormatException e) {
+				}
+			}
+			if(offset < 0) {
+				metrics.request(HttpServletResponse.SC_BAD_REQUEST);
+				response.setContentType("text/plain;charset=utf-8");
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().println("Bad batch line: " + line);
+				return;
+			}
+			if(offsets.size() == batchMaxRecords) {
+				metrics.request(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				response.setContentType("text/plain;charset=utf-8");
+				response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				response.getWriter().println("More than " + batchMaxRecords
+						+ " records in batch");
+				return;
+			}
+			offsets.add(offset);
+			paths.add(line.substring(space + 1).trim());
+		}
+		metrics.request(HttpServletResponse.SC_OK);
+		response.setContentType(BATCH_CONTENT_TYPE);
+		response.setStatus(HttpServletResponse.SC_OK);
+		ServletOutputStream out = response.getOutputStream();
+		for(int i = 0; i < paths.size(); i++) {
+			writeBatchRecord(paths.get(i), offsets.get(i), out);
+		}
+		// records are only buffered, out sends whenever its buffer fills:
+		out.flush();
+	}
+
+	private void writeBatchRecord(String path, long offset,
+			ServletOutputStream out) throws IOException {
+		GZRangeStorage.Source source;
+		try {
+			source = storages.open(path);
+		} catch(GZRangeStorage.ForbiddenException e) {
+			writeBatchHeader(out, HttpServletResponse.SC_FORBIDDEN, 0, offset, path);
+			return;
+		} catch(FileNotFoundException e) {
+			writeBatchHeader(out, HttpServletResponse.SC_NOT_FOUND, 0, offset, path);
+			return;
+		}
+		try {
+			// no member can start at EOF either:
+			if(offset >= source.getLength()) {
+				writeBatchHeader(out,
+						HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+						0, offset, path);
+				return;
+			}
+			long start = System.nanoTime();
+			long gzLength = -1;
+			try {
+				gzLength = source.getMemberLength(offset);
+			} catch(GZIPFormatException e) {
+			}
+			if(gzLength == -1) {
+				writeBatchHeader(out,
+						HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+						0, offset, path);
+			} else {
+				writeBatchHeader(out, HttpServletResponse.SC_PARTIAL_CONTENT,
+						gzLength, offset, path);
+				long scanned = System.nanoTime();
+				source.transfer(offset, gzLength, out);
+				metrics.record(source.getPath(), gzLength, scanned - start,
+						System.nanoTime() - scanned);
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	private void writeBatchHeader(ServletOutputStream out, int status,
+			long length, long offset, String path) throws IOException {
+		metrics.status(status);
+		out.write(String.format("%d %d %d %s\r\n", status, length, offset,
+				path).getBytes(UTF8));
+	}
+
+	private void handleMetrics(HttpServletResponse response)
+	throws IOException {
+		response.setContentType("text/plain;charset=utf-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter pw = response.getWriter();
+		metrics.write(pw);
+		pw.println("files.open " + channels.getOpenCount());
+		pw.println("files.opened " + channels.getOpenedCount());
+		if(readAhead != null) {
+			pw.println("readahead.window_min " + readAhead.getMinWindow());
+			pw.println("readahead.window_max " + readAhead.getMaxWindow());
+			pw.println("readahead.buffer_bytes " + readAhead.getBufferBytes());
+			pw.println("readahead.tracked_files " + readAhead.getTrackedCount());
+		}
+		if(indexStore != null) {
+			pw.println("index.cached " + indexStore.getCachedCount());
+			pw.println("index.cached_members " + indexStore.getCachedMembers());
+		}
+		pw.flush();
+	}
+
+	public GZRangeMetrics getMetrics() {
+		return metrics;
+	}
+
 	public void handle(String target, HttpServletRequest request,
 			HttpServletResponse response, int dispatch) throws IOException,
 			ServletException {
 		
-		File file = new File(target);
-		if(file.isFile()) {
-			if(file.canRead()) {
+		if(target.equals(BATCH_TARGET)) {
+			handleBatch(request, response);
+			((Request)request).setHandled(true);
+			return;
+		}
+		if(target.equals(METRICS_TARGET)) {
+			handleMetrics(response);
+			((Request)request).setHandled(true);
+			return;
+		}
+		int status = HttpServletResponse.SC_PARTIAL_CONTENT;
+		GZRangeStorage.Source source = null;
+		try {
+			source = storages.open(target);
+		} catch(GZRangeStorage.ForbiddenException e) {
+			status = HttpServletResponse.SC_FORBIDDEN;
+		} catch(FileNotFoundException e) {
+			status = HttpServletResponse.SC_NOT_FOUND;
+		}
+		if(source != null) {
+			try {
 				
 				String range = request.getHeader("Range");
 				long offset = parseBytes(range);
@@ -122,67 +422,64 @@ public class GZRangeServer extends AbstractHandler implements Tool {
 				}
 				if(offset == -1) {
 					
+					status = HttpServletResponse.SC_BAD_REQUEST;
 					response.setContentType("text/plain;charset=utf-8");
-			        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			        response.setStatus(status);
 			        response.getWriter().println("Require \"Range\" header " +
 			        		"or \"offset\" GET parameter");
 			        
 				} else {
 					
-					long length = file.length();
+					long length = source.getLength();
 					if(offset > length) {
 
+						status = HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
 						response.setContentType("text/plain;charset=utf-8");
-				        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				        response.setStatus(status);
 				        response.getWriter().println("range past EOF");
 						
 					} else {
 						// OK, find then end of the record:
-						RandomAccessFile raf = new RandomAccessFile(file, "r");
-						raf.seek(offset);
-						FileInputStream fis = 
-							new FileInputStream(raf.getFD());
+						long start = System.nanoTime();
 						long gzLength = -1;
 						try {
-							gzLength = getGZLength(fis);
+							gzLength = source.getMemberLength(offset);
 						} catch(GZIPFormatException e) {
 							
 						}
 						if(gzLength == -1) {
-
+	
+							status = HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
 							response.setContentType("text/plain;charset=utf-8");
-					        response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+					        response.setStatus(status);
 					        response.getWriter().println("corrupt range, or gzip alignment error");
 							
 						} else {
-							raf.seek(offset);
-							fis = 
-								new FileInputStream(raf.getFD());
 							response.setContentType("application/octet-stream");
 							response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
 							response.setContentLength((int)gzLength);
-							LimitInputStream lis = 
-								new LimitInputStream(fis, gzLength);
-							long copied = ByteStreams.copy(lis,
-									response.getOutputStream());
-							if(copied != gzLength) {
-								throw new IOException("Short copy Want(" +
-										gzLength + ") copied(" + copied + ")");
-							}
+							long scanned = System.nanoTime();
+							source.send(offset, gzLength, response);
+							metrics.record(source.getPath(), gzLength,
+									scanned - start,
+									System.nanoTime() - scanned);
 						}
 					}
 				}
-
-			} else {				
-		        response.setContentType("text/plain;charset=utf-8");
-		        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-		        response.getWriter().println("not readable\n");
+			} finally {
+				source.close();
 			}
+
+		} else if(status == HttpServletResponse.SC_FORBIDDEN) {
+	        response.setContentType("text/plain;charset=utf-8");
+	        response.setStatus(status);
+	        response.getWriter().println("not readable\n");
 		} else {
 	        response.setContentType("text/plain;charset=utf-8");
-	        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+	        response.setStatus(status);
 	        response.getWriter().println("not found\n");
 		}
+		metrics.request(status);
         ((Request)request).setHandled(true);
 	}
 }
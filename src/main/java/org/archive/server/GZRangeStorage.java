@@ -0,0 +1,70 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.archive.format.gzip.GZIPFormatException;
+
+/**
+ * Files {@link GZRangeServer} can serve gzip members from.
+ */
+public interface GZRangeStorage {
+
+	/**
+	 * @param path path of the file within this storage
+	 * @return the file, which must be closed after use
+	 * @throws java.io.FileNotFoundException if there is no such file
+	 * @throws ForbiddenException if the file cannot be read
+	 */
+	public Source open(String path) throws IOException;
+
+	public void close() throws IOException;
+
+	/**
+	 * An open file. Used by one request at a time.
+	 */
+	public interface Source {
+		/**
+		 * @return name of the file, for metrics
+		 */
+		public String getPath();
+
+		public long getLength() throws IOException;
+
+		/**
+		 * @return the compressed length of the member starting at offset
+		 * @throws GZIPFormatException if no valid member starts at offset
+		 */
+		public long getMemberLength(long offset)
+		throws IOException, GZIPFormatException;
+
+		/**
+		 * Send length bytes from offset as the whole response body.
+		 */
+		public void send(long offset, long length, HttpServletResponse response)
+		throws IOException;
+
+		/**
+		 * Copy length bytes from offset to out, through out's write methods
+		 * only, so they are buffered in order with whatever was written to
+		 * out before.
+		 */
+		public void transfer(long offset, long length, OutputStream out)
+		throws IOException;
+
+		/**
+		 * Release the file, returning any pooled resources.
+		 */
+		public void close() throws IOException;
+	}
+
+	public static class ForbiddenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public ForbiddenException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package org.archive.server;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.AccessControlException;
+import org.archive.format.gzip.GZIPFormatException;
+import org.archive.hadoop.util.FSDataInputStreamPool;
+import org.archive.hadoop.util.FSDataInputStreamPool.PooledStream;
+
+/**
+ * Files in a Hadoop FileSystem, under a root path.
+ * <p>
+ * With positional reads (HDFS), open streams are pooled per file by a
+ * {@link FSDataInputStreamPool} and read with read(position, ...), so
+ * requests never pay for re-opening a file or depend on where the last
+ * request left the stream. Otherwise each request opens a new stream and
+ * seeks it.
+ */
+public class HadoopGZRangeStorage implements GZRangeStorage {
+	private static final Logger LOGGER =
+		Logger.getLogger(HadoopGZRangeStorage.class.getName());
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileSystem fs;
+	private Path root;
+	private FSDataInputStreamPool streams;
+
+	public HadoopGZRangeStorage(FileSystem fs, Path root) {
+		this(fs, root, true, FSDataInputStreamPool.DEFAULT_MAX_STREAMS_PER_PATH,
+				FSDataInputStreamPool.DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param fs the FileSystem to read
+	 * @param root path requested paths are relative to
+	 * @param positional true to pool streams and use positional reads
+	 * @param maxStreamsPerFile number of streams to keep open per file,
+	 * requests beyond it wait for a stream
+	 * @param idleTimeout ms after which unused streams are closed
+	 */
+	public HadoopGZRangeStorage(FileSystem fs, Path root, boolean positional,
+			int maxStreamsPerFile, long idleTimeout) {
+		this.fs = fs;
+		this.root = root;
+		if(positional) {
+			streams = new FSDataInputStreamPool(fs, maxStreamsPerFile,
+					idleTimeout, BUFFER_SIZE);
+		}
+	}
+
+	public Source open(String path) throws IOException {
+		while(path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		Path p = new Path(root, path);
+		FileStatus status;
+		try {
+			status = fs.getFileStatus(p);
+		} catch(AccessControlException e) {
+			throw new ForbiddenException(p.toString());
+		}
+		if(status == null || status.isDir()) {
+			throw new FileNotFoundException(p.toString());
+		}
+		return new HadoopSource(p, status.getLen());
+	}
+
+	/**
+	 * @return the pool of open streams, null without positional reads
+	 */
+	public FSDataInputStreamPool getStreamPool() {
+		return streams;
+	}
+
+	private FSDataInputStream openStream(Path p) throws IOException {
+		try {
+			return fs.open(p, BUFFER_SIZE);
+		} catch(AccessControlException e) {
+			throw new ForbiddenException(p.toString());
+		}
+	}
+
+	private static void closeQuietly(FSDataInputStream in) {
+		try {
+			in.close();
+		} catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Failed closing stream", e);
+		}
+	}
+
+	public void close() {
+		if(streams != null) {
+			streams.close();
+		}
+	}
+
+	private class HadoopSource implements Source {
+		private Path path;
+		private long length;
+		private PooledStream pooled;
+		private FSDataInputStream in;
+		private boolean failed;
+
+		private HadoopSource(Path path, long length) {
+			this.path = path;
+			this.length = length;
+			failed = false;
+		}
+
+		public String getPath() {
+			return path.toString();
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		private InputStream getInputStream(long offset) throws IOException {
+			if(streams != null) {
+				if(pooled == null) {
+					try {
+						pooled = streams.borrow(path);
+					} catch(AccessControlException e) {
+						throw new ForbiddenException(path.toString());
+					}
+				}
+				return new PositionedInputStream(pooled.getStream(), offset);
+			}
+			if(in == null) {
+				in = openStream(path);
+			}
+			in.seek(offset);
+			return in;
+		}
+
+		public long getMemberLength(long offset)
+		throws IOException, GZIPFormatException {
+			try {
+				return GZRangeServer.getGZLength(new BufferedInputStream(
+						getInputStream(offset), BUFFER_SIZE));
+			} catch(IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		public void send(long offset, long length,
+				HttpServletResponse response) throws IOException {
+			transfer(offset, length, response.getOutputStream());
+		}
+
+		public void transfer(long offset, long length, OutputStream out)
+		throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long copied = 0;
+			try {
+				InputStream is = getInputStream(offset);
+				while(copied < length) {
+					int amt = is.read(buffer, 0,
+							(int) Math.min(buffer.length, length - copied));
+					if(amt == -1) {
+						break;
+					}
+					out.write(buffer, 0, amt);
+					copied += amt;
+				}
+			} catch(IOException e) {
+				failed = true;
+				throw e;
+			}
+			if(copied != length) {
+				failed = true;
+				throw new IOException("Short copy Want(" +
+						length + ") copied(" + copied + ")");
+			}
+		}
+
+		public void close() {
+			if(pooled != null) {
+				streams.release(pooled, !failed);
+				pooled = null;
+			}
+			if(in != null) {
+				closeQuietly(in);
+				in = null;
+			}
+		}
+	}
+
+	/**
+	 * InputStream reading a shared FSDataInputStream from a position using
+	 * positional reads only.
+	 */
+	private static class PositionedInputStream extends InputStream {
+		private FSDataInputStream in;
+		private long position;
+		private byte[] one = new byte[1];
+
+		public PositionedInputStream(FSDataInputStream in, long position) {
+			this.in = in;
+			this.position = position;
+		}
+		@Override
+		public int read() throws IOException {
+			int amt = read(one, 0, 1);
+			return amt == -1 ? -1 : one[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			int amt = in.read(position, b, off, len);
+			if(amt > 0) {
+				position += amt;
+			}
+			return amt;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.archive.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in power of two microsecond buckets:
+ * bucket i counts latencies of less than 2^i microseconds which did not
+ * fit in bucket i - 1. Percentiles are reported as the upper bound of the
+ * bucket they fall in, so are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40;
+
+	private AtomicLongArray counts;
+	private AtomicLong total;
+	private AtomicLong max;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	public void add(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		total.addAndGet(micros);
+		long m;
+		while(micros > (m = max.get())) {
+			if(max.compareAndSet(m, micros)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	public long getTotalMicros() {
+		return total.get();
+	}
+
+	public long getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / count;
+	}
+
+	public long getMaxMicros() {
+		return max.get();
+	}
+
+	/**
+	 * @param p percentile, between 0 and 100
+	 * @return upper bound, in microseconds, of the bucket holding the pth
+	 * percentile latency, 0 if nothing has been added
+	 */
+	public long getPercentileMicros(double p) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if(count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * p / 100.0);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank && snapshot[i] > 0) {
+				return Math.min(1L << i, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,202 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.archive.format.gzip.GZIPFormatException;
+import org.mortbay.io.nio.DirectNIOBuffer;
+import org.mortbay.jetty.HttpConnection;
+
+/**
+ * Local files, read through pooled FileChannels, with member lengths from
+ * {@link GZMemberIndex}es where available and {@link ReadAhead} for scans.
+ */
+public class LocalGZRangeStorage implements GZRangeStorage {
+	/**
+	 * members at least this long are sent from a mapping under Jetty.
+	 */
+	public static long MAP_THRESHOLD = 1024 * 1024;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private FileChannelPool channels;
+	private GZMemberIndexStore indexStore;
+	private ReadAhead readAhead;
+
+	/**
+	 * @param channels pool of open files
+	 * @param indexStore member indexes, or null to always scan
+	 * @param readAhead read-ahead policy, or null to read on demand
+	 */
+	public LocalGZRangeStorage(FileChannelPool channels,
+			GZMemberIndexStore indexStore, ReadAhead readAhead) {
+		this.channels = channels;
+		this.indexStore = indexStore;
+		this.readAhead = readAhead;
+	}
+
+	public Source open(String path) throws IOException {
+		File file = new File(path);
+		if(!file.isFile()) {
+			throw new FileNotFoundException(path);
+		}
+		if(!file.canRead()) {
+			throw new ForbiddenException(path);
+		}
+		return new LocalSource(file, channels.acquire(file));
+	}
+
+	public void close() {
+		channels.close();
+		if(indexStore != null) {
+			indexStore.close();
+		}
+	}
+
+	private class LocalSource implements Source {
+		private File file;
+		private FileChannelPool.Entry entry;
+
+		private LocalSource(File file, FileChannelPool.Entry entry) {
+			this.file = file;
+			this.entry = entry;
+		}
+
+		public String getPath() {
+			return entry.getPath();
+		}
+
+		public long getLength() {
+			return file.length();
+		}
+
+		public long getMemberLength(long offset)
+		throws IOException, GZIPFormatException {
+			long length = getIndexedLength(offset);
+			if(readAhead == null) {
+				return length != -1 ? length : scanMemberLength(offset, null);
+			}
+			// members the index knows are not scanned, nor read ahead:
+			ReadAhead.Access access = readAhead.begin(entry, offset, length);
+			try {
+				if(length == -1) {
+					length = scanMemberLength(offset, access);
+				}
+			} finally {
+				access.end(length == -1 ? -1 : offset + length);
+			}
+			return length;
+		}
+
+		/**
+		 * @return the member length from the file's index, or -1
+		 */
+		private long getIndexedLength(long offset) {
+			if(indexStore != null) {
+				GZMemberIndex index = indexStore.getIndex(file);
+				if(index != null) {
+					return index.getMemberLength(offset);
+				}
+			}
+			return -1;
+		}
+
+		private long scanMemberLength(long offset, ReadAhead.Access access)
+		throws IOException, GZIPFormatException {
+			if(access != null) {
+				return GZRangeServer.getGZLength(access.getInputStream(offset));
+			}
+			return GZRangeServer.getGZLength(
+					new ChannelInputStream(entry.getChannel(), offset));
+		}
+
+		/**
+		 * Send the range. Under Jetty, members of at least
+		 * {@link #MAP_THRESHOLD} bytes are mapped and written by Jetty from
+		 * the mapping straight to its NIO socket, without passing through
+		 * the heap. Smaller members are copied: mapping each would cost more
+		 * than the copy, and mappings would pile up until collected.
+		 */
+		public void send(long offset, long length,
+				HttpServletResponse response) throws IOException {
+			ServletOutputStream out = response.getOutputStream();
+			if(length >= MAP_THRESHOLD && out instanceof HttpConnection.Output) {
+				// the mapping stays valid after the channel is released/closed
+				MappedByteBuffer mapped = entry.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, offset, length);
+				((HttpConnection.Output) out).sendContent(
+						new DirectNIOBuffer(mapped, true));
+				return;
+			}
+			transfer(offset, length, out);
+		}
+
+		/**
+		 * Copy the range with positional reads of the shared channel
+		 * through a heap buffer.
+		 */
+		public void transfer(long offset, long length, OutputStream out)
+		throws IOException {
+			FileChannel channel = entry.getChannel();
+			byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, length)];
+			long copied = 0;
+			while(copied < length) {
+				int want = (int) Math.min(buffer.length, length - copied);
+				int amt = channel.read(ByteBuffer.wrap(buffer, 0, want),
+						offset + copied);
+				if(amt <= 0) {
+					break;
+				}
+				out.write(buffer, 0, amt);
+				copied += amt;
+			}
+			if(copied != length) {
+				throw new IOException("Short copy Want(" +
+						length + ") copied(" + copied + ")");
+			}
+		}
+
+		public void close() {
+			channels.release(entry);
+		}
+	}
+
+	/**
+	 * InputStream reading a shared FileChannel from a position, using
+	 * positional reads only.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private FileChannel channel;
+		private long position;
+		private byte[] one = new byte[1];
+
+		public ChannelInputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+		@Override
+		public int read() throws IOException {
+			int amt = read(one, 0, 1);
+			return amt == -1 ? -1 : one[0] & 0xff;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			int amt = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if(amt > 0) {
+				position += amt;
+			}
+			return amt;
+		}
+	}
+}
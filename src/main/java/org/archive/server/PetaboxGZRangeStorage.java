@@ -0,0 +1,35 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.fs.PetaboxFileSystem;
+import org.archive.hadoop.util.FSDataInputStreamPool;
+
+/**
+ * Item files in Petabox, requested as /ITEM/FILE.
+ * <p>
+ * Streams are pooled and read with positional reads, which reuse
+ * keep-alive connections: scanning a member and sending it usually takes a
+ * single range request.
+ */
+public class PetaboxGZRangeStorage extends HadoopGZRangeStorage {
+
+	public PetaboxGZRangeStorage(PetaboxFileSystem fs) {
+		super(fs, new Path(fs.getUri().toString()), true,
+				FSDataInputStreamPool.DEFAULT_MAX_STREAMS_PER_PATH,
+				FSDataInputStreamPool.DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param uri petabox://HOST/ URI, configured through fs.petabox.*
+	 */
+	public static PetaboxGZRangeStorage create(URI uri, Configuration conf)
+	throws IOException {
+		PetaboxFileSystem fs = new PetaboxFileSystem();
+		fs.initialize(uri, conf);
+		return new PetaboxGZRangeStorage(fs);
+	}
+}
@@ -0,0 +1,327 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Adaptive read-ahead for {@link GZRangeServer}, tracking how each file is
+ * being accessed.
+ * <p>
+ * A request starting at or just after the end of the previous member
+ * served from the same file is sequential: the file's read-ahead window
+ * doubles, up to maxWindow, and the window is read ahead in one positional
+ * read as soon as the request arrives. Any other request is random: the
+ * window drops to minWindow, and data is only read if the member has to be
+ * scanned, growing the window as the scan proceeds.
+ * <p>
+ * Windows are read into pooled direct buffers, and the last window read
+ * for each file is kept to serve later requests falling inside it. Member
+ * bodies are still sent from mappings or positional reads, which then hit
+ * the page cache the window read has just filled.
+ */
+public class ReadAhead {
+	public static final int DEFAULT_MIN_WINDOW = 64 * 1024;
+	public static final int DEFAULT_MAX_WINDOW = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_BUFFER_BYTES = 256L * 1024 * 1024;
+	public static final int DEFAULT_TRACKED_FILES = 1024;
+
+	private int minWindow;
+	private int maxWindow;
+	private int trackedFiles;
+	private DirectBufferPool pool;
+	private GZRangeMetrics metrics;
+	private LinkedHashMap<String,FileState> files;
+
+	public ReadAhead(GZRangeMetrics metrics) {
+		this(DEFAULT_MIN_WINDOW, DEFAULT_MAX_WINDOW, DEFAULT_MAX_BUFFER_BYTES,
+				DEFAULT_TRACKED_FILES, metrics);
+	}
+
+	/**
+	 * @param minWindow bytes read at a time for random access
+	 * @param maxWindow largest read ahead for sequential access
+	 * @param maxBufferBytes total size of the direct buffers held
+	 * @param trackedFiles number of files whose access pattern is tracked
+	 * @param metrics receives hit and miss counts
+	 */
+	public ReadAhead(int minWindow, int maxWindow, long maxBufferBytes,
+			int trackedFiles, GZRangeMetrics metrics) {
+		this.minWindow = minWindow;
+		this.maxWindow = Math.max(minWindow, maxWindow);
+		this.trackedFiles = trackedFiles;
+		this.metrics = metrics;
+		pool = new DirectBufferPool(maxBufferBytes);
+		files = new LinkedHashMap<String,FileState>(16, 0.75f, true);
+	}
+
+	public int getMinWindow() {
+		return minWindow;
+	}
+	public int getMaxWindow() {
+		return maxWindow;
+	}
+	public long getBufferBytes() {
+		return pool.getAllocatedBytes();
+	}
+	public synchronized int getTrackedCount() {
+		return files.size();
+	}
+
+	/**
+	 * Start reading the member at offset of entry's file. The returned
+	 * Access must be ended.
+	 */
+	public Access begin(FileChannelPool.Entry entry, long offset)
+	throws IOException {
+		return begin(entry, offset, -1);
+	}
+
+	/**
+	 * Start reading the member at offset of entry's file, whose length may
+	 * already be known from an index. Such a member need not be scanned, so
+	 * nothing is read ahead for it, but the access still counts towards
+	 * the file's access pattern. The returned Access must be ended.
+	 * @param memberLength the member's length, or -1 if it must be found
+	 * by scanning
+	 */
+	public Access begin(FileChannelPool.Entry entry, long offset,
+			long memberLength) throws IOException {
+		String path = entry.getPath();
+		FileState state;
+		boolean sequential;
+		Segment segment;
+		synchronized(this) {
+			state = files.get(path);
+			if(state == null) {
+				state = new FileState(minWindow);
+				files.put(path, state);
+				evictStates();
+			}
+			sequential = state.lastEnd >= 0 && offset >= state.lastEnd
+				&& offset - state.lastEnd <= minWindow;
+			if(sequential) {
+				state.window = Math.min(maxWindow, state.window * 2);
+			} else {
+				state.window = minWindow;
+			}
+			segment = state.segment;
+			if(segment != null && segment.covers(offset)) {
+				segment.refs++;
+			} else {
+				segment = null;
+			}
+		}
+		metrics.readAheadAccess(sequential, segment != null);
+		Access access = new Access(state, entry.getChannel(), state.window,
+				segment);
+		if(segment == null && sequential && memberLength < 0) {
+			access.load(offset);
+		}
+		return access;
+	}
+
+	private void evictStates() {
+		Iterator<FileState> itr = files.values().iterator();
+		while(files.size() > trackedFiles && itr.hasNext()) {
+			FileState state = itr.next();
+			itr.remove();
+			state.tracked = false;
+			if(state.segment != null) {
+				retire(state.segment);
+				state.segment = null;
+			}
+		}
+	}
+
+	private void retire(Segment segment) {
+		segment.retired = true;
+		if(segment.refs == 0) {
+			pool.release(segment.buffer);
+		}
+	}
+
+	private synchronized void unref(Segment segment) {
+		segment.refs--;
+		if(segment.refs == 0 && segment.retired) {
+			pool.release(segment.buffer);
+		}
+	}
+
+	/**
+	 * @return a buffer of at least size, dropping the windows kept for the
+	 * least recently used files if needed, or null if all are in use
+	 */
+	private ByteBuffer acquireBuffer(int size) {
+		ByteBuffer buffer = pool.acquire(size);
+		if(buffer != null) {
+			return buffer;
+		}
+		synchronized(this) {
+			for(FileState state : files.values()) {
+				Segment segment = state.segment;
+				if(segment != null && segment.refs == 0) {
+					state.segment = null;
+					retire(segment);
+					buffer = pool.acquire(size);
+					if(buffer != null) {
+						return buffer;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private static class FileState {
+		private long lastEnd = -1;
+		private int window;
+		private Segment segment;
+		private boolean tracked = true;
+
+		private FileState(int window) {
+			this.window = window;
+		}
+	}
+
+	private static class Segment {
+		private ByteBuffer buffer;
+		private long start;
+		private int refs;
+		private boolean retired;
+
+		private Segment(ByteBuffer buffer, long start) {
+			this.buffer = buffer;
+			this.start = start;
+			refs = 0;
+			retired = false;
+		}
+		private boolean covers(long position) {
+			return position >= start && position < start + buffer.limit();
+		}
+	}
+
+	/**
+	 * Reads of one member, through the file's read-ahead window.
+	 */
+	public class Access {
+		private FileState state;
+		private FileChannel channel;
+		private int window;
+		private Segment segment;
+
+		private Access(FileState state, FileChannel channel, int window,
+				Segment segment) {
+			this.state = state;
+			this.channel = channel;
+			this.window = window;
+			this.segment = segment;
+		}
+
+		/**
+		 * @return a stream of the file from position
+		 */
+		public InputStream getInputStream(final long position) {
+			return new InputStream() {
+				private long pos = position;
+				private byte[] one = new byte[1];
+
+				@Override
+				public int read() throws IOException {
+					int amt = read(one, 0, 1);
+					return amt == -1 ? -1 : one[0] & 0xff;
+				}
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if(len == 0) {
+						return 0;
+					}
+					int amt = Access.this.read(pos, b, off, len);
+					if(amt > 0) {
+						pos += amt;
+					}
+					return amt;
+				}
+			};
+		}
+
+		private int read(long position, byte[] b, int off, int len)
+		throws IOException {
+			if(segment == null || !segment.covers(position)) {
+				load(position);
+				// scanning a long member, read more at a time:
+				window = Math.min(maxWindow, window * 2);
+			}
+			if(segment == null || !segment.covers(position)) {
+				// no buffer available, or at EOF:
+				return channel.read(ByteBuffer.wrap(b, off, len), position);
+			}
+			ByteBuffer d = segment.buffer.duplicate();
+			d.position((int) (position - segment.start));
+			int amt = Math.min(len, d.remaining());
+			d.get(b, off, amt);
+			return amt;
+		}
+
+		private void load(long position) throws IOException {
+			if(segment != null) {
+				unref(segment);
+				segment = null;
+			}
+			ByteBuffer buffer = acquireBuffer(window);
+			if(buffer == null) {
+				return;
+			}
+			buffer.limit(window);
+			try {
+				while(buffer.hasRemaining()) {
+					int amt = channel.read(buffer, position + buffer.position());
+					if(amt <= 0) {
+						break;
+					}
+				}
+			} catch(IOException e) {
+				pool.release(buffer);
+				throw e;
+			}
+			buffer.flip();
+			if(buffer.limit() == 0) {
+				pool.release(buffer);
+				return;
+			}
+			metrics.readAheadLoad(buffer.limit());
+			Segment loaded = new Segment(buffer, position);
+			loaded.refs = 1;
+			synchronized(ReadAhead.this) {
+				if(state.segment != null) {
+					retire(state.segment);
+					state.segment = null;
+				}
+				if(state.tracked) {
+					state.segment = loaded;
+				} else {
+					// file stopped being tracked while we read:
+					retire(loaded);
+				}
+			}
+			segment = loaded;
+		}
+
+		/**
+		 * @param memberEnd the offset after the member served, or -1 if no
+		 * member was served
+		 */
+		public void end(long memberEnd) {
+			synchronized(ReadAhead.this) {
+				state.lastEnd = memberEnd;
+			}
+			if(segment != null) {
+				unref(segment);
+				segment = null;
+			}
+		}
+	}
+}
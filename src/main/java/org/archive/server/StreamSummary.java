@@ -0,0 +1,173 @@
+package org.archive.server;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate counts of the most frequent keys of a stream, in bounded
+ * space (Space-Saving, with the Stream-Summary structure of Metwally et al.).
+ * <p>
+ * At most capacity keys are counted. A new key replaces one of the least
+ * counted, inheriting its count, so counts are overestimates, by at most
+ * the smallest count. Counters are kept in buckets of equal count, linked
+ * in count order, so each {@link #offer(String)} is O(1).
+ * Not thread safe.
+ */
+public class StreamSummary {
+	private static class Bucket {
+		private long count;
+		private Bucket prev;
+		private Bucket next;
+		private Counter first;
+
+		private Bucket(long count) {
+			this.count = count;
+		}
+	}
+
+	private static class Counter {
+		private String key;
+		private Bucket bucket;
+		private Counter prev;
+		private Counter next;
+
+		private Counter(String key) {
+			this.key = key;
+		}
+	}
+
+	private int capacity;
+	private HashMap<String,Counter> counters;
+	// least and most counted:
+	private Bucket min;
+	private Bucket max;
+
+	/**
+	 * @param capacity number of keys to count
+	 */
+	public StreamSummary(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		counters = new HashMap<String,Counter>();
+	}
+
+	/**
+	 * Count one occurrence of key.
+	 */
+	public void offer(String key) {
+		Counter counter = counters.get(key);
+		if(counter == null) {
+			if(counters.size() < capacity) {
+				counter = new Counter(key);
+				if(min == null || min.count != 0) {
+					insertAfter(null, new Bucket(0));
+				}
+				attach(counter, min);
+			} else {
+				counter = min.first;
+				counters.remove(counter.key);
+				counter.key = key;
+			}
+			counters.put(key, counter);
+		}
+		increment(counter);
+	}
+
+	/**
+	 * @return up to n keys with their approximate counts, most counted first
+	 */
+	public List<Map.Entry<String,Long>> top(int n) {
+		ArrayList<Map.Entry<String,Long>> top =
+			new ArrayList<Map.Entry<String,Long>>(Math.min(n, counters.size()));
+		for(Bucket b = max; b != null && top.size() < n; b = b.prev) {
+			for(Counter c = b.first; c != null && top.size() < n; c = c.next) {
+				top.add(new AbstractMap.SimpleImmutableEntry<String,Long>(
+						c.key, b.count));
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * @return number of keys counted
+	 */
+	public int size() {
+		return counters.size();
+	}
+
+	public void clear() {
+		counters.clear();
+		min = max = null;
+	}
+
+	private void increment(Counter counter) {
+		Bucket from = counter.bucket;
+		Bucket to = from.next;
+		if(to == null || to.count != from.count + 1) {
+			to = new Bucket(from.count + 1);
+			insertAfter(from, to);
+		}
+		detach(counter);
+		attach(counter, to);
+		if(from.first == null) {
+			remove(from);
+		}
+	}
+
+	/**
+	 * Link bucket after prev, or first if prev is null.
+	 */
+	private void insertAfter(Bucket prev, Bucket bucket) {
+		bucket.prev = prev;
+		bucket.next = prev == null ? min : prev.next;
+		if(bucket.next == null) {
+			max = bucket;
+		} else {
+			bucket.next.prev = bucket;
+		}
+		if(prev == null) {
+			min = bucket;
+		} else {
+			prev.next = bucket;
+		}
+	}
+
+	private void remove(Bucket bucket) {
+		if(bucket.prev == null) {
+			min = bucket.next;
+		} else {
+			bucket.prev.next = bucket.next;
+		}
+		if(bucket.next == null) {
+			max = bucket.prev;
+		} else {
+			bucket.next.prev = bucket.prev;
+		}
+	}
+
+	private void attach(Counter counter, Bucket bucket) {
+		counter.bucket = bucket;
+		counter.prev = null;
+		counter.next = bucket.first;
+		if(bucket.first != null) {
+			bucket.first.prev = counter;
+		}
+		bucket.first = counter;
+	}
+
+	private void detach(Counter counter) {
+		Bucket bucket = counter.bucket;
+		if(counter.prev == null) {
+			bucket.first = counter.next;
+		} else {
+			counter.prev.next = counter.next;
+		}
+		if(counter.next != null) {
+			counter.next.prev = counter.prev;
+		}
+		counter.bucket = null;
+		counter.prev = counter.next = null;
+	}
+}
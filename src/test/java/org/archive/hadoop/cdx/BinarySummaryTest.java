@@ -0,0 +1,79 @@
+package org.archive.hadoop.cdx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class BinarySummaryTest extends TestCase {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	private byte[] write(String[] shards, String[] keys) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinarySummaryWriter w = new BinarySummaryWriter(baos, shards);
+		for(int i = 0; i < keys.length; i++) {
+			byte[] key = keys[i].getBytes(UTF8);
+			w.write(i % shards.length, key, 0, key.length, i * 1000L,
+					(i * 7L) + 1);
+		}
+		assertEquals(keys.length, w.getCount());
+		w.close();
+		return baos.toByteArray();
+	}
+
+	public void testRoundTrip() throws IOException {
+		String[] shards = {"part-00000", "part-00001"};
+		String[] keys = {"com,example)/ 2011", "com,example)/a 2011",
+				"org,\u00e9t\u00e9)/ 2012"};
+		byte[] bytes = write(shards, keys);
+		BinarySummaryReader r =
+			new BinarySummaryReader(new ByteArrayInputStream(bytes));
+		assertEquals(2, r.getShards().length);
+		assertEquals("part-00001", r.getShards()[1]);
+		for(int i = 0; i < keys.length; i++) {
+			assertTrue(r.next());
+			assertEquals(keys[i],
+					new String(r.getKey(), 0, r.getKeyLength(), UTF8));
+			assertEquals(shards[i % 2], r.getShard());
+			assertEquals(i * 1000L, r.getOffset());
+			assertEquals((i * 7L) + 1, r.getLength());
+		}
+		assertFalse(r.next());
+		assertFalse(r.next());
+		r.close();
+	}
+
+	public void testCorruption() throws IOException {
+		byte[] bytes = write(new String[] {"part-00000"},
+				new String[] {"a 1", "b 2"});
+		// flip a bit in the first key:
+		bytes[bytes.length - 20] ^= 0x01;
+		BinarySummaryReader r =
+			new BinarySummaryReader(new ByteArrayInputStream(bytes));
+		try {
+			while(r.next()) {
+			}
+			fail("corruption not detected");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	public void testTruncation() throws IOException {
+		byte[] bytes = write(new String[] {"part-00000"},
+				new String[] {"a 1", "b 2"});
+		byte[] truncated = new byte[bytes.length - 3];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		BinarySummaryReader r =
+			new BinarySummaryReader(new ByteArrayInputStream(truncated));
+		try {
+			while(r.next()) {
+			}
+			fail("truncation not detected");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.archive.hadoop.cdx;
+
+import junit.framework.TestCase;
+
+public class LRUBlockCacheTest extends TestCase {
+
+	private static String[] block(String prefix) {
+		return new String[] {prefix + " 1", prefix + " 2", prefix + " 3"};
+	}
+
+	public void testHitAndMiss() {
+		LRUBlockCache cache = new LRUBlockCache(1024 * 1024);
+		assertNull(cache.get("hdfs://n/c/part-00000.gz", 0, 100));
+		String[] lines = block("a");
+		cache.put("hdfs://n/c/part-00000.gz", 0, 100, lines);
+		assertSame(lines, cache.get("hdfs://n/c/part-00000.gz", 0, 100));
+		assertNull(cache.get("hdfs://n/c/part-00000.gz", 100, 100));
+		assertNull(cache.get("hdfs://n/c/part-00001.gz", 0, 100));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	public void testEviction() {
+		long blockSize = LRUBlockCache.estimateSize(block("a"));
+		LRUBlockCache cache = new LRUBlockCache(blockSize * 2);
+		cache.put("s", 0, 10, block("a"));
+		cache.put("s", 10, 10, block("b"));
+		// touch the first block so the second is the eldest:
+		assertNotNull(cache.get("s", 0, 10));
+		cache.put("s", 20, 10, block("c"));
+		assertEquals(2, cache.getBlockCount());
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get("s", 0, 10));
+		assertNull(cache.get("s", 10, 10));
+		assertNotNull(cache.get("s", 20, 10));
+		assertTrue(cache.getCurrentBytes() <= cache.getMaxBytes());
+	}
+
+	public void testReplaceKeepsAccounting() {
+		LRUBlockCache cache = new LRUBlockCache(1024 * 1024);
+		cache.put("s", 0, 10, block("a"));
+		long size = cache.getCurrentBytes();
+		cache.put("s", 0, 10, block("b"));
+		assertEquals(size, cache.getCurrentBytes());
+		assertEquals(1, cache.getBlockCount());
+	}
+}
@@ -0,0 +1,143 @@
+package org.archive.hadoop.cdx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+
+public class PooledHDFSBlockLoaderTest extends TestCase {
+
+	private static final int SIZE = 64 * 1024;
+
+	private File file;
+	private String url;
+	private FileSystem fs;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("pooled-loader", ".gz");
+		byte[] data = new byte[SIZE];
+		for(int i = 0; i < SIZE; i++) {
+			data[i] = expected(i);
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		url = file.toURI().toString();
+		fs = FileSystem.getLocal(new Configuration());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static byte expected(long offset) {
+		return (byte) (offset * 31 + (offset >> 8));
+	}
+
+	private static void assertBlock(byte[] block, long start) {
+		for(int i = 0; i < block.length; i++) {
+			if(block[i] != expected(start + i)) {
+				fail("wrong byte at " + (start + i));
+			}
+		}
+	}
+
+	public void testIdleEviction() throws Exception {
+		PooledHDFSBlockLoader loader = new PooledHDFSBlockLoader(fs, 4, 50);
+		assertBlock(loader.readBlock(url, 100, 1000), 100);
+		assertEquals(1, loader.getStreamsOpened());
+		assertEquals(Integer.valueOf(1), loader.getOpenStreams().get(url));
+
+		// a stream used just now is kept:
+		loader.evictIdle();
+		assertEquals(0, loader.getStreamsClosed());
+
+		Thread.sleep(100);
+		loader.evictIdle();
+		assertEquals(1, loader.getStreamsClosed());
+		// shards left without streams are forgotten:
+		assertNull(loader.getOpenStreams().get(url));
+
+		// reopened on demand:
+		assertBlock(loader.readBlock(url, 0, 10), 0);
+		assertEquals(2, loader.getStreamsOpened());
+		loader.close();
+		assertEquals(2, loader.getStreamsClosed());
+	}
+
+	public void testIdleEvictionOnRead() throws Exception {
+		File other = File.createTempFile("pooled-loader", ".gz");
+		try {
+			FileOutputStream out = new FileOutputStream(other);
+			out.write(new byte[100]);
+			out.close();
+			String otherUrl = other.toURI().toString();
+
+			PooledHDFSBlockLoader loader = new PooledHDFSBlockLoader(fs, 4, 50);
+			loader.readBlock(url, 0, 10);
+			Thread.sleep(100);
+			// reading any shard closes streams idle too long:
+			loader.readBlock(otherUrl, 0, 10);
+			assertNull(loader.getOpenStreams().get(url));
+			assertEquals(Integer.valueOf(1), loader.getOpenStreams().get(otherUrl));
+			loader.close();
+		} finally {
+			other.delete();
+		}
+	}
+
+	public void testConcurrentBorrowAndReturn() throws Exception {
+		final PooledHDFSBlockLoader loader =
+			new PooledHDFSBlockLoader(fs, 2, 60 * 1000);
+		final int threads = 8;
+		final int readsPerThread = 200;
+		final List<Throwable> errors =
+			Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						for(int i = 0; i < readsPerThread; i++) {
+							int start = random.nextInt(SIZE - 1);
+							int length = 1 + random.nextInt(Math.min(4096, SIZE - start));
+							assertBlock(loader.readBlock(url, start, length), start);
+						}
+					} catch(Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(threads * readsPerThread, loader.getReads());
+		// never more streams than the per shard limit:
+		assertTrue(loader.getStreamsOpened() <= 2);
+		assertTrue(loader.getOpenStreams().get(url) <= 2);
+
+		loader.close();
+		assertEquals(loader.getStreamsOpened(), loader.getStreamsClosed());
+		try {
+			loader.readBlock(url, 0, 10);
+			fail("read after close");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.archive.hadoop.cdx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.mapreduce.ZipNumAllShardRecordWriter;
+import org.archive.hadoop.mapreduce.ZipNumOutputFormat;
+
+public class SummaryGeneratorTest extends TestCase {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	private static SummaryGenerator.PartSummary parse(String text)
+	throws IOException {
+		SummaryGenerator.PartSummary ps = new SummaryGenerator.PartSummary(true);
+		SummaryGenerator.parseTextSummary(
+				new ByteArrayInputStream(text.getBytes(UTF8)), "part-00001",
+				"part-00001".getBytes(UTF8), ps, new byte[20]);
+		return ps;
+	}
+
+	public void testParseTextSummary() throws IOException {
+		SummaryGenerator.PartSummary ps =
+			parse("0 1234 com,example)/\n1234 99 com,example)/a\tignored\r\n" +
+					"1333 10 org,example)/");
+		assertEquals(3, ps.count);
+		assertEquals("com,example)/\tpart-00001\t0\t1234\n" +
+				"com,example)/a\tpart-00001\t1234\t99\n" +
+				"org,example)/\tpart-00001\t1333\t10\n",
+				new String(ps.text.toByteArray(), UTF8));
+		assertEquals(1234L, ps.offsets[1]);
+		assertEquals(99L, ps.lengths[1]);
+		assertEquals("com,example)/a".length(), ps.keyLengths[1]);
+	}
+
+	public void testBadLines() {
+		String[] bad = {"0 12\n", "x 12 com,example)/\n", "\n", "0 12 \n"};
+		for(String line : bad) {
+			try {
+				parse(line);
+				fail("accepted bad line:" + line);
+			} catch(IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * write a shard, its "-idx" summary and binary sidecar the way the
+	 * ZipNum output formats name them.
+	 * @return the text summary
+	 */
+	private static byte[] writeShard(File dir, String part, String prefix)
+	throws Exception {
+		String summaryName = part + ZipNumOutputFormat.DEFAULT_SUMMARY_EXT;
+		DataOutputStream main = new DataOutputStream(
+				new FileOutputStream(new File(dir, part + ".gz")));
+		DataOutputStream summary = new DataOutputStream(
+				new FileOutputStream(new File(dir, summaryName)));
+		ZipNumAllShardRecordWriter writer =
+			new ZipNumAllShardRecordWriter(2, main, summary, part, 9, 1);
+		writer.setBinarySummary(new BinarySummaryWriter(new FileOutputStream(
+				new File(dir, summaryName + BinarySummaryWriter.BINARY_SUFFIX)),
+				part));
+		for(int i = 0; i < 5; i++) {
+			writer.writeLine(prefix + i + ")/ 20120101000000 x");
+		}
+		writer.close(null);
+
+		File summaryFile = new File(dir, summaryName);
+		byte[] text = new byte[(int) summaryFile.length()];
+		FileInputStream in = new FileInputStream(summaryFile);
+		assertEquals(text.length, in.read(text));
+		in.close();
+		// the text summary must not be needed:
+		summaryFile.delete();
+		return text;
+	}
+
+	public void testJobSidecars() throws Exception {
+		File dir = File.createTempFile("summary-generator", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			byte[] first = writeShard(dir, "part-a-00000", "com,example");
+			byte[] second = writeShard(dir, "part-a-00001", "org,example");
+
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			SummaryGenerator generator = new SummaryGenerator();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			generator.createSummary(fs, new Path(dir.getAbsolutePath()), out, null);
+			assertEquals(new String(first, UTF8) + new String(second, UTF8),
+					new String(out.toByteArray(), UTF8));
+		} finally {
+			for(File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+}
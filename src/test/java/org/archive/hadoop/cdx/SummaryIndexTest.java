@@ -0,0 +1,76 @@
+package org.archive.hadoop.cdx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.archive.util.iterator.CloseableIterator;
+
+import junit.framework.TestCase;
+
+public class SummaryIndexTest extends TestCase {
+
+	private static SummaryIndex build(String... keys) {
+		SummaryIndex.Builder b = new SummaryIndex.Builder();
+		for(int i = 0; i < keys.length; i++) {
+			String shard = String.format("part-%05d", i / 10);
+			b.add(new ZipNumBlock(keys[i] + "\t" + shard + "\t" + (i * 100) + "\t100"));
+		}
+		return b.build();
+	}
+
+	private static String[] keys(int count) {
+		String[] keys = new String[count];
+		for(int i = 0; i < count; i++) {
+			keys[i] = String.format("com,example)/page%06d 2011", i * 2);
+		}
+		return keys;
+	}
+
+	public void testRoundTrip() {
+		String[] keys = keys(100);
+		SummaryIndex idx = build(keys);
+		assertEquals(100, idx.size());
+		for(int i = 0; i < keys.length; i++) {
+			assertEquals(keys[i], idx.getKey(i));
+			assertEquals(String.format("part-%05d", i / 10), idx.getShard(i));
+			assertEquals(i * 100L, idx.getOffset(i));
+			assertEquals(100, idx.getLength(i));
+		}
+	}
+
+	public void testFindStart() {
+		String[] keys = keys(100);
+		SummaryIndex idx = build(keys);
+		// before everything:
+		assertEquals(0, idx.findStart("a"));
+		// exact match starts one block earlier, in case of duplicate keys:
+		assertEquals(40, idx.findStart(keys[41]));
+		// between two keys:
+		assertEquals(41, idx.findStart("com,example)/page000083"));
+		// across bucket boundaries:
+		assertEquals(15, idx.findStart(keys[16]));
+		assertEquals(16, idx.findStart(keys[16] + "0"));
+		// past the end:
+		assertEquals(99, idx.findStart("zzz"));
+	}
+
+	public void testIterator() throws IOException {
+		String[] keys = keys(40);
+		SummaryIndex idx = build(keys);
+		CloseableIterator<String> itr = idx.getRecordIterator(keys[30]);
+		ArrayList<String> lines = new ArrayList<String>();
+		while(itr.hasNext()) {
+			lines.add(itr.next());
+		}
+		itr.close();
+		assertEquals(11, lines.size());
+		assertEquals(keys[29] + "\tpart-00002\t2900\t100", lines.get(0));
+		assertEquals(keys[39] + "\tpart-00003\t3900\t100", lines.get(10));
+	}
+
+	public void testEmpty() {
+		SummaryIndex idx = build();
+		assertEquals(0, idx.findStart("a"));
+		assertFalse(idx.getRecordIterator("a").hasNext());
+	}
+}
@@ -0,0 +1,144 @@
+package org.archive.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+/**
+ * class under test: {@link PagedItemIterator}
+ */
+public class PagedItemIteratorTest {
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * serves {@code total} results, item{@code i} at offset i.
+   */
+  private static class TestIterator extends PagedItemIterator {
+    final int total;
+    final boolean reportTotal;
+    final List<Integer> starts = Collections.synchronizedList(new ArrayList<Integer>());
+
+    TestIterator(int concurrency, int total, boolean reportTotal) {
+      super(concurrency, PAGE_SIZE);
+      this.total = total;
+      this.reportTotal = reportTotal;
+    }
+    /**
+     * @return number of results returned in the page at {@code start}.
+     */
+    int pageLength(int start) {
+      return PAGE_SIZE;
+    }
+    @Override
+    protected Page fetchPage(int start) throws IOException {
+      starts.add(start);
+      int end = Math.min(total, start + pageLength(start));
+      List<FileStatus> items = new ArrayList<FileStatus>();
+      for (int i = start; i < end; i++) {
+        items.add(new FileStatus(0, true, 2, 4096, 0, new Path("/item" + i)));
+      }
+      int count = Math.max(0, end - start);
+      long reported = reportTotal ? total : (count < PAGE_SIZE ? start + count : -1);
+      return new Page(items, count, reported);
+    }
+    List<Integer> sortedStarts() {
+      List<Integer> sorted = new ArrayList<Integer>(starts);
+      Collections.sort(sorted);
+      return sorted;
+    }
+  }
+
+  private static void assertItems(int total, ItemIterator items) throws IOException {
+    for (int i = 0; i < total; i++) {
+      assertEquals(new Path("/item" + i), items.next().getPath());
+    }
+    assertFalse(items.hasNext());
+    items.close();
+  }
+
+  @Test
+  public void testAllItems() throws Exception {
+    for (int concurrency : new int[] { 1, 2, 4 }) {
+      TestIterator items = new TestIterator(concurrency, 1050, true);
+      assertItems(1050, items);
+      assertEquals(Arrays.asList(0, 100, 200, 300, 400, 500, 600, 700, 800, 900, 1000),
+          items.sortedStarts());
+    }
+  }
+
+  @Test
+  public void testSmallCollection() throws Exception {
+    // total from the first page: nothing is fetched beyond it.
+    TestIterator items = new TestIterator(4, 30, true);
+    assertItems(30, items);
+    assertEquals(Arrays.asList(0), items.starts);
+
+    items = new TestIterator(4, 250, true);
+    assertItems(250, items);
+    assertEquals(Arrays.asList(0, 100, 200), items.sortedStarts());
+
+    items = new TestIterator(4, 0, true);
+    assertItems(0, items);
+    assertEquals(Arrays.asList(0), items.starts);
+  }
+
+  @Test
+  public void testShortPages() throws Exception {
+    for (int concurrency : new int[] { 1, 4 }) {
+      // pages at 100 and 337 come back short. following pages start right after them.
+      TestIterator items = new TestIterator(concurrency, 1000, true) {
+        @Override
+        int pageLength(int start) {
+          return start == 100 || start == 337 ? 37 : PAGE_SIZE;
+        }
+      };
+      assertItems(1000, items);
+      assertEquals(0, (int)items.starts.get(0));
+      assertTrue(items.starts.contains(137));
+      assertTrue(items.starts.contains(374));
+    }
+  }
+
+  @Test
+  public void testUnknownTotal() throws Exception {
+    // the short page is the last.
+    TestIterator items = new TestIterator(3, 520, false);
+    assertItems(520, items);
+    List<Integer> starts = items.sortedStarts();
+    assertEquals(Arrays.asList(0, 100, 200, 300, 400, 500), starts.subList(0, 6));
+
+    items = new TestIterator(3, 500, false);
+    assertItems(500, items);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    TestIterator items = new TestIterator(4, 1000, true) {
+      @Override
+      protected Page fetchPage(int start) throws IOException {
+        if (start == 300) throw new IOException("page at " + start);
+        return super.fetchPage(start);
+      }
+    };
+    try {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(new Path("/item" + i), items.next().getPath());
+      }
+      fail("failure of page at 300 is not reported");
+    } catch (IOException ex) {
+      assertEquals("page at 300", ex.getMessage());
+    }
+    assertFalse(items.hasNext());
+  }
+}
@@ -0,0 +1,266 @@
+package org.archive.hadoop.jobs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ArchiveFileExtractorTest extends TestCase {
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private static final int RECORDS = 40;
+
+	private File dir;
+	private File outputDir;
+	private byte[] source;
+	private List<Long> offsets;
+	private HttpServer server;
+	private String url;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("extractor", "");
+		dir.delete();
+		dir.mkdir();
+		outputDir = new File(dir, "out");
+		outputDir.mkdir();
+
+		// records of random, so incompressible, bytes:
+		Random random = new Random(1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		offsets = new ArrayList<Long>();
+		for(int i = 0; i < RECORDS; i++) {
+			offsets.add((long) bytes.size());
+			GZIPOutputStream gz = new GZIPOutputStream(bytes);
+			gz.write(record(i).getBytes(UTF8));
+			byte[] padding = new byte[1000 + random.nextInt(1000)];
+			random.nextBytes(padding);
+			gz.write(padding);
+			gz.finish();
+		}
+		source = bytes.toByteArray();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				int start = Integer.parseInt(range.replaceAll("bytes=(\\d+)-", "$1"));
+				exchange.sendResponseHeaders(206, source.length - start);
+				OutputStream out = exchange.getResponseBody();
+				out.write(source, start, source.length - start);
+				out.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort()
+			+ "/source.warc.gz";
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static String record(int i) {
+		return String.format("record-%03d\n", i);
+	}
+
+	private JobConf conf() {
+		JobConf conf = new JobConf();
+		conf.set("outputDir", outputDir.getAbsolutePath());
+		conf.set("timestamp14", "20120101000000");
+		conf.set("warcHeaderString", "software: test\r\n");
+		return conf;
+	}
+
+	/**
+	 * run one map() over all records.
+	 * @return status collected per record, in collection order
+	 */
+	private List<String> extract(JobConf conf) throws IOException {
+		StringBuilder bag = new StringBuilder("{");
+		for(long offset : offsets) {
+			if(bag.length() > 1) {
+				bag.append(",");
+			}
+			bag.append("(").append(offset).append(",").append(url).append(")");
+		}
+		bag.append("}");
+
+		final List<String> statuses =
+			Collections.synchronizedList(new ArrayList<String>());
+		ArchiveFileExtractor.ArchiveFileExtractorMapper mapper =
+			new ArchiveFileExtractor.ArchiveFileExtractorMapper();
+		mapper.configure(conf);
+		mapper.map(null, new Text("test\t" + bag), new OutputCollector() {
+			public void collect(Object key, Object value) {
+				statuses.add(key + "\t" + value);
+			}
+		}, new Reporter() {
+			public void setStatus(String status) {
+			}
+			public void progress() {
+			}
+		});
+		return statuses;
+	}
+
+	/**
+	 * @return the uncompressed contents of every output file
+	 */
+	private String readOutput() throws IOException {
+		for(File file : outputDir.listFiles()) {
+			assertFalse(file.getName(), file.getName().endsWith(".TMP"));
+		}
+		return readFinished();
+	}
+
+	/**
+	 * @return the uncompressed contents of every completed output file
+	 */
+	private String readFinished() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for(File file : outputDir.listFiles()) {
+			if(file.getName().endsWith(".TMP")) {
+				continue;
+			}
+			InputStream in = new GZIPInputStream(new FileInputStream(file));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for(int amt = in.read(buffer); amt != -1; amt = in.read(buffer)) {
+				bytes.write(buffer, 0, amt);
+			}
+			in.close();
+			sb.append(new String(bytes.toByteArray(), "ISO-8859-1"));
+		}
+		return sb.toString();
+	}
+
+	private static int count(String s, String sub) {
+		int count = 0;
+		for(int i = s.indexOf(sub); i != -1; i = s.indexOf(sub, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	public void testExtract() throws Exception {
+		List<String> statuses = extract(conf());
+		assertEquals(RECORDS, statuses.size());
+		assertEquals(1, outputDir.listFiles().length);
+		String output = readOutput();
+		for(int i = 0; i < RECORDS; i++) {
+			assertEquals(1, count(output, record(i)));
+			assertEquals("SUCCESS\t" + offsets.get(i) + "\t" + url,
+					statuses.get(i));
+		}
+	}
+
+	/**
+	 * break the CRC of record i, so it is only found corrupt once all of it
+	 * has been read.
+	 */
+	private void corrupt(int i) {
+		int end = i + 1 < RECORDS ? offsets.get(i + 1).intValue() : source.length;
+		source[end - 8] ^= 0xff;
+	}
+
+	public void testCorruptRecordFails() throws Exception {
+		corrupt(7);
+		try {
+			extract(conf());
+			fail("corrupt record copied");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	public void testSoftSkipsCorruptRecord() throws Exception {
+		corrupt(7);
+		JobConf conf = conf();
+		conf.setBoolean("soft", true);
+		List<String> statuses = extract(conf);
+		assertEquals("FAIL\t" + offsets.get(7) + "\t" + url, statuses.get(7));
+		String output = readOutput();
+		for(int i = 0; i < RECORDS; i++) {
+			// none of the corrupt record makes it into the output:
+			assertEquals(i == 7 ? 0 : 1, count(output, record(i)));
+		}
+	}
+
+	public void testFetchersRotate() throws Exception {
+		long maxFileSize = 8 * 1024;
+		JobConf conf = conf();
+		conf.setInt("fetchers", 3);
+		conf.setLong("maxFileSize", maxFileSize);
+		List<String> statuses = extract(conf);
+		assertEquals(RECORDS, statuses.size());
+		for(String status : statuses) {
+			assertTrue(status, status.startsWith("SUCCESS\t"));
+		}
+		String output = readOutput();
+		for(int i = 0; i < RECORDS; i++) {
+			assertEquals(1, count(output, record(i)));
+		}
+		// each fetcher fills files up to the limit, only its last is smaller:
+		File[] files = outputDir.listFiles();
+		assertTrue(files.length > 3);
+		int small = 0;
+		for(File file : files) {
+			if(file.length() < maxFileSize) {
+				small++;
+			}
+			// records are under 2.1KB:
+			assertTrue(file.getName(), file.length() < maxFileSize + 2100);
+		}
+		assertTrue(small <= 3);
+	}
+
+	public void testFetchersAbort() throws Exception {
+		corrupt(5);
+		JobConf conf = conf();
+		conf.setInt("fetchers", 3);
+		conf.setLong("maxFileSize", 4 * 1024);
+		try {
+			extract(conf);
+			fail("corrupt record copied");
+		} catch(IOException e) {
+			// expected
+		}
+		// files left open are closed, but not renamed as complete:
+		String output = readFinished();
+		assertEquals(0, count(output, record(5)));
+		assertTrue(count(output, "record-") < RECORDS);
+	}
+}
@@ -0,0 +1,88 @@
+package org.archive.hadoop.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+public class ManifestInputFormatTest extends TestCase {
+
+	public void testLine() {
+		ManifestInputFormat.Line line = new ManifestInputFormat.Line(
+				"P\t{(500,http://h/b.warc.gz),(10,http://h/a.warc.gz)," +
+				"(20,http://h/b.warc.gz),(5,http://h/b.warc.gz)}");
+		assertEquals("P\t{(10,http://h/a.warc.gz),(5,http://h/b.warc.gz)," +
+				"(20,http://h/b.warc.gz),(500,http://h/b.warc.gz)}", line.text);
+		assertEquals("http://h/b.warc.gz", line.primary);
+		assertEquals(5, line.primaryOffset);
+		assertEquals(4, line.getSize());
+	}
+
+	public void testBadLine() {
+		ManifestInputFormat.Line line =
+			new ManifestInputFormat.Line("P\t{(x,http://h/a.warc.gz)}");
+		assertEquals("P\t{(x,http://h/a.warc.gz)}", line.text);
+		assertEquals("", line.primary);
+		assertEquals(1, line.getSize());
+	}
+
+	/**
+	 * @return a line of count records from file on host
+	 */
+	private static ManifestInputFormat.Line line(String host, String file,
+			int first, int count) {
+		StringBuilder sb = new StringBuilder("P\t{");
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				sb.append(',');
+			}
+			sb.append('(').append((first + i) * 100).append(",http://")
+				.append(host).append('/').append(file).append(')');
+		}
+		return new ManifestInputFormat.Line(sb.append('}').toString());
+	}
+
+	private static InputSplit[] split(List<ManifestInputFormat.Line> lines,
+			int numSplits) {
+		long total = 0;
+		for(ManifestInputFormat.Line line : lines) {
+			total += line.getSize();
+		}
+		return ManifestInputFormat.makeSplits(lines, total, numSplits,
+				new JobConf());
+	}
+
+	public void testSplitAtPrimaryChange() throws Exception {
+		List<ManifestInputFormat.Line> lines =
+			new ArrayList<ManifestInputFormat.Line>();
+		lines.add(line("h2", "b.warc.gz", 0, 3));
+		lines.add(line("h1", "a.warc.gz", 3, 3));
+		lines.add(line("h2", "b.warc.gz", 3, 3));
+		lines.add(line("h1", "a.warc.gz", 0, 3));
+		// 4 records per split, but lines reading a.warc.gz stay together:
+		InputSplit[] splits = split(lines, 3);
+		assertEquals(2, splits.length);
+		assertEquals(6, splits[0].getLength());
+		assertEquals("h1", splits[0].getLocations()[0]);
+		assertEquals(1, splits[0].getLocations().length);
+		assertEquals(6, splits[1].getLength());
+		assertEquals("h2", splits[1].getLocations()[0]);
+	}
+
+	public void testSplitCap() throws Exception {
+		List<ManifestInputFormat.Line> lines =
+			new ArrayList<ManifestInputFormat.Line>();
+		for(int i = 0; i < 5; i++) {
+			lines.add(line("h1", "a.warc.gz", i * 2, 2));
+		}
+		// all from one file, so cut at twice the 2 records per split:
+		InputSplit[] splits = split(lines, 5);
+		assertEquals(3, splits.length);
+		assertEquals(4, splits[0].getLength());
+		assertEquals(4, splits[1].getLength());
+		assertEquals(2, splits[2].getLength());
+	}
+}
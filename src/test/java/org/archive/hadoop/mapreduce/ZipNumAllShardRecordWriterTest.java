@@ -0,0 +1,111 @@
+package org.archive.hadoop.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.archive.hadoop.cdx.BinarySummaryWriter;
+
+public class ZipNumAllShardRecordWriterTest extends TestCase {
+
+	private static class Output {
+		ByteArrayOutputStream main = new ByteArrayOutputStream();
+		ByteArrayOutputStream summary = new ByteArrayOutputStream();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+	}
+
+	private static Output write(int workers, ZipNumBlockSizer sizer)
+	throws Exception {
+		return write(workers, 50, sizer);
+	}
+
+	private static Output write(int workers, int limit, ZipNumBlockSizer sizer)
+	throws Exception {
+		Output output = new Output();
+		ZipNumAllShardRecordWriter writer = new ZipNumAllShardRecordWriter(limit,
+				new DataOutputStream(output.main),
+				new DataOutputStream(output.summary), "part-a-00000", 6, workers);
+		writer.setBinarySummary(new BinarySummaryWriter(output.binary,
+				"part-a-00000"));
+		writer.setBlockSizer(sizer);
+		for(int i = 0; i < 5000; i++) {
+			writer.writeLine(String.format(
+					"com,example)/%06d 20120101%06d http://example.com/%d",
+					i, i % 1000, i * 7));
+		}
+		writer.close(null);
+		return output;
+	}
+
+	private static void assertSameOutput(Output expected, Output actual) {
+		assertTrue(expected.main.size() > 0);
+		assertTrue(Arrays.equals(expected.main.toByteArray(),
+				actual.main.toByteArray()));
+		assertTrue(Arrays.equals(expected.summary.toByteArray(),
+				actual.summary.toByteArray()));
+		assertTrue(Arrays.equals(expected.binary.toByteArray(),
+				actual.binary.toByteArray()));
+	}
+
+	public void testWorkersIdenticalOutput() throws Exception {
+		Output serial = write(1, null);
+		assertSameOutput(serial, write(2, null));
+		assertSameOutput(serial, write(4, null));
+	}
+
+	public void testWorkersIdenticalOutputSized() throws Exception {
+		Output serial = write(1, new ZipNumBlockSizer(0, 200));
+		assertSameOutput(serial, write(4, new ZipNumBlockSizer(0, 200)));
+	}
+
+	public void testBlocksLargerThanInitialBuffer() throws Exception {
+		// 2000 lines of about 55 bytes per block, buffers have to grow:
+		Output serial = write(1, 2000, null);
+		assertTrue(serial.main.size() > 0);
+		assertEquals(3, new String(serial.summary.toByteArray(), "UTF-8")
+				.split("\n").length);
+		assertSameOutput(serial, write(4, 2000, null));
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(
+						serial.main.toByteArray())), "UTF-8"));
+		int lines = 0;
+		while(reader.readLine() != null) {
+			lines++;
+		}
+		assertEquals(5000, lines);
+	}
+
+	public void testCloseAfterFailedClose() throws Exception {
+		final boolean[] closed = new boolean[2];
+		DataOutputStream main = new DataOutputStream(new ByteArrayOutputStream() {
+			public void close() throws IOException {
+				closed[0] = true;
+				throw new IOException("close failed");
+			}
+		});
+		DataOutputStream summary = new DataOutputStream(new ByteArrayOutputStream() {
+			public void close() {
+				closed[1] = true;
+			}
+		});
+		ZipNumAllShardRecordWriter writer =
+			new ZipNumAllShardRecordWriter(10, main, summary, "part-a-00000");
+		writer.writeLine("com,example)/ 20120101000000 x");
+		try {
+			writer.close(null);
+			fail("close failure ignored");
+		} catch(IOException e) {
+			// expected
+		}
+		assertTrue(closed[0]);
+		assertTrue(closed[1]);
+	}
+}
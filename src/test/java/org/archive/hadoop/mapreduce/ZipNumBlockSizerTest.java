@@ -0,0 +1,35 @@
+package org.archive.hadoop.mapreduce;
+
+import junit.framework.TestCase;
+
+public class ZipNumBlockSizerTest extends TestCase {
+
+	public void testDisabled() {
+		ZipNumBlockSizer sizer = new ZipNumBlockSizer(0, 0);
+		assertFalse(sizer.isEnabled());
+		assertFalse(sizer.isFull(Long.MAX_VALUE));
+	}
+
+	public void testUncompressedTarget() {
+		ZipNumBlockSizer sizer = new ZipNumBlockSizer(1000, 0);
+		assertTrue(sizer.isEnabled());
+		assertFalse(sizer.isFull(999));
+		assertTrue(sizer.isFull(1000));
+		sizer.blockWritten(1000, 100);
+		assertEquals(1000, sizer.getRawLimit());
+	}
+
+	public void testCompressedTarget() {
+		ZipNumBlockSizer sizer = new ZipNumBlockSizer(0, 100);
+		assertEquals(100 * ZipNumBlockSizer.DEFAULT_RATIO, sizer.getRawLimit());
+		// 10:1 compression ratio so far
+		sizer.blockWritten(4000, 400);
+		assertEquals(1000, sizer.getRawLimit());
+		assertTrue(sizer.isFull(1000));
+
+		// uncompressed target is also honored when smaller
+		sizer = new ZipNumBlockSizer(500, 100);
+		sizer.blockWritten(4000, 400);
+		assertEquals(500, sizer.getRawLimit());
+	}
+}
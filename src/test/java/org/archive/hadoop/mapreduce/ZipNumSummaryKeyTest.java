@@ -0,0 +1,57 @@
+package org.archive.hadoop.mapreduce;
+
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class ZipNumSummaryKeyTest extends TestCase {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	private static byte[] b(String s) {
+		return s.getBytes(UTF8);
+	}
+
+	public void testSingleLine() {
+		ZipNumSummaryKey key = new ZipNumSummaryKey();
+		byte[] line = b("org,example)/ 20110101000000 http://example.org/ text/html 200");
+		assertTrue(key.set(line, 0, line.length, ' '));
+		assertEquals("org,example)/ 20110101000000", key.toString());
+
+		line = b("org,example)/");
+		assertFalse(key.set(line, 0, line.length, ' '));
+		assertEquals("org,example)/", key.toString());
+	}
+
+	public void testKeyAndValue() {
+		ZipNumSummaryKey key = new ZipNumSummaryKey();
+		byte[] k = b("org,example)/");
+		byte[] v = b("20110101000000 http://example.org/ text/html");
+		assertTrue(key.set(k, k.length, v, v.length, ' '));
+		assertEquals("org,example)/ 20110101000000", key.toString());
+
+		k = b("org,example)/ 20110101000000");
+		assertTrue(key.set(k, k.length, v, v.length, ' '));
+		assertEquals("org,example)/ 20110101000000", key.toString());
+
+		assertTrue(key.set(new byte[0], 0, v, v.length, ' '));
+		assertEquals("20110101000000 http://example.org/", key.toString());
+
+		assertFalse(key.set(k, 11, v, 0, ' '));
+		assertEquals("org,example", key.toString());
+	}
+
+	public void testEscapesTabs() {
+		ZipNumSummaryKey key = new ZipNumSummaryKey();
+		StringBuilder sb = new StringBuilder("org,example)/a\tb");
+		for(int i = 0; i < 300; i++) {
+			sb.append('x');
+		}
+		sb.append(" 20110101000000 rest");
+		byte[] line = b(sb.toString());
+		assertTrue(key.set(line, 0, line.length, ' '));
+		String s = key.toString();
+		assertTrue(s.startsWith("org,example)/a%09b"));
+		assertTrue(s.endsWith("x 20110101000000"));
+		assertEquals(line.length - 5 + 2, key.getLength());
+	}
+}
@@ -0,0 +1,85 @@
+package org.archive.petabox;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * class under test: {@link AdaptiveConcurrencyLimiter}
+ */
+public class AdaptiveConcurrencyLimiterTest extends Assert {
+
+	@Test
+	public void testBackoffAndRecovery() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 0);
+		assertEquals(8, limiter.getLimit());
+
+		limiter.acquire();
+		limiter.release(true);
+		assertEquals(4, limiter.getLimit());
+		limiter.acquire();
+		limiter.release(true);
+		assertEquals(2, limiter.getLimit());
+		limiter.acquire();
+		limiter.release(true);
+		limiter.acquire();
+		limiter.release(true);
+		assertEquals(1, limiter.getLimit());
+		assertEquals(4, limiter.getOverloads());
+		assertEquals(3, limiter.getBackoffs());
+
+		// raised by one after limit consecutive successes
+		limiter.acquire();
+		limiter.release(false);
+		assertEquals(2, limiter.getLimit());
+		limiter.acquire();
+		limiter.release(false);
+		assertEquals(2, limiter.getLimit());
+		limiter.acquire();
+		limiter.release(false);
+		assertEquals(3, limiter.getLimit());
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.release(false);
+		}
+		assertEquals(8, limiter.getLimit());
+		assertEquals(107, limiter.getRequests());
+	}
+
+	@Test
+	public void testBackoffInterval() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 60 * 1000);
+		for (int i = 0; i < 4; i++) {
+			limiter.acquire();
+		}
+		for (int i = 0; i < 4; i++) {
+			limiter.release(true);
+		}
+		// one burst of overloads lowers the limit once.
+		assertEquals(4, limiter.getLimit());
+		assertEquals(4, limiter.getOverloads());
+		assertEquals(1, limiter.getBackoffs());
+	}
+
+	@Test
+	public void testAcquireWaits() throws Exception {
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 0);
+		limiter.acquire();
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					limiter.acquire();
+					limiter.release(false);
+				} catch (InterruptedException ex) {
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		assertEquals(1, limiter.getInFlight());
+		limiter.release(false);
+		t.join(5000);
+		assertFalse(t.isAlive());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
@@ -0,0 +1,80 @@
+package org.archive.petabox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * class under test: {@link ItemMetadataCache}
+ */
+public class ItemMetadataCacheTest extends Assert {
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("metadata-cache", "");
+		dir.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private byte[] getResource(String name) throws IOException {
+		InputStream in = getClass().getResourceAsStream(name);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		ItemMetadataCache cache = new ItemMetadataCache(dir, ItemMetadataCache.DEFAULT_TTL);
+		assertNull(cache.get("wide00006"));
+		cache.put("wide00006", getResource("metadata-regular.json"));
+		ItemMetadata md = cache.get("wide00006");
+		assertNotNull(md);
+		assertEquals("d1", "ia601201.us.archive.org", md.getD1());
+		assertTrue(cache.contains("wide00006"));
+		assertFalse(cache.contains("wide00007"));
+
+		// same directory, but nothing is fresh:
+		assertNull(new ItemMetadataCache(dir, 0).get("wide00006"));
+	}
+
+	@Test
+	public void testIsFresh() {
+		long hour = 3600 * 1000L;
+		long now = 1000 * hour;
+		// not updated recently, ttl applies:
+		assertTrue(ItemMetadataCache.isFresh(0, now - hour, now, 2 * hour));
+		assertFalse(ItemMetadataCache.isFresh(0, now - 3 * hour, now, 2 * hour));
+		assertTrue(ItemMetadataCache.isFresh(now / 1000 - 100 * 3600, now - hour, now, 2 * hour));
+		// fetched 10 hours after an update, fresh for an hour only:
+		long updated = (now - 12 * hour) / 1000;
+		assertFalse(ItemMetadataCache.isFresh(updated, now - 2 * hour + 1, now, 24 * hour));
+		assertTrue(ItemMetadataCache.isFresh(updated, now - 2 * hour, now - 2 * hour + hour / 2, 24 * hour));
+	}
+}
@@ -0,0 +1,392 @@
+package org.archive.petabox;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * class under test: {@link PetaboxClient.HttpInputStream} reading in
+ * parallel chunks, and positional reads.
+ */
+public class PetaboxClientTest extends Assert {
+	private static final int CHUNK = 1000;
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private byte[] data;
+	private AtomicInteger requests;
+	/**
+	 * responses to requests starting in [slowFrom, slowTo) are sent one byte
+	 * at a time, slowly.
+	 */
+	private volatile int slowFrom = -1;
+	private volatile int slowTo = -1;
+	/**
+	 * number of responses the client closed before their end.
+	 */
+	private AtomicInteger broken;
+	private PetaboxClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		requests = new AtomicInteger();
+		broken = new AtomicInteger();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				Matcher m = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+				assertTrue(m.matches());
+				int start = Integer.parseInt(m.group(1));
+				int end = Math.min(Integer.parseInt(m.group(2)), data.length - 1);
+				if (start >= data.length) {
+					exchange.sendResponseHeaders(416, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(206, end - start + 1);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					if (start >= slowFrom && start < slowTo) {
+						for (int i = start; i <= end; i++) {
+							out.write(data[i]);
+							out.flush();
+							Thread.sleep(20);
+						}
+					} else {
+						out.write(data, start, end - start + 1);
+					}
+				} catch (IOException ex) {
+					broken.incrementAndGet();
+				} catch (InterruptedException ex) {
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+		client = new PetaboxClient(config(3, 500));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static PetaboxClientConfig config(int parallelReads, int preadWindow) {
+		final Map<String, Integer> values = new HashMap<String, Integer>();
+		values.put("parallel-reads", parallelReads);
+		values.put("chunk-size", CHUNK);
+		values.put("pread-window", preadWindow);
+		values.put("max-retries", 2);
+		values.put("retry-delay", 10);
+		return new PetaboxClientConfig() {
+			public int getInt(String name, int defaultValue) {
+				Integer v = values.get(name);
+				return v != null ? v : defaultValue;
+			}
+			public boolean getBoolean(String name, boolean defaultValue) {
+				return defaultValue;
+			}
+			public String getString(String name) {
+				return null;
+			}
+		};
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte)(i * 31 + (i >> 8));
+		}
+		return data;
+	}
+
+	private PetaboxClient.HttpInputStream open() throws Exception {
+		URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/item/file");
+		return client.openURI(uri);
+	}
+
+	/**
+	 * read to EOF in reads of odd sizes, checking bytes read against data.
+	 * @return number of bytes read
+	 */
+	private int readToEnd(PetaboxClient.HttpInputStream in) throws IOException {
+		byte[] buf = new byte[337];
+		int total = 0;
+		long pos = in.getPos();
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) != -1) {
+			assertTrue(n > 0);
+			for (int i = 0; i < n; i++) {
+				assertEquals("byte at " + (pos + i), data[(int)pos + i], buf[i]);
+			}
+			pos += n;
+			total += n;
+			assertEquals(pos, in.getPos());
+		}
+		return total;
+	}
+
+	@Test
+	public void testChunkedRead() throws Exception {
+		data = data(4500);
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(4500, readToEnd(in));
+		assertEquals(0, in.available());
+		assertEquals(-1, in.read());
+		// chunks 0-4, and at most the two past EOF already in flight when the
+		// short last chunk tells the length. nothing is fetched after it.
+		assertTrue(requests.get() <= 7);
+		in.close();
+	}
+
+	@Test
+	public void testEOFAtChunkBoundary() throws Exception {
+		data = data(3 * CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(3 * CHUNK, readToEnd(in));
+		assertEquals(-1, in.read());
+		assertEquals(0, in.available());
+		in.close();
+
+		// seeking to the end of a file of whole chunks.
+		in = open();
+		in.seek(3 * CHUNK);
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testSingleByteReads() throws Exception {
+		data = data(2 * CHUNK + 1);
+		PetaboxClient.HttpInputStream in = open();
+		for (int i = 0; i < data.length; i++) {
+			assertEquals("byte at " + i, data[i] & 0xff, in.read());
+		}
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testSeek() throws Exception {
+		data = data(10 * CHUNK + 123);
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(data[0] & 0xff, in.read());
+
+		// within the chunks in flight.
+		in.seek(2 * CHUNK + 500);
+		assertEquals(data[2 * CHUNK + 500] & 0xff, in.read());
+		assertEquals(2 * CHUNK + 501, in.getPos());
+
+		// backward and far forward restart the chunks at the new position.
+		in.seek(700);
+		assertEquals(data[700] & 0xff, in.read());
+		in.seek(8 * CHUNK + 999);
+		assertEquals(data[8 * CHUNK + 999] & 0xff, in.read());
+
+		in.seek(9 * CHUNK + 50);
+		assertEquals(CHUNK + 73, readToEnd(in));
+
+		// seeking past EOF.
+		in.seek(20 * CHUNK);
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	/**
+	 * wait up to 5 seconds for {@code count} responses to be closed by the client.
+	 */
+	private void awaitBroken(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (broken.get() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, broken.get());
+	}
+
+	@Test
+	public void testSeekAbortsChunksInFlight() throws Exception {
+		data = data(10 * CHUNK);
+		// chunks 1 and 2 take 20 seconds each.
+		slowFrom = CHUNK;
+		slowTo = 3 * CHUNK;
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(data[0] & 0xff, in.read());
+		in.seek(5 * CHUNK);
+		assertEquals(data[5 * CHUNK] & 0xff, in.read());
+		// their connections are closed, not read to the end.
+		awaitBroken(2);
+		in.close();
+	}
+
+	@Test
+	public void testCloseAbortsChunksInFlight() throws Exception {
+		data = data(10 * CHUNK);
+		slowFrom = CHUNK;
+		slowTo = 3 * CHUNK;
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(data[0] & 0xff, in.read());
+		in.close();
+		awaitBroken(2);
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		data = data(CHUNK);
+		slowFrom = 0;
+		slowTo = 1;
+		final URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/item/file");
+		final PetaboxClient.RangeRequest request = new PetaboxClient.RangeRequest();
+		final IOException[] failure = new IOException[1];
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					client.readRange(uri, 0, new byte[CHUNK], 0, CHUNK, request);
+				} catch (IOException ex) {
+					failure[0] = ex;
+				}
+			}
+		};
+		reader.start();
+		Thread.sleep(200);
+		assertTrue(reader.isAlive());
+		// interrupt does not stop a socket read, abort does.
+		reader.interrupt();
+		reader.join(200);
+		assertTrue(reader.isAlive());
+		request.abort();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertTrue(String.valueOf(failure[0]), failure[0] instanceof InterruptedIOException);
+		// not retried.
+		assertEquals(1, requests.get());
+		awaitBroken(1);
+	}
+
+	private void assertRead(PetaboxClient.HttpInputStream in, long position, int length)
+			throws IOException {
+		byte[] buf = new byte[length + 2];
+		assertEquals(length, in.read(position, buf, 1, length));
+		for (int i = 0; i < length; i++) {
+			assertEquals("byte at " + (position + i), data[(int)position + i], buf[1 + i]);
+		}
+	}
+
+	@Test
+	public void testPositionalReadWindow() throws Exception {
+		data = data(10 * CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		assertRead(in, 100, 10);
+		assertEquals(1, requests.get());
+		// within the 500 byte window read at 100.
+		assertRead(in, 110, 20);
+		assertRead(in, 300, 300);
+		assertRead(in, 599, 1);
+		assertEquals(1, requests.get());
+		// past the window end, a new window.
+		assertRead(in, 590, 20);
+		assertEquals(2, requests.get());
+		assertRead(in, 1000, 90);
+		assertEquals(2, requests.get());
+		// positional reads leave the stream position alone.
+		assertEquals(0, in.getPos());
+		assertEquals(data[0] & 0xff, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testPositionalReadAcrossChunks() throws Exception {
+		data = data(10 * CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		// larger than the window, read in one request straight into the buffer.
+		assertRead(in, 700, 2 * CHUNK + 600);
+		assertEquals(1, requests.get());
+		assertRead(in, 900, 200);
+		assertEquals(2, requests.get());
+		in.close();
+	}
+
+	@Test
+	public void testPositionalReadAtEOF() throws Exception {
+		data = data(CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		byte[] buf = new byte[100];
+		// short read at EOF, then served from the window ending at EOF.
+		assertEquals(50, in.read(950, buf, 0, 100));
+		assertEquals(data[950], buf[0]);
+		assertEquals(data[999], buf[49]);
+		assertRead(in, 980, 20);
+		assertEquals(5, in.read(995, buf, 0, 10));
+		assertEquals(-1, in.read(CHUNK, buf, 0, 10));
+		assertEquals(1, requests.get());
+		assertEquals(-1, in.read(5 * CHUNK, buf, 0, 10));
+		// larger than the window.
+		assertEquals(600, in.read(400, new byte[1000], 0, 1000));
+
+		in.readFully(900, buf);
+		assertEquals(data[999], buf[99]);
+		try {
+			in.readFully(901, buf);
+			fail("readFully past EOF");
+		} catch (EOFException ex) {
+			// expected
+		}
+		try {
+			in.readFully(500, new byte[1000]);
+			fail("readFully past EOF");
+		} catch (EOFException ex) {
+			// expected
+		}
+		in.close();
+	}
+
+	@Test
+	public void testPositionalReadWhileChunked() throws Exception {
+		data = data(10 * CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		assertEquals(data[0] & 0xff, in.read());
+		assertRead(in, 8 * CHUNK + 10, 100);
+		// chunks cancelled by a seek do not disturb positional reads.
+		in.seek(5 * CHUNK);
+		assertRead(in, 8 * CHUNK + 50, 100);
+		assertRead(in, 2 * CHUNK - 50, 100);
+		assertEquals(5 * CHUNK, in.getPos());
+		assertEquals(5 * CHUNK, readToEnd(in));
+		in.close();
+	}
+
+	@Test
+	public void testNoPositionalReadWindow() throws Exception {
+		client = new PetaboxClient(config(1, 0));
+		data = data(CHUNK);
+		PetaboxClient.HttpInputStream in = open();
+		assertRead(in, 100, 10);
+		assertRead(in, 110, 10);
+		assertEquals(2, requests.get());
+		in.close();
+	}
+}
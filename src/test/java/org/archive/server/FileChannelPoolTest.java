@@ -0,0 +1,67 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class FileChannelPoolTest extends TestCase {
+	private File[] files;
+
+	@Override
+	protected void setUp() throws Exception {
+		files = new File[3];
+		for(int i = 0; i < files.length; i++) {
+			files[i] = File.createTempFile("channel-pool", ".gz");
+			FileOutputStream fos = new FileOutputStream(files[i]);
+			fos.write(new byte[] {(byte) i, 1, 2, 3});
+			fos.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for(File f : files) {
+			f.delete();
+		}
+	}
+
+	public void testSharedAndEvicted() throws IOException {
+		FileChannelPool pool = new FileChannelPool(2);
+		FileChannelPool.Entry a1 = pool.acquire(files[0]);
+		FileChannelPool.Entry a2 = pool.acquire(files[0]);
+		assertSame(a1, a2);
+		assertEquals(1, pool.getOpenedCount());
+		pool.release(a1);
+		pool.release(a2);
+
+		FileChannelPool.Entry b = pool.acquire(files[1]);
+		FileChannelPool.Entry c = pool.acquire(files[2]);
+		// the unused channel for files[0] is closed to stay within 2:
+		assertEquals(2, pool.getOpenCount());
+		assertEquals(1, pool.getClosedCount());
+		assertFalse(a1.getChannel().isOpen());
+		assertTrue(b.getChannel().isOpen());
+		assertEquals(4, c.getChannel().size());
+		pool.release(b);
+		pool.release(c);
+
+		pool.close();
+		assertEquals(0, pool.getOpenCount());
+		assertFalse(c.getChannel().isOpen());
+	}
+
+	public void testInUseNotClosed() throws IOException {
+		FileChannelPool pool = new FileChannelPool(1);
+		FileChannelPool.Entry a = pool.acquire(files[0]);
+		FileChannelPool.Entry b = pool.acquire(files[1]);
+		// both in use, so the pool is temporarily over its limit:
+		assertEquals(2, pool.getOpenCount());
+		assertTrue(a.getChannel().isOpen());
+		pool.release(a);
+		assertFalse(a.getChannel().isOpen());
+		assertTrue(b.getChannel().isOpen());
+		pool.release(b);
+	}
+}
@@ -0,0 +1,124 @@
+package org.archive.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.format.gzip.GZIPFormatException;
+
+import junit.framework.TestCase;
+
+public class GZMemberCopierTest extends TestCase {
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(data);
+		gzos.close();
+		return baos.toByteArray();
+	}
+
+	// member with FEXTRA, FNAME and FCOMMENT set:
+	private static byte[] gzipWithFields(byte[] data) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(new byte[] {0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 255});
+		baos.write(new byte[] {6, 0, 's', 'l', 2, 0, 1, 2});
+		baos.write("name.txt\0comment\0".getBytes("UTF-8"));
+		Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		d.setInput(data);
+		d.finish();
+		byte[] buf = new byte[1024];
+		while(!d.finished()) {
+			baos.write(buf, 0, d.deflate(buf));
+		}
+		d.end();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		writeInt(baos, crc.getValue());
+		writeInt(baos, data.length);
+		return baos.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream baos, long v) {
+		for(int i = 0; i < 4; i++) {
+			baos.write((int) (v >> (8 * i)));
+		}
+	}
+
+	private static byte[] data(int len) {
+		byte[] data = new byte[len];
+		Random r = new Random(len);
+		for(int i = 0; i < len; i++) {
+			// compressible, but not trivially:
+			data[i] = (byte) ('a' + r.nextInt(8));
+		}
+		return data;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	private void assertCopies(byte[] member, byte[] series, int bufferSize)
+	throws IOException {
+		GZMemberCopier copier = new GZMemberCopier(bufferSize);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long len = copier.copy(new ByteArrayInputStream(series), out);
+		copier.end();
+		assertEquals(member.length, len);
+		assertTrue(Arrays.equals(member, out.toByteArray()));
+	}
+
+	public void testCopy() throws IOException {
+		byte[] first = gzip(data(100000));
+		byte[] second = gzipWithFields(data(500));
+		byte[] series = concat(first, second);
+		for(int bufferSize : new int[] {1, 7, 1024, 64 * 1024}) {
+			assertCopies(first, series, bufferSize);
+			assertCopies(second, second, bufferSize);
+			assertCopies(second, concat(second, first), bufferSize);
+		}
+		assertCopies(gzip(new byte[0]), gzip(new byte[0]), 16);
+	}
+
+	public void testCorrupt() throws IOException {
+		byte[] member = gzip(data(1000));
+		member[member.length - 6]++;
+		GZMemberCopier copier = new GZMemberCopier();
+		try {
+			copier.copy(new ByteArrayInputStream(member),
+					new ByteArrayOutputStream());
+			fail();
+		} catch(GZIPFormatException e) {
+		}
+		try {
+			copier.copy(new ByteArrayInputStream(new byte[20]),
+					new ByteArrayOutputStream());
+			fail();
+		} catch(GZIPFormatException e) {
+		}
+		copier.end();
+	}
+
+	public void testTruncated() throws IOException {
+		byte[] member = gzip(data(10000));
+		byte[] truncated = Arrays.copyOf(member, member.length / 2);
+		GZMemberCopier copier = new GZMemberCopier(64);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			copier.copy(new ByteArrayInputStream(truncated), out);
+			fail();
+		} catch(EOFException e) {
+		}
+		assertEquals(out.size(), copier.getBytesWritten());
+		copier.end();
+	}
+}
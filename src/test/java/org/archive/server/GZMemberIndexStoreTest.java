@@ -0,0 +1,32 @@
+package org.archive.server;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class GZMemberIndexStoreTest extends TestCase {
+
+	public void testIndexFileNextToFile() {
+		GZMemberIndexStore store = new GZMemberIndexStore(null, 0, 0);
+		File file = new File("/data/a/x.warc.gz");
+		assertEquals(new File("/data/a/x.warc.gz" + GZMemberIndex.INDEX_SUFFIX),
+				store.getIndexFile(file));
+	}
+
+	public void testIndexDirMirrorsPaths() {
+		File indexDir = new File("/idx");
+		GZMemberIndexStore store = new GZMemberIndexStore(indexDir, 0, 0);
+		File a = store.getIndexFile(new File("/data/a/x.warc.gz"));
+		File b = store.getIndexFile(new File("/data/b/x.warc.gz"));
+		assertFalse(a.equals(b));
+		assertEquals(new File("/idx/data/a/x.warc.gz"
+				+ GZMemberIndex.INDEX_SUFFIX), a);
+		assertEquals(new File("/idx/data/b/x.warc.gz"
+				+ GZMemberIndex.INDEX_SUFFIX), b);
+
+		// relative paths are resolved first:
+		File relative = new File("x.warc.gz");
+		assertEquals(store.getIndexFile(relative.getAbsoluteFile()),
+				store.getIndexFile(relative));
+	}
+}
@@ -0,0 +1,55 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class GZMemberIndexTest extends TestCase {
+
+	public void testMemberLength() {
+		GZMemberIndex index = new GZMemberIndex(new long[] {0, 100, 350}, 1000, 0);
+		assertEquals(100, index.getMemberLength(0));
+		assertEquals(250, index.getMemberLength(100));
+		assertEquals(650, index.getMemberLength(350));
+		assertEquals(-1, index.getMemberLength(50));
+		assertEquals(-1, index.getMemberLength(1000));
+	}
+
+	public void testPersist() throws IOException {
+		File data = File.createTempFile("member-index", ".warc.gz");
+		File indexFile = new File(data.getPath() + GZMemberIndex.INDEX_SUFFIX);
+		try {
+			FileOutputStream fos = new FileOutputStream(data);
+			fos.write(new byte[64 * 1024]);
+			fos.close();
+			long[] starts = new long[1000];
+			for(int i = 1; i < starts.length; i++) {
+				starts[i] = starts[i - 1] + 1 + (i * 37) % 100;
+			}
+			GZMemberIndex index = new GZMemberIndex(starts, data.length(),
+					data.lastModified());
+			assertTrue(index.isCurrent(data));
+			index.write(indexFile);
+
+			GZMemberIndex read = GZMemberIndex.read(indexFile);
+			assertEquals(starts.length, read.size());
+			assertTrue(read.isCurrent(data));
+			for(int i = 0; i < starts.length - 1; i++) {
+				assertEquals(starts[i + 1] - starts[i],
+						read.getMemberLength(starts[i]));
+			}
+			assertEquals(data.length() - starts[starts.length - 1],
+					read.getMemberLength(starts[starts.length - 1]));
+
+			fos = new FileOutputStream(data, true);
+			fos.write(1);
+			fos.close();
+			assertFalse(read.isCurrent(data));
+		} finally {
+			data.delete();
+			indexFile.delete();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.archive.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class GZRangeBatchReaderTest extends TestCase {
+
+	private static GZRangeBatchReader reader(String s) throws IOException {
+		return new GZRangeBatchReader(
+				new ByteArrayInputStream(s.getBytes("UTF-8")));
+	}
+
+	private static String readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[3];
+		int amt;
+		while((amt = is.read(buf)) != -1) {
+			baos.write(buf, 0, amt);
+		}
+		return baos.toString("UTF-8");
+	}
+
+	public void testRecords() throws IOException {
+		GZRangeBatchReader r = reader(
+				"206 5 10 /a/b c.gz\r\nabcde"
+				+ "404 0 0 /missing.gz\r\n"
+				+ "206 3 99 /x.gz\r\nxyz");
+		assertTrue(r.next());
+		assertTrue(r.isOK());
+		assertEquals(5, r.getLength());
+		assertEquals(10, r.getOffset());
+		assertEquals("/a/b c.gz", r.getPath());
+		assertEquals("abcde", readAll(r.getInputStream()));
+
+		assertTrue(r.next());
+		assertFalse(r.isOK());
+		assertEquals(404, r.getStatus());
+		assertEquals(0, r.getLength());
+		assertEquals(-1, r.getInputStream().read());
+
+		assertTrue(r.next());
+		assertEquals(99, r.getOffset());
+		assertEquals("xyz", readAll(r.getInputStream()));
+		assertFalse(r.next());
+	}
+
+	public void testSkipUnread() throws IOException {
+		GZRangeBatchReader r = reader(
+				"206 5 0 /a.gz\r\nabcde206 2 5 /a.gz\r\nfg");
+		assertTrue(r.next());
+		assertEquals('a', r.getInputStream().read());
+		assertTrue(r.next());
+		assertEquals(5, r.getOffset());
+		assertEquals("fg", readAll(r.getInputStream()));
+		assertFalse(r.next());
+	}
+
+	public void testTruncated() throws IOException {
+		GZRangeBatchReader r = reader("206 5 0 /a.gz\r\nabc");
+		assertTrue(r.next());
+		try {
+			r.next();
+			fail();
+		} catch(IOException e) {
+		}
+		r = reader("206 5 0");
+		try {
+			r.next();
+			fail();
+		} catch(IOException e) {
+		}
+	}
+}
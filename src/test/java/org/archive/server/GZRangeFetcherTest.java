@@ -0,0 +1,119 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class GZRangeFetcherTest extends TestCase {
+
+	/**
+	 * fetches nothing, just takes a while longer for earlier records, and
+	 * remembers the order records are written in.
+	 */
+	private static class TestClient extends GZRangeClient {
+		long failFetch = -1;
+		long failWrite = -1;
+		AtomicInteger fetches = new AtomicInteger();
+		List<Long> written = Collections.synchronizedList(new ArrayList<Long>());
+		boolean finished = false;
+
+		TestClient() throws ParseException {
+			super(new File("/nonexistent"), "test-", "20120101000000");
+		}
+
+		@Override
+		public Record fetch(long offset, List<String> urls) throws IOException {
+			fetches.incrementAndGet();
+			try {
+				Thread.sleep((10 - offset % 10) * 2);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			if(offset == failFetch) {
+				throw new IOException("fetch failed");
+			}
+			// no URL works, giving an unfetched record:
+			return super.fetch(offset, Collections.singletonList(
+					"none://" + offset + ".warc.gz"));
+		}
+
+		@Override
+		public void write(Record record) throws IOException {
+			if(record.getOffset() == failWrite) {
+				throw new IOException("write failed");
+			}
+			assertFalse(record.isFetched());
+			written.add(record.getOffset());
+		}
+
+		@Override
+		public void finish() {
+			finished = true;
+		}
+	}
+
+	private static List<Long> offsets(int count) {
+		List<Long> offsets = new ArrayList<Long>();
+		for(long i = 0; i < count; i++) {
+			offsets.add(i);
+		}
+		return offsets;
+	}
+
+	private static final List<String> URLS =
+		Collections.singletonList("unused.warc.gz");
+
+	public void testOrder() throws Exception {
+		TestClient client = new TestClient();
+		GZRangeFetcher fetcher = new GZRangeFetcher(client, 4);
+		for(long offset : offsets(50)) {
+			fetcher.append(offset, URLS);
+		}
+		fetcher.finish();
+		assertEquals(offsets(50), client.written);
+		assertEquals(50, client.fetches.get());
+		assertTrue(client.finished);
+	}
+
+	private static void assertAborted(TestClient client, int concurrency) {
+		GZRangeFetcher fetcher = new GZRangeFetcher(client, concurrency);
+		try {
+			for(long offset : offsets(100)) {
+				fetcher.append(offset, URLS);
+			}
+			fetcher.finish();
+			fail("failure ignored");
+		} catch(IOException e) {
+			// expected
+		}
+		assertEquals(offsets(5), client.written);
+		assertFalse(client.finished);
+		// nothing is fetched after the failure is seen:
+		int fetches = client.fetches.get();
+		assertTrue("fetched " + fetches, fetches <= 6 + concurrency * 2);
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+			fail("interrupted");
+		}
+		assertEquals(fetches, client.fetches.get());
+	}
+
+	public void testAbortOnFetchFailure() throws Exception {
+		TestClient client = new TestClient();
+		client.failFetch = 5;
+		assertAborted(client, 2);
+	}
+
+	public void testAbortOnWriteFailure() throws Exception {
+		TestClient client = new TestClient();
+		client.failWrite = 5;
+		assertAborted(client, 2);
+	}
+}
@@ -0,0 +1,64 @@
+package org.archive.server;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class GZRangeMetricsTest extends TestCase {
+
+	public void testHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getPercentileMicros(50));
+		for(int i = 0; i < 99; i++) {
+			h.add(100 * 1000);
+		}
+		h.add(50 * 1000 * 1000);
+		assertEquals(100, h.getCount());
+		// 100us falls in the [64,128) bucket:
+		assertEquals(128, h.getPercentileMicros(50));
+		assertEquals(128, h.getPercentileMicros(99));
+		assertEquals(50 * 1000, h.getPercentileMicros(100));
+		assertEquals(50 * 1000, h.getMaxMicros());
+		assertEquals((99 * 100 + 50 * 1000) / 100, h.getMeanMicros());
+		h.reset();
+		assertEquals(0, h.getCount());
+	}
+
+	public void testHotFiles() {
+		GZRangeMetrics m = new GZRangeMetrics(2, 3);
+		for(int i = 0; i < 10; i++) {
+			m.record("/a", 10, 0, 0);
+		}
+		for(int i = 0; i < 5; i++) {
+			m.record("/b", 10, 0, 0);
+		}
+		m.record("/c", 10, 0, 0);
+		// evicts /c, inheriting its count:
+		m.record("/d", 10, 0, 0);
+		List<Map.Entry<String,Long>> hot = m.getHotFileCounts();
+		assertEquals(2, hot.size());
+		assertEquals("/a", hot.get(0).getKey());
+		assertEquals(10L, hot.get(0).getValue().longValue());
+		assertEquals("/b", hot.get(1).getKey());
+		assertEquals(17, m.getRecordCount());
+		assertEquals(170, m.getBytesServed());
+		assertEquals("10 /a", m.getHotFiles()[0]);
+	}
+
+	public void testStatus() {
+		GZRangeMetrics m = new GZRangeMetrics();
+		m.request(206);
+		m.request(404);
+		m.request(404);
+		m.status(415);
+		assertEquals(3, m.getRequestCount());
+		assertEquals(2, m.getStatusCount(404));
+		String[] counts = m.getStatusCounts();
+		assertEquals(3, counts.length);
+		assertEquals("206 1", counts[0]);
+		assertEquals("404 2", counts[1]);
+		m.reset();
+		assertEquals(0, m.getStatusCounts().length);
+	}
+}
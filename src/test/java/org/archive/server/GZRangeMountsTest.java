@@ -0,0 +1,94 @@
+package org.archive.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+public class GZRangeMountsTest extends TestCase {
+
+	/**
+	 * Storage recording the paths it is asked to open.
+	 */
+	private static class RecordingStorage implements GZRangeStorage {
+		List<String> opened = new ArrayList<String>();
+		boolean closed = false;
+
+		public Source open(final String path) throws IOException {
+			opened.add(path);
+			return new Source() {
+				public String getPath() {
+					return path;
+				}
+				public long getLength() {
+					return 0;
+				}
+				public long getMemberLength(long offset) {
+					return 0;
+				}
+				public void send(long offset, long length,
+						HttpServletResponse response) {
+				}
+				public void transfer(long offset, long length, OutputStream out) {
+				}
+				public void close() {
+				}
+			};
+		}
+		public void close() {
+			closed = true;
+		}
+		String last() {
+			return opened.get(opened.size() - 1);
+		}
+	}
+
+	public void testLongestPrefix() throws IOException {
+		RecordingStorage local = new RecordingStorage();
+		RecordingStorage hdfs = new RecordingStorage();
+		RecordingStorage archive = new RecordingStorage();
+		GZRangeMounts mounts = new GZRangeMounts(local);
+		mounts.mount("/hdfs/", hdfs);
+		mounts.mount("/hdfs/archive", archive);
+
+		assertEquals("/a/b.gz", mounts.open("/a/b.gz").getPath());
+		assertEquals("/a/b.gz", local.last());
+
+		mounts.open("/hdfs/a/b.gz");
+		assertEquals("/a/b.gz", hdfs.last());
+
+		mounts.open("/hdfs/archive/c.gz");
+		assertEquals("/c.gz", archive.last());
+		assertEquals(1, hdfs.opened.size());
+
+		mounts.open("/hdfs");
+		assertEquals("", hdfs.last());
+	}
+
+	public void testWholeSegments() throws IOException {
+		RecordingStorage local = new RecordingStorage();
+		RecordingStorage hdfs = new RecordingStorage();
+		GZRangeMounts mounts = new GZRangeMounts(local);
+		mounts.mount("/hdfs", hdfs);
+
+		mounts.open("/hdfsx/a.gz");
+		mounts.open("/hdf/a.gz");
+		assertEquals(2, local.opened.size());
+		assertEquals("/hdfsx/a.gz", local.opened.get(0));
+		assertTrue(hdfs.opened.isEmpty());
+	}
+
+	public void testClose() {
+		RecordingStorage local = new RecordingStorage();
+		RecordingStorage hdfs = new RecordingStorage();
+		GZRangeMounts mounts = new GZRangeMounts(local);
+		mounts.mount("/hdfs", hdfs);
+		mounts.close();
+		assertTrue(local.closed);
+		assertTrue(hdfs.closed);
+	}
+}
@@ -0,0 +1,124 @@
+package org.archive.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.archive.hadoop.util.FSDataInputStreamPool;
+
+public class HadoopGZRangeStorageTest extends TestCase {
+	private static final int SIZE = 10000;
+
+	private File dir;
+	private File file;
+	private FileSystem fs;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("hadoop-storage", ".gz");
+		dir = file.getParentFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		for(int i = 0; i < SIZE; i++) {
+			fos.write(i & 0xff);
+		}
+		fos.close();
+		fs = FileSystem.getLocal(new Configuration());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static void assertTransfer(GZRangeStorage.Source source,
+			long offset, int length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		source.transfer(offset, length, out);
+		byte[] b = out.toByteArray();
+		assertEquals(length, b.length);
+		for(int i = 0; i < length; i++) {
+			assertEquals((offset + i) & 0xff, b[i] & 0xff);
+		}
+	}
+
+	public void testStreamsReturnedToPool() throws IOException {
+		HadoopGZRangeStorage storage = new HadoopGZRangeStorage(fs,
+				new Path(dir.toURI().toString()));
+		FSDataInputStreamPool pool = storage.getStreamPool();
+
+		GZRangeStorage.Source source = storage.open("/" + file.getName());
+		assertEquals(SIZE, source.getLength());
+		assertTransfer(source, 100, 1000);
+		// later reads of the same request use the same stream:
+		assertTransfer(source, 50, 10);
+		source.close();
+		assertEquals(1, pool.getStreamsOpened());
+		assertEquals(Integer.valueOf(1), pool.getOpenStreams().get(source.getPath()));
+
+		// the next request reuses the idle stream:
+		source = storage.open(file.getName());
+		assertTransfer(source, 9000, 1000);
+		source.close();
+		assertEquals(1, pool.getStreamsOpened());
+		assertEquals(0, pool.getStreamsClosed());
+
+		storage.close();
+		assertEquals(1, pool.getStreamsClosed());
+	}
+
+	public void testConcurrentRequests() throws IOException {
+		HadoopGZRangeStorage storage = new HadoopGZRangeStorage(fs,
+				new Path(dir.toURI().toString()));
+		FSDataInputStreamPool pool = storage.getStreamPool();
+
+		GZRangeStorage.Source a = storage.open(file.getName());
+		GZRangeStorage.Source b = storage.open(file.getName());
+		assertTransfer(a, 0, 100);
+		assertTransfer(b, 5000, 100);
+		assertTransfer(a, 100, 100);
+		assertEquals(2, pool.getStreamsOpened());
+		a.close();
+		b.close();
+		assertEquals(Integer.valueOf(2), pool.getOpenStreams().get(a.getPath()));
+		storage.close();
+		assertEquals(2, pool.getStreamsClosed());
+	}
+
+	public void testFailedStreamClosed() throws IOException {
+		HadoopGZRangeStorage storage = new HadoopGZRangeStorage(fs,
+				new Path(dir.toURI().toString()));
+		FSDataInputStreamPool pool = storage.getStreamPool();
+
+		GZRangeStorage.Source source = storage.open(file.getName());
+		try {
+			source.transfer(SIZE - 10, 20, new ByteArrayOutputStream());
+			fail("short copy not reported");
+		} catch(IOException e) {
+			// expected
+		}
+		source.close();
+		assertEquals(1, pool.getStreamsClosed());
+
+		source = storage.open(file.getName());
+		assertTransfer(source, 0, 10);
+		source.close();
+		assertEquals(2, pool.getStreamsOpened());
+		storage.close();
+	}
+
+	public void testNotPositional() throws IOException {
+		HadoopGZRangeStorage storage = new HadoopGZRangeStorage(fs,
+				new Path(dir.toURI().toString()), false, 4, 1000);
+		assertNull(storage.getStreamPool());
+		GZRangeStorage.Source source = storage.open(file.getName());
+		assertTransfer(source, 1234, 4000);
+		source.close();
+		storage.close();
+	}
+}
@@ -0,0 +1,118 @@
+package org.archive.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class ReadAheadTest extends TestCase {
+	private File file;
+	private FileChannelPool channels;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("readahead", ".dat");
+		FileOutputStream fos = new FileOutputStream(file);
+		for(int i = 0; i < 100000; i++) {
+			fos.write(i & 0xff);
+		}
+		fos.close();
+		channels = new FileChannelPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		channels.close();
+		file.delete();
+	}
+
+	private static void assertReads(InputStream is, long from, int count)
+	throws IOException {
+		byte[] buf = new byte[777];
+		long pos = from;
+		while(count > 0) {
+			int amt = is.read(buf, 0, Math.min(buf.length, count));
+			assertTrue(amt > 0);
+			for(int i = 0; i < amt; i++) {
+				assertEquals((pos + i) & 0xff, buf[i] & 0xff);
+			}
+			pos += amt;
+			count -= amt;
+		}
+	}
+
+	public void testSequential() throws IOException {
+		GZRangeMetrics metrics = new GZRangeMetrics();
+		ReadAhead ra = new ReadAhead(1024, 8192, 64 * 1024, 10, metrics);
+		FileChannelPool.Entry entry = channels.acquire(file);
+
+		// random: nothing read unless asked for
+		ReadAhead.Access a = ra.begin(entry, 5000);
+		a.end(5100);
+		assertEquals(1, metrics.getRandomCount());
+		assertEquals(0, metrics.getReadAheadLoads());
+
+		// sequential: window read at once, serving the next members
+		a = ra.begin(entry, 5100);
+		assertEquals(1, metrics.getSequentialCount());
+		assertEquals(1, metrics.getReadAheadLoads());
+		assertEquals(2048, metrics.getReadAheadBytes());
+		assertReads(a.getInputStream(5100), 5100, 300);
+		a.end(5400);
+		a = ra.begin(entry, 5400);
+		assertEquals(1, metrics.getReadAheadHits());
+		assertReads(a.getInputStream(5400), 5400, 20000);
+		a.end(25400);
+		assertTrue(metrics.getReadAheadHitRate() > 0);
+		assertTrue(metrics.getReadAheadHitRate() < 1);
+
+		// jumping elsewhere is random again
+		a = ra.begin(entry, 100);
+		assertEquals(2, metrics.getRandomCount());
+		assertReads(a.getInputStream(100), 100, 500);
+		a.end(600);
+		channels.release(entry);
+	}
+
+	public void testKnownLengthNotReadAhead() throws IOException {
+		GZRangeMetrics metrics = new GZRangeMetrics();
+		ReadAhead ra = new ReadAhead(1024, 8192, 64 * 1024, 10, metrics);
+		FileChannelPool.Entry entry = channels.acquire(file);
+
+		ReadAhead.Access a = ra.begin(entry, 5000, 100);
+		a.end(5100);
+		// sequential, but the length is known, so nothing is read:
+		a = ra.begin(entry, 5100, 300);
+		a.end(5400);
+		assertEquals(1, metrics.getSequentialCount());
+		assertEquals(0, metrics.getReadAheadLoads());
+
+		// a member which has to be scanned is still read ahead:
+		a = ra.begin(entry, 5400);
+		assertEquals(2, metrics.getSequentialCount());
+		assertEquals(1, metrics.getReadAheadLoads());
+		assertReads(a.getInputStream(5400), 5400, 300);
+		a.end(5700);
+		channels.release(entry);
+	}
+
+	public void testEOFAndBufferLimit() throws IOException {
+		GZRangeMetrics metrics = new GZRangeMetrics();
+		// room for one window only:
+		ReadAhead ra = new ReadAhead(4096, 4096, 4096, 10, metrics);
+		FileChannelPool.Entry entry = channels.acquire(file);
+		ReadAhead.Access a = ra.begin(entry, 99000);
+		InputStream is = a.getInputStream(99000);
+		assertReads(is, 99000, 1000);
+		assertEquals(-1, is.read());
+		// buffer still held by a, so b reads directly:
+		ReadAhead.Access b = ra.begin(entry, 10);
+		assertReads(b.getInputStream(10), 10, 5000);
+		b.end(5010);
+		a.end(100000);
+		assertEquals(4096, ra.getBufferBytes());
+		channels.release(entry);
+	}
+}
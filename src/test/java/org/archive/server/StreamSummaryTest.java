@@ -0,0 +1,83 @@
+package org.archive.server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class StreamSummaryTest extends TestCase {
+
+	public void testExactUnderCapacity() {
+		StreamSummary s = new StreamSummary(10);
+		for(int i = 0; i < 5; i++) {
+			for(int j = 0; j <= i; j++) {
+				s.offer("k" + i);
+			}
+		}
+		assertEquals(5, s.size());
+		List<Map.Entry<String,Long>> top = s.top(3);
+		assertEquals(3, top.size());
+		assertEquals("k4", top.get(0).getKey());
+		assertEquals(5L, top.get(0).getValue().longValue());
+		assertEquals("k3", top.get(1).getKey());
+		assertEquals("k2", top.get(2).getKey());
+		assertEquals(5, s.top(100).size());
+		s.clear();
+		assertEquals(0, s.size());
+		assertEquals(0, s.top(3).size());
+	}
+
+	public void testReplacesLeastCounted() {
+		StreamSummary s = new StreamSummary(2);
+		s.offer("a");
+		s.offer("a");
+		s.offer("b");
+		// replaces b, inheriting its count:
+		s.offer("c");
+		List<Map.Entry<String,Long>> top = s.top(2);
+		assertEquals(2, s.size());
+		assertEquals(2L, top.get(0).getValue().longValue());
+		assertEquals(2L, top.get(1).getValue().longValue());
+		assertTrue(!top.get(0).getKey().equals("b")
+				&& !top.get(1).getKey().equals("b"));
+	}
+
+	public void testHeavyHitters() {
+		int capacity = 50;
+		int n = 100000;
+		StreamSummary s = new StreamSummary(capacity);
+		HashMap<String,Long> exact = new HashMap<String,Long>();
+		Random random = new Random(7);
+		for(int i = 0; i < n; i++) {
+			// skewed: a few keys get most of the stream
+			int k = random.nextInt(10) < 6 ? random.nextInt(10)
+					: random.nextInt(5000);
+			String key = "k" + k;
+			s.offer(key);
+			Long count = exact.get(key);
+			exact.put(key, count == null ? 1 : count + 1);
+		}
+		List<Map.Entry<String,Long>> top = s.top(capacity);
+		long total = 0;
+		long previous = Long.MAX_VALUE;
+		HashMap<String,Long> estimates = new HashMap<String,Long>();
+		for(Map.Entry<String,Long> e : top) {
+			assertTrue(e.getValue() <= previous);
+			previous = e.getValue();
+			total += e.getValue();
+			estimates.put(e.getKey(), e.getValue());
+			// never an underestimate:
+			assertTrue(e.getValue() >= exact.get(e.getKey()));
+		}
+		// counts always add up to the stream length:
+		assertEquals(n, total);
+		// every key more frequent than n / capacity is found:
+		for(Map.Entry<String,Long> e : exact.entrySet()) {
+			if(e.getValue() > n / capacity) {
+				assertTrue(e.getKey(), estimates.containsKey(e.getKey()));
+			}
+		}
+	}
+}